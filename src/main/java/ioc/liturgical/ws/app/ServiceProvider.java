@@ -45,6 +45,7 @@ import ioc.liturgical.ws.managers.databases.external.neo4j.ExternalDbManager;
 import ioc.liturgical.ws.managers.databases.internal.InternalDbManager;
 import ioc.liturgical.ws.managers.ldp.LdpManager;
 import ioc.liturgical.ws.managers.synch.SynchManager;
+import net.ages.alwb.tasks.AdaptiveThrottle;
 import net.ages.alwb.tasks.SynchPullTask;
 import net.ages.alwb.tasks.SynchPushTask;
 import net.ages.alwb.utils.core.datastores.json.manager.JsonObjectStoreManager;
@@ -142,6 +143,19 @@ public class ServiceProvider {
 	public static boolean synchEnabled = false; // can be overridden by serviceProvider.config
 	public static boolean synchPullEnabled = false; // can be overridden by serviceProvider.config
 	public static boolean synchPushEnabled = false; // can be overridden by serviceProvider.config
+	public static int synchPullMaxBatchSize = 500; // can be overridden by serviceProvider.config
+	public static long synchPullTargetMillis = 2000; // can be overridden by serviceProvider.config
+	public static int synchPushBatchSize = 500; // can be overridden by serviceProvider.config
+	public static long lexiconCacheSize = 100000; // can be overridden by serviceProvider.config
+	public static long lexiconCacheTtlMinutes = 60; // can be overridden by serviceProvider.config
+	public static int agesHtmlCacheSize = 50; // can be overridden by serviceProvider.config
+	public static long agesHtmlMaxAgeMinutes = 60; // can be overridden by serviceProvider.config
+	public static long agesHtmlDiskMegabytes = 500; // can be overridden by serviceProvider.config
+	public static int pdfWorkers = 2; // can be overridden by serviceProvider.config
+	public static int pdfQueueSize = 20; // can be overridden by serviceProvider.config
+	public static long pdfCacheMaxMegabytes = 2048; // can be overridden by serviceProvider.config
+	public static long statsFlushSeconds = 10; // can be overridden by serviceProvider.config
+	private static SynchPullTask synchPullTask = null;
 	public static String synchDomain = "";  // can be overridden by serviceProvider.config
 	public static String synchBoltPort = "";  // can be overridden by serviceProvider.config
 	public static String synchDomainWithPort = "";
@@ -340,6 +354,16 @@ public class ServiceProvider {
 					synchPullEnabled = envSynchPullEnabled.startsWith("true");
 			}
 			logger.info("synch_pull_enabled: " + synchPullEnabled);
+			try {
+				if (prop.getProperty("synch_pull_max_batch_size") != null) {
+					synchPullMaxBatchSize = Integer.parseInt(prop.getProperty("synch_pull_max_batch_size"));
+				}
+				if (prop.getProperty("synch_pull_target_millis") != null) {
+					synchPullTargetMillis = Long.parseLong(prop.getProperty("synch_pull_target_millis"));
+				}
+			} catch (Exception e) {
+				logger.error("Property synch_pull_max_batch_size or synch_pull_target_millis is not a number.");
+			}
 
 			synchPushEnabled = toBoolean(synchPushEnabled, prop.getProperty("synch_push_enabled"));
 			String envSynchPushEnabled  = System.getenv("SYNCH_PUSH_ENABLED");
@@ -347,6 +371,65 @@ public class ServiceProvider {
 					synchPushEnabled = envSynchPushEnabled.startsWith("true");
 			}
 			logger.info("synch_push_enabled: " + synchPushEnabled);
+			try {
+				if (prop.getProperty("synch_push_batch_size") != null) {
+					synchPushBatchSize = Integer.parseInt(prop.getProperty("synch_push_batch_size"));
+				}
+			} catch (Exception e) {
+				logger.error("Property synch_push_batch_size is not a number.");
+			}
+
+			try {
+				if (prop.getProperty("lexicon_cache_size") != null) {
+					lexiconCacheSize = Long.parseLong(prop.getProperty("lexicon_cache_size"));
+				}
+			} catch (Exception e) {
+				logger.error("Property lexicon_cache_size is not a number.");
+			}
+			try {
+				if (prop.getProperty("lexicon_cache_ttl_minutes") != null) {
+					lexiconCacheTtlMinutes = Long.parseLong(prop.getProperty("lexicon_cache_ttl_minutes"));
+				}
+			} catch (Exception e) {
+				logger.error("Property lexicon_cache_ttl_minutes is not a number.");
+			}
+			try {
+				if (prop.getProperty("ages_html_cache_size") != null) {
+					agesHtmlCacheSize = Integer.parseInt(prop.getProperty("ages_html_cache_size"));
+				}
+				if (prop.getProperty("ages_html_max_age_minutes") != null) {
+					agesHtmlMaxAgeMinutes = Long.parseLong(prop.getProperty("ages_html_max_age_minutes"));
+				}
+				if (prop.getProperty("ages_html_disk_megabytes") != null) {
+					agesHtmlDiskMegabytes = Long.parseLong(prop.getProperty("ages_html_disk_megabytes"));
+				}
+			} catch (Exception e) {
+				logger.error("Property ages_html_cache_size, ages_html_max_age_minutes, or ages_html_disk_megabytes is not a number.");
+			}
+			try {
+				if (prop.getProperty("pdf_workers") != null) {
+					pdfWorkers = Integer.parseInt(prop.getProperty("pdf_workers"));
+				}
+				if (prop.getProperty("pdf_queue_size") != null) {
+					pdfQueueSize = Integer.parseInt(prop.getProperty("pdf_queue_size"));
+				}
+			} catch (Exception e) {
+				logger.error("Property pdf_workers or pdf_queue_size is not a number.");
+			}
+			try {
+				if (prop.getProperty("pdf_cache_max_megabytes") != null) {
+					pdfCacheMaxMegabytes = Long.parseLong(prop.getProperty("pdf_cache_max_megabytes"));
+				}
+			} catch (Exception e) {
+				logger.error("Property pdf_cache_max_megabytes is not a number.");
+			}
+			try {
+				if (prop.getProperty("stats_flush_seconds") != null) {
+					statsFlushSeconds = Long.parseLong(prop.getProperty("stats_flush_seconds"));
+				}
+			} catch (Exception e) {
+				logger.error("Property stats_flush_seconds is not a number.");
+			}
 
 			synchEnabled = synchPullEnabled || synchPushEnabled;
 			
@@ -450,11 +533,13 @@ public class ServiceProvider {
 					
 					docService.setSynchManager(synchManager);
 					if (synchPushEnabled) {
+						SynchPushTask synchPushTask = new SynchPushTask(
+								ExternalDbManager.neo4jManager
+								, synchManager
+								);
+						synchPushTask.setBatchSize(synchPushBatchSize);
 						executorService.scheduleAtFixedRate(
-								new SynchPushTask(
-										ExternalDbManager.neo4jManager
-										, synchManager
-										)
+								synchPushTask
 								, 10
 								, 10
 								, TimeUnit.SECONDS
@@ -462,12 +547,21 @@ public class ServiceProvider {
 					}
 					
 					if (synchPullEnabled) {
-					executorService.scheduleAtFixedRate(
-							new SynchPullTask(
-									ExternalDbManager.neo4jManager
-									, synchManager
-									, messagingToken
+					synchPullTask = new SynchPullTask(
+							ExternalDbManager.neo4jManager
+							, synchManager
+							, messagingToken
+							);
+					synchPullTask.setThrottle(
+							new AdaptiveThrottle(
+									1
+									, synchPullMaxBatchSize
+									, synchPullTargetMillis
+									, 15000
 									)
+							);
+					executorService.scheduleAtFixedRate(
+							synchPullTask
 							, 10
 							, 10
 							, TimeUnit.SECONDS
@@ -674,6 +768,28 @@ public class ServiceProvider {
 				json.addProperty("databaseProtected", externalDbAccessIsProtected);
 				json.addProperty("synchEnabled", synchEnabled);
 				json.addProperty("synchDbConnectionOk", synchConnectionOk);
+				json.add("credentialCache", storeManager.getCredentialCache().toJsonObject());
+				if (storeManager.getDocumentCache() != null) {
+					json.add("documentCache", storeManager.getDocumentCache().toJsonObject());
+				}
+				json.add("schemaRegistry", storeManager.getSchemaRegistry().toJsonObject());
+				if (ExternalDbManager.neo4jManager != null && ExternalDbManager.neo4jManager.isRecordQueries()) {
+					json.add("queryStatistics", ExternalDbManager.neo4jManager.getQueryStatisticsRecorder().toJsonObject());
+				}
+				if (synchPullTask != null) {
+					json.add("synchPull", synchPullTask.toJsonObject());
+				}
+				if (docService != null) {
+					json.add("lexiconCache", docService.getLexiconCache().toJsonObject());
+					json.add("tagIndex", docService.getTagIndex().toJsonObject());
+					json.add("agesHtmlCache", docService.getAgesHtmlCache().toJsonObject());
+					json.add("pdfJobs", docService.getPdfJobs().toJsonObject());
+					json.add("backgroundTasks", docService.getBackgroundTasks().toJsonObject());
+					if (docService.getActivityCounters() != null) {
+						json.add("activityCounters", docService.getActivityCounters().toJsonObject());
+					}
+					json.add("pdfArtifacts", docService.getPdfArtifacts().toJsonObject());
+				}
 				return json.toString();
 			});
 
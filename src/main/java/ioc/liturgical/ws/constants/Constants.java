@@ -12,6 +12,8 @@ public class Constants {
 		public static final String DOMAIN_SPLITTER = "_";
 		public static final String APP_DATA_PATH = "app_data_do_not_delete/";
 		public static final String DB_NAME = "app_data";
+		public static final String TEXT_INDEX_PATH = APP_DATA_PATH + "text_index";
+		public static final String AGES_HTML_CACHE_PATH = APP_DATA_PATH + "ages_html";
 		public static final String TABLE_SYNCH_HISTORY = "SYNCH_HISTORY";
 		public static final  String SYSTEM_LIB = "web_service";
 		public static final  String DOMAINS_LIB = "all_domains";
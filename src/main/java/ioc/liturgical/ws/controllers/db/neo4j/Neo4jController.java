@@ -5,7 +5,11 @@ import static spark.Spark.post;
 import static spark.Spark.put;
 
 import java.io.File;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -21,11 +25,14 @@ import org.ocmc.ioc.liturgical.schemas.constants.ENDPOINTS_DB_API;
 import org.ocmc.ioc.liturgical.schemas.models.ws.response.RequestStatus;
 import org.ocmc.ioc.liturgical.schemas.models.ws.response.ResultJsonObjectArray;
 
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static spark.Spark.delete;
 
+import spark.Response;
+
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
@@ -36,6 +43,8 @@ import ioc.liturgical.ws.constants.Constants;
 import ioc.liturgical.ws.controllers.admin.ControllerUtils;
 import ioc.liturgical.ws.managers.auth.AuthDecoder;
 import ioc.liturgical.ws.managers.databases.external.neo4j.ExternalDbManager;
+import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQuery;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.UiLabelBundle;
 
 public class Neo4jController {
 	private static final Logger logger = LoggerFactory.getLogger(Neo4jController.class);
@@ -71,12 +80,12 @@ public class Neo4jController {
 		get(path, (request, response) -> {
 			response.type(Constants.UTF_JSON);
 			String requestor = new AuthDecoder(request.headers("Authorization")).getUsername();
-        	return gson.toJson(
-        			externalManager.getGenerationStatus(
-        					requestor
-        					, request.queryParams("i")
-        					)
-        			);
+			ResultJsonObjectArray result = externalManager.getGenerationStatus(
+					requestor
+					, request.queryParams("i")
+					);
+			response.status(result.getStatus().getCode());
+        	return gson.toJson(result);
 		});
 		
 		// GET User Activity
@@ -158,8 +167,7 @@ public class Neo4jController {
 			String authorTitle = request.queryParams("at")  ;
 			String authorAffiliation = request.queryParams("af")  ;
 			String citestyle = request.queryParams("cs")  ;
-        	return gson.toJson(
-        			externalManager.createDownloads(
+			ResultJsonObjectArray result = externalManager.createDownloads(
         					requestor
         					, id
         					, includePersonalNotes
@@ -174,8 +182,9 @@ public class Neo4jController {
         					, authorTitle
         					, authorAffiliation
         					, citestyle
-        					)
-        			);
+        					);
+			response.status(result.getStatus().getCode());
+        	return gson.toJson(result);
 		});
 
 		// GET template by ID
@@ -221,16 +230,20 @@ public class Neo4jController {
 			} catch (Exception e) {
 				requestor = "*";
 			}
-        	return gson.toJson(externalManager.searchText(
-        			requestor
-        			, request.queryParams("t")  // doc type (e.g. Liturgical, Biblical)
-        			, request.queryParams("d")  // domain
-        			, request.queryParams("b") // book
-        			, request.queryParams("c") // chapter or other major part of book
-        			, request.queryParams("q")  // query
-        			, request.queryParams("p") // property of the doc (e.g. the ID, the value)
-        			, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
-        			));
+        	return stream(
+        			response
+        			, externalManager
+        			, externalManager.getQueryForSearchText(
+        					requestor
+        					, request.queryParams("t")  // doc type (e.g. Liturgical, Biblical)
+        					, request.queryParams("d")  // domain
+        					, request.queryParams("b") // book
+        					, request.queryParams("c") // chapter or other major part of book
+        					, request.queryParams("q")  // query
+        					, request.queryParams("p") // property of the doc (e.g. the ID, the value)
+        					, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
+        					)
+        			);
 		});
 
 		// GET results of a generic record existence check
@@ -265,17 +278,34 @@ public class Neo4jController {
 			} catch (Exception e) {
 				requestor = "*";
 			}
-        	return gson.toJson(externalManager.searchGeneric(
-        			requestor
-        			, request.queryParams("t")  // node type (the schema label)
-        			, request.queryParams("d")  // domain aka library
-        			, request.queryParams("q")  // query
-        			, request.queryParams("p") // property of the doc (e.g. the ID, the value)
-        			, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
-        			, request.queryParams("l") // tags (~labels)
-        			, request.queryParams("o") // tag operator (i.e. And vs Or)
-        			, request.queryParams("r") // properties to be returned
-        			));
+			if ("*".equals(request.queryParams("t"))) {
+				return gson.toJson(externalManager.searchGeneric(
+						requestor
+						, request.queryParams("t")  // node type (the schema label)
+						, request.queryParams("d")  // domain aka library
+						, request.queryParams("q")  // query
+						, request.queryParams("p") // property of the doc (e.g. the ID, the value)
+						, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
+						, request.queryParams("l") // tags (~labels)
+						, request.queryParams("o") // tag operator (i.e. And vs Or)
+						, request.queryParams("r") // properties to be returned
+						));
+			}
+        	return stream(
+        			response
+        			, externalManager
+        			, externalManager.getQueryForSearchGeneric(
+        					requestor
+        					, request.queryParams("t")  // node type (the schema label)
+        					, request.queryParams("d")  // domain aka library
+        					, request.queryParams("q")  // query
+        					, request.queryParams("p") // property of the doc (e.g. the ID, the value)
+        					, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
+        					, request.queryParams("l") // tags (~labels)
+        					, request.queryParams("o") // tag operator (i.e. And vs Or)
+        					, request.queryParams("r") // properties to be returned
+        					)
+        			);
 		});
 
 		// GET ontology entries for specified parameters
@@ -290,16 +320,20 @@ public class Neo4jController {
 			} catch (Exception e) {
 				requestor = "*";
 			}
-        	return gson.toJson(externalManager.searchOntology(
-        			requestor
-        			, request.queryParams("t")  // ontology type (e.g. Animal)
-        			, request.queryParams("g")  // generic type
-        			, request.queryParams("q")   // query
-        			, request.queryParams("p") // property of the doc (e.g. the ID, the value)
-        			, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
-        			, request.queryParams("l") // tags (~labels)
-        			, request.queryParams("o") // operator
-        			));
+        	return stream(
+        			response
+        			, externalManager
+        			, externalManager.getQueryForSearchOntology(
+        					requestor
+        					, request.queryParams("t")  // ontology type (e.g. Animal)
+        					, request.queryParams("g")  // generic type
+        					, request.queryParams("q")   // query
+        					, request.queryParams("p") // property of the doc (e.g. the ID, the value)
+        					, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
+        					, request.queryParams("l") // tags (~labels)
+        					, request.queryParams("o") // operator
+        					)
+        			);
 		});
 
 		// GET text analysis for specified ID
@@ -320,13 +354,12 @@ public class Neo4jController {
 		get(path, (request, response) -> {
 			response.type(Constants.UTF_JSON);
 			String query = ServiceProvider.createStringFromSplat(request.splat(), Constants.ID_DELIMITER);
-			ResultJsonObjectArray json = externalManager.getForIdStartsWith(query, TOPICS.NOTE_USER);
-			if (json.getValueCount() > 0) {
-				response.status(HTTP_RESPONSE_CODES.OK.code);
-			} else {
-				response.status(HTTP_RESPONSE_CODES.NOT_FOUND.code);
-			}
-			return json.toString();
+			return stream(
+					response
+					, externalManager
+					, externalManager.getQueryForIdStartsWith(query, TOPICS.NOTE_USER)
+					, true // not found if there are no notes
+					);
 		});
 
 		// GET notes matching specified parameters
@@ -336,16 +369,20 @@ public class Neo4jController {
 		get(path, (request, response) -> {
 			response.type(Constants.UTF_JSON);
 			String requestor = new AuthDecoder(request.headers("Authorization")).getUsername();
-        	return gson.toJson(externalManager.searchNotes(
-        			requestor
-        			, request.queryParams("t")  // note type (e.g. NoteUser)
-        			, request.queryParams("q")   // query
-        			, request.queryParams("p") // property of the doc (e.g. the ID, the value)
-        			, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
-        			, request.queryParams("l") // tags (~labels)
-        			, request.queryParams("o") // operator
-        			, false // do not return all properties
-        			));
+        	return stream(
+        			response
+        			, externalManager
+        			, externalManager.getQueryForSearchNotes(
+        					requestor
+        					, request.queryParams("t")  // note type (e.g. NoteUser)
+        					, request.queryParams("q")   // query
+        					, request.queryParams("p") // property of the doc (e.g. the ID, the value)
+        					, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
+        					, request.queryParams("l") // tags (~labels)
+        					, request.queryParams("o") // operator
+        					, false // do not return all properties
+        					)
+        			);
 		});
 
 		// GET template or template sections matching specified parameters
@@ -355,15 +392,19 @@ public class Neo4jController {
 		get(path, (request, response) -> {
 			response.type(Constants.UTF_JSON);
 			String requestor = new AuthDecoder(request.headers("Authorization")).getUsername();
-        	return gson.toJson(externalManager.searchTemplates(
-        			requestor
-        			, request.queryParams("t")  // type (Template or Section)
-        			, request.queryParams("q")   // query
-        			, request.queryParams("p") // property of the doc (e.g. the ID, the value)
-        			, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
-        			, request.queryParams("l") // tags (~labels)
-        			, request.queryParams("o") // operator
-        			));
+        	return stream(
+        			response
+        			, externalManager
+        			, externalManager.getQueryForSearchTemplates(
+        					requestor
+        					, request.queryParams("t")  // type (Template or Section)
+        					, request.queryParams("q")   // query
+        					, request.queryParams("p") // property of the doc (e.g. the ID, the value)
+        					, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
+        					, request.queryParams("l") // tags (~labels)
+        					, request.queryParams("o") // operator
+        					)
+        			);
 		});
 
 		// GET analyses for treebank matching specified parameters
@@ -373,16 +414,20 @@ public class Neo4jController {
 		get(path, (request, response) -> {
 			response.type(Constants.UTF_JSON);
 			String requestor = new AuthDecoder(request.headers("Authorization")).getUsername();
-        	return gson.toJson(externalManager.searchTreebanks(
-        			requestor
-        			, request.queryParams("t")  // type (e.g. UD_ANCIENT_GREEK_PERSEUS)
-        			, request.queryParams("r")   // dependency relationship label
-        			, request.queryParams("q")   // query
-        			, request.queryParams("p") // property of the doc (e.g. the ID, the value)
-        			, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
-        			, request.queryParams("l") // tags (~labels)
-        			, request.queryParams("o") // operator
-        			));
+        	return stream(
+        			response
+        			, externalManager
+        			, externalManager.getQueryForSearchTreebanks(
+        					requestor
+        					, request.queryParams("t")  // type (e.g. UD_ANCIENT_GREEK_PERSEUS)
+        					, request.queryParams("r")   // dependency relationship label
+        					, request.queryParams("q")   // query
+        					, request.queryParams("p") // property of the doc (e.g. the ID, the value)
+        					, request.queryParams("m") // matcher (e.g. contains, starts with, regex)
+        					, request.queryParams("l") // tags (~labels)
+        					, request.queryParams("o") // operator
+        					)
+        			);
 		});
 
 		// Get forms for creating new instances of nodes and relationships and ui labels and dropdowns
@@ -444,6 +489,23 @@ public class Neo4jController {
         	return externalManager.getDropdownItemsForSearchingText().toString();
 		});
 
+		// GET all the user interface labels as one bundle.
+		// The response has an ETag, so a client can send If-None-Match and get a 304 if they have not changed.
+		pCnt++;
+		path = Constants.EXTERNAL_DATASTORE_API_PATH  + "/dropdowns/uilabels";
+		ControllerUtils.reportPath(logger, "GET", path, pCnt);
+		get(path, (request, response) -> {
+			response.type(Constants.UTF_JSON);
+			UiLabelBundle bundle = externalManager.getUiLabelBundle();
+			response.header("ETag", bundle.getETag());
+			response.header("Cache-Control", "no-cache");
+			if (bundle.matches(request.headers("If-None-Match"))) {
+				response.status(HttpServletResponse.SC_NOT_MODIFIED);
+				return "";
+			}
+        	return bundle.getJson();
+		});
+
 		// GET gr_gr_cog topics as a dropdown list
 		pCnt++;
 	path = ENDPOINTS_DB_API.DROPDOWNS_GR_LIB_TOPICS.pathname;
@@ -652,14 +714,8 @@ public class Neo4jController {
       				String id = request.queryParams("id");
 			        Path filePath = Paths.get(Constants.PDF_FOLDER + "/" + id + ".pdf");
 			        File file = new File(Constants.PDF_FOLDER + "/" + id + ".pdf");
-			        if (! file.exists()) { // wait because the pdf still might be generating
-			        	long millis =  30000; // 60000 = 1 minute
-			        	for (int i = 0; i < 5; i++) {
-			        		Thread.sleep(millis);
-			        		if (file.exists()) {
-			        			break;
-			        		}
-			        	}
+			        if (! file.exists()) { // the pdf might still be generating, so return the status of its job
+			        	return pdfNotReady(externalManager, id, response);
 			        }
 			        
 			        File newFile = new File(
@@ -699,14 +755,8 @@ public class Neo4jController {
       				String id = request.queryParams("id");
 			        Path filePath = Paths.get(Constants.PDF_FOLDER + "/" + id + ".tex");
 			        File file = new File(Constants.PDF_FOLDER + "/" + id + ".tex");
-			        if (! file.exists()) { // wait because the pdf still might be generating
-			        	long millis =  30000; // 60000 = 1 minute
-			        	for (int i = 0; i < 5; i++) {
-			        		Thread.sleep(millis);
-			        		if (file.exists()) {
-			        			break;
-			        		}
-			        	}
+			        if (! file.exists()) { // the tex file might still be generating, so return the status of its job
+			        	return pdfNotReady(externalManager, id, response);
 			        }
 			        byte[] data = Files.readAllBytes(filePath);
 			        HttpServletResponse httpServletResponse = response.raw();
@@ -1026,4 +1076,92 @@ public class Neo4jController {
 
 }
 
+	/**
+	 * Called when a PDF or tex file has been asked for, but does not exist.
+	 * Instead of waiting for it, returns the status of the job that generates it:
+	 * 202 if the job is queued or running, otherwise an error status.
+	 * @param externalManager
+	 * @param id of the pdf
+	 * @param response
+	 * @return the status as json
+	 */
+	private String pdfNotReady(
+			ExternalDbManager externalManager
+			, String id
+			, Response response
+			) {
+		ResultJsonObjectArray result = externalManager.getGenerationStatus(null, id);
+		if (result.getStatus().getCode() == HTTP_RESPONSE_CODES.OK.code) {
+			// the job finished, but the file is not there
+			result.setStatusCode(HTTP_RESPONSE_CODES.NOT_FOUND.code);
+			result.setStatusMessage(HTTP_RESPONSE_CODES.NOT_FOUND.message);
+		}
+		response.type(Constants.UTF_JSON);
+		response.status(result.getStatus().getCode());
+		return gson.toJson(result);
+	}
+
+	private static String stream(
+			Response response
+			, ExternalDbManager externalManager
+			, CypherQuery query
+			) {
+		return stream(response, externalManager, query, false);
+	}
+
+	/**
+	 * Writes the result of the query directly to the response
+	 * as the records are read from the database.  The json is the same
+	 * as gson.toJson(externalManager.getForQuery(query, true, true)),
+	 * but the result is never held in memory as a whole.
+	 * 
+	 * The http status is set from the status of the query, if
+	 * the response has not yet been committed when the query finishes.
+	 * Once a large result has started to go out, the http status is 200,
+	 * and an error reading the rest of it is only reported in
+	 * the status that follows the values.
+	 * @param response
+	 * @param externalManager
+	 * @param query
+	 * @param notFoundIfEmpty - if true, the http status is 404 when there are no values
+	 * @return an empty string if the body has been written, else the json of the error status
+	 */
+	private static String stream(
+			Response response
+			, ExternalDbManager externalManager
+			, CypherQuery query
+			, boolean notFoundIfEmpty
+			) {
+		HttpServletResponse httpServletResponse = response.raw();
+		try {
+			httpServletResponse.setContentType(Constants.UTF_JSON);
+			Writer writer = new BufferedWriter(
+					new OutputStreamWriter(
+							httpServletResponse.getOutputStream()
+							, StandardCharsets.UTF_8
+							)
+					);
+			externalManager.streamForQuery(query, true, true, writer, (status, valueCount) -> {
+				if (! httpServletResponse.isCommitted()) {
+					if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+						httpServletResponse.setStatus(status.getCode());
+					} else if (notFoundIfEmpty && valueCount == 0) {
+						httpServletResponse.setStatus(HTTP_RESPONSE_CODES.NOT_FOUND.code);
+					}
+				}
+			});
+			writer.close();
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+			if (! httpServletResponse.isCommitted()) {
+				// nothing has gone out yet, so answer with the error instead
+				httpServletResponse.resetBuffer();
+				RequestStatus status = new RequestStatus(HTTP_RESPONSE_CODES.SERVER_ERROR);
+				response.status(status.getCode());
+				return new Gson().toJson(status);
+			}
+		}
+		return "";
+	}
+
 }
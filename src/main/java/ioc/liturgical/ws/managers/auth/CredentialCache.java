@@ -0,0 +1,171 @@
+package ioc.liturgical.ws.managers.auth;
+
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.gson.JsonObject;
+
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+
+/**
+ * Remembers credentials that have already been verified against the
+ * stored password hash, so that the PBKDF2 check is not repeated
+ * for every request carrying the same Basic auth header.
+ *
+ * The cache never holds the password itself. The key is an HMAC-SHA256
+ * of username and password, using a random key generated when the
+ * cache is created. The value is the username the credentials were
+ * verified for.
+ *
+ * Only successful authentications are cached.  A failed check always
+ * goes back to the password hash.
+ *
+ * Entries expire after a fixed time, and must be invalidated
+ * whenever a user's password hash changes or the user is deleted.
+ *
+ * Each user has a generation, which invalidateUser increments.
+ * The caller reads the generation before it reads the password hash,
+ * and passes it to putVerified, which does not cache the credentials
+ * if the user was invalidated in the meantime.  Otherwise a login that
+ * read the old hash just before a password change could cache the old password.
+ *
+ * @author mac002
+ *
+ */
+public class CredentialCache {
+	private static final Logger logger = LoggerFactory.getLogger(CredentialCache.class);
+	private static final String HMAC = "HmacSHA256";
+
+	private final Cache<String, String> cache;
+	private final byte[] secret = new byte[32];
+	private final Map<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * @param maxEntries - the maximum number of verified credentials to hold
+	 * @param ttlMinutes - how long a verified credential may be reused
+	 */
+	public CredentialCache(long maxEntries, long ttlMinutes) {
+		new SecureRandom().nextBytes(secret);
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maxEntries)
+				.expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Have these credentials already been verified for this user?
+	 * @param username
+	 * @param password
+	 * @return true if there is an unexpired entry for the credentials
+	 */
+	public boolean isVerified(String username, String password) {
+		String digest = digest(username, password);
+		if (digest == null) {
+			return false;
+		}
+		String identity = cache.getIfPresent(digest);
+		return identity != null && identity.equals(username);
+	}
+
+	/**
+	 * @param username
+	 * @return the generation to pass to putVerified, read before the password hash is
+	 */
+	public long getGeneration(String username) {
+		AtomicLong generation = generations.get(username);
+		return generation == null ? 0 : generation.get();
+	}
+
+	/**
+	 * Record that the credentials were verified against the password hash,
+	 * unless the user has been invalidated since the generation was read
+	 * @param username
+	 * @param password
+	 * @param generation - as returned by getGeneration before the hash was read
+	 */
+	public void putVerified(String username, String password, long generation) {
+		String digest = digest(username, password);
+		if (digest == null || getGeneration(username) != generation) {
+			return;
+		}
+		cache.put(digest, username);
+		// invalidateUser may have run between the check and the put
+		if (getGeneration(username) != generation) {
+			cache.asMap().remove(digest, username);
+		}
+	}
+
+	/**
+	 * Remove all entries for the specified user.
+	 * Call this when the user's password changes or the user is deleted.
+	 * @param username
+	 */
+	public void invalidateUser(String username) {
+		if (username != null) {
+			generations.computeIfAbsent(username, u -> new AtomicLong()).incrementAndGet();
+			cache.asMap().values().removeIf(identity -> identity.equals(username));
+		}
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public long getHitCount() {
+		return cache.stats().hitCount();
+	}
+
+	public long getMissCount() {
+		return cache.stats().missCount();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public JsonObject toJsonObject() {
+		CacheStats stats = cache.stats();
+		JsonObject result = new JsonObject();
+		result.addProperty("size", cache.size());
+		result.addProperty("hits", stats.hitCount());
+		result.addProperty("misses", stats.missCount());
+		result.addProperty("hitRate", stats.hitRate());
+		result.addProperty("evictions", stats.evictionCount());
+		return result;
+	}
+
+	private String digest(String username, String password) {
+		if (username == null || password == null) {
+			return null;
+		}
+		try {
+			Mac mac = Mac.getInstance(HMAC);
+			mac.init(new SecretKeySpec(secret, HMAC));
+			mac.update(username.getBytes(StandardCharsets.UTF_8));
+			mac.update((byte) 0);
+			byte[] bytes = mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(bytes.length * 2);
+			for (byte b : bytes) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+			return null;
+		}
+	}
+}
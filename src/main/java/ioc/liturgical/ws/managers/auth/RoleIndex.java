@@ -0,0 +1,200 @@
+package ioc.liturgical.ws.managers.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.ocmc.ioc.liturgical.schemas.constants.ROLES;
+
+/**
+ * In-memory index of the role (rights) records held in the internal database.
+ *
+ * A role record has the role keyname as its library, the domain as its topic,
+ * and the username as its key, e.g. admins~gr_gr_cog~mcolburn.
+ *
+ * The index maps username -> role -> domain -> the record, so that
+ * authorization checks do not need to query the database.
+ *
+ * The index must be loaded from the database at startup, and
+ * kept in synch each time a role record is inserted, updated, or deleted.
+ *
+ * @author mac002
+ *
+ */
+public class RoleIndex {
+	private final Map<String, ROLES> rolesByKeyname = new ConcurrentHashMap<String, ROLES>();
+	private final Map<String, Map<ROLES, Map<String, JsonObject>>> index =
+			new ConcurrentHashMap<String, Map<ROLES, Map<String, JsonObject>>>();
+
+	public RoleIndex() {
+		for (ROLES role : ROLES.values()) {
+			rolesByKeyname.put(role.keyname, role);
+		}
+	}
+
+	/**
+	 * Replace the contents of the index with the supplied role records
+	 * @param records
+	 */
+	public synchronized void load(List<JsonObject> records) {
+		index.clear();
+		for (JsonObject record : records) {
+			put(record);
+		}
+	}
+
+	/**
+	 * Is this record a role record?
+	 * @param record
+	 * @return true if the library of the record is the keyname of a role
+	 */
+	public boolean isRoleRecord(JsonObject record) {
+		return roleFor(record) != null;
+	}
+
+	/**
+	 * Add a role record to the index.
+	 * Records that are not role records are ignored.
+	 * @param record
+	 */
+	public void put(JsonObject record) {
+		ROLES role = roleFor(record);
+		if (role != null) {
+			String domain = record.get("topic").getAsString();
+			String username = record.get("key").getAsString();
+			index
+				.computeIfAbsent(username, u -> new ConcurrentHashMap<ROLES, Map<String, JsonObject>>())
+				.computeIfAbsent(role, r -> new ConcurrentHashMap<String, JsonObject>())
+				.put(domain, record);
+		}
+	}
+
+	/**
+	 * Remove a role record from the index.
+	 * Records that are not role records are ignored.
+	 * @param record
+	 */
+	public void remove(JsonObject record) {
+		ROLES role = roleFor(record);
+		if (role != null) {
+			Map<String, JsonObject> domains = domainsFor(role, record.get("key").getAsString());
+			if (domains != null) {
+				domains.remove(record.get("topic").getAsString());
+			}
+		}
+	}
+
+	/**
+	 * Remove all the roles held by the user
+	 * @param username
+	 */
+	public void removeUser(String username) {
+		if (username != null) {
+			index.remove(username);
+		}
+	}
+
+	/**
+	 * Does the specified user have this role for this domain?
+	 * @param role
+	 * @param domain
+	 * @param username
+	 * @return true if that is the case
+	 */
+	public boolean hasRole(ROLES role, String domain, String username) {
+		Map<String, JsonObject> domains = domainsFor(role, username);
+		return domains != null && domain != null && domains.containsKey(domain);
+	}
+
+	/**
+	 * Does the user have this role for at least one domain?
+	 * @param role
+	 * @param username
+	 * @return true if that is the case
+	 */
+	public boolean hasRoleForAnyDomain(ROLES role, String username) {
+		Map<String, JsonObject> domains = domainsFor(role, username);
+		return domains != null && ! domains.isEmpty();
+	}
+
+	/**
+	 * Get the role records for the user, sorted by domain
+	 * @param role
+	 * @param username
+	 * @return copies of the records, or an empty list
+	 */
+	public List<JsonObject> getRecords(ROLES role, String username) {
+		Map<String, JsonObject> domains = domainsFor(role, username);
+		if (domains == null) {
+			return Collections.emptyList();
+		}
+		List<JsonObject> result = new ArrayList<JsonObject>();
+		JsonParser parser = new JsonParser();
+		for (String domain : new TreeSet<String>(domains.keySet())) {
+			JsonObject record = domains.get(domain);
+			if (record != null) {
+				result.add(parser.parse(record.toString()).getAsJsonObject());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Get the domains for which the user has the role
+	 * @param role
+	 * @param username
+	 * @return the domains, sorted
+	 */
+	public TreeSet<String> getDomains(ROLES role, String username) {
+		Map<String, JsonObject> domains = domainsFor(role, username);
+		if (domains == null) {
+			return new TreeSet<String>();
+		}
+		return new TreeSet<String>(domains.keySet());
+	}
+
+	/**
+	 * Get the users that have the role for the domain
+	 * @param role
+	 * @param domain
+	 * @return the usernames, sorted
+	 */
+	public TreeSet<String> getUsers(ROLES role, String domain) {
+		TreeSet<String> result = new TreeSet<String>();
+		for (Map.Entry<String, Map<ROLES, Map<String, JsonObject>>> entry : index.entrySet()) {
+			Map<String, JsonObject> domains = entry.getValue().get(role);
+			if (domains != null && domains.containsKey(domain)) {
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+	private Map<String, JsonObject> domainsFor(ROLES role, String username) {
+		if (username == null) {
+			return null;
+		}
+		Map<ROLES, Map<String, JsonObject>> roles = index.get(username);
+		if (roles == null) {
+			return null;
+		}
+		return roles.get(role);
+	}
+
+	private ROLES roleFor(JsonObject record) {
+		if (record == null
+				|| ! record.has("library")
+				|| ! record.has("topic")
+				|| ! record.has("key")
+				) {
+			return null;
+		}
+		return rolesByKeyname.get(record.get("library").getAsString());
+	}
+}
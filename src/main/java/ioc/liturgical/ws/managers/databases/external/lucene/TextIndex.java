@@ -0,0 +1,417 @@
+package ioc.liturgical.ws.managers.databases.external.lucene;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.standard.StandardTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause.Occur;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.PrefixQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.WildcardQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * A local Lucene index of the Liturgical and Biblical text nodes in the database.
+ *
+ * It is used to find the IDs of the nodes that might match a text search,
+ * so that the Cypher query only has to look at those nodes instead of scanning
+ * the value of every text node.  The Cypher query still applies the matcher,
+ * so the index only needs to return a superset of the matching IDs.
+ *
+ * Each node is indexed with two analyzed versions of its value:
+ * text - Unicode NFC and lower case, used when searching the value property
+ * folded - accents (including Greek polytonic diacritics) removed and lower case,
+ *                 used when searching the nnp and nwp properties.
+ * In both, the final sigma ς is indexed and searched as σ.
+ *
+ * The time up to which modified nodes have been indexed is saved with each commit,
+ * so that the index can be brought up to date with changes made while it was not
+ * being told about them, e.g. by AresToNeo4j.
+ *
+ * @author mac002
+ *
+ */
+public class TextIndex {
+	private static final Logger logger = LoggerFactory.getLogger(TextIndex.class);
+
+	public static final String ID = "id";
+	public static final String LABEL = "label";
+	public static final String LIBRARY = "library";
+	public static final String TOPIC = "topic";
+	public static final String VISIBILITY = "visibility";
+	public static final String TEXT = "text";
+	public static final String FOLDED = "folded";
+	public static final String INDEXED_UNTIL = "indexedUntil";
+
+	/**
+	 * The node labels that are indexed
+	 */
+	public static final List<String> INDEXED_LABELS = Arrays.asList("Liturgical", "Biblical");
+
+	/**
+	 * The return clause of the Cypher query used to read nodes for the index
+	 */
+	public static final String RETURN_CLAUSE =
+			"return doc.id as id, labels(doc) as labels, doc.library as library"
+			+ ", doc.topic as topic, doc.visibility as visibility, doc.value as value";
+
+	/**
+	 * If more nodes than this might match, it is not worth passing their IDs to the database
+	 */
+	public static final int MAX_IDS = 20000;
+
+	private static final Set<String> ID_FIELD = Collections.singleton(ID);
+
+	private final Analyzer analyzer = new Analyzer() {
+		@Override
+		protected TokenStreamComponents createComponents(String fieldName) {
+			Tokenizer source = new StandardTokenizer();
+			return new TokenStreamComponents(source);
+		}
+	};
+	private final Directory directory;
+	private final IndexWriter writer;
+	private final SearcherManager searcherManager;
+	private volatile boolean ready = false;
+	private volatile boolean rebuilding = false;
+	private volatile boolean closed = false;
+	private volatile String indexedUntil = null;
+
+	public TextIndex(Path path) throws IOException {
+		this(FSDirectory.open(path));
+	}
+
+	public TextIndex(Directory directory) throws IOException {
+		this.directory = directory;
+		IndexWriterConfig config = new IndexWriterConfig(analyzer);
+		config.setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND);
+		this.writer = new IndexWriter(directory, config);
+		this.searcherManager = new SearcherManager(writer, null);
+		this.ready = size() > 0;
+		Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+		if (commitData != null) {
+			for (Map.Entry<String, String> entry : commitData) {
+				if (entry.getKey().equals(INDEXED_UNTIL)) {
+					this.indexedUntil = entry.getValue();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Add the node to the index, or replace it if it is already there
+	 * @param doc with the properties named in RETURN_CLAUSE
+	 * @return true if it was indexed
+	 */
+	public boolean index(JsonObject doc) {
+		try {
+			String id = getString(doc, "id");
+			if (id.length() == 0) {
+				return false;
+			}
+			String value = getString(doc, "value");
+			Document luceneDoc = new Document();
+			luceneDoc.add(new StringField(ID, id, Field.Store.YES));
+			luceneDoc.add(new StringField(LIBRARY, getString(doc, "library"), Field.Store.NO));
+			luceneDoc.add(new StringField(TOPIC, getString(doc, "topic"), Field.Store.NO));
+			luceneDoc.add(new StringField(VISIBILITY, getString(doc, "visibility"), Field.Store.NO));
+			if (doc.has("labels") && doc.get("labels").isJsonArray()) {
+				for (JsonElement label : doc.get("labels").getAsJsonArray()) {
+					luceneDoc.add(new StringField(LABEL, label.getAsString(), Field.Store.NO));
+				}
+			}
+			luceneDoc.add(new TextField(TEXT, normalize(TEXT, value), Field.Store.NO));
+			luceneDoc.add(new TextField(FOLDED, normalize(FOLDED, value), Field.Store.NO));
+			writer.updateDocument(new Term(ID, id), luceneDoc);
+			return true;
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+			return false;
+		}
+	}
+
+	public void delete(String id) throws IOException {
+		writer.deleteDocuments(new Term(ID, id));
+	}
+
+	/**
+	 * Remove everything from the index, before adding all the nodes again.
+	 * The index is not used for searches until finishRebuild() is called,
+	 * so if the rebuild fails, searches go to the database.
+	 * @throws IOException
+	 */
+	public void startRebuild() throws IOException {
+		rebuilding = true;
+		writer.deleteAll();
+	}
+
+	public void finishRebuild() throws IOException {
+		commit();
+		rebuilding = false;
+	}
+
+	/**
+	 * Save the changes and make them visible to searches
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		writer.commit();
+		searcherManager.maybeRefreshBlocking();
+		ready = size() > 0;
+	}
+
+	/**
+	 * @return the time up to which nodes modified in the database have been indexed,
+	 * or null if it is not known
+	 */
+	public String getIndexedUntil() {
+		return indexedUntil;
+	}
+
+	/**
+	 * Set the time up to which nodes modified in the database have been indexed.
+	 * It is saved by the next commit.
+	 * @param timestamp
+	 */
+	public void setIndexedUntil(String timestamp) {
+		this.indexedUntil = timestamp;
+		writer.setLiveCommitData(Collections.singletonMap(INDEXED_UNTIL, timestamp).entrySet());
+	}
+
+	/**
+	 * @param label
+	 * @return the number of nodes in the index with the label
+	 * @throws IOException
+	 */
+	public int count(String label) throws IOException {
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			return searcher.count(new TermQuery(new Term(LABEL, label)));
+		} finally {
+			searcherManager.release(searcher);
+		}
+	}
+
+	/**
+	 * @return the number of nodes in the index
+	 * @throws IOException
+	 */
+	public int size() throws IOException {
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			return searcher.getIndexReader().numDocs();
+		} finally {
+			searcherManager.release(searcher);
+		}
+	}
+
+	/**
+	 * @return true if the index has been built
+	 */
+	public boolean isReady() {
+		return ready && ! rebuilding;
+	}
+
+	/**
+	 * Get the IDs of the nodes that might match a text search.
+	 * @param labels the labels the node must have
+	 * @param property the property being searched, e.g. value, nnp
+	 * @param matcher e.g. c (contains), sw (starts with), ew (ends with), rx (regular expression)
+	 * @param query the text to search for
+	 * @return the IDs, or null if the index can't be used for this search,
+	 * in which case the database has to be searched without it.
+	 * @throws IOException
+	 */
+	public List<String> getIds(
+			List<String> labels
+			, String property
+			, String matcher
+			, String query
+			) throws IOException {
+		String field = getField(property);
+		if (! isReady()
+				|| field == null
+				|| matcher.startsWith("rx")
+				|| Collections.disjoint(labels, INDEXED_LABELS)
+				) {
+			return null;
+		}
+		List<String> tokens = tokenize(field, normalize(field, query));
+		if (tokens.isEmpty()) {
+			return null;
+		}
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		for (String label : labels) {
+			builder.add(new TermQuery(new Term(LABEL, label)), Occur.FILTER);
+		}
+		for (Query q : getTokenQueries(field, tokens)) {
+			builder.add(q, Occur.FILTER);
+		}
+		Query luceneQuery = builder.build();
+		IndexSearcher searcher = searcherManager.acquire();
+		try {
+			int count = searcher.count(luceneQuery);
+			if (count > MAX_IDS) {
+				return null;
+			}
+			List<String> result = new ArrayList<String>(count);
+			if (count > 0) {
+				TopDocs docs = searcher.search(luceneQuery, count);
+				for (ScoreDoc scoreDoc : docs.scoreDocs) {
+					result.add(searcher.doc(scoreDoc.doc, ID_FIELD).get(ID));
+				}
+			}
+			return result;
+		} finally {
+			searcherManager.release(searcher);
+		}
+	}
+
+	/**
+	 * The first token of the query might be the end of a word,
+	 * and the last token might be the beginning of one, so they
+	 * are matched with wildcards.  The ones in between must be whole words.
+	 * @param field
+	 * @param tokens
+	 * @return
+	 */
+	private List<Query> getTokenQueries(String field, List<String> tokens) {
+		List<Query> result = new ArrayList<Query>();
+		if (tokens.size() == 1) {
+			result.add(new WildcardQuery(new Term(field, "*" + escapeWildcards(tokens.get(0)) + "*")));
+		} else {
+			result.add(new WildcardQuery(new Term(field, "*" + escapeWildcards(tokens.get(0)))));
+			for (int i = 1; i < tokens.size() - 1; i++) {
+				result.add(new TermQuery(new Term(field, tokens.get(i))));
+			}
+			result.add(new PrefixQuery(new Term(field, tokens.get(tokens.size() - 1))));
+		}
+		return result;
+	}
+
+	private List<String> tokenize(String field, String text) throws IOException {
+		List<String> result = new ArrayList<String>();
+		try (TokenStream stream = analyzer.tokenStream(field, text)) {
+			CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+			stream.reset();
+			while (stream.incrementToken()) {
+				result.add(term.toString());
+			}
+			stream.end();
+		}
+		return result;
+	}
+
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			searcherManager.close();
+			writer.close();
+			directory.close();
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+		}
+	}
+
+	/**
+	 * @param property the property of the node being searched
+	 * @return the index field to use, or null if the property is not indexed
+	 */
+	public static String getField(String property) {
+		if (property == null) {
+			return null;
+		} else if (property.equals("value")) {
+			return TEXT;
+		} else if (property.startsWith("nnp") || property.startsWith("nwp")) {
+			return FOLDED;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Normalize text the same way for indexing and for searching
+	 * @param field TEXT or FOLDED
+	 * @param s the text
+	 * @return the normalized text
+	 */
+	public static String normalize(String field, String s) {
+		if (field.equals(FOLDED)) {
+			return Normalizer.normalize(s, Normalizer.Form.NFD)
+					.replaceAll("\\p{InCombiningDiacriticalMarks}+", "")
+					.toLowerCase(Locale.ROOT)
+					.replace('ς', 'σ');
+		} else {
+			return Normalizer.normalize(s, Normalizer.Form.NFC)
+					.toLowerCase(Locale.ROOT)
+					.replace('ς', 'σ');
+		}
+	}
+
+	/**
+	 * Split the labels of a search the way CypherQueryBuilderForDocs.LABEL does
+	 * @param labels e.g. Liturgical, gr_gr_cog, me.m01, *
+	 * @return e.g. [Liturgical, gr_gr_cog, me, m01]
+	 */
+	public static List<String> toLabels(String... labels) {
+		List<String> result = new ArrayList<String>();
+		for (String label : labels) {
+			if (label == null
+					|| label.startsWith("*")
+					|| label.toLowerCase().startsWith("all")
+					|| label.length() == 0
+					) {
+				continue;
+			}
+			result.addAll(Arrays.asList(label.split("\\.")));
+		}
+		return result;
+	}
+
+	private static String escapeWildcards(String s) {
+		return s.replace("\\", "\\\\").replace("*", "\\*").replace("?", "\\?");
+	}
+
+	private static String getString(JsonObject doc, String property) {
+		if (doc.has(property) && ! doc.get(property).isJsonNull()) {
+			return doc.get(property).getAsString();
+		} else {
+			return "";
+		}
+	}
+}
@@ -1,9 +1,15 @@
 package ioc.liturgical.ws.managers.databases.external.neo4j;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Paths;
 import java.text.Normalizer;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Year;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -12,11 +18,17 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.regex.Matcher;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
 import java.util.regex.Pattern;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -67,7 +79,9 @@ import org.ocmc.ioc.liturgical.schemas.constants.nlp.UD_DEPENDENCY_LABELS;
 import org.ocmc.ioc.liturgical.schemas.exceptions.BadIdException;
 import org.ocmc.ioc.liturgical.schemas.iso.lang.LocaleDate;
 
+import ioc.liturgical.ws.managers.databases.external.lucene.TextIndex;
 import ioc.liturgical.ws.managers.databases.external.neo4j.constants.MATCHERS;
+import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQuery;
 import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQueryBuilderForDocs;
 import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQueryBuilderForGeneric;
 import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQueryBuilderForLinks;
@@ -80,10 +94,16 @@ import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQueryFor
 import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQueryForNotes;
 import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQueryForTemplates;
 import ioc.liturgical.ws.managers.databases.external.neo4j.cypher.CypherQueryForTreebanks;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.ConstraintRegistry;
 import ioc.liturgical.ws.managers.databases.external.neo4j.utils.DomainTopicMapBuilder;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.LexiconCache;
 import ioc.liturgical.ws.managers.databases.external.neo4j.utils.Neo4jConnectionManager;
 import ioc.liturgical.ws.managers.databases.external.neo4j.utils.OntologyGenerator;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.ResultJsonStreamWriter;
 import ioc.liturgical.ws.managers.databases.external.neo4j.utils.ReturnPropertyList;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.ActivityCounters;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.TagIndex;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.UiLabelBundle;
 import ioc.liturgical.ws.managers.databases.internal.InternalDbManager;
 import ioc.liturgical.ws.managers.exceptions.DbException;
 import org.ocmc.ioc.liturgical.schemas.models.db.docs.nlp.ConcordanceLine;
@@ -106,6 +126,7 @@ import org.ocmc.ioc.liturgical.schemas.models.supers.LTKDb;
 import org.ocmc.ioc.liturgical.schemas.models.supers.LTKDbNote;
 import org.ocmc.ioc.liturgical.schemas.models.supers.LTKDbOntologyEntry;
 import org.ocmc.ioc.liturgical.schemas.models.supers.LTKLink;
+import org.ocmc.ioc.liturgical.schemas.models.supers.LTKLite;
 import org.ocmc.ioc.liturgical.schemas.models.ws.db.UserPreferences;
 import org.ocmc.ioc.liturgical.schemas.models.ws.db.UtilityPdfGeneration;
 import org.ocmc.ioc.liturgical.schemas.models.ws.db.UtilityUdLoader;
@@ -127,10 +148,13 @@ import net.ages.alwb.tasks.DependencyNodesCreateTask;
 import net.ages.alwb.tasks.DomainDropdownsUpdateTask;
 import net.ages.alwb.tasks.OntologyTagsUpdateTask;
 import net.ages.alwb.tasks.PdfGenerationTask;
+import net.ages.alwb.tasks.BackgroundTasks;
+import net.ages.alwb.tasks.BackgroundTasks.POOL;
+import net.ages.alwb.tasks.PdfArtifactCache;
+import net.ages.alwb.tasks.PdfJobService;
 import net.ages.alwb.tasks.PerseusTreebankDataCreateTask;
 import net.ages.alwb.tasks.TextDownloadsGenerationTask;
 import net.ages.alwb.tasks.UdTreebankDataCreateTask;
-import net.ages.alwb.tasks.UpdateLocationsTask;
 import net.ages.alwb.tasks.WordAnalysisCreateTask;
 import org.ocmc.ioc.liturgical.schemas.models.DropdownArray;
 import org.ocmc.ioc.liturgical.schemas.models.DropdownItem;
@@ -150,6 +174,7 @@ import net.ages.alwb.utils.nlp.fetchers.Ox3kUtils;
 import net.ages.alwb.utils.nlp.fetchers.PerseusMorph;
 import net.ages.alwb.utils.nlp.models.GevLexicon;
 import net.ages.alwb.utils.nlp.utils.NlpUtils;
+import net.ages.alwb.utils.transformers.adapters.AgesHtmlCache;
 import net.ages.alwb.utils.transformers.adapters.AgesHtmlToLDOM;
 import net.ages.alwb.utils.transformers.adapters.AgesHtmlToEditableLDOM;
 import net.ages.alwb.utils.transformers.adapters.AgesWebsiteIndexToReactTableData;
@@ -176,6 +201,10 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 	 * invalidates them.
 	 */
 	private static final Logger logger = LoggerFactory.getLogger(ExternalDbManager.class);
+	private static final int CALENDAR_BATCH_SIZE = 250; // calendar days per transaction
+	public static final String REBUILD_TEXT_INDEX = "RebuildTextIndex"; // name of the utility
+	private static final long TEXT_INDEX_RECONCILE_MINUTES = 15;
+	private static final long UI_LABEL_BUNDLE_MAX_AGE_MINUTES = 60; // for labels written by loaders, e.g. JsonLabelsToNeo4j
 	private boolean logAllQueries = false;
 	private boolean logQueriesWithNoMatches = false;
 	private boolean   printPretty = true;
@@ -239,6 +268,33 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 	  SynchManager synchManager = null;
 	 private static LoginLog loginLog = null;
 	 private static SearchLog searchLog = null;
+	 private ActivityCounters activityCounters = null;
+	 private Map<String, LocationLog> locationLogs = new TreeMap<String, LocationLog>(); // only used by the activity flusher
+	 private Set<String> changedLocations = new TreeSet<String>();
+	 private boolean searchLogChanged = false;
+	 private boolean loginLogChanged = false;
+	 private TextIndex textIndex = null;
+	 private final AtomicBoolean textIndexRebuilding = new AtomicBoolean(false);
+	 private Map<String, Long> textIndexRebuildCounts = new TreeMap<String, Long>(); // nodes per label read by the last rebuild
+	 private ScheduledExecutorService textIndexReconciler = null;
+	 private UiLabelBundle uiLabelBundle = null; // built when first needed, reset when a label changes
+	 private long uiLabelBundleBuilt = 0;
+	 private LexiconCache lexiconCache = new LexiconCache(ServiceProvider.lexiconCacheSize, ServiceProvider.lexiconCacheTtlMinutes);
+	 private AgesHtmlCache agesHtmlCache = new AgesHtmlCache(
+			 Paths.get(Constants.AGES_HTML_CACHE_PATH)
+			 , ServiceProvider.agesHtmlCacheSize
+			 , ServiceProvider.agesHtmlMaxAgeMinutes * 60 * 1000
+			 , ServiceProvider.agesHtmlDiskMegabytes * 1024 * 1024
+			 , AgesHtmlToLDOM::preClean
+			 );
+	 private PdfJobService pdfJobs = new PdfJobService(ServiceProvider.pdfWorkers, ServiceProvider.pdfQueueSize);
+	 private AtomicLong idSequence = new AtomicLong();
+	 private TagIndex tagIndex = new TagIndex();
+	 private BackgroundTasks backgroundTasks = new BackgroundTasks();
+	 private PdfArtifactCache pdfArtifacts = new PdfArtifactCache(
+			 new File(Constants.PDF_FOLDER)
+			 , ServiceProvider.pdfCacheMaxMegabytes * 1024 * 1024
+			 );
 	  
 	  public ExternalDbManager(
 			  String neo4jDomain
@@ -293,6 +349,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		  if (neo4jManager.isConnectionOK()) {
 			  ExternalDbManager.loginLog = this.getLoginLog();
 			  ExternalDbManager.searchLog = this.getSearchLog();
+			  this.activityCounters = new ActivityCounters(this::writeActivity, ServiceProvider.statsFlushSeconds);
 			  this.buildAbbreviationDropdownMaps();
 			  this.buildBibliographyDropdownMaps();
 			  this.buildNotesDropdownMaps();
@@ -309,10 +366,17 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			  }
 			  this.loadEthnologue();
 			  this.loadIsoCountries();
+			  this.buildTagIndex();
 //			  this.cloneUiLabels();
-//			  logger.info("Creating calendars");
-//			  this.createCalendars(Calendar.getInstance().get(Calendar.YEAR));
-//			  logger.info("Calendars created");
+			  this.openTextIndex();
+			  neo4jManager.setSynchListener(this::onSynchApplied);
+			  if (! readOnly) {
+				  this.backgroundTasks.submit(POOL.UTILITY, "createCalendars", () -> {
+					  logger.info("Creating calendars");
+					  this.createCalendars(LocalDate.now().getYear());
+					  logger.info("Calendars created");
+				  });
+			  }
 		  } else {
 			  ServiceProvider.sendMessage("Could not connect to Neo4j Database at " + neo4jDomain + ". ");
 		  }
@@ -509,14 +573,8 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 	   * @param year the year for the calendars 
 	   */
 	  public void createCalendars(int year) {
-		  List<String> shortList = new ArrayList<String>();
 		  int nextYear = year + 1;
-		  shortList.add("en_us_dedes");
-		  shortList.add("spa_gt_odg");
-		  shortList.add("gr_gr_cog");
-		  // Problem: this takes way too long.  About 20 minutes per library.  So, for now just do the short list.
-		  // for (String library : this.getLiturgicalLibraries()) {
-		  for (String library : shortList) {
+		  for (String library : this.getLiturgicalLibraries()) {
 			  if (library.equals("en_uk_kjv")  // ignore scripture libraries
 					  || library.equals("en_us_eob")
 					  || library.equals("en_us_net")
@@ -526,18 +584,44 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					  ) {
 				  // ignore
 			  } else {
-				  long calCount = this.getCalendarDayCount(library, year);
-				  if (calCount < 365) {
+				  // each day has a .ymd and a .md entry
+				  if (this.getCalendarDayCount(library, year) < 2 * Year.of(year).length()) {
 					  this.createCalendar(library, year);
 				  }
-				  calCount = this.getCalendarDayCount(library, nextYear);
-				  if (calCount < 365) {
+				  if (this.getCalendarDayCount(library, nextYear) < 2 * Year.of(nextYear).length()) {
 					  this.createCalendar(library, nextYear);
 				  }
 			  }
 		  }
 	  }
 	  
+	  /**
+	   * @param library
+	   * @param year
+	   * @return the ids of the calendar days in the database for the library for the year
+	   */
+	  public Set<String> getCalendarDayIds(String library, int year) throws DbException {
+		  Set<String> result = new TreeSet<String>();
+		  Map<String, Object> parameters = new TreeMap<String, Object>();
+		  parameters.put(
+				  "prefix"
+				  , library 
+				  + Constants.ID_DELIMITER 
+				  + "calendar"
+				  + Constants.ID_DELIMITER 
+				  + "y" + year
+				  );
+		  RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+				  "match (n:Root:Liturgical) where n.id starts with {prefix} return n.id as id"
+				  , parameters
+				  , json -> result.add(json.get("id").getAsString())
+				  );
+		  if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+			  throw new DbException("Could not read the calendar days for " + library + " for " + year + ": " + status.getUserMessage());
+		  }
+		  return result;
+	  }
+
 	  public long getCalendarDayCount(String library, int year) {
 		 long count = 0;
 		  String query = "match (n:Root:Liturgical) where n.id starts with '" 
@@ -556,12 +640,25 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		  return count;
 	  }
 	  
+	  /**
+	   * Creates the calendar days for the library for the year that are missing.
+	   * The days are written by neo4jManager.mergeBatch, a few hundred per transaction,
+	   * rather than one at a time through addLTKDbObject.
+	   * Days that already exist are left as they are.
+	   * @param library
+	   * @param year
+	   */
 	  public void createCalendar(String library, int year) {
 		  try {
-			  logger.info("Creating calendar for " + library + " for " + year);
 				DateGenerator generator = new DateGenerator(library, year);
 				Map<String,String> days = generator.getDays();
+				Set<String> existing = this.getCalendarDayIds(library, year);
+				List<TextLiturgical> records = new ArrayList<TextLiturgical>();
+				String timestamp = getTimestamp();
 				for (Entry<String,String> entry : days.entrySet()) {
+						if (existing.contains(entry.getKey())) {
+							continue;
+						}
 						IdManager idManager = new IdManager(entry.getKey());
 						TextLiturgical day = new TextLiturgical(
 								idManager.getLibrary()
@@ -571,9 +668,25 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						day.setValue(entry.getValue());
 						day.setSeq(idManager.getId());
 						day.setVisibility(VISIBILITY.PUBLIC);
-						this.addLTKDbObject("wsadmin", day.toJsonString());
+						day.setActive(true);
+						day.setDataSource(DATA_SOURCES.ONLINE);
+						day.setCreatedBy("wsadmin");
+						day.setModifiedBy("wsadmin");
+						day.setCreatedWhen(timestamp);
+						day.setModifiedWhen(timestamp);
+						records.add(day);
+				}
+				if (records.isEmpty()) {
+					return;
+				}
+				logger.info("Creating " + records.size() + " calendar days for " + library + " for " + year);
+				RequestStatus status = neo4jManager.mergeBatch(records, CALENDAR_BATCH_SIZE);
+				if (status.getCode() == HTTP_RESPONSE_CODES.OK.code) {
+					this.updateObjects(records.get(0).ontologyTopic);
+					logger.info("Finished creating calendar for " + library + " for " + year);
+				} else {
+					logger.error("Could not create calendar for " + library + " for " + year + ": " + status.getUserMessage());
 				}
-				  logger.info("Finished creating calendar for " + library + " for " + year);
 		  } catch (Exception e) {
 			  ErrorUtils.report(logger, e);
 		  }
@@ -605,7 +718,271 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		  return queryResult;
 	  }
 
-	  public synchronized ResultJsonObjectArray createDownloads(
+	  /**
+	   * Get the word grammar analyses for many words.
+	   * Words that are in the lexicon cache are not looked up again.
+	   * The others are read from the database using a single query,
+	   * and added to the cache, even if there are no analyses for them.
+	   * @param words - case does not matter
+	   * @return a map of the analyses of each word, keyed by the word as lower case
+	   */
+	  public Map<String, JsonArray> getWordAnalyses(Collection<String> words) {
+		  Map<String, JsonArray> result = new TreeMap<String, JsonArray>();
+		  Set<String> missing = new TreeSet<String>();
+		  for (String word : words) {
+			  String key = LexiconCache.toKey(word);
+			  if (! result.containsKey(key) && ! missing.contains(key)) {
+				  JsonArray analyses = this.lexiconCache.getIfPresent(key);
+				  if (analyses == null) {
+					  missing.add(key);
+				  } else {
+					  result.put(key, analyses);
+				  }
+			  }
+		  }
+		  if (missing.isEmpty()) {
+			  return result;
+		  }
+		  long generation = this.lexiconCache.getGeneration();
+		  Map<String, JsonArray> found = new TreeMap<String, JsonArray>();
+		  for (String word : missing) {
+			  found.put(word, new JsonArray());
+		  }
+		  String prefix = LIBRARIES.LINGUISTICS.toSystemDomain() + Constants.ID_DELIMITER;
+		  Map<String, Object> parameters = new TreeMap<String, Object>();
+		  parameters.put("words", new ArrayList<String>(missing));
+		  RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+				  "unwind {words} as word match (n:Root:" + TOPICS.WORD_GRAMMAR.label + ") "
+						  + "where n.id starts with '" + prefix + "' + word + '" + Constants.ID_DELIMITER + "' "
+						  + "return word, properties(n) as analysis"
+				  , parameters
+				  , record -> found.get(record.get("word").getAsString()).add(record.get("analysis"))
+				  );
+		  boolean ok = status.getCode() == HTTP_RESPONSE_CODES.OK.code;
+		  for (Entry<String, JsonArray> entry : found.entrySet()) {
+			  if (ok) {
+				  this.lexiconCache.put(entry.getKey(), entry.getValue(), generation);
+			  }
+			  result.put(entry.getKey(), entry.getValue());
+		  }
+		  return result;
+	  }
+
+	  /**
+	   * Remove the word from the lexicon cache if the id is for a word grammar analysis
+	   * @param id of a node that was added, updated, or deleted
+	   */
+	  private void invalidateLexiconCache(String id) {
+		  String[] parts = id.split(Constants.ID_DELIMITER);
+		  if (parts.length > 1 && parts[0].equals(LIBRARIES.LINGUISTICS.toSystemDomain())) {
+			  this.lexiconCache.invalidate(parts[1]);
+		  }
+	  }
+
+	  public LexiconCache getLexiconCache() {
+		  return this.lexiconCache;
+	  }
+
+	  /**
+	   * Load the tags of all nodes and relationships into the tag index.
+	   * Until this has succeeded, the tag dropdowns are read from the database.
+	   */
+	  public void buildTagIndex() {
+		  this.tagIndex.clear();
+		  RequestStatus nodes = neo4jManager.streamResultObjectsForQuery(
+				  "match (n:Root) where size(n.tags) > 0 "
+						  + "return n.id as id, labels(n) as labels, n.library as library, n.tags as tags"
+				  , null
+				  , record -> {
+					  if (record.has("id")) {
+						  this.putTags(record.get("id").getAsString(), toStringList(record.get("labels")), record);
+					  }
+				  }
+				  );
+		  RequestStatus links = neo4jManager.streamResultObjectsForQuery(
+				  "match (:Root)-[link]->(to:Root) where size(link.tags) > 0 "
+						  + "return link.id as id, type(link) as type, labels(to) as labels, link.library as library, link.tags as tags"
+				  , null
+				  , record -> {
+					  if (record.has("id")) {
+						  this.putTags(record.get("id").getAsString(), toRelationshipLabels(record), record);
+					  }
+				  }
+				  );
+		  if (nodes.getCode() == HTTP_RESPONSE_CODES.OK.code
+				  && links.getCode() == HTTP_RESPONSE_CODES.OK.code) {
+			  this.tagIndex.setBuilt();
+			  logger.info("Tag index built");
+		  } else {
+			  logger.error("Could not build the tag index: " + nodes.getDeveloperMessage() + " " + links.getDeveloperMessage());
+		  }
+	  }
+
+	  /**
+	   * Read the tags of the node from the database into the tag index.
+	   * Call after a node has been added or updated.
+	   * @param id of the node
+	   */
+	  private void updateTagIndex(String id) {
+		  Map<String,Object> parameters = new TreeMap<String,Object>();
+		  parameters.put("id", id);
+		  this.tagIndex.remove(id);
+		  neo4jManager.streamResultObjectsForQuery(
+				  "match (n:Root) where n.id = {id} "
+						  + "return labels(n) as labels, n.library as library, n.tags as tags"
+				  , parameters
+				  , record -> this.putTags(id, toStringList(record.get("labels")), record)
+				  );
+	  }
+
+	  /**
+	   * Read the tags of the relationship from the database into the tag index.
+	   * Call after a relationship has been added or updated.
+	   * @param id of the relationship
+	   * @param fromId id of the node the relationship starts from
+	   * @param toId id of the node the relationship points to
+	   */
+	  private void updateRelationshipTagIndex(String id, String fromId, String toId) {
+		  Map<String,Object> parameters = new TreeMap<String,Object>();
+		  parameters.put("id", id);
+		  parameters.put("fromId", fromId);
+		  parameters.put("toId", toId);
+		  this.tagIndex.remove(id);
+		  neo4jManager.streamResultObjectsForQuery(
+				  "match (from:Root)-[link]->(to:Root) where from.id = {fromId} and to.id = {toId} and link.id = {id} "
+						  + "return type(link) as type, labels(to) as labels, link.library as library, link.tags as tags"
+				  , parameters
+				  , record -> this.putTags(id, toRelationshipLabels(record), record)
+				  );
+	  }
+
+	  /**
+	   * Read the tags of the nodes and relationships from the database into the tag index,
+	   * as updateTagIndex(String) and updateRelationshipTagIndex do, with one query for each.
+	   * An id that is no longer in the database is removed from the index.
+	   * @param ids of nodes or relationships
+	   */
+	  private void updateTagIndex(List<String> ids) {
+		  if (ids.isEmpty()) {
+			  return;
+		  }
+		  Map<String,Object> parameters = new TreeMap<String,Object>();
+		  parameters.put("ids", ids);
+		  for (String id : ids) {
+			  this.tagIndex.remove(id);
+		  }
+		  RequestStatus nodes = neo4jManager.streamResultObjectsForQuery(
+				  "match (n:Root) where n.id in {ids} "
+						  + "return n.id as id, labels(n) as labels, n.library as library, n.tags as tags"
+				  , parameters
+				  , record -> this.putTags(record.get("id").getAsString(), toStringList(record.get("labels")), record)
+				  );
+		  RequestStatus links = neo4jManager.streamResultObjectsForQuery(
+				  "match (:Root)-[link]->(to:Root) where link.id in {ids} "
+						  + "return link.id as id, type(link) as type, labels(to) as labels, link.library as library, link.tags as tags"
+				  , parameters
+				  , record -> this.putTags(record.get("id").getAsString(), toRelationshipLabels(record), record)
+				  );
+		  if (nodes.getCode() != HTTP_RESPONSE_CODES.OK.code
+				  || links.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+			  this.rebuildTagIndexLater();
+		  }
+	  }
+
+	  /**
+	   * Rebuild the tag index in the background, e.g. after changes
+	   * whose nodes and relationships can't be told.
+	   */
+	  private void rebuildTagIndexLater() {
+		  this.backgroundTasks.submitIfNotPending(
+				  POOL.DROPDOWNS
+				  , "buildTagIndex"
+				  , "buildTagIndex"
+				  , this::buildTagIndex
+				  );
+	  }
+
+	  /**
+	   * @param id of a node
+	   * @return the IDs of the relationships that point to the node,
+	   * which are deleted along with it
+	   */
+	  private List<String> getRelationshipIdsTo(String id) {
+		  Map<String,Object> parameters = new TreeMap<String,Object>();
+		  parameters.put("id", id);
+		  List<String> result = new ArrayList<String>();
+		  neo4jManager.streamResultObjectsForQuery(
+				  "match ()-[link]->(n:Root) where n.id = {id} and exists(link.id) return link.id as id"
+				  , parameters
+				  , record -> result.add(record.get("id").getAsString())
+				  );
+		  return result;
+	  }
+
+	  private void putTags(String id, List<String> labels, JsonObject record) {
+		  if (record.has("tags") && record.get("tags").isJsonArray()) {
+			  this.tagIndex.put(
+					  id
+					  , labels
+					  , record.has("library") ? record.get("library").getAsString() : ""
+					  , toStringList(record.get("tags"))
+					  );
+		  }
+	  }
+
+	  private static List<String> toRelationshipLabels(JsonObject record) {
+		  List<String> result = new ArrayList<String>();
+		  for (String label : toStringList(record.get("labels"))) {
+			  result.add(TagIndex.relationshipLabel(record.get("type").getAsString(), label));
+		  }
+		  return result;
+	  }
+
+	  private static List<String> toStringList(JsonElement array) {
+		  List<String> result = new ArrayList<String>();
+		  if (array != null && array.isJsonArray()) {
+			  for (JsonElement e : array.getAsJsonArray()) {
+				  result.add(e.getAsString());
+			  }
+		  }
+		  return result;
+	  }
+
+	  public TagIndex getTagIndex() {
+		  return this.tagIndex;
+	  }
+
+	  public BackgroundTasks getBackgroundTasks() {
+		  return this.backgroundTasks;
+	  }
+
+	  public AgesHtmlCache getAgesHtmlCache() {
+		  return this.agesHtmlCache;
+	  }
+
+	  public PdfJobService getPdfJobs() {
+		  return this.pdfJobs;
+	  }
+
+	  public PdfArtifactCache getPdfArtifacts() {
+		  return this.pdfArtifacts;
+	  }
+
+	  /**
+	   * @param pdfId
+	   * @return true if the PDF for the id has been generated
+	   */
+	  public static boolean pdfExists(String pdfId) {
+		  return new File(Constants.PDF_FOLDER + "/" + pdfId + ".pdf").exists();
+	  }
+
+	  /**
+	   * Queues the generation of the PDF and other downloads for a text,
+	   * and returns at once.  The result has the pdfId and the status of the job,
+	   * and a status code of 202 (accepted).  Use getGenerationStatus
+	   * to find out when the PDF is ready.
+	   */
+	  public ResultJsonObjectArray createDownloads(
 			  String requestor
 			  , String id
 			  , String includeUserNotes
@@ -669,11 +1046,14 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		  prefs.includeNotesUser = includeNotesForUser;
 		  internalManager.updateUserPreferences(requestor, requestor, prefs.toJsonString());
 		  
-			// create a thread that will generate a PDF
-			ExecutorService executorService = Executors.newSingleThreadExecutor();
+			// queue a job that will generate a PDF
 			String pdfId = this.createId(requestor);
-			executorService.execute(
-					new TextDownloadsGenerationTask(
+			PdfJobService.Job job = null;
+			try {
+				job = pdfJobs.submit(
+					pdfId
+					, TextDownloadsGenerationTask.class.getSimpleName()
+					, new TextDownloadsGenerationTask(
 							data
 							, pdfId
 							, id
@@ -692,33 +1072,22 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 							, authorAffiliation
 							, prefs.bibLatexStyle.keyname
 							)
+					, () -> pdfExists(pdfId)
 					);
-			executorService.shutdown();
+			} catch (RejectedExecutionException e) {
+				result.setStatusCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				result.setStatusMessage("Too many PDFs are being generated.  Please try again later.");
+				return result;
+			}
 
-			JsonObject pdfIdObject = new JsonObject();
+			JsonObject pdfIdObject = job.toJsonObject();
 			pdfIdObject.addProperty("pdfId", pdfId);
 			List<JsonObject> list = new ArrayList<JsonObject>();
 			list.add(pdfIdObject);
 			result.setResult(list);
 			result.setQuery("prepare downloads for " + id);
-			// delay a bit for all the PDF to be generated before user clicks link in browser
-			try {
-				boolean generationFinished = false;
-				String finishFile = Constants.PDF_FOLDER + "/" + pdfId + ".finished";
-		        if (!generationFinished) { // wait because the pdf still might be generating
-		        	long millis =  5000; //1000 = 1 sec
-		        	for (int i = 0; i < 49; i++) { // for four minutes, check every 5 seconds
-		        		Thread.sleep(millis);
-		        		File genFile = new File(finishFile);
-						generationFinished = genFile.exists();
-		        		if (generationFinished) {
-		        			break;
-		        		}
-		        	}
-		        }
-			} catch (Exception e) {
-				ErrorUtils.report(logger, e);
-			}
+			result.setStatusCode(HttpServletResponse.SC_ACCEPTED);
+			result.setStatusMessage("PDF generation " + job.getStatus().keyname());
 		  return result;
 	  }
 	  
@@ -819,6 +1188,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		  if (neo4jManager.isConnectionOK()) {
 			  buildOntologyDropdownMaps();
 			  initializeOntology();
+			  buildTagIndex();
 		  }
 	  }
 
@@ -1122,7 +1492,43 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			  , boolean setValueSchemas
 			  , boolean logQuery
 			  ) {
-			ResultJsonObjectArray result = neo4jManager.getResultObjectForQuery(query);
+		  return getForQuery(query, null, setValueSchemas, logQuery);
+	  }
+
+	  /**
+	   * Runs the template of the query, passing its values as parameters
+	   * @param query
+	   * @param setValueSchemas
+	   * @param logQuery - if set to true, pays attention to the global logAllQueries and logQueriesWithNoMatches flags
+	   * @return
+	   */
+	  public ResultJsonObjectArray getForQuery(
+			  CypherQuery query
+			  , boolean setValueSchemas
+			  , boolean logQuery
+			  ) {
+		  return getForQuery(
+				  query.getQueryTemplate()
+				  , query.getParameters()
+				  , setValueSchemas
+				  , logQuery
+				  );
+	  }
+
+	  /**
+	   * @param query - using {name} for each parameter
+	   * @param parameters - the value of each parameter.  Can be null.
+	   * @param setValueSchemas
+	   * @param logQuery - if set to true, pays attention to the global logAllQueries and logQueriesWithNoMatches flags
+	   * @return
+	   */
+	  public ResultJsonObjectArray getForQuery(
+			  String query
+			  , Map<String, Object> parameters
+			  , boolean setValueSchemas
+			  , boolean logQuery
+			  ) {
+			ResultJsonObjectArray result = neo4jManager.getResultObjectForQuery(query, parameters);
 			result.setQuery(query);
 			if (logQuery) {
 				if (logAllQueries
@@ -1130,6 +1536,9 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						(logQueriesWithNoMatches && result.getResultCount() == 0) 
 						) {
 					logger.info(query);
+					if (parameters != null && ! parameters.isEmpty()) {
+						logger.info("Parameters: " + parameters.toString());
+					}
 					logger.info("Result count: " + result.getResultCount());
 				}
 			}
@@ -1138,6 +1547,71 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			}
 			return result;
 	}
+
+	  /**
+	   * Runs the query and writes its result to the writer as the records
+	   * are read from the database, using the same json envelope as getForQuery.
+	   * Heap use does not grow with the size of the result.
+	   * @param query
+	   * @param setValueSchemas
+	   * @param logQuery - if set to true, pays attention to the global logAllQueries and logQueriesWithNoMatches flags
+	   * @param out - where to write the result.  It is flushed but not closed.
+	   * @throws IOException
+	   */
+	  public void streamForQuery(
+			  CypherQuery query
+			  , boolean setValueSchemas
+			  , boolean logQuery
+			  , Writer out
+			  ) throws IOException {
+		  streamForQuery(query, setValueSchemas, logQuery, out, null);
+	  }
+
+	  /**
+	   * Runs the query and writes its result to the writer as the records
+	   * are read from the database, using the same json envelope as getForQuery.
+	   * @param query
+	   * @param setValueSchemas
+	   * @param logQuery - if set to true, pays attention to the global logAllQueries and logQueriesWithNoMatches flags
+	   * @param out - where to write the result.  It is flushed but not closed.
+	   * @param beforeFinish - if not null, is given the status and the value count
+	   * after the values are written, but before the status is, e.g. to set the http status
+	   * while the response is not yet committed
+	   * @throws IOException
+	   */
+	  public void streamForQuery(
+			  CypherQuery query
+			  , boolean setValueSchemas
+			  , boolean logQuery
+			  , Writer out
+			  , BiConsumer<RequestStatus, Long> beforeFinish
+			  ) throws IOException {
+		  ResultJsonStreamWriter writer = new ResultJsonStreamWriter(
+				  out
+				  , setValueSchemas ? values -> internalManager.getSchemas(values, null) : null
+				  , internalManager.getSchemaRegistry()::toJsonString
+				  );
+		  writer.begin(query.getQueryTemplate());
+		  RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+				  query.getQueryTemplate()
+				  , query.getParameters()
+				  , writer
+				  );
+		  if (logQuery) {
+			  if (logAllQueries
+					  || 
+					  (logQueriesWithNoMatches && writer.getValueCount() == 0) 
+					  ) {
+				  logger.info(query.getQueryTemplate());
+				  logger.info("Parameters: " + query.getParameters().toString());
+				  logger.info("Result count: " + writer.getValueCount());
+			  }
+		  }
+		  if (beforeFinish != null) {
+			  beforeFinish.accept(status, writer.getValueCount());
+		  }
+		  writer.finish(status);
+	  }
 	  /**
 	   * 
 	   * @param label - the node label to use
@@ -1216,7 +1690,37 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				, String property
 				, String matcher
 				) {
-			ResultJsonObjectArray result = null;
+			return getForQuery(
+					getQueryForSearchText(
+							requestor
+							, type
+							, domain
+							, book
+							, chapter
+							, query
+							, property
+							, matcher
+							)
+					, true
+					, true
+					);
+		}
+
+		/**
+		 * Builds the query used by searchText, so that its result
+		 * can either be collected or streamed.
+		 * The parameters are the same as for searchText.
+		 */
+		public CypherQuery getQueryForSearchText(
+				String requestor
+				, String type
+				, String domain
+				, String book
+				, String chapter
+				, String query
+				, String property
+				, String matcher
+				) {
 			if (type == null) {
 				type = TOPICS.TEXT.label;
 			}
@@ -1241,57 +1745,180 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			
 			boolean addWherePublic = this.addWherePublic(domain, requestor);
 			
-			result = getForQuery(
-					getCypherQueryForDocSearch(
-							requestor
-							, type
-							, domain
-							, book
-							, chapter
-							, GeneralUtils.toNfc(query) // we stored the text using Normalizer.Form.NFC, so search using it
-							, property
-							, matcher
-							, addWherePublic
-							)
-					, true
-					, true
+			return getCypherQueryForDocSearch(
+					requestor
+					, type
+					, domain
+					, book
+					, chapter
+					, GeneralUtils.toNfc(query) // we stored the text using Normalizer.Form.NFC, so search using it
+					, property
+					, matcher
+					, addWherePublic
 					);
-			return result;
 		}
 
-		public synchronized void updateLocationStats(String location) {
-				try {
-					ExecutorService executorService = Executors.newSingleThreadExecutor();
-					executorService.execute(
-							new UpdateLocationsTask(this, location)
-							);
-					executorService.shutdown();
-				} catch (Exception e) {
-					ErrorUtils.report(logger, e);
+		/**
+		 * Count a search.  The count is written to the database by the activity flusher.
+		 * @param location countryCode|country|region|regionName|city
+		 */
+		public void updateQueryStats(String location) {
+				if (this.activityCounters == null) {
+					return; // there is no database to write the counts to
 				}
-		}
-
-		public synchronized void updateQueryStats(String location) {
 				try {
-					ExternalDbManager.searchLog.setLastSearchedTimestamp(Instant.now().toString());
-					ExternalDbManager.searchLog.setSearchCount(ExternalDbManager.searchLog.getSearchCount()+1);
-					ExternalDbManager.neo4jManager.mergeWhereEqual("SearchLog", ExternalDbManager.searchLog);
-					this.updateLocationStats(location);
+					this.activityCounters.record(ActivityCounters.TYPE.SEARCH, toLocationKey(location));
 				} catch (Exception e) {
 					ErrorUtils.report(logger, e);
 				}
 		}
 
-		public synchronized void updateLoginStats(String location) {
+		/**
+		 * Count a login.  The count is written to the database by the activity flusher.
+		 * @param location countryCode|country|region|regionName|city
+		 */
+		public void updateLoginStats(String location) {
+			if (this.activityCounters == null) {
+				return; // there is no database to write the counts to
+			}
 			try {
-				ExternalDbManager.loginLog.setLastTimestamp(Instant.now().toString());
-				ExternalDbManager.loginLog.setCount(ExternalDbManager.loginLog.getCount()+1);
-				ExternalDbManager.neo4jManager.mergeWhereEqual("LoginLog", ExternalDbManager.loginLog);
-				this.updateLocationStats(location);
+				this.activityCounters.record(ActivityCounters.TYPE.LOGIN, toLocationKey(location));
 			} catch (Exception e) {
 				ErrorUtils.report(logger, e);
 			}
-				
+		}
+
+		private static String toLocationKey(String location) {
+			if (location == null) {
+				return "countryCode|country|region|regionName|city";
+			} else {
+				return location;
+			}
+		}
+
+		/**
+		 * Adds what the activity counters have counted since their last flush
+		 * to the search, login, and location logs, then writes the logs that
+		 * have changed using one transaction.
+		 * 
+		 * Only the flusher thread calls this, so nothing else changes the logs
+		 * at the same time.  If the write fails, the logs are written by the next flush.
+		 * If the location logs can't be read, it throws before adding anything,
+		 * so the activity counters keep the delta for the next flush.
+		 * @param delta
+		 */
+		private void writeActivity(ActivityCounters.Delta delta) {
+			this.loadLocationLogs(delta.locations.keySet());
+			if (delta.searches > 0) {
+				ExternalDbManager.searchLog.setSearchCount(
+						ExternalDbManager.searchLog.getSearchCount() + Math.toIntExact(delta.searches)
+						);
+				ExternalDbManager.searchLog.setLastSearchedTimestamp(delta.lastSearched);
+				this.searchLogChanged = true;
+			}
+			if (delta.logins > 0) {
+				ExternalDbManager.loginLog.setCount(
+						ExternalDbManager.loginLog.getCount() + Math.toIntExact(delta.logins)
+						);
+				ExternalDbManager.loginLog.setLastTimestamp(delta.lastLogin);
+				this.loginLogChanged = true;
+			}
+			for (Entry<String, Long> entry : delta.locations.entrySet()) {
+				LocationLog log = this.locationLogs.get(entry.getKey());
+				log.setCount(log.getCount() + Math.toIntExact(entry.getValue()));
+				this.changedLocations.add(entry.getKey());
+			}
+			Map<String, List<? extends LTKLite>> docs = new TreeMap<String, List<? extends LTKLite>>();
+			if (this.searchLogChanged) {
+				docs.put("SearchLog", Collections.singletonList(ExternalDbManager.searchLog));
+			}
+			if (this.loginLogChanged) {
+				docs.put("LoginLog", Collections.singletonList(ExternalDbManager.loginLog));
+			}
+			List<LocationLog> locations = new ArrayList<LocationLog>();
+			for (String location : this.changedLocations) {
+				locations.add(this.locationLogs.get(location));
+			}
+			docs.put("LocationLog", locations);
+			RequestStatus status = ExternalDbManager.neo4jManager.mergeBatch(docs);
+			if (status.getCode() == HTTP_RESPONSE_CODES.OK.code) {
+				this.searchLogChanged = false;
+				this.loginLogChanged = false;
+				this.changedLocations.clear();
+			} else {
+				logger.error("Could not write the activity logs: " + status.getUserMessage());
+			}
+		}
+
+		/**
+		 * Read from the database the logs for locations that have not been seen
+		 * since the service started.  A location that is not in the database gets a new log.
+		 * @param locations countryCode|country|region|regionName|city
+		 */
+		private void loadLocationLogs(Collection<String> locations) {
+			Map<String, LocationLog> newLogs = new TreeMap<String, LocationLog>();
+			for (String location : locations) {
+				if (! this.locationLogs.containsKey(location)) {
+					newLogs.put(location, toLocationLog(location));
+				}
+			}
+			if (newLogs.isEmpty()) {
+				return;
+			}
+			Map<String, String> locationForId = new TreeMap<String, String>();
+			for (Entry<String, LocationLog> entry : newLogs.entrySet()) {
+				locationForId.put(entry.getValue().getId(), entry.getKey());
+			}
+			Map<String,Object> parameters = new TreeMap<String,Object>();
+			parameters.put("ids", new ArrayList<String>(locationForId.keySet()));
+			RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+					"unwind {ids} as id match (doc:LocationLog) where doc.id = id return properties(doc)"
+					, parameters
+					, record -> {
+						LocationLog log = gson.fromJson(record, LocationLog.class);
+						String location = locationForId.get(log.getId());
+						LocationLog newLog = newLogs.get(location);
+						log.setCountry(newLog.getCountry());
+						log.setRegionName(newLog.getRegionName());
+						newLogs.put(location, log);
+					}
+					);
+			if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+				// do not replace the counts in the database with new logs
+				throw new IllegalStateException("Could not read the location logs: " + status.getUserMessage());
+			}
+			this.locationLogs.putAll(newLogs);
+		}
+
+		/**
+		 * @param location countryCode|country|region|regionName|city
+		 * @return a new log for the location
+		 */
+		private static LocationLog toLocationLog(String location) {
+			String countryCode = "unknown";
+			String country = "unknown";
+			String region =  "unknown";
+			String regionName = "unknown";
+			String city = "unknown";
+			String [] parts = location.split(Constants.PIPE_SPLITTER);
+			if (parts.length == 5) {
+				countryCode = parts[0];
+				country = parts[1];
+				region = parts[2];
+				regionName = parts[3];
+				city = parts[4];
+			}
+			if (country.equals("country")) {
+				country = "unknown";
+			}
+			LocationLog log = new LocationLog(countryCode, region, city);
+			log.setCountry(country);
+			log.setRegionName(regionName);
+			return log;
+		}
+
+		public ActivityCounters getActivityCounters() {
+			return this.activityCounters;
 		}
 
 		/**
@@ -1317,13 +1944,11 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				, String operator // for tags, e.g. AND, OR
 				, boolean returnAllProps
 				) {
-			ResultJsonObjectArray result = null;
-
-			result = getForQuery(
-					getCypherQueryForNotesSearch(
+			return getForQuery(
+					getQueryForSearchNotes(
 							requestor
 							, type
-							, GeneralUtils.toNfc(query)
+							, query
 							, property
 							, matcher
 							, tags 
@@ -1333,7 +1958,32 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					, true
 					, true
 					);
-			return result;
+		}
+
+		/**
+		 * Builds the query used by searchNotes.
+		 * The parameters are the same as for searchNotes.
+		 */
+		public CypherQuery getQueryForSearchNotes(
+				String requestor
+				, String type
+				, String query
+				, String property
+				, String matcher
+				, String tags // tags to match
+				, String operator // for tags, e.g. AND, OR
+				, boolean returnAllProps
+				) {
+			return getCypherQueryForNotesSearch(
+					requestor
+					, type
+					, GeneralUtils.toNfc(query)
+					, property
+					, matcher
+					, tags 
+					, operator
+					, returnAllProps
+					);
 		}
 
 		/**
@@ -1362,15 +2012,16 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				) {
 			ResultJsonObjectArray result = null;
 			if (type.equals("*")) {
+				result = new ResultJsonObjectArray(true);
 				result.setStatusCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 				result.setStatusMessage("Wildcard generic search is not permitted.");
 			} else {
 				result = getForQuery(
-						getCypherQueryForGenericSearch(
+						getQueryForSearchGeneric(
 								requestor
 								, type
 								, library
-								, GeneralUtils.toNfc(query)
+								, query
 								, property
 								, matcher
 								, tags 
@@ -1384,6 +2035,35 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			return result;
 		}
 
+		/**
+		 * Builds the query used by searchGeneric.
+		 * The parameters are the same as for searchGeneric.
+		 * The caller must reject a wildcard type, as searchGeneric does.
+		 */
+		public CypherQuery getQueryForSearchGeneric(
+				String requestor
+				, String type
+				, String library
+				, String query
+				, String property
+				, String matcher
+				, String tags // tags to match
+				, String operator // for tags, e.g. AND, OR
+				, String returnProperties
+				) {
+			return getCypherQueryForGenericSearch(
+					requestor
+					, type
+					, library
+					, GeneralUtils.toNfc(query)
+					, property
+					, matcher
+					, tags 
+					, operator
+					, returnProperties
+					);
+		}
+
 		/**
 		 * checks to see if a record exists for this ID
 		 * @param requestor
@@ -1478,13 +2158,11 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				, String tags // tags to match
 				, String operator // for tags, e.g. AND, OR
 				) {
-			ResultJsonObjectArray result = null;
-
-			result = getForQuery(
-					getCypherQueryForTemplatesSearch(
+			return getForQuery(
+					getQueryForSearchTemplates(
 							requestor
 							, type
-							, GeneralUtils.toNfc(query)
+							, query
 							, property
 							, matcher
 							, tags 
@@ -1493,7 +2171,30 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					, true
 					, true
 					);
-			return result;
+		}
+
+		/**
+		 * Builds the query used by searchTemplates.
+		 * The parameters are the same as for searchTemplates.
+		 */
+		public CypherQuery getQueryForSearchTemplates(
+				String requestor
+				, String type
+				, String query
+				, String property
+				, String matcher
+				, String tags // tags to match
+				, String operator // for tags, e.g. AND, OR
+				) {
+			return getCypherQueryForTemplatesSearch(
+					requestor
+					, type
+					, GeneralUtils.toNfc(query)
+					, property
+					, matcher
+					, tags 
+					, operator
+					);
 		}
 
 		public ResultJsonObjectArray searchTreebanks(
@@ -1506,8 +2207,37 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				, String tags // tags to match
 				, String operator // for tags, e.g. AND, OR
 				) {
-			ResultJsonObjectArray result = null;
-			String theQuery = getCypherQueryForTreebanksSearch(
+			return getForQuery(
+					getQueryForSearchTreebanks(
+							requestor
+							, type
+							, relationshipLabel
+							, query
+							, property
+							, matcher
+							, tags 
+							, operator
+							)
+					, true
+					, true
+					);
+		}
+
+		/**
+		 * Builds the query used by searchTreebanks.
+		 * The parameters are the same as for searchTreebanks.
+		 */
+		public CypherQuery getQueryForSearchTreebanks(
+				String requestor
+				, String type
+				, String relationshipLabel
+				, String query
+				, String property
+				, String matcher
+				, String tags // tags to match
+				, String operator // for tags, e.g. AND, OR
+				) {
+			return getCypherQueryForTreebanksSearch(
 					requestor
 					, type
 					, relationshipLabel
@@ -1517,12 +2247,6 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					, tags 
 					, operator
 					); 
-			result = getForQuery(
-					theQuery
-					, true
-					, true
-					);
-			return result;
 		}
 		
 		public ResultJsonObjectArray searchOntology(
@@ -1535,14 +2259,12 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				, String tags // tags to match
 				, String operator // for tags, e.g. AND, OR
 				) {
-			ResultJsonObjectArray result = null;
-
-			result = getForQuery(
-					getCypherQueryForOntologySearch(
+			return getForQuery(
+					getQueryForSearchOntology(
 							requestor
 							, type
 							, genericType
-							, GeneralUtils.toNfc(query)
+							, query
 							, property
 							, matcher
 							, tags 
@@ -1551,7 +2273,32 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					, true
 					, true
 					);
-			return result;
+		}
+
+		/**
+		 * Builds the query used by searchOntology.
+		 * The parameters are the same as for searchOntology.
+		 */
+		public CypherQuery getQueryForSearchOntology(
+				String requestor
+				, String type // to match
+				, String genericType // generic type to match
+				, String query
+				, String property
+				, String matcher
+				, String tags // tags to match
+				, String operator // for tags, e.g. AND, OR
+				) {
+			return getCypherQueryForOntologySearch(
+					requestor
+					, type
+					, genericType
+					, GeneralUtils.toNfc(query)
+					, property
+					, matcher
+					, tags 
+					, operator
+					);
 		}
 
 		public ResultJsonObjectArray searchRelationships(
@@ -1696,12 +2443,305 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			}
 		}
 		
+		/**
+		 * Open the local text index, and build it in the background
+		 * if it is empty (e.g. the first time the service runs).
+		 * Until it is built, text searches scan the database.
+		 * 
+		 * Every TEXT_INDEX_RECONCILE_MINUTES the index is reconciled with the database,
+		 * and it is closed when the service shuts down.
+		 */
+		private void openTextIndex() {
+			try {
+				this.textIndex = new TextIndex(Paths.get(Constants.TEXT_INDEX_PATH));
+				if (! this.textIndex.isReady()) {
+					this.backgroundTasks.submitIfNotPending(
+							POOL.UTILITY
+							, "rebuildTextIndex"
+							, "rebuildTextIndex"
+							, () -> this.rebuildTextIndex()
+							);
+				}
+				this.textIndexReconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+					Thread t = new Thread(r, "text-index-reconciler");
+					t.setDaemon(true);
+					return t;
+				});
+				this.textIndexReconciler.scheduleWithFixedDelay(
+						this::reconcileTextIndex
+						, TEXT_INDEX_RECONCILE_MINUTES
+						, TEXT_INDEX_RECONCILE_MINUTES
+						, TimeUnit.MINUTES
+						);
+				Runtime.getRuntime().addShutdownHook(new Thread(this::closeTextIndex, "text-index-shutdown"));
+			} catch (Exception e) {
+				this.textIndex = null;
+				ErrorUtils.report(logger, e);
+			}
+		}
+
+		private void closeTextIndex() {
+			if (this.textIndexReconciler != null) {
+				this.textIndexReconciler.shutdownNow();
+			}
+			if (this.textIndex != null) {
+				this.textIndex.close();
+			}
+		}
+
+		/**
+		 * Replace the contents of the text index with the
+		 * Liturgical and Biblical nodes currently in the database.
+		 * Run it using the RebuildTextIndex utility.
+		 * Only one rebuild runs at a time.
+		 * @return the status
+		 */
+		public RequestStatus rebuildTextIndex() {
+			RequestStatus result = new RequestStatus();
+			if (this.textIndex == null) {
+				result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+				result.setMessage("The text index is not available");
+				return result;
+			}
+			if (! this.textIndexRebuilding.compareAndSet(false, true)) {
+				result.setCode(HTTP_RESPONSE_CODES.CONFLICT.code);
+				result.setMessage("The text index is already being rebuilt");
+				return result;
+			}
+			try {
+				long start = System.currentTimeMillis();
+				String indexedUntil = this.getTimestamp();
+				Map<String, Long> counts = new TreeMap<String, Long>();
+				logger.info("Rebuilding the text index");
+				this.textIndex.startRebuild();
+				for (String label : TextIndex.INDEXED_LABELS) {
+					AtomicLong count = new AtomicLong();
+					RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+							"match (doc:" + label + ") where exists(doc.id) " + TextIndex.RETURN_CLAUSE
+							, null
+							, doc -> {
+								this.textIndex.index(doc);
+								count.incrementAndGet();
+							}
+							);
+					if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+						throw new Exception("Could not read " + label + " nodes: " + status.getUserMessage());
+					}
+					counts.put(label, count.get());
+				}
+				this.textIndex.setIndexedUntil(indexedUntil);
+				this.textIndex.finishRebuild();
+				this.textIndexRebuildCounts = counts;
+				String message = "Indexed " 
+						+ this.textIndex.size() 
+						+ " text nodes in " 
+						+ (System.currentTimeMillis() - start) 
+						+ " ms";
+				logger.info(message);
+		    	result.setCode(HTTP_RESPONSE_CODES.OK.code);
+		    	result.setMessage(message);
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+				result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+				result.setMessage(e.getMessage());
+			} finally {
+				this.textIndexRebuilding.set(false);
+			}
+			return result;
+		}
+
+		/**
+		 * Bring the text index up to date with changes it was not told about,
+		 * e.g. nodes written by AresToNeo4j, by mergeBatch, or deleted by a synch transaction.
+		 * 
+		 * The nodes modified since the last reconcile (with a minute to spare) are indexed again.
+		 * Then, if the number of nodes for a label differs from the index, e.g. because
+		 * nodes were deleted, the index is rebuilt, unless the database has the same number
+		 * as when the index was last rebuilt, in which case a rebuild would not help.
+		 */
+		private void reconcileTextIndex() {
+			if (this.textIndex == null || this.textIndexRebuilding.get()) {
+				return;
+			}
+			try {
+				String since = this.textIndex.getIndexedUntil();
+				if (since == null) {
+					this.rebuildTextIndex();
+					return;
+				}
+				String indexedUntil = this.getTimestamp();
+				Map<String, Object> parameters = new TreeMap<String, Object>();
+				parameters.put("since", Instant.parse(since).minusSeconds(60).toString());
+				boolean rebuild = false;
+				for (String label : TextIndex.INDEXED_LABELS) {
+					AtomicLong modified = new AtomicLong();
+					RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+							"match (doc:" + label + ") where exists(doc.id) and doc.modifiedWhen >= {since} " 
+									+ TextIndex.RETURN_CLAUSE
+							, parameters
+							, doc -> {
+								this.textIndex.index(doc);
+								modified.incrementAndGet();
+							}
+							);
+					if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+						throw new Exception("Could not read " + label + " nodes: " + status.getUserMessage());
+					}
+					if (modified.get() > 0) {
+						logger.info("Indexed " + modified.get() + " " + label + " nodes modified since " + since);
+					}
+					AtomicLong count = new AtomicLong();
+					status = neo4jManager.streamResultObjectsForQuery(
+							"match (doc:" + label + ") where exists(doc.id) return count(doc) as count"
+							, null
+							, json -> count.set(json.get("count").getAsLong())
+							);
+					if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+						throw new Exception("Could not count " + label + " nodes: " + status.getUserMessage());
+					}
+					long indexed = this.textIndex.count(label);
+					if (count.get() != indexed
+							&& ! Long.valueOf(count.get()).equals(this.textIndexRebuildCounts.get(label))
+							) {
+						logger.info(label + " nodes in the database: " + count.get() + ", in the text index: " + indexed);
+						rebuild = true;
+					}
+				}
+				this.textIndex.setIndexedUntil(indexedUntil);
+				this.textIndex.commit();
+				if (rebuild) {
+					this.rebuildTextIndex();
+				}
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
+		}
+
+		/**
+		 * Called by the neo4jManager once transactions from the synch server have been applied.
+		 * A null id is a transaction whose doc can't be told, e.g. a delete,
+		 * which reconcileTextIndex finds later, and for which the tag index is rebuilt.
+		 * The UI label bundle is discarded if a label was written, or might have been deleted.
+		 * The words of the word analyses written are removed from the lexicon cache,
+		 * or all the words, if there is a null id.
+		 * @param ids of the docs written
+		 */
+		private void onSynchApplied(List<String> ids) {
+			List<String> known = new ArrayList<String>();
+			for (String id : ids) {
+				if (id != null) {
+					known.add(id);
+				}
+			}
+			this.updateTextIndex(known);
+			this.updateTagIndex(known);
+			if (known.size() < ids.size()) {
+				this.rebuildTagIndexLater();
+				this.lexiconCache.invalidateAll();
+			} else {
+				for (String id : known) {
+					this.invalidateLexiconCache(id);
+				}
+			}
+			if (known.size() < ids.size() || this.hasUiLabel(known)) {
+				this.invalidateUiLabelBundle();
+			}
+		}
+
+		/**
+		 * @param ids
+		 * @return true if any of the IDs is a UiLabel, or if that can't be read
+		 */
+		private boolean hasUiLabel(List<String> ids) {
+			if (ids.isEmpty()) {
+				return false;
+			}
+			Map<String, Object> parameters = new TreeMap<String, Object>();
+			parameters.put("ids", ids);
+			AtomicLong count = new AtomicLong();
+			RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+					"match (n:Root:UiLabel) where n.id in {ids} return count(n) as count"
+					, parameters
+					, json -> count.set(json.get("count").getAsLong())
+					);
+			return status.getCode() != HTTP_RESPONSE_CODES.OK.code || count.get() > 0;
+		}
+
+		/**
+		 * Read the node for the ID from the database and put it in the text index,
+		 * or remove it from the index if it no longer exists or is not a text node.
+		 * Called after a node is added, updated (including by updateValueOfLiturgicalText), or deleted.
+		 * @param id
+		 */
+		private void updateTextIndex(String id) {
+			this.updateTextIndex(Collections.singletonList(id));
+		}
+
+		/**
+		 * Update the text index for each of the IDs, as updateTextIndex(String) does,
+		 * with one query and one commit.
+		 * @param ids
+		 */
+		private void updateTextIndex(List<String> ids) {
+			if (this.textIndex == null || ids.isEmpty()) {
+				return;
+			}
+			try {
+				Map<String, Object> parameters = new TreeMap<String, Object>();
+				parameters.put("ids", ids);
+				Set<String> found = new TreeSet<String>();
+				RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+						"match (doc) where doc.id in {ids} and (doc:" 
+								+ String.join(" or doc:", TextIndex.INDEXED_LABELS) 
+								+ ") " 
+								+ TextIndex.RETURN_CLAUSE
+						, parameters
+						, doc -> {
+							this.textIndex.index(doc);
+							found.add(doc.get("id").getAsString());
+						}
+						);
+				if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+					throw new Exception("Could not read the nodes to index: " + status.getUserMessage());
+				}
+				for (String id : ids) {
+					if (! found.contains(id)) {
+						this.textIndex.delete(id);
+					}
+				}
+				this.textIndex.commit();
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
+		}
+
+		/**
+		 * @return the IDs of the nodes that might match the search, or null
+		 * if the text index can't be used for it.
+		 */
+		private List<String> getTextIndexIds(
+				List<String> labels
+				, String property
+				, String matcher
+				, String query
+				) {
+			if (this.textIndex == null) {
+				return null;
+			}
+			try {
+				return this.textIndex.getIds(labels, property, matcher, query);
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+				return null;
+			}
+		}
+
 	   private String normalized(String s) {
 		   return Normalizer.normalize(s, Normalizer.Form.NFD)
 					.replaceAll("\\p{InCombiningDiacriticalMarks}+", "").toLowerCase();
 	   }
 	   
-		private String getCypherQueryForDocSearch(
+		private CypherQueryForDocs getCypherQueryForDocSearch(
 				String requestor
 				, String type 
 				, String domain
@@ -1741,6 +2781,12 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					.LABEL(book)
 					.LABEL(chapter)
 					.WHERE(property)
+					.IDS(this.getTextIndexIds(
+							TextIndex.toLabels(type, domain, book, chapter)
+							, property
+							, matcher
+							, theQuery
+							))
 					;
 			
 			
@@ -1769,7 +2815,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 
 			CypherQueryForDocs q = builder.build();
 			
-			return q.toString();
+			return q;
 		}
 		
 		/**
@@ -1784,7 +2830,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		 * @param operator
 		 * @return
 		 */
-		private String getCypherQueryForNotesSearch(
+		private CypherQueryForNotes getCypherQueryForNotesSearch(
 				String requestor
 				, String type
 				, String query
@@ -1889,7 +2935,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			builder.ORDER_BY("to.seq"); // 
 
 			CypherQueryForNotes q = builder.build();
-			return q.toString();
+			return q;
 		}
 		
 		/**
@@ -1903,7 +2949,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		 * @param operator - tag operator, e.g. And vs Or
 		 * @return the database query to use
 		 */
-		private String getCypherQueryForGenericSearch(
+		private CypherQueryForGeneric getCypherQueryForGenericSearch(
 				String requestor
 				, String type
 				, String library
@@ -1970,7 +3016,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			builder.ORDER_BY("n.seq"); // 
 
 			CypherQueryForGeneric q = builder.build();
-			return q.toString();
+			return q;
 		}
 
 		/**
@@ -1985,7 +3031,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		 * @param operator
 		 * @return
 		 */
-		private String getCypherQueryForTemplatesSearch(
+		private CypherQueryForTemplates getCypherQueryForTemplatesSearch(
 				String requestor
 				, String type
 				, String query
@@ -2038,11 +3084,11 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			builder.ORDER_BY("doc.id"); // 
 
 			CypherQueryForTemplates q = builder.build();
-			return q.toString();
+			return q;
 		}
 
 
-		private String getCypherQueryForTreebanksSearch(
+		private CypherQueryForTreebanks getCypherQueryForTreebanksSearch(
 				String requestor
 				, String type
 				, String relationshipLabel
@@ -2106,10 +3152,10 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			builder.ORDER_BY("c.seq"); // 
 
 			CypherQueryForTreebanks q = builder.build();
-			return q.toString();
+			return q;
 		}
 		
-		private String getCypherQueryForOntologySearch(
+		private CypherQueryForDocs getCypherQueryForOntologySearch(
 				String requestor
 				, String type
 				, String genericType
@@ -2181,10 +3227,10 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			builder.ORDER_BY("doc.seq"); // 
 
 			CypherQueryForDocs q = builder.build();
-			return q.toString();
+			return q;
 		}
 
-		private String getCypherQueryForLinkSearch(
+		private CypherQueryForLinks getCypherQueryForLinkSearch(
 				String requestor
 				, String type
 				, String library
@@ -2248,16 +3294,17 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 
 			CypherQueryForLinks q = builder.build();
 			
-			return q.toString();
+			return q;
 		}
 		
 		public void updateDropdownItemsForSearchingText() {
 			try {
-				ExecutorService executorService = Executors.newSingleThreadExecutor();
-				executorService.execute(
-						new DomainDropdownsUpdateTask(this)
+				this.backgroundTasks.submitIfNotPending(
+						POOL.DROPDOWNS
+						, DomainDropdownsUpdateTask.class.getSimpleName()
+						, DomainDropdownsUpdateTask.class.getSimpleName()
+						, new DomainDropdownsUpdateTask(this)
 						);
-				executorService.shutdown();
 			} catch (Exception e) {
 				ErrorUtils.report(logger, e);
 			}
@@ -2385,7 +3432,10 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					    result.setCode(insertStatus.getCode());
 					    result.setDeveloperMessage(insertStatus.getDeveloperMessage());
 					    result.setUserMessage(insertStatus.getUserMessage());
+					    this.updateTagIndex(record.getId());
 					    this.updateObjects(record.ontologyTopic);
+					    this.updateTextIndex(record.getId());
+					    this.invalidateLexiconCache(record.getId());
 					} catch (Exception e) {
 						result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 						result.setMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
@@ -2434,6 +3484,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					    result.setCode(insertStatus.getCode());
 					    result.setDeveloperMessage(insertStatus.getDeveloperMessage());
 					    result.setUserMessage(insertStatus.getUserMessage());
+					    this.updateTagIndex(record.getId());
 					    this.updateObjects(record.ontologyTopic);
 					} catch (Exception e) {
 						result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -2483,6 +3534,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					    		, json.getKey()
 					    		, json.getType()
 					    		);		
+					    this.updateRelationshipTagIndex(json.getId(), json.getTopic(), json.getKey());
 				}
 			} else {
 				throw new MissingSchemaIdException(json.get_valueSchemaId());
@@ -2531,6 +3583,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						    result.setCode(insertStatus.getCode());
 						    result.setDeveloperMessage(insertStatus.getDeveloperMessage());
 						    result.setUserMessage(insertStatus.getUserMessage());
+						    this.updateTagIndex(record.getId());
 						    RequestStatus linkStatus = this.createRelationship(
 						    		requestor
 						    		, record.getTopic()
@@ -2636,6 +3689,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 							, json
 							);
 					neo4jManager.updateWhereEqual(record);		
+					this.updateTagIndex(id);
 				} else {
 					result.setCode(HTTP_RESPONSE_CODES.NOT_FOUND.code);
 					result.setMessage(HTTP_RESPONSE_CODES.NOT_FOUND.message + ": " + id);
@@ -2743,6 +3797,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				label.setValue(body.get("value").getAsString());
 				status = this.addLTKDbObject(requestor, label.toJsonString());
 			}
+			this.invalidateUiLabelBundle();
 			result.setCode(status.code);
 			result.setMessage(result.getUserMessage());
 			return result;
@@ -2755,6 +3810,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			if (internalManager.existsSchema(json.get_valueSchemaId())) {
 				if (existsUniqueRelationship(json.getId())) {
 					neo4jManager.updateWhereRelationshipEqual(json);		
+					this.updateRelationshipTagIndex(json.getId(), json.getTopic(), json.getKey());
 				} else {
 					result.setCode(HTTP_RESPONSE_CODES.NOT_FOUND.code);
 					result.setMessage(HTTP_RESPONSE_CODES.NOT_FOUND.message + ": " + json.getId());
@@ -2867,7 +3923,13 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						record.setCreatedWhen(getTimestamp());
 						record.setModifiedWhen(record.getCreatedWhen());
 						neo4jManager.updateWhereEqual(record, true);
+						this.updateTagIndex(record.getId());
 						this.updateObjects(record.ontologyTopic);
+						this.updateTextIndex(record.getId());
+						this.invalidateLexiconCache(record.getId());
+						if (record.get_valueSchemaId().startsWith(TOPICS.UI_LABEL.label)) {
+							this.invalidateUiLabelBundle();
+						}
 					} else {
 						result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 						JsonObject message = stringToJson(validation);
@@ -2916,6 +3978,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						record.setCreatedWhen(getTimestamp());
 						record.setModifiedWhen(record.getCreatedWhen());
 						neo4jManager.updateWhereEqual(record, true);
+						this.updateTagIndex(record.getId());
 						this.updateObjects(record.ontologyTopic);
 					} else {
 						result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -2962,6 +4025,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						record.setCreatedWhen(getTimestamp());
 						record.setModifiedWhen(record.getCreatedWhen());
 						neo4jManager.mergeWhereEqual(record);
+						this.updateTagIndex(record.getId());
 						this.updateObjects(record.ontologyTopic);
 					} else {
 						result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -3049,15 +4113,15 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						|| obj.getStatus().equals(STATUS.READY_TO_RELEASE)
 						|| obj.getStatus().equals(STATUS.RELEASED)
 						) {
-					ExecutorService executorService = Executors.newSingleThreadExecutor();
-					executorService.execute(
-							new WordAnalysisCreateTask(
+					this.backgroundTasks.submit(
+							POOL.NLP
+							, WordAnalysisCreateTask.class.getSimpleName()
+							, new WordAnalysisCreateTask(
 									this
 									, requestor
 									, obj
 								)
 					);
-					executorService.shutdown();
 				}
 			} catch (Exception e) {
 				result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -3124,7 +4188,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						.RETURN("*")
 						;
 				CypherQueryForDocs q = builder.build();
-				result  = neo4jManager.getForQuery(q.toString());
+				result  = neo4jManager.getForQuery(q.getQueryTemplate(), q.getParameters());
 				result.setQuery(q.toString());
 				result.setValueSchemas(internalManager.getSchemas(result.getResult(), null));
 			} catch (Exception e) {
@@ -3149,7 +4213,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						.RETURN("*")
 						;
 				CypherQueryForDocs q = builder.build();
-				result  = neo4jManager.getForQuery(q.toString());
+				result  = neo4jManager.getForQuery(q.getQueryTemplate(), q.getParameters());
 				result.setQuery(q.toString());
 				result.setValueSchemas(internalManager.getSchemas(result.getResult(), null));
 				if (!result.getFirstObject().get("visibility").getAsString().equals("PUBLIC")) {
@@ -3197,7 +4261,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						.RETURN("*")
 						;
 				CypherQueryForDocs q = builder.build();
-				result  = neo4jManager.getForQuery(q.toString());
+				result  = neo4jManager.getForQuery(q.getQueryTemplate(), q.getParameters());
 				result.setQuery(q.toString());
 				result.setValueSchemas(internalManager.getSchemas(result.getResult(), null));
 				JsonObject first = result.getFirstObject();
@@ -3260,7 +4324,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						.RETURN("*")
 						;
 				CypherQueryForDocs q = builder.build();
-				result  = neo4jManager.getForQuery(q.toString());
+				result  = neo4jManager.getForQuery(q.getQueryTemplate(), q.getParameters());
 				result.setQuery(q.toString());
 				result.setValueSchemas(internalManager.getSchemas(result.getResult(), null));
 			} catch (Exception e) {
@@ -3270,6 +4334,84 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			return result;
 		}
 
+		/**
+		 * Get the nodes for many IDs using a single query,
+		 * instead of calling getForId once for each ID.
+		 * @param ids the IDs to look up
+		 * @param label the node label to use, e.g. Root
+		 * @return a map of the properties of each node found, keyed by ID.
+		 * An ID that was not found is not in the map.
+		 */
+		public Map<String, JsonObject> getForIds(
+				Collection<String> ids
+				, String label
+				) {
+			Map<String, JsonObject> result = new TreeMap<String, JsonObject>();
+			if (ids == null || ids.isEmpty()) {
+				return result;
+			}
+			try {
+				Map<String, Object> parameters = new TreeMap<String, Object>();
+				parameters.put("ids", new ArrayList<String>(new TreeSet<String>(ids)));
+				RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+						"unwind {ids} as id match (doc:" + label + ") where doc.id = id return properties(doc)"
+						, parameters
+						, doc -> {
+							if (doc.has("id")) {
+								result.put(doc.get("id").getAsString(), doc);
+							}
+						}
+						);
+				if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+					logger.error("getForIds: " + status.getUserMessage());
+				}
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
+			return result;
+		}
+
+		/**
+		 * Get the nodes for many topic~keys using a single query.
+		 * For each topic~key, the node in the library is used if it exists,
+		 * otherwise the node in the fallback library.
+		 * @param topicKeys e.g. actors~Priest
+		 * @param label the node label to use, e.g. Root
+		 * @param library e.g. en_us_dedes
+		 * @param fallbackLibrary e.g. gr_gr_cog, or null if there is none
+		 * @return a map of the properties of the first node found for each topic~key, keyed by topic~key.
+		 * A topic~key that was found in neither library is not in the map.
+		 */
+		public Map<String, JsonObject> getForTopicKeys(
+				Collection<String> topicKeys
+				, String label
+				, String library
+				, String fallbackLibrary
+				) {
+			Map<String, JsonObject> result = new TreeMap<String, JsonObject>();
+			boolean hasFallback = fallbackLibrary != null 
+					&& fallbackLibrary.length() > 0 
+					&& ! fallbackLibrary.equals(library);
+			List<String> ids = new ArrayList<String>();
+			for (String topicKey : topicKeys) {
+				ids.add(library + Constants.ID_DELIMITER + topicKey);
+				if (hasFallback) {
+					ids.add(fallbackLibrary + Constants.ID_DELIMITER + topicKey);
+				}
+			}
+			Map<String, JsonObject> docs = this.getForIds(ids, label);
+			for (String topicKey : topicKeys) {
+				JsonObject doc = docs.get(library + Constants.ID_DELIMITER + topicKey);
+				if (doc == null && hasFallback) {
+					doc = docs.get(fallbackLibrary + Constants.ID_DELIMITER + topicKey);
+				}
+				if (doc != null) {
+					result.put(topicKey, doc);
+				}
+			}
+			return result;
+		}
+
 		/**
 		 * 
 		 * @param id to search for
@@ -3444,7 +4586,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					.ORDER_BY("doc.seq");
 					;
 			CypherQueryForDocs q = builder.build();
-			ResultJsonObjectArray result = getForQuery(q.toString(), true, true);
+			ResultJsonObjectArray result = getForQuery(q, true, true);
 			return result;
 		}
 
@@ -3455,6 +4597,17 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		 * @return
 		 */
  		public ResultJsonObjectArray getForIdStartsWith(String id, TOPICS topic) {
+			ResultJsonObjectArray result = getForQuery(getQueryForIdStartsWith(id, topic), true, true);
+			return result;
+		}
+
+		/**
+		 * Builds the query used by getForIdStartsWith(id, topic)
+		 * @param id starting part of ID to search for
+		 * @param topic - the TOPIC for this type of doc
+		 * @return
+		 */
+ 		public CypherQuery getQueryForIdStartsWith(String id, TOPICS topic) {
 			CypherQueryBuilderForDocs builder = new CypherQueryBuilderForDocs()
 					.MATCH()
 					.LABEL(topic.label)
@@ -3463,9 +4616,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					.RETURN("*")
 					.ORDER_BY("doc.seq");
 					;
-			CypherQueryForDocs q = builder.build();
-			ResultJsonObjectArray result = getForQuery(q.toString(), true, true);
-			return result;
+			return builder.build();
 		}
 
  		// gets liturgical text for id ending with specified value
@@ -3479,7 +4630,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					.RETURN("*")
 					.ORDER_BY("doc.seq");
 			CypherQueryForDocs q = builder.build();
-			ResultJsonObjectArray result = getForQuery(q.toString(), true, true);
+			ResultJsonObjectArray result = getForQuery(q, true, true);
 			  for (JsonObject value : result.values) {
 				 if ( value.get("visibility").getAsString().equals("PUBLIC")) {
 					 newValues.add(value);
@@ -3523,7 +4674,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
  						.ORDER_BY("doc.seq");
  						;
  				CypherQueryForDocs q = builder.build();
- 				ResultJsonObjectArray result = getForQuery(q.toString(), true, true);
+ 				ResultJsonObjectArray result = getForQuery(q, true, true);
  				// now we need to see if the user has any references he/she owns
  				StringBuffer sb = new StringBuffer();
  				sb.append("match (:Root)-[r]->(:Root) where r.id starts with '");
@@ -3621,7 +4772,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			builder.RETURN("id, value, seq");
 			builder.ORDER_BY("doc.seq");
 			CypherQueryForDocs q = builder.build();
-			ResultJsonObjectArray result = getForQuery(q.toString(), true, true);
+			ResultJsonObjectArray result = getForQuery(q, true, true);
 			return result;
 		}
 
@@ -3643,22 +4794,35 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			result.setStatusCode(HTTP_RESPONSE_CODES.NOT_FOUND.code);
 			result.setStatusMessage("Generation did not complete.");
 			try {
-				boolean generationFinished = false;
-		        if (!generationFinished) { // wait because the pdf still might be generating
-		        	long millis =  5000; //1000 = 1 sec
-		        	for (int i = 0; i < 49; i++) { // for four minutes, check every 5 seconds
-		        		Thread.sleep(millis);
-		        		File genFile = new File(Constants.PDF_FOLDER + "/" + genId + ".finished");
-						generationFinished = genFile.exists();
-		        		if (generationFinished) {
-		        			break;
-		        		}
-		        	}
-		        }
-		        if (generationFinished) {
-        			result.setStatusCode(HTTP_RESPONSE_CODES.OK.code);
-        			result.setStatusMessage("Generation completed.");
-		        }
+				// returns at once with the status of the job, rather than waiting for it to finish
+				PdfJobService.Job job = pdfJobs.getJob(genId);
+				if (job == null) {
+					// e.g. generated before a restart
+					boolean generated = genId.startsWith(PdfArtifactCache.PREFIX)
+							? pdfArtifacts.isComplete(genId)
+							: pdfExists(genId) || new File(Constants.PDF_FOLDER + "/" + genId + ".finished").exists();
+			        if (generated) {
+	        			result.setStatusCode(HTTP_RESPONSE_CODES.OK.code);
+	        			result.setStatusMessage("Generation completed.");
+			        }
+				} else {
+					List<JsonObject> list = new ArrayList<JsonObject>();
+					list.add(job.toJsonObject());
+					result.setResult(list);
+					switch (job.getStatus()) {
+					case DONE:
+	        			result.setStatusCode(HTTP_RESPONSE_CODES.OK.code);
+	        			result.setStatusMessage("Generation completed.");
+						break;
+					case FAILED:
+	        			result.setStatusCode(HTTP_RESPONSE_CODES.SERVER_ERROR.code);
+	        			result.setStatusMessage("Generation failed.");
+						break;
+					default:
+	        			result.setStatusCode(HttpServletResponse.SC_ACCEPTED);
+	        			result.setStatusMessage("Generation " + job.getStatus().keyname() + ".");
+					}
+				}
 			} catch (Exception e) {
 				result.setStatusCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 				result.setStatusMessage(e.getMessage());
@@ -3916,7 +5080,12 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					, idManager.getLibrary()
 					)) {
 				try {
+					List<String> links = this.getRelationshipIdsTo(id);
 					result = neo4jManager.deleteNodeAndRelationshipsForId(id);
+					this.tagIndex.remove(id);
+					for (String link : links) {
+						this.tagIndex.remove(link);
+					}
 				} catch (DbException e) {
 					ErrorUtils.report(logger, e);
 					result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -3936,7 +5105,15 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		public RequestStatus deleteForId(String id) {
 			RequestStatus result = new RequestStatus();
 			try {
+		    	List<String> links = this.getRelationshipIdsTo(id);
 		    	result = neo4jManager.deleteNodeWhereEqual(id);
+		    	this.tagIndex.remove(id);
+		    	for (String link : links) {
+		    		this.tagIndex.remove(link);
+		    	}
+		    	this.updateTextIndex(id);
+		    	this.invalidateLexiconCache(id);
+		    	this.invalidateUiLabelBundle(); // the node is gone, so we can't tell whether it was a label
 			} catch (DbException e) {
 				ErrorUtils.report(logger, e);
 				result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -4177,15 +5354,17 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						dependencyTree.setNodes(Utils.initializeTokenAnalysisList(id, value));
 						treeData = new ResultJsonObjectArray(this.printPretty);
 						treeData.setValues(dependencyTree.nodesToJsonObjectList());
-						// create a thread that will save the new values to the database
-						ExecutorService executorService = Executors.newSingleThreadExecutor();
-						executorService.execute(
-								new DependencyNodesCreateTask(
+						// queue a task that will save the new values to the database,
+						// unless one for this text is already waiting
+						this.backgroundTasks.submitIfNotPending(
+								POOL.NLP
+								, DependencyNodesCreateTask.class.getSimpleName()
+								, DependencyNodesCreateTask.class.getSimpleName() + Constants.ID_DELIMITER + id
+								, new DependencyNodesCreateTask(
 										this
 										, requestor
 										, dependencyTree.getNodes())
 								);
-						executorService.shutdown();
 					}
 				}
 				tree.add(
@@ -4405,13 +5584,19 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			result.setQuery("get word grammar analyses for tokens");
 			JsonObject resultAnalyses = new JsonObject();
 			try {
+				List<String> words = new ArrayList<String>();
+				for (JsonElement e : tokens) {
+					words.add(e.getAsString());
+				}
+				// one query for all the tokens that are not already in the lexicon cache
+				Map<String, JsonArray> wordAnalyses = this.getWordAnalyses(words);
 				for (JsonElement e : tokens) {
 					try {
 						String lowerToken = e.getAsString().toLowerCase();
-						ResultJsonObjectArray analyses = this.getWordAnalyses(lowerToken); //   
+						JsonArray analyses = wordAnalyses.get(LexiconCache.toKey(lowerToken));
 						if (! resultAnalyses.has(lowerToken)) { // the same token value can occur more than one time in a text
-							if (analyses.valueCount > 0) {
-								resultAnalyses.add(e.getAsString(), analyses.getFirstObject().get(lowerToken).getAsJsonArray());
+							if (analyses != null && analyses.size() > 0) {
+								resultAnalyses.add(e.getAsString(), analyses);
 							} else {
 								JsonArray array = new JsonArray(); 
 								WordAnalysis wordAnalysis = new WordAnalysis();
@@ -4450,6 +5635,7 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 						, idManager.getLibrary()
 						)) {
 			    	result = neo4jManager.deleteRelationshipWhereEqual(id);
+			    	this.tagIndex.remove(id);
 				} else {
 					result.setCode(HTTP_RESPONSE_CODES.UNAUTHORIZED.code);
 					result.setMessage(HTTP_RESPONSE_CODES.UNAUTHORIZED.message);
@@ -4510,6 +5696,9 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				String type
 				, String nodeLabel
 				) {
+			if (this.tagIndex.isBuilt()) {
+				return toDropdownItems(this.tagIndex.getTags(TagIndex.relationshipLabel(type, nodeLabel)));
+			}
 			JsonArray result  = new JsonArray();
 			try {
 				String q = "match (:Root)-[link:" + type + "]->(:" + nodeLabel + ") return distinct link.tags as " + type;
@@ -4538,7 +5727,23 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			return result;
 		}
 
+		/**
+		 * @param labels
+		 * @return the labels as a JsonArray of dropdown items
+		 */
+		private static JsonArray toDropdownItems(Collection<String> labels) {
+			JsonArray result  = new JsonArray();
+			for (String label : labels) {
+				DropdownItem entry = new DropdownItem(label);
+				result.add(entry.toJsonObject());
+			}
+			return result;
+		}
+
 		public JsonArray getTags(String type) {
+			if (this.tagIndex.isBuilt()) {
+				return toDropdownItems(this.tagIndex.getTags(type));
+			}
 			JsonArray result  = new JsonArray();
 			try {
 				String q = "match (n:Root:"+ type + ") return distinct n.tags as " + type;
@@ -4569,6 +5774,9 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		}
 
 		public JsonArray getTags(String library, String type) {
+			if (this.tagIndex.isBuilt()) {
+				return toDropdownItems(this.tagIndex.getTags(type, library));
+			}
 			JsonArray result  = new JsonArray();
 			try {
 				String q = "match (n:Root:"+ type + ") where n.library = '" + library + "' return distinct n.tags as " + type;
@@ -4600,6 +5808,9 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 
 
 		public JsonArray getOntologyTags(String type) {
+			if (this.tagIndex.isBuilt()) {
+				return toDropdownItems(this.tagIndex.getTags(type));
+			}
 			JsonArray result  = new JsonArray();
 			try {
 				String q = "match (n:Root:"+ type + ") return distinct n.tags as " + type;
@@ -5015,20 +6226,17 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		
 		public String getMode(String key, String library, String fallbackLibrary) {
 			String result = key;
-			ResultJsonObjectArray queryResult = this.getForId(MODES_TO_NEO4J.getNeo4jId(key, library));
-			if (queryResult.status.code == HTTP_RESPONSE_CODES.OK.code) {
-				result = queryResult.getFirstObject().get("value").getAsString();
-			} else {
-				queryResult = this.getForId(MODES_TO_NEO4J.getNeo4jId(key, fallbackLibrary));
-				if (queryResult.status.code == HTTP_RESPONSE_CODES.OK.code) {
-					result = queryResult.getFirstObject().get("value").getAsString();
-				} else {
-					queryResult = this.getForId(MODES_TO_NEO4J.getNeo4jId(key, "en_us_dedes"));
-					if (queryResult.status.code == HTTP_RESPONSE_CODES.OK.code) {
-						result = queryResult.getFirstObject().get("value").getAsString();
-					} else {
-						result = key;
-					}
+			List<String> ids = new ArrayList<String>();
+			ids.add(MODES_TO_NEO4J.getNeo4jId(key, library));
+			ids.add(MODES_TO_NEO4J.getNeo4jId(key, fallbackLibrary));
+			ids.add(MODES_TO_NEO4J.getNeo4jId(key, "en_us_dedes"));
+			// one query for all three, then use the first one found
+			Map<String, JsonObject> docs = this.getForIds(ids, TOPICS.ROOT.label);
+			for (String id : ids) {
+				JsonObject doc = docs.get(id);
+				if (doc != null && doc.has("value")) {
+					result = doc.get("value").getAsString();
+					break;
 				}
 			}
 			return result;
@@ -5117,28 +6325,67 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			
 				// Get the title information
 				AlwbUrl urlUtils = new AlwbUrl(url);
-				template.setLeftTitle(this.getTitleForCover(urlUtils, leftLibrary, leftFallback));
-				template.setLeftHeaderTitle(this.getTitleForHeader(urlUtils, leftLibrary, leftFallback));
-				template.setLeftTitleDate(this.getTitleDate(urlUtils, leftLibrary));
+				List<String> pdfInputs = new ArrayList<String>(Arrays.asList(
+						url
+						, ages.getTimestamp()
+						, leftLibrary
+						, centerLibrary
+						, rightLibrary
+						, leftFallback
+						, centerFallback
+						, rightFallback
+						));
+				String title = this.getTitleForCover(urlUtils, leftLibrary, leftFallback);
+				String headerTitle = this.getTitleForHeader(urlUtils, leftLibrary, leftFallback);
+				String titleDate = this.getTitleDate(urlUtils, leftLibrary);
+				template.setLeftTitle(title);
+				template.setLeftHeaderTitle(headerTitle);
+				template.setLeftTitleDate(titleDate);
+				pdfInputs.addAll(Arrays.asList(title, headerTitle, titleDate));
 				if (centerLibrary != null && centerLibrary.length() > 0) {
-					template.setCenterTitle(this.getTitleForCover(urlUtils, centerLibrary, centerFallback));
-					template.setCenterHeaderTitle(this.getTitleForHeader(urlUtils, centerLibrary, centerFallback));
-					template.setCenterTitleDate(this.getTitleDate(urlUtils, centerLibrary));
+					title = this.getTitleForCover(urlUtils, centerLibrary, centerFallback);
+					headerTitle = this.getTitleForHeader(urlUtils, centerLibrary, centerFallback);
+					titleDate = this.getTitleDate(urlUtils, centerLibrary);
+					template.setCenterTitle(title);
+					template.setCenterHeaderTitle(headerTitle);
+					template.setCenterTitleDate(titleDate);
+					pdfInputs.addAll(Arrays.asList(title, headerTitle, titleDate));
 				}
 				if (rightLibrary != null && rightLibrary.length() > 0) {
-					template.setRightTitle(this.getTitleForCover(urlUtils, rightLibrary, rightFallback));
-					template.setRightHeaderTitle(this.getTitleForHeader(urlUtils, rightLibrary, rightFallback));
-					template.setRightTitleDate(this.getTitleDate(urlUtils, rightLibrary));
+					title = this.getTitleForCover(urlUtils, rightLibrary, rightFallback);
+					headerTitle = this.getTitleForHeader(urlUtils, rightLibrary, rightFallback);
+					titleDate = this.getTitleDate(urlUtils, rightLibrary);
+					template.setRightTitle(title);
+					template.setRightHeaderTitle(headerTitle);
+					template.setRightTitleDate(titleDate);
+					pdfInputs.addAll(Arrays.asList(title, headerTitle, titleDate));
 				}
 				
-				// create a thread that will generate a PDF
-				ExecutorService executorService = Executors.newSingleThreadExecutor();
-				String pdfId = this.createId(requestor);
+				// The pdf id is a hash of what goes into the pdf,
+				// so if it was already generated, it is not generated again.
+				String pdfId = PdfArtifactCache.toKey(pdfInputs, values);
 				template.setPdfId(pdfId); // this gives the client an id for retrieving the pdf
-				executorService.execute(
-						new PdfGenerationTask(template, pdfId)
-						);
-				executorService.shutdown();
+				if (! pdfArtifacts.exists(pdfId)) {
+					try {
+						pdfJobs.submitIfAbsent(
+								pdfId
+								, PdfGenerationTask.class.getSimpleName()
+								, () -> {
+									PdfGenerationTask task = new PdfGenerationTask(template, pdfId);
+									task.run();
+									if (task.succeeded() && pdfExists(pdfId)) {
+										pdfArtifacts.markComplete(pdfId);
+									}
+									pdfArtifacts.enforceQuota();
+								}
+								, () -> pdfArtifacts.isComplete(pdfId)
+								);
+					} catch (RejectedExecutionException e) {
+						// the template is still returned, but asking for the PDF reports the failure
+						logger.warn("PDF queue is full, no PDF will be generated for " + pdfId);
+						pdfJobs.recordRejected(pdfId, PdfGenerationTask.class.getSimpleName());
+					}
+				}
 
 				// add the template to the result.
 				List<JsonObject> list = new ArrayList<JsonObject>();
@@ -5243,11 +6490,16 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		private void updateObjects(TOPICS topic) {
 			try {
 			    if (TOPICS.getSubRoot(topic).equals(TOPICS.ONTOLOGY_ROOT)) {
-					ExecutorService executorService = Executors.newSingleThreadExecutor();
-					executorService.execute(
-							new OntologyTagsUpdateTask(this)
-							);
-					executorService.shutdown();
+			    	if (this.tagIndex.isBuilt()) {
+			    		this.updateOntologyTags(); // reads the tag index, so no need for a thread
+			    	} else {
+						this.backgroundTasks.submitIfNotPending(
+								POOL.DROPDOWNS
+								, OntologyTagsUpdateTask.class.getSimpleName()
+								, OntologyTagsUpdateTask.class.getSimpleName()
+								, new OntologyTagsUpdateTask(this)
+								);
+			    	}
 			    }
 			} catch (Exception e) {
 				ErrorUtils.report(logger, e);
@@ -5283,13 +6535,16 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			return result;
 		}
 		/**
-		 * Creates an ID by concatenating the request (username)
-		 * and the current timestamp
+		 * Creates an ID by concatenating the request (username),
+		 * the current timestamp, and a sequence number, so that
+		 * two requests in the same instant do not get the same id.
 		 * @param requestor
 		 * @return
 		 */
 		public String createId(String requestor) {
-			return requestor + "-" + this.getTimestamp().replaceAll(":", ".");
+			return requestor
+					+ "-" + this.getTimestamp().replaceAll(":", ".")
+					+ "-" + idSequence.incrementAndGet();
 		}
 		/**
 		 * Reads a json string encoding the metadata for a liturgical book or service,
@@ -5403,13 +6658,14 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		 */
 		public  Map<String,String> setValues(List<String> dbIds) {
 			Map<String,String> result = new TreeMap<String,String>();
-			for (String id : dbIds) {
+			for (Entry<String, JsonObject> entry : this.getForIds(dbIds, TOPICS.ROOT.label).entrySet()) {
 				try {
-					String value = this.getForId(id).getFirstObjectValueAsString();
+					JsonObject doc = entry.getValue();
+					String value = doc.has("value") ? doc.get("value").getAsString() : null;
 					if (value == null || value.trim().length() == 0) {
 						// ignore
 					} else {
-						result.put(id, value);
+						result.put(entry.getKey(), value);
 					}
 				} catch (Exception e) {
 					ErrorUtils.report(logger, e);
@@ -5563,12 +6819,13 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			ResultJsonObjectArray result  = new ResultJsonObjectArray(true);
 			try {
 				List<JsonObject> list = new ArrayList<JsonObject>();
+				Map<String, JsonObject> records = this.getForTopicKeys(topicKeys, TOPICS.ROOT.label, library, null);
 				for (String topicKey : topicKeys) {
 					LibraryTopicKeyValue lkv = new LibraryTopicKeyValue(printPretty);
-					ResultJsonObjectArray record = this.getForId(library + Constants.ID_DELIMITER + topicKey);
+					JsonObject record = records.get(topicKey);
 					lkv.set_id(topicKey);
-					if (record.status.code == HTTP_RESPONSE_CODES.OK.code && record.valueCount == 1) {
-						lkv.setValue(record.getFirstObject().get("value").getAsString());
+					if (record != null && record.has("value")) {
+						lkv.setValue(record.get("value").getAsString());
 					}
 					list.add(lkv.toJsonObject());
 				}
@@ -5768,17 +7025,12 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 		
 		public List<String> getDbConstraints() {
 			List<String> result = new ArrayList<String>();
-			Pattern p = Pattern.compile("^CONSTRAINT ON (.*) ASSERT.*");
 			for (JsonElement constraint : callDbConstraints().get("constraints").getAsJsonArray()) {
 				try {
 					String description  = constraint.getAsJsonObject().get("description").getAsString();
-					Matcher m = p.matcher(description);
-					if (m.matches()) {
-						description = m.group(1);
-						description = description.replace("( ", "");
-						description = description.replace(" )", "");
-						description = description.split(":")[1];
-						result.add(description);
+					String label = ConstraintRegistry.getConstraintLabel(description);
+					if (label != null) {
+						result.add(label);
 					}
 				} catch (Exception e) {
 					ErrorUtils.report(logger, e);
@@ -5902,51 +7154,55 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			return neo4jManager.processConstraintQuery(query);
 		}
 		
-		public JsonObject getUiLabelsAsJsonObject() {
-			JsonObject result = new JsonObject();
-			String query = "match (n:Root:UiLabel) return distinct split(n.library, \"_\")[2] as item";
-			ResultJsonObjectArray queryResult = neo4jManager.getResultObjectForQuery(query);
-			List<String> systems = new ArrayList<String>();
-			for (JsonObject json : queryResult.values) {
-				systems.add(json.get("item").getAsString());
-			}
-			for (String system : systems) {
-				result.add(system, this.getUiLabelsAsJsonObject(system));
+		/**
+		 * The UI labels for all systems and languages, as system, language, topic, key: value.
+		 * The bundle is built by a single query the first time it is needed,
+		 * and kept until a UiLabel is added, updated, deleted, or changed by the synch server,
+		 * or for UI_LABEL_BUNDLE_MAX_AGE_MINUTES.
+		 * @return the bundle
+		 */
+		public synchronized UiLabelBundle getUiLabelBundle() {
+			if (this.uiLabelBundle != null
+					&& System.currentTimeMillis() - this.uiLabelBundleBuilt > TimeUnit.MINUTES.toMillis(UI_LABEL_BUNDLE_MAX_AGE_MINUTES)
+					) {
+				this.uiLabelBundle = null;
+			}
+			if (this.uiLabelBundle == null) {
+				List<JsonObject> labels = new ArrayList<JsonObject>();
+				RequestStatus status = neo4jManager.streamResultObjectsForQuery(
+						"match (n:Root:UiLabel) return n.library as library, n.topic as topic, n.key as key, n.value as value"
+						, null
+						, label -> labels.add(label)
+						);
+				if (status.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+					// don't keep a bundle that is missing labels
+					logger.error("Could not read the UI labels: " + status.getUserMessage());
+					return new UiLabelBundle(labels);
+				}
+				this.uiLabelBundle = new UiLabelBundle(labels);
+				this.uiLabelBundleBuilt = System.currentTimeMillis();
 			}
-			return result;
+			return this.uiLabelBundle;
+		}
+
+		/**
+		 * Discard the UI label bundle, so it will be rebuilt the next time it is needed
+		 */
+		private synchronized void invalidateUiLabelBundle() {
+			this.uiLabelBundle = null;
+		}
+
+		public JsonObject getUiLabelsAsJsonObject() {
+			return this.getUiLabelBundle().toJsonObject();
 		}
 		
 		public JsonObject getUiLabelsAsJsonObject(String system) {
-			JsonObject result = new JsonObject();
-			String query = "match (n:Root:UiLabel) return distinct split(n.library, \"_\")[0] as item";
-			ResultJsonObjectArray queryResult = neo4jManager.getResultObjectForQuery(query);
-			List<String> languages = new ArrayList<String>();
-			for (JsonObject json : queryResult.values) {
-				languages.add(json.get("item").getAsString());
-			}
-			for (String language : languages) {
-				JsonObject langJson = new JsonObject();
-				String library = language + "_sys_" + system; 
-				query = "match (n:Root:UiLabel) where n.library starts with '" + language + "' and n.library ends with '" +  system + "' return distinct n.topic as item";
-				ResultJsonObjectArray langQueryResult = neo4jManager.getResultObjectForQuery(query);
-				List<String> topics = new ArrayList<String>();
-				for (JsonObject json : langQueryResult.values) {
-					topics.add(json.get("item").getAsString());
-				}
-				for (String topic : topics) {
-					JsonObject topicsJson = new JsonObject();
-					query = "match (n:Root:UiLabel) where n.library = '" + library +"' and n.topic = '" + topic + "' return distinct n.key as label, n.value as value";
-					ResultJsonObjectArray topicQueryResult = neo4jManager.getResultObjectForQuery(query);
-					for (JsonObject json : topicQueryResult.values) {
-						String label = json.get("label").getAsString();
-						String value = json.get("value").getAsString();
-						topicsJson.addProperty(label, value);
-					}
-					langJson.add(topic, topicsJson);
-				}
-				result.add(language, langJson);
+			JsonObject labels = this.getUiLabelsAsJsonObject();
+			if (labels.has(system)) {
+				return labels.get(system).getAsJsonObject();
+			} else {
+				return new JsonObject();
 			}
-			return result;
 		}
 		
 		/**
@@ -6124,7 +7380,9 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 					runningUtility = true;
 					this.runningUtilityName = utilityName;
 
-					switch (UTILITIES.valueOf(utilityName)) {
+					if (utilityName.equals(REBUILD_TEXT_INDEX)) {
+						result = this.rebuildTextIndex();
+					} else switch (UTILITIES.valueOf(utilityName)) {
 					case EngSensesOne: {
 						boolean deleteFirst = false;
 						result = runUtilityCreateTableForEnglishOaldSenses(requestor, deleteFirst);
@@ -6418,16 +7676,23 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 				) {
 			RequestStatus status = new RequestStatus();
 			try {
-				// run it as a thread
-				ExecutorService executorService = Executors.newSingleThreadExecutor();
-				executorService.execute(
-						new PerseusTreebankDataCreateTask(
-								this
-								, requestor
-								, deleteFirst
-							)
-				);
-				executorService.shutdown();
+				// run it in the background
+				if (! this.backgroundTasks.submit(
+						POOL.UTILITY
+						, PerseusTreebankDataCreateTask.class.getSimpleName()
+						, () -> {
+							new PerseusTreebankDataCreateTask(
+									this
+									, requestor
+									, deleteFirst
+									).run();
+							// it deletes and links nodes without going through the tag index
+							this.rebuildTagIndexLater();
+						}
+				)) {
+					status.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					status.setMessage("Too many utilities are running.  Please try again later.");
+				}
 			} catch (Exception e) {
 				ErrorUtils.report(logger, e);
 				status.setCode(HTTP_RESPONSE_CODES.SERVER_ERROR.code);
@@ -6445,20 +7710,27 @@ public class ExternalDbManager implements HighLevelDataStoreInterface{
 			try {
 				// parse the json
 				UtilityUdLoader form = gson.fromJson(json, UtilityUdLoader.class);
-				// run it as a thread
-				ExecutorService executorService = Executors.newSingleThreadExecutor();
-				executorService.execute(
-						new UdTreebankDataCreateTask(
-								this
-								, requestor
-								, form.getDataSource()
-								, form.isPullFirst()
-								, form.isDeleteFirst()
-								, form.isSimulate()
-								, nbrSentencesToLoad // -1  unlimited
-							)
-				);
-				executorService.shutdown();
+				// run it in the background
+				if (! this.backgroundTasks.submit(
+						POOL.UTILITY
+						, UdTreebankDataCreateTask.class.getSimpleName()
+						, () -> {
+							new UdTreebankDataCreateTask(
+									this
+									, requestor
+									, form.getDataSource()
+									, form.isPullFirst()
+									, form.isDeleteFirst()
+									, form.isSimulate()
+									, nbrSentencesToLoad // -1  unlimited
+									).run();
+							// it deletes nodes without going through the tag index
+							this.rebuildTagIndexLater();
+						}
+				)) {
+					status.setCode(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+					status.setMessage("Too many utilities are running.  Please try again later.");
+				}
 			} catch (Exception e) {
 				ErrorUtils.report(logger, e);
 				status.setCode(HTTP_RESPONSE_CODES.SERVER_ERROR.code);
@@ -0,0 +1,160 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.cypher;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+
+/**
+ * Collects the parameters used by a Cypher query template.
+ *
+ * The CypherQueryFor* classes use this so that the values supplied by the user
+ * are passed to Neo4j as parameters rather than spliced into the query text.
+ * That way the text of the query is the same each time a given kind of search
+ * is run, and Neo4j can reuse the execution plan it has cached for it.
+ * It also means the values do not need to be quoted or escaped.
+ *
+ * Labels, property names, and relationship types can't be parameters in Cypher,
+ * so those are still part of the text of the query.
+ *
+ * @author mac002
+ *
+ */
+public class CypherParameters {
+	private static final Logger logger = LoggerFactory.getLogger(CypherParameters.class);
+	private final Map<String, Object> values = new TreeMap<String, Object>();
+
+	/**
+	 * Add a parameter
+	 * @param name of the parameter
+	 * @param value of the parameter
+	 * @return the placeholder to use for the parameter in the query, e.g. {name}
+	 */
+	String add(String name, Object value) {
+		values.put(name, value);
+		return "{" + name + "}";
+	}
+
+	Map<String, Object> getValues() {
+		return values;
+	}
+
+	/**
+	 * if the operator is an 'or':
+	 *
+	 * any (x in {tags} where x in link.tags)
+	 *
+	 * if the operator is an 'and':
+	 *
+	 * all (x in {tags} where x in link.tags)
+	 *
+	 * @param property
+	 * @param tags - comma delimited
+	 * @param operator
+	 * @return the condition to use in the where clause
+	 */
+	String tagMatcher(
+			String property
+			, String tags
+			, String operator
+			) {
+		String theOperator = "all"; // initialize to 'all', but change to 'any' if using 'or'
+		if (operator != null && (operator.trim().equals("or") || operator.trim().equals("any"))) {
+			theOperator = "any";
+		}
+		return theOperator + " (x in " + add("tags", toList(tags)) + " where x in " + property + ")";
+	}
+
+	/**
+	 * Returns the query with the parameter values written into it as literals.
+	 * Useful for logging, and for code that can only run the text of a query.
+	 * @param template
+	 * @return the query with literal values
+	 */
+	String inline(String template) {
+		String result = template;
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			result = result.replace("{" + entry.getKey() + "}", toLiteral(entry.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * @param commaDelimited, e.g. "a, b, c"
+	 * @return the trimmed parts
+	 */
+	static List<String> toList(String commaDelimited) {
+		List<String> result = new ArrayList<String>();
+		if (commaDelimited != null) {
+			for (String part : commaDelimited.split(",")) {
+				if (part.trim().length() > 0) {
+					result.add(part.trim());
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param json a json array of strings, e.g. ["gr_gr_cog","en_us_dedes"]
+	 * @return the strings in the array
+	 */
+	static List<String> jsonArrayToList(String json) {
+		List<String> result = new ArrayList<String>();
+		try {
+			for (JsonElement e : new JsonParser().parse(json).getAsJsonArray()) {
+				result.add(e.getAsString());
+			}
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+		}
+		return result;
+	}
+
+	/**
+	 * @param value - a string, number, boolean, list, or map
+	 * @return the value written as a Cypher literal, e.g. 'abc', [1, 2], {`id`: 'x'}
+	 */
+	public static String toLiteral(Object value) {
+		if (value instanceof Map) {
+			StringBuffer sb = new StringBuffer();
+			sb.append("{");
+			for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+				if (sb.length() > 1) {
+					sb.append(", ");
+				}
+				sb.append("`");
+				sb.append(String.valueOf(entry.getKey()).replace("`", "``"));
+				sb.append("`: ");
+				sb.append(toLiteral(entry.getValue()));
+			}
+			sb.append("}");
+			return sb.toString();
+		} else if (value == null) {
+			return "null";
+		} else if (value instanceof List) {
+			StringBuffer sb = new StringBuffer();
+			sb.append("[");
+			for (Object o : (List<?>) value) {
+				if (sb.length() > 1) {
+					sb.append(", ");
+				}
+				sb.append(toLiteral(o));
+			}
+			sb.append("]");
+			return sb.toString();
+		} else if (value instanceof Number || value instanceof Boolean) {
+			return String.valueOf(value);
+		} else {
+			return "'" + String.valueOf(value).replace("\\", "\\\\").replace("'", "\\'") + "'";
+		}
+	}
+}
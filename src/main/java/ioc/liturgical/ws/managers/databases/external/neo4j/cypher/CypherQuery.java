@@ -0,0 +1,19 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.cypher;
+
+import java.util.Map;
+
+/**
+ * A Cypher query whose values are passed to Neo4j as parameters.
+ * @author mac002
+ *
+ */
+public interface CypherQuery {
+	/**
+	 * @return the text of the query, using {name} for each parameter
+	 */
+	public String getQueryTemplate();
+	/**
+	 * @return the value for each parameter used in the query template
+	 */
+	public Map<String, Object> getParameters();
+}
@@ -37,6 +37,7 @@ public class CypherQueryBuilderForDocs {
 	private String ORDER_BY = "";
 	private String REQUESTOR = "";
 	private String REQUESTOR_DOMAINS = "";
+	private List<String> IDS = null;
     private boolean prefixProperties = true;
     private boolean addWherePublic = false;
     
@@ -181,6 +182,17 @@ public class CypherQueryBuilderForDocs {
         return this;
     }
 
+    /**
+     * Limit the search to the nodes with these IDs,
+     * e.g. the ones found by the text index
+     * @param IDS
+     * @return
+     */
+    public CypherQueryBuilderForDocs IDS(List<String> IDS) {
+        this.IDS = IDS;
+        return this;
+    }
+
     public CypherQueryForDocs build() {
         return new CypherQueryForDocs(
         		MATCH
@@ -204,6 +216,7 @@ public class CypherQueryBuilderForDocs {
         		, ORDER_BY
         		, REQUESTOR
         		, REQUESTOR_DOMAINS
+        		, IDS
         		, prefixProperties
         		, addWherePublic
         		);
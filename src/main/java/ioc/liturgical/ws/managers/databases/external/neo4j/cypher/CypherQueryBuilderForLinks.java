@@ -66,7 +66,7 @@ public class CypherQueryBuilderForLinks {
     	if (LIBRARY.startsWith("*") || LIBRARY.toLowerCase().startsWith("all") || LIBRARY.length() == 0) {
     		// ignore
     	} else {
-          this.LIBRARY = " link.library = \'" + LIBRARY + "\'";
+          this.LIBRARY = LIBRARY;
     	}
         return this;
     }
@@ -94,7 +94,7 @@ public class CypherQueryBuilderForNotes {
     	if (LIBRARY.startsWith("*") || LIBRARY.toLowerCase().startsWith("all") || LIBRARY.length() == 0) {
     		// ignore
     	} else {
-          this.LIBRARY = " to.library = \'" + LIBRARY + "\'";
+          this.LIBRARY = LIBRARY;
     	}
         return this;
     }
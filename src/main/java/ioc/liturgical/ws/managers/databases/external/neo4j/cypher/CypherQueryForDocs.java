@@ -5,8 +5,7 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.List;
-
-import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import java.util.Map;
 
 /**
  * Provides a means to build a query for searching docs.
@@ -19,7 +18,7 @@ import org.ocmc.ioc.liturgical.utils.ErrorUtils;
  * @author mac002
  *
  */
-public class CypherQueryForDocs {
+public class CypherQueryForDocs implements CypherQuery {
 	private static final Logger logger = LoggerFactory.getLogger(CypherQueryForDocs.class);
 	private String MATCH = "";
 	private String LABEL = "";
@@ -42,6 +41,7 @@ public class CypherQueryForDocs {
 	private String ORDER_BY = "";
 	private String REQUESTOR = "";
 	private String REQUESTOR_DOMAINS = "";
+	private List<String> IDS = null;
 	private boolean prefixProperties = true;
 	private boolean addWherePublic = true;
 	
@@ -67,6 +67,7 @@ public class CypherQueryForDocs {
 			, String ORDER_BY
 			, String REQUESTOR
 			, String REQUESTOR_DOMAINS
+			, List<String> IDS
 			, boolean prefixProperties
 			, boolean addWherePublic
 			) {
@@ -87,6 +88,7 @@ public class CypherQueryForDocs {
 		this.ORDER_BY = ORDER_BY;
 		this.REQUESTOR = REQUESTOR;
 		this.REQUESTOR_DOMAINS = REQUESTOR_DOMAINS;
+		this.IDS = IDS;
 		this.prefixProperties = prefixProperties;
 		this.addWherePublic = addWherePublic;
 		this.TAG_OPERATOR = TAG_OPERATOR;
@@ -96,7 +98,32 @@ public class CypherQueryForDocs {
 	};
 	
 
+	/**
+	 * @return the query, with the values to match as parameters,
+	 * e.g. {startsWith}.  Run it using the map from getParameters().
+	 */
+	public String getQueryTemplate() {
+		return render(new CypherParameters());
+	}
+
+	/**
+	 * @return the values of the parameters used by getQueryTemplate()
+	 */
+	public Map<String, Object> getParameters() {
+		CypherParameters parameters = new CypherParameters();
+		render(parameters);
+		return parameters.getValues();
+	}
+
+	/**
+	 * @return the query with the parameter values written into it
+	 */
 	public String toString() {
+		CypherParameters parameters = new CypherParameters();
+		return parameters.inline(render(parameters));
+	}
+
+	private String render(CypherParameters p) {
 		StringBuilder sb = new StringBuilder();
 		sb.append("MATCH (doc");
 		if (LABEL.length() >0) {
@@ -107,111 +134,78 @@ public class CypherQueryForDocs {
 		}
 		sb.append(") ");
 
-		StringBuffer whereClause = new StringBuffer();
+		List<String> where = new ArrayList<String>();
 
+		if (IDS != null) {
+			where.add("doc.id IN " + p.add("ids", IDS));
+		}
 		if (STARTS_WITH.length() > 0) {
-			whereClause.append("WHERE doc." + WHERE + " STARTS WITH '" + STARTS_WITH + "' ");
+			where.add("doc." + WHERE + " STARTS WITH " + p.add("startsWith", STARTS_WITH));
 		} else if (EQUALS.length() > 0 ) {
-			whereClause.append("WHERE doc." + WHERE + " = '" + EQUALS + "' ");
+			where.add("doc." + WHERE + " = " + p.add("equals", EQUALS));
 		} else 	if (ENDS_WITH.length() > 0) {
-			whereClause.append("WHERE doc." + WHERE + " ENDS WITH '" + ENDS_WITH + "' ");
+			where.add("doc." + WHERE + " ENDS WITH " + p.add("endsWith", ENDS_WITH));
 		} else if (CONTAINS.length() > 0) {
-			whereClause.append("WHERE doc." + WHERE + " CONTAINS '" + CONTAINS + "' ");
+			where.add("doc." + WHERE + " CONTAINS " + p.add("contains", CONTAINS));
 		} else if (MATCHES_PATTERN.length() > 0) {
-			whereClause.append("WHERE doc." + WHERE + " =~ '" + MATCHES_PATTERN + "' ");
+			where.add("doc." + WHERE + " =~ " + p.add("pattern", MATCHES_PATTERN));
 		} else if (GREATER_THAN.length() > 0 ) {
-			whereClause.append("WHERE doc." + WHERE + " > '" + GREATER_THAN + "' ");
+			where.add("doc." + WHERE + " > " + p.add("greaterThan", GREATER_THAN));
 		} else if (GREATER_THAN_OR_EQUAL.length() > 0 ) {
-			whereClause.append("WHERE doc." + WHERE + " >= '" + GREATER_THAN_OR_EQUAL + "' ");
+			where.add("doc." + WHERE + " >= " + p.add("greaterThanOrEqual", GREATER_THAN_OR_EQUAL));
 		} 
 
 		if (LESS_THAN.length() > 0 ) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} 
-			whereClause.append("WHERE doc." + WHERE + " < '" + LESS_THAN + "' ");
+			where.add("doc." + WHERE + " < " + p.add("lessThan", LESS_THAN));
 		} else if (LESS_THAN_OR_EQUAL.length() > 0 ) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE ");
-			}
-			whereClause.append("doc." + WHERE + " <= '" + LESS_THAN_OR_EQUAL + "' ");
+			where.add("doc." + WHERE + " <= " + p.add("lessThanOrEqual", LESS_THAN_OR_EQUAL));
 		}
 
 		if (LIBRARY.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE ");
-			}
-			whereClause.append("doc.id starts with \"" + LIBRARY + "\"");
+			where.add("doc.id STARTS WITH " + p.add("library", LIBRARY));
 		}
 
 		if (TOPIC.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE ");
-			}
-			whereClause.append("doc.topic = \"" + TOPIC + "\"");
-		}
-
-		if (whereClause.length() > 0) {
-			sb.append(whereClause);
+			where.add("doc.topic = " + p.add("topic", TOPIC));
 		}
 
 		if (TAGS.length() > 0) {
-			if (whereClause.length() > 0) {
-				sb.append(" AND ");
-			} else {
-				sb.append(" WHERE ");
-			}
-			sb.append(tagMatcher("doc.tags", TAGS, TAG_OPERATOR));
+			where.add(p.tagMatcher("doc.tags", TAGS, TAG_OPERATOR));
 		}
 
 		if (addWherePublic) {
-			if (whereClause.length() > 0) {
-				sb.append(" AND ");
-			} else {
-				sb.append(" WHERE");
-			}
 			if (this.REQUESTOR_DOMAINS.length() > 0) {
-				sb.append(" (doc.visibility = 'PUBLIC' or doc.library in ");
-				sb.append(this.REQUESTOR_DOMAINS);
-				sb.append(") ");
-//				if (this.REQUESTOR.length() > 0 && (! this.REQUESTOR.startsWith("*"))) {
-//				sb.append(" (doc.visibility = 'PUBLIC' or doc.createdBy = '");
-//				sb.append(this.REQUESTOR);
-//				sb.append("' or doc.assignedTo = '");
-//				sb.append(this.REQUESTOR);
-//				sb.append("') ");
+				where.add("(doc.visibility = 'PUBLIC' or doc.library in "
+						+ p.add("requestorDomains", CypherParameters.jsonArrayToList(REQUESTOR_DOMAINS))
+						+ ")"
+				);
 			} else {
-				sb.append(" doc.visibility = 'PUBLIC' ");
+				where.add("doc.visibility = 'PUBLIC'");
 			}
 		}
 		if (EXCLUDE_LABEL.length() > 0) {
-			if (whereClause.length() > 0) {
-				sb.append(" AND NOT ");
-			} else {
-				sb.append(" WHERE NOT ");
-			}
-			sb.append("(doc:" + EXCLUDE_LABEL + ") ");
+			where.add("NOT (doc:" + EXCLUDE_LABEL + ")");
+		}
+
+		if (where.size() > 0) {
+			sb.append("WHERE ");
+			sb.append(String.join(" AND ", where));
 		}
 
-		if (RETURN.contains("split")) {
-			sb.append(" RETURN " + RETURN);
-		} else if (RETURN.equals("*") || RETURN.length() == 0){
+		String theReturn = RETURN;
+		if (theReturn.contains("split")) {
+			sb.append(" RETURN " + theReturn);
+		} else if (theReturn.equals("*") || theReturn.length() == 0){
 			sb.append(" RETURN properties(doc)");
 		} else {
-			if (! RETURN.contains("_valueSchemaId")) {
-				RETURN = RETURN + ",_valueSchemaId";
+			if (! theReturn.contains("_valueSchemaId")) {
+				theReturn = theReturn + ",_valueSchemaId";
 			}
 			if (prefixProperties) {
-				sb.append(" RETURN doc." + RETURN.replaceAll(" ", "").replaceAll(",", ", doc."));
+				sb.append(" RETURN doc." + theReturn.replaceAll(" ", "").replaceAll(",", ", doc."));
 			} else {
-				RETURN = RETURN.replaceAll(" ", "");
-				String [] props = RETURN.split(",");
+				theReturn = theReturn.replaceAll(" ", "");
+				String [] props = theReturn.split(",");
 				sb.append(" RETURN doc." + props[0] + " as " + props[0]);
 				for (int i=1; i < props.length; i++) {
 					sb.append(", doc." + props[i] + " as " + props[i]);
@@ -326,58 +320,6 @@ public class CypherQueryForDocs {
 		return TAGS;
 	}
 
-	/**
-	 * if the operator is an 'or':
-	 * 
-	 * any (x in ["a", "b"] where x in link.tags)
-	 *
-	 * if the operator is an 'and':
-	 * 
-	 * all (x in ["a", "b"] where x in link.tags)
-	 * 
-	 * @param property
-	 * @param tags
-	 * @param operator
-	 * @return
-	 */
-	private String tagMatcher(
-			String property
-			, String tags
-			, String operator
-			) {
-		StringBuffer result = new StringBuffer();
-		String theOperator = " all "; // initialize to 'all', but change to 'any' if using 'or'
-		if (operator.trim().equals("or")) {
-			theOperator = " any ";
-		}
-		if (tags != null && tags.length() > 0) {
-			try {
-				String [] parts = tags.split(",");
-				if (parts.length > 0) {
-					result.append(theOperator);
-					result.append(" (x in [");
-				    result.append("\"");
-				    result.append(parts[0].trim());
-				    result.append("\" ");
-				}
-				if (parts.length > 1) {
-					for (int i=1; i < parts.length; i++) {
-					    result.append(", \"");
-					    result.append(parts[i].trim());
-					    result.append("\"");
-					}
-				}
-				result.append("] where x in ");
-				result.append(property);
-				result.append(") ");
-			} catch (Exception e) {
-				ErrorUtils.report(logger, e);
-			}
-		}
-		return result.toString();
-	}
-
-
 	public void setTAGS(String tAGS) {
 		TAGS = tAGS;
 	}
@@ -477,4 +419,14 @@ public class CypherQueryForDocs {
 	}
 
 
+	public List<String> getIDS() {
+		return IDS;
+	}
+
+
+	public void setIDS(List<String> IDS) {
+		this.IDS = IDS;
+	}
+
+
 }
\ No newline at end of file
@@ -3,7 +3,9 @@ package ioc.liturgical.ws.managers.databases.external.neo4j.cypher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  *  Provides a means to build a query for searching notes.
@@ -18,7 +20,7 @@ import org.ocmc.ioc.liturgical.utils.ErrorUtils;
  *
  */
 
-public class CypherQueryForGeneric {
+public class CypherQueryForGeneric implements CypherQuery {
 	private static final Logger logger = LoggerFactory.getLogger(CypherQueryForGeneric.class);
 
 	private String MATCH = "";
@@ -81,69 +83,74 @@ public class CypherQueryForGeneric {
 	};
 	
 
+	/**
+	 * @return the query, with the values to match as parameters,
+	 * e.g. {startsWith}.  Run it using the map from getParameters().
+	 */
+	public String getQueryTemplate() {
+		return render(new CypherParameters());
+	}
+
+	/**
+	 * @return the values of the parameters used by getQueryTemplate()
+	 */
+	public Map<String, Object> getParameters() {
+		CypherParameters parameters = new CypherParameters();
+		render(parameters);
+		return parameters.getValues();
+	}
+
+	/**
+	 * @return the query with the parameter values written into it
+	 */
 	public String toString() {
+		CypherParameters parameters = new CypherParameters();
+		return parameters.inline(render(parameters));
+	}
+
+	private String render(CypherParameters p) {
 		StringBuilder sb = new StringBuilder();
 		sb.append("MATCH (n:");
 		sb.append(LABEL);
 		sb.append(") ");
 
-		StringBuffer whereClause = new StringBuffer();
+		List<String> where = new ArrayList<String>();
 		if (STARTS_WITH.length() > 0) {
-			whereClause.append("WHERE n." + WHERE + " STARTS WITH '" + STARTS_WITH + "' ");
+			where.add("n." + WHERE + " STARTS WITH " + p.add("startsWith", STARTS_WITH));
 		} else if (EQUALS.length() > 0 ) {
-			whereClause.append("WHERE n." + WHERE + " = '" + EQUALS + "' ");
+			where.add("n." + WHERE + " = " + p.add("equals", EQUALS));
 		} else 	if (ENDS_WITH.length() > 0) {
-			whereClause.append("WHERE n." + WHERE + " ENDS WITH '" + ENDS_WITH + "' ");
+			where.add("n." + WHERE + " ENDS WITH " + p.add("endsWith", ENDS_WITH));
 		} else if (CONTAINS.length() > 0) {
-			whereClause.append("WHERE n." + WHERE + " CONTAINS '" + CONTAINS + "' ");
+			where.add("n." + WHERE + " CONTAINS " + p.add("contains", CONTAINS));
 		} else if (MATCHES_PATTERN.length() > 0) {
-			whereClause.append("WHERE n." + WHERE + " =~ '" + MATCHES_PATTERN + "' ");
+			where.add("n." + WHERE + " =~ " + p.add("pattern", MATCHES_PATTERN));
 		} 
 		if (LIBRARY.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE ");
-			}
-			whereClause.append(LIBRARY);
+			where.add("n.library = " + p.add("library", LIBRARY));
 		}
 		if (TAGS.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE ");
-			}
-			whereClause.append(tagMatcher("n.tags", TAGS, TAG_OPERATOR));
+			where.add(p.tagMatcher("n.tags", TAGS, TAG_OPERATOR));
 		}
-		
+
 		if (addWherePublic) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE");
-			}
 			if (this.REQUESTOR.length() > 0 && (! this.REQUESTOR.startsWith("*"))) {
-				whereClause.append(" (n.visibility = 'PUBLIC' or n.createdBy = '");
-				whereClause.append(this.REQUESTOR);
-				whereClause.append("' or n.assignedTo = '");
-				whereClause.append(this.REQUESTOR);
-				whereClause.append("') ");
+				String requestor = p.add("requestor", this.REQUESTOR);
+				where.add("(n.visibility = 'PUBLIC' or n.createdBy = " + requestor
+						+ " or n.assignedTo = " + requestor + ")"
+				);
 			} else {
-				whereClause.append(" n.visibility = 'PUBLIC' ");
+				where.add("n.visibility = 'PUBLIC'");
 			}
 		}
 
 		if (EXCLUDE_TYPE != null && EXCLUDE_TYPE.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND NOT ");
-			} else {
-				whereClause.append(" WHERE NOT ");
-			}
-			whereClause.append("type(n) = '" + EXCLUDE_TYPE + "' ");
+			where.add("NOT type(n) = " + p.add("excludeType", EXCLUDE_TYPE));
 		}
 
-		if (whereClause.length() > 0) {
-			sb.append(whereClause);
+		if (where.size() > 0) {
+			sb.append("WHERE ");
+			sb.append(String.join(" AND ", where));
 		}
 		
 		sb.append(" RETURN " + RETURN);
@@ -256,58 +263,6 @@ public class CypherQueryForGeneric {
 		REQUESTOR = requestor;
 	}
 
-	/**
-	 * if the operator is an 'or':
-	 * 
-	 * any (x in ["a", "b"] where x in link.tags)
-	 *
-	 * if the operator is an 'and':
-	 * 
-	 * all (x in ["a", "b"] where x in link.tags)
-	 * 
-	 * @param property
-	 * @param tags
-	 * @param operator
-	 * @return
-	 */
-	private String tagMatcher(
-			String property
-			, String tags
-			, String operator
-			) {
-		StringBuffer result = new StringBuffer();
-		String theOperator = " all "; // initialize to 'all', but change to 'any' if using 'or'
-		if (operator.trim().equals("or") || operator.trim().equals("any")) {
-			theOperator = " any ";
-		}
-		if (tags != null && tags.length() > 0) {
-			try {
-				String [] parts = tags.split(",");
-				if (parts.length > 0) {
-					result.append(theOperator);
-					result.append(" (x in [");
-				    result.append("\"");
-				    result.append(parts[0].trim());
-				    result.append("\" ");
-				}
-				if (parts.length > 1) {
-					for (int i=1; i < parts.length; i++) {
-					    result.append(", \"");
-					    result.append(parts[i].trim());
-					    result.append("\"");
-					}
-				}
-				result.append("] where x in ");
-				result.append(property);
-				result.append(") ");
-			} catch (Exception e) {
-				ErrorUtils.report(logger, e);
-			}
-		}
-		return result.toString();
-	}
-
-
 	public String getTAGS() {
 		return TAGS;
 	}
@@ -3,7 +3,9 @@ package ioc.liturgical.ws.managers.databases.external.neo4j.cypher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 /**
  *  Provides a means to build a query for searching links.
@@ -18,7 +20,7 @@ import org.ocmc.ioc.liturgical.utils.ErrorUtils;
  *
  */
 
-public class CypherQueryForLinks {
+public class CypherQueryForLinks implements CypherQuery {
 	private static final Logger logger = LoggerFactory.getLogger(CypherQueryForLinks.class);
 
 	private String MATCH = "";
@@ -75,7 +77,32 @@ public class CypherQueryForLinks {
 	};
 	
 
+	/**
+	 * @return the query, with the values to match as parameters,
+	 * e.g. {startsWith}.  Run it using the map from getParameters().
+	 */
+	public String getQueryTemplate() {
+		return render(new CypherParameters());
+	}
+
+	/**
+	 * @return the values of the parameters used by getQueryTemplate()
+	 */
+	public Map<String, Object> getParameters() {
+		CypherParameters parameters = new CypherParameters();
+		render(parameters);
+		return parameters.getValues();
+	}
+
+	/**
+	 * @return the query with the parameter values written into it
+	 */
 	public String toString() {
+		CypherParameters parameters = new CypherParameters();
+		return parameters.inline(render(parameters));
+	}
+
+	private String render(CypherParameters p) {
 		StringBuilder sb = new StringBuilder();
 		sb.append("MATCH (from:OntologyRoot)-[link");
 		if (TYPE.length() >0) {
@@ -83,63 +110,43 @@ public class CypherQueryForLinks {
 		}
 		sb.append("]->(to:OntologyRoot) ");
 
-		StringBuffer whereClause = new StringBuffer();
+		List<String> where = new ArrayList<String>();
 		if (STARTS_WITH.length() > 0) {
-			whereClause.append("WHERE link." + WHERE + " STARTS WITH '" + STARTS_WITH + "' ");
+			where.add("link." + WHERE + " STARTS WITH " + p.add("startsWith", STARTS_WITH));
 		} else if (EQUALS.length() > 0 ) {
-			whereClause.append("WHERE link." + WHERE + " = '" + EQUALS + "' ");
+			where.add("link." + WHERE + " = " + p.add("equals", EQUALS));
 		} else 	if (ENDS_WITH.length() > 0) {
-			whereClause.append("WHERE link." + WHERE + " ENDS WITH '" + ENDS_WITH + "' ");
+			where.add("link." + WHERE + " ENDS WITH " + p.add("endsWith", ENDS_WITH));
 		} else if (CONTAINS.length() > 0) {
-			whereClause.append("WHERE link." + WHERE + " CONTAINS '" + CONTAINS + "' ");
+			where.add("link." + WHERE + " CONTAINS " + p.add("contains", CONTAINS));
 		} else if (MATCHES_PATTERN.length() > 0) {
-			whereClause.append("WHERE link." + WHERE + " =~ '" + MATCHES_PATTERN + "' ");
+			where.add("link." + WHERE + " =~ " + p.add("pattern", MATCHES_PATTERN));
 		} 
-		if (whereClause.length() > 0) {
-			sb.append(whereClause);
-		}
 		if (LIBRARY.length() > 0) {
-			if (whereClause.length() > 0) {
-				sb.append(" AND ");
-			} else {
-				sb.append(" WHERE ");
-			}
-			sb.append(LIBRARY);
+			where.add("link.library = " + p.add("library", LIBRARY));
 		}
 		if (TAGS.length() > 0) {
-			if (whereClause.length() > 0) {
-				sb.append(" AND ");
-			} else {
-				sb.append(" WHERE ");
-			}
-			sb.append(tagMatcher("link.tags", TAGS, TAG_OPERATOR));
+			where.add(p.tagMatcher("link.tags", TAGS, TAG_OPERATOR));
 		}
-		
+
 		if (addWherePublic) {
-			if (whereClause.length() > 0) {
-				sb.append(" AND ");
-			} else {
-				sb.append(" WHERE");
-			}
 			if (this.REQUESTOR.length() > 0 && (! this.REQUESTOR.startsWith("*"))) {
-				sb.append(" (link.visibility = 'PUBLIC' or link.createdBy = '");
-				sb.append(this.REQUESTOR);
-				sb.append("' or link.assignedTo = '");
-				sb.append(this.REQUESTOR);
-				sb.append("') ");
+				String requestor = p.add("requestor", this.REQUESTOR);
+				where.add("(link.visibility = 'PUBLIC' or link.createdBy = " + requestor
+						+ " or link.assignedTo = " + requestor + ")"
+				);
 			} else {
-				sb.append(" doc.visibility = 'PUBLIC' ");
+				where.add("link.visibility = 'PUBLIC'");
 			}
 		}
 
-		
 		if (EXCLUDE_TYPE != null && EXCLUDE_TYPE.length() > 0) {
-			if (whereClause.length() > 0) {
-				sb.append(" AND NOT ");
-			} else {
-				sb.append(" WHERE NOT ");
-			}
-			sb.append("type(link) = '" + EXCLUDE_TYPE + "' ");
+			where.add("NOT type(link) = " + p.add("excludeType", EXCLUDE_TYPE));
+		}
+
+		if (where.size() > 0) {
+			sb.append("WHERE ");
+			sb.append(String.join(" AND ", where));
 		}
 
 		sb.append(" RETURN " + RETURN);
@@ -252,58 +259,6 @@ public class CypherQueryForLinks {
 		LIBRARY = lIBRARY;
 	}
 
-	/**
-	 * if the operator is an 'or':
-	 * 
-	 * any (x in ["a", "b"] where x in link.tags)
-	 *
-	 * if the operator is an 'and':
-	 * 
-	 * all (x in ["a", "b"] where x in link.tags)
-	 * 
-	 * @param property
-	 * @param tags
-	 * @param operator
-	 * @return
-	 */
-	private String tagMatcher(
-			String property
-			, String tags
-			, String operator
-			) {
-		StringBuffer result = new StringBuffer();
-		String theOperator = " all "; // initialize to 'all', but change to 'any' if using 'or'
-		if (operator.trim().equals("or")) {
-			theOperator = " any ";
-		}
-		if (tags != null && tags.length() > 0) {
-			try {
-				String [] parts = tags.split(",");
-				if (parts.length > 0) {
-					result.append(theOperator);
-					result.append(" (x in [");
-				    result.append("\"");
-				    result.append(parts[0].trim());
-				    result.append("\" ");
-				}
-				if (parts.length > 1) {
-					for (int i=1; i < parts.length; i++) {
-					    result.append(", \"");
-					    result.append(parts[i].trim());
-					    result.append("\"");
-					}
-				}
-				result.append("] where x in ");
-				result.append(property);
-				result.append(") ");
-			} catch (Exception e) {
-				ErrorUtils.report(logger, e);
-			}
-		}
-		return result.toString();
-	}
-
-
 	public String getTAGS() {
 		return TAGS;
 	}
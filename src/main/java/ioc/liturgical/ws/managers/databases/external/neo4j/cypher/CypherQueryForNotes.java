@@ -3,11 +3,13 @@ package ioc.liturgical.ws.managers.databases.external.neo4j.cypher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 import ioc.liturgical.ws.app.ServiceProvider;
 import ioc.liturgical.ws.managers.databases.external.neo4j.ExternalDbManager;
 
-import org.ocmc.ioc.liturgical.utils.ErrorUtils;
-
 /**
  *  Provides a means to build a query for searching notes.
  * There are three types of query builders:
@@ -21,7 +23,7 @@ import org.ocmc.ioc.liturgical.utils.ErrorUtils;
  *
  */
 
-public class CypherQueryForNotes {
+public class CypherQueryForNotes implements CypherQuery {
 	private static final Logger logger = LoggerFactory.getLogger(CypherQueryForNotes.class);
 
 	private String MATCH = "";
@@ -84,7 +86,32 @@ public class CypherQueryForNotes {
 	};
 	
 
+	/**
+	 * @return the query, with the values to match as parameters,
+	 * e.g. {startsWith}.  Run it using the map from getParameters().
+	 */
+	public String getQueryTemplate() {
+		return render(new CypherParameters());
+	}
+
+	/**
+	 * @return the values of the parameters used by getQueryTemplate()
+	 */
+	public Map<String, Object> getParameters() {
+		CypherParameters parameters = new CypherParameters();
+		render(parameters);
+		return parameters.getValues();
+	}
+
+	/**
+	 * @return the query with the parameter values written into it
+	 */
 	public String toString() {
+		CypherParameters parameters = new CypherParameters();
+		return parameters.inline(render(parameters));
+	}
+
+	private String render(CypherParameters p) {
 		StringBuilder sb = new StringBuilder();
 		sb.append("MATCH (from:Text)-[link");
 		if (TYPE.length() >0) {
@@ -94,75 +121,50 @@ public class CypherQueryForNotes {
 		sb.append(LABEL);
 		sb.append(") ");
 
-		StringBuffer whereClause = new StringBuffer();
+		List<String> where = new ArrayList<String>();
 		if (STARTS_WITH.length() > 0) {
-			whereClause.append("WHERE to." + WHERE + " STARTS WITH '" + STARTS_WITH + "' ");
+			where.add("to." + WHERE + " STARTS WITH " + p.add("startsWith", STARTS_WITH));
 		} else if (EQUALS.length() > 0 ) {
-			whereClause.append("WHERE to." + WHERE + " = '" + EQUALS + "' ");
+			where.add("to." + WHERE + " = " + p.add("equals", EQUALS));
 		} else 	if (ENDS_WITH.length() > 0) {
-			whereClause.append("WHERE to." + WHERE + " ENDS WITH '" + ENDS_WITH + "' ");
+			where.add("to." + WHERE + " ENDS WITH " + p.add("endsWith", ENDS_WITH));
 		} else if (CONTAINS.length() > 0) {
-			whereClause.append("WHERE to." + WHERE + " CONTAINS '" + CONTAINS + "' ");
+			where.add("to." + WHERE + " CONTAINS " + p.add("contains", CONTAINS));
 		} else if (MATCHES_PATTERN.length() > 0) {
-			whereClause.append("WHERE to." + WHERE + " =~ '" + MATCHES_PATTERN + "' ");
+			where.add("to." + WHERE + " =~ " + p.add("pattern", MATCHES_PATTERN));
 		} 
 		if (LIBRARY.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE ");
-			}
-			whereClause.append(LIBRARY);
+			where.add("to.library = " + p.add("library", LIBRARY));
 		}
 		if (TAGS.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE ");
-			}
-			whereClause.append(tagMatcher("to.tags", TAGS, TAG_OPERATOR));
+			where.add(p.tagMatcher("to.tags", TAGS, TAG_OPERATOR));
 		}
-		
+
 		if (addWherePublic && (! this.REQUESTOR.equals(ServiceProvider.ws_usr))) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND ");
-			} else {
-				whereClause.append(" WHERE");
-			}
-			 if (this.REQUESTOR.length() > 0 || (! this.REQUESTOR.startsWith("*"))) {
-				whereClause.append(" (to.visibility = 'PUBLIC' or to.createdBy = '");
-				whereClause.append(this.REQUESTOR);
-				whereClause.append("' or to.assignedTo = '");
-				whereClause.append(this.REQUESTOR);
-				whereClause.append("') ");
+			if (this.REQUESTOR.length() > 0 || (! this.REQUESTOR.startsWith("*"))) {
+				String requestor = p.add("requestor", this.REQUESTOR);
+				where.add("(to.visibility = 'PUBLIC' or to.createdBy = " + requestor
+						+ " or to.assignedTo = " + requestor + ")"
+				);
 			} else {
-				whereClause.append(" to.visibility = 'PUBLIC' ");
+				where.add("to.visibility = 'PUBLIC'");
 			}
 		}
 
 		if (EXCLUDE_TYPE != null && EXCLUDE_TYPE.length() > 0) {
-			if (whereClause.length() > 0) {
-				whereClause.append(" AND NOT ");
-			} else {
-				whereClause.append(" WHERE NOT ");
-			}
-			whereClause.append("type(to) = '" + EXCLUDE_TYPE + "' ");
-		}
-
-		if (whereClause.length() > 0) {
-			sb.append(whereClause);
+			where.add("NOT type(to) = " + p.add("excludeType", EXCLUDE_TYPE));
 		}
 
 		if (NOTE_TYPE != null && NOTE_TYPE.length() > 0) {
 			if (! NOTE_TYPE.startsWith("*")) {
-				if (whereClause.length() > 0) {
-					sb.append(" AND ");
-				} else {
-					sb.append(" WHERE  ");
-				}
-				sb.append("to.noteType = '" + NOTE_TYPE + "' ");
+				where.add("to.noteType = " + p.add("noteType", NOTE_TYPE));
 			} 
 		}
+
+		if (where.size() > 0) {
+			sb.append("WHERE ");
+			sb.append(String.join(" AND ", where));
+		}
 		
 		sb.append(" RETURN " + RETURN);
 		sb.append(" ORDER BY " + ORDER_BY);
@@ -274,58 +276,6 @@ public class CypherQueryForNotes {
 		REQUESTOR = requestor;
 	}
 
-	/**
-	 * if the operator is an 'or':
-	 * 
-	 * any (x in ["a", "b"] where x in link.tags)
-	 *
-	 * if the operator is an 'and':
-	 * 
-	 * all (x in ["a", "b"] where x in link.tags)
-	 * 
-	 * @param property
-	 * @param tags
-	 * @param operator
-	 * @return
-	 */
-	private String tagMatcher(
-			String property
-			, String tags
-			, String operator
-			) {
-		StringBuffer result = new StringBuffer();
-		String theOperator = " all "; // initialize to 'all', but change to 'any' if using 'or'
-		if (operator.trim().equals("or") || operator.trim().equals("any")) {
-			theOperator = " any ";
-		}
-		if (tags != null && tags.length() > 0) {
-			try {
-				String [] parts = tags.split(",");
-				if (parts.length > 0) {
-					result.append(theOperator);
-					result.append(" (x in [");
-				    result.append("\"");
-				    result.append(parts[0].trim());
-				    result.append("\" ");
-				}
-				if (parts.length > 1) {
-					for (int i=1; i < parts.length; i++) {
-					    result.append(", \"");
-					    result.append(parts[i].trim());
-					    result.append("\"");
-					}
-				}
-				result.append("] where x in ");
-				result.append(property);
-				result.append(") ");
-			} catch (Exception e) {
-				ErrorUtils.report(logger, e);
-			}
-		}
-		return result.toString();
-	}
-
-
 	public String getTAGS() {
 		return TAGS;
 	}
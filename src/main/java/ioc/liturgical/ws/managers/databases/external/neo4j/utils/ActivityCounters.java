@@ -0,0 +1,190 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Counts the searches and logins, and the locations they come from,
+ * without a lock or a database write on the request thread.
+ *
+ * Each count is a LongAdder, so concurrent requests do not wait for each other.
+ * Every flushSeconds, a single background thread takes what has been counted
+ * since the last flush and passes it to the writer, which adds it to the
+ * totals in the database using one transaction.  Since only that thread
+ * writes the totals, no increments are lost.  If the writer throws,
+ * the delta is added back, so it is passed again by the next flush.
+ * A writer that throws must therefore not have added any of it to the totals.
+ *
+ * Whatever has been counted is also flushed when the JVM shuts down.
+ *
+ * @author mac002
+ *
+ */
+public class ActivityCounters {
+	private static final Logger logger = LoggerFactory.getLogger(ActivityCounters.class);
+
+	public enum TYPE {
+		SEARCH
+		, LOGIN
+		;
+	}
+
+	/**
+	 * What was counted between two flushes
+	 */
+	public static class Delta {
+		public final long searches;
+		public final String lastSearched;
+		public final long logins;
+		public final String lastLogin;
+		/**
+		 * The count for each location, e.g. countryCode|country|region|regionName|city
+		 */
+		public final Map<String, Long> locations;
+
+		private Delta(long searches, String lastSearched, long logins, String lastLogin, Map<String, Long> locations) {
+			this.searches = searches;
+			this.lastSearched = lastSearched;
+			this.logins = logins;
+			this.lastLogin = lastLogin;
+			this.locations = Collections.unmodifiableMap(locations);
+		}
+
+		public boolean isEmpty() {
+			return searches == 0 && logins == 0 && locations.isEmpty();
+		}
+	}
+
+	private final LongAdder searches = new LongAdder();
+	private final LongAdder logins = new LongAdder();
+	private final Map<String, LongAdder> locations = new ConcurrentHashMap<String, LongAdder>();
+	private volatile String lastSearched = null;
+	private volatile String lastLogin = null;
+	private final Consumer<Delta> writer;
+	private final ScheduledExecutorService flusher;
+
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param writer - adds the delta to the totals in the database
+	 * @param flushSeconds - how often to call the writer
+	 */
+	public ActivityCounters(Consumer<Delta> writer, long flushSeconds) {
+		this.writer = writer;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "activity-stats-flusher");
+			t.setDaemon(true);
+			return t;
+		});
+		this.flusher.scheduleWithFixedDelay(this::flush, flushSeconds, flushSeconds, TimeUnit.SECONDS);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "activity-stats-shutdown"));
+	}
+
+	/**
+	 * Count a search or login.  Does not block.
+	 * @param type
+	 * @param location - where the request came from, may be null
+	 */
+	public void record(TYPE type, String location) {
+		String now = Instant.now().toString();
+		switch (type) {
+		case SEARCH:
+			searches.increment();
+			lastSearched = now;
+			break;
+		case LOGIN:
+			logins.increment();
+			lastLogin = now;
+			break;
+		}
+		if (location != null) {
+			locations.computeIfAbsent(location, k -> new LongAdder()).increment();
+		}
+	}
+
+	/**
+	 * Pass what has been counted since the last flush to the writer.
+	 * Runs on the flusher thread, and once more at shutdown.
+	 */
+	public synchronized void flush() {
+		Delta delta = null;
+		try {
+			Map<String, Long> locationDeltas = new TreeMap<String, Long>();
+			for (Map.Entry<String, LongAdder> entry : locations.entrySet()) {
+				long count = take(entry.getValue());
+				if (count > 0) {
+					locationDeltas.put(entry.getKey(), count);
+				}
+			}
+			delta = new Delta(
+					take(searches)
+					, lastSearched
+					, take(logins)
+					, lastLogin
+					, locationDeltas
+					);
+			if (! delta.isEmpty()) {
+				writer.accept(delta);
+				flushes.incrementAndGet();
+			}
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			ErrorUtils.report(logger, e);
+			if (delta != null) {
+				this.putBack(delta);
+			}
+		}
+	}
+
+	/**
+	 * Unlike sumThenReset, does not lose an increment made while it runs
+	 * @param adder
+	 * @return what the adder had counted
+	 */
+	private static long take(LongAdder adder) {
+		long sum = adder.sum();
+		adder.add(-sum);
+		return sum;
+	}
+
+	private void putBack(Delta delta) {
+		searches.add(delta.searches);
+		logins.add(delta.logins);
+		for (Map.Entry<String, Long> entry : delta.locations.entrySet()) {
+			locations.computeIfAbsent(entry.getKey(), k -> new LongAdder()).add(entry.getValue());
+		}
+	}
+
+	public void shutdown() {
+		if (! flusher.isShutdown()) {
+			flusher.shutdown();
+			this.flush();
+		}
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("pendingSearches", searches.sum());
+		json.addProperty("pendingLogins", logins.sum());
+		json.addProperty("locations", locations.size());
+		json.addProperty("flushes", flushes.get());
+		json.addProperty("failedFlushes", failed.get());
+		return json;
+	}
+}
@@ -0,0 +1,135 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.StatementResult;
+
+/**
+ * Remembers which node labels already have a unique constraint on the id property,
+ * so that a constraint is only created when it is missing, rather than
+ * issuing 'create constraint' each time a node is inserted.
+ *
+ * The existing constraints are read from the database (call db.constraints)
+ * the first time they are needed.  Call invalidate() after dropping a
+ * constraint, and they will be read again the next time.
+ *
+ * @author mac002
+ *
+ */
+public class ConstraintRegistry {
+	private static final Pattern CONSTRAINT_PATTERN = Pattern.compile("^CONSTRAINT ON (.*) ASSERT (.*)");
+
+	private final Set<String> idConstraints = ConcurrentHashMap.newKeySet();
+	private volatile boolean loaded = false;
+
+	/**
+	 * Replace the contents of the registry with the id constraints in the database
+	 * @param session
+	 */
+	public synchronized void load(Session session) {
+		idConstraints.clear();
+		StatementResult result = session.run("call db.constraints");
+		while (result.hasNext()) {
+			Record record = result.next();
+			String description = record.get("description").asString();
+			if (isIdConstraint(description)) {
+				idConstraints.add(getConstraintLabel(description));
+			}
+		}
+		loaded = true;
+	}
+
+	/**
+	 * Forget what is known about the constraints,
+	 * e.g. because a constraint has been dropped.
+	 */
+	public void invalidate() {
+		loaded = false;
+	}
+
+	/**
+	 * @param label
+	 * @return true if it is already known that the label has an id constraint
+	 */
+	public boolean hasIdConstraint(String label) {
+		return loaded && idConstraints.contains(label);
+	}
+
+	/**
+	 * @param labels
+	 * @return true if it is already known that all the labels have an id constraint
+	 */
+	public boolean hasIdConstraints(List<String> labels) {
+		if (! loaded) {
+			return false;
+		}
+		for (String label : labels) {
+			if (! idConstraints.contains(label)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Create the unique constraint on the id property of the label if it does not already exist
+	 * @param session
+	 * @param label
+	 */
+	public void ensureIdConstraint(Session session, String label) {
+		if (! loaded) {
+			load(session);
+		}
+		if (! idConstraints.contains(label)) {
+			session.run("create constraint on (p:" + label + ") assert p.id is unique").consume();
+			idConstraints.add(label);
+		}
+	}
+
+	/**
+	 * Create the unique constraint on the id property of each label that does not already have one
+	 * @param session
+	 * @param labels
+	 */
+	public void ensureIdConstraints(Session session, List<String> labels) {
+		for (String label : labels) {
+			ensureIdConstraint(session, label);
+		}
+	}
+
+	/**
+	 * @param description of a constraint, as returned by call db.constraints,
+	 * e.g. CONSTRAINT ON ( p:Root ) ASSERT p.id IS UNIQUE
+	 * @return the label of the constraint, e.g. Root, or null if the description is not recognized
+	 */
+	public static String getConstraintLabel(String description) {
+		Matcher m = CONSTRAINT_PATTERN.matcher(description);
+		if (m.matches()) {
+			String on = m.group(1);
+			on = on.replace("( ", "");
+			on = on.replace(" )", "");
+			String[] parts = on.split(":");
+			if (parts.length > 1) {
+				return parts[1];
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param description of a constraint, as returned by call db.constraints
+	 * @return true if it is a unique constraint on the id property
+	 */
+	public static boolean isIdConstraint(String description) {
+		Matcher m = CONSTRAINT_PATTERN.matcher(description);
+		return m.matches()
+				&& getConstraintLabel(description) != null
+				&& m.group(2).toLowerCase().matches("\\w+\\.id is unique");
+	}
+}
@@ -0,0 +1,132 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.text.Normalizer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Remembers the word grammar analyses that have been read from the database,
+ * so that a grammar page view does not query the database for
+ * words that have already been looked up.
+ *
+ * The key is the word, NFC normalized and in lower case.
+ * The value is the json array of its analyses, which is empty
+ * if the database has none for the word.  It is kept
+ * serialized, and each get returns a new copy.
+ *
+ * The entry for a word must be invalidated when an analysis
+ * of the word is added, updated, or deleted.  Entries also expire,
+ * in case a change is made that the cache is not told about.
+ *
+ * Each invalidation increments a generation.  The caller reads the
+ * generation before it reads the analyses from the database and passes
+ * it to put, which does not cache them if anything was invalidated
+ * in the meantime, since they may have been read before the change.
+ *
+ * @author mac002
+ *
+ */
+public class LexiconCache {
+	private final Cache<String, String> cache;
+	private final AtomicLong generation = new AtomicLong();
+
+	/**
+	 * @param maxEntries - the maximum number of words to hold
+	 * @param ttlMinutes - how long the analyses of a word may be reused
+	 */
+	public LexiconCache(long maxEntries, long ttlMinutes) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maxEntries)
+				.expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * @param word
+	 * @return the analyses of the word, or null if it is not in the cache
+	 */
+	public JsonArray getIfPresent(String word) {
+		String analyses = cache.getIfPresent(toKey(word));
+		if (analyses == null) {
+			return null;
+		} else {
+			return new JsonParser().parse(analyses).getAsJsonArray();
+		}
+	}
+
+	/**
+	 * @return the generation to pass to put, read before the analyses are
+	 */
+	public long getGeneration() {
+		return generation.get();
+	}
+
+	/**
+	 * @param word
+	 * @param analyses - the analyses read from the database, can be empty
+	 */
+	public void put(String word, JsonArray analyses) {
+		put(word, analyses, getGeneration());
+	}
+
+	/**
+	 * Cache the analyses of the word, unless an entry has been
+	 * invalidated since the generation was read
+	 * @param word
+	 * @param analyses - the analyses read from the database, can be empty
+	 * @param generation - as returned by getGeneration before the analyses were read
+	 */
+	public void put(String word, JsonArray analyses, long generation) {
+		if (getGeneration() != generation) {
+			return;
+		}
+		String key = toKey(word);
+		String value = analyses.toString();
+		cache.put(key, value);
+		// invalidate may have run between the check and the put
+		if (getGeneration() != generation) {
+			cache.asMap().remove(key, value);
+		}
+	}
+
+	public void invalidate(String word) {
+		generation.incrementAndGet();
+		cache.invalidate(toKey(word));
+	}
+
+	public void invalidateAll() {
+		generation.incrementAndGet();
+		cache.invalidateAll();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	public JsonObject toJsonObject() {
+		CacheStats stats = cache.stats();
+		JsonObject result = new JsonObject();
+		result.addProperty("size", cache.size());
+		result.addProperty("hits", stats.hitCount());
+		result.addProperty("misses", stats.missCount());
+		result.addProperty("hitRate", stats.hitRate());
+		result.addProperty("evictions", stats.evictionCount());
+		return result;
+	}
+
+	/**
+	 * @param word
+	 * @return the word the way it is used in the id of a word analysis
+	 */
+	public static String toKey(String word) {
+		return Normalizer.normalize(word, Normalizer.Form.NFC).toLowerCase();
+	}
+}
@@ -2,14 +2,17 @@ package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
 
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.function.Consumer;
 
 import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
 import org.neo4j.driver.v1.StatementResult;
+import org.neo4j.driver.v1.StatementRunner;
 import org.neo4j.driver.v1.summary.Notification;
 import org.neo4j.driver.v1.summary.ResultSummary;
 import org.neo4j.driver.v1.summary.SummaryCounters;
@@ -58,8 +61,12 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 	private static final String synchLogGetQuery = "match (doc:SynchLog) where doc.id = '" + SynchLog.singletonId + "' return properties(doc)";
 	private static final String synchLogCreateQuery = "create (doc:SynchLog) set doc = {props} return doc";
 	private static final String synchLogUpdateQuery = "match (doc:SynchLog) where doc.id = '" + SynchLog.singletonId + "' set doc = {props} return doc";
+	private static final String statsBatchCreateQuery = "unwind {batch} as props create (n:stats) set n = props";
+	private static final int STATS_QUEUE_CAPACITY = 10000;
+	private static final int STATS_BATCH_SIZE = 500;
 	 public static String macAddress = "unknown";
 	 private static String hostName = "unknown";
+	 private volatile Consumer<List<String>> synchListener = null;
 	 private Gson gson = new GsonBuilder().disableHtmlEscaping().create();
 	  private JsonParser parser = new JsonParser();
 	  private String boltUrl = "bolt://127.0.0.1";
@@ -68,6 +75,8 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 	  private Driver dbDriver = null;
 	  private boolean connectionOK = false;
 	  private boolean recordQueries = false;
+	  private QueryStatisticsRecorder queryStatisticsRecorder = null;
+	  private final ConstraintRegistry constraintRegistry = new ConstraintRegistry();
 	  private boolean readOnly = false;
 	  private boolean synchOn = true;
 	  private static String doc = "doc.";
@@ -149,6 +158,10 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 			return getResultObjectForQuery(query);
 	}
 
+	public ResultJsonObjectArray getForQuery(String query, Map<String, Object> parameters) {
+			return getResultObjectForQuery(query, parameters);
+	}
+
 	/**
 	 * If the result of the query contains records with an id and value,
 	 * they will be converted to either LTKVString or LTKVJsonObject
@@ -162,18 +175,36 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 	  public ResultJsonObjectArray getResultObjectForQuery(
 			  String query
 			  ) {
+		  return getResultObjectForQuery(query, null);
+	  }
+
+	/**
+	 * Runs a parameterized query, e.g. one from CypherQueryForDocs.getQueryTemplate().
+	 * Because the text of the query does not change when the values do,
+	 * Neo4j can reuse the execution plan it cached the last time it ran it.
+	 * 
+	 * Results are handled the same way as getResultObjectForQuery(String).
+	 * 
+	 * @param query - the query, using {name} for each parameter
+	 * @param parameters - the value for each parameter name. Can be null.
+	 * @return the result
+	 */
+	  public ResultJsonObjectArray getResultObjectForQuery(
+			  String query
+			  , Map<String, Object> parameters
+			  ) {
 			ResultJsonObjectArray result = new ResultJsonObjectArray(true);
 			try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
-				StatementResult neoResult = session.run(query);
+				StatementResult neoResult = null;
+				if (parameters == null || parameters.isEmpty()) {
+					neoResult = session.run(query);
+				} else {
+					neoResult = session.run(query, parameters);
+				}
 				
 				while (neoResult.hasNext()) {
 					org.neo4j.driver.v1.Record record = neoResult.next();
-						JsonObject o = parser.parse(gson.toJson(record.asMap())).getAsJsonObject();
-						if (o.has("properties(link)")) {
-							o = parser.parse(gson.toJson(record.get("properties(link)").asMap())).getAsJsonObject();
-						} else if (o.has("properties(doc)")) {
-							o = parser.parse(gson.toJson(record.get("properties(doc)").asMap())).getAsJsonObject();
-						}
+						JsonObject o = Neo4jValueConverter.toResultObject(record);
 						result.addValue(o);
 				}
 				RequestStatus resultStatus = result.getStatus();
@@ -187,6 +218,46 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 			return result;
 	}
 
+	/**
+	 * Runs a parameterized query and passes each record to the consumer
+	 * as it is read from the driver, instead of collecting them into
+	 * a ResultJsonObjectArray.  Use this when the result could be large,
+	 * e.g. to write the records directly to an http response.
+	 *
+	 * Records are converted the same way as getResultObjectForQuery(String).
+	 *
+	 * @param query - the query, using {name} for each parameter
+	 * @param parameters - the value for each parameter name. Can be null.
+	 * @param consumer - receives each record
+	 * @return the status of the query
+	 */
+	  public RequestStatus streamResultObjectsForQuery(
+			  String query
+			  , Map<String, Object> parameters
+			  , Consumer<JsonObject> consumer
+			  ) {
+			RequestStatus status = new RequestStatus();
+			long count = 0;
+			try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
+				StatementResult neoResult = null;
+				if (parameters == null || parameters.isEmpty()) {
+					neoResult = session.run(query);
+				} else {
+					neoResult = session.run(query, parameters);
+				}
+				while (neoResult.hasNext()) {
+					consumer.accept(Neo4jValueConverter.toResultObject(neoResult.next()));
+					count++;
+				}
+				status = this.recordSummary(neoResult.summary(), status);
+			} catch (Exception e) {
+				status.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+				status.setMessage(e.getMessage());
+			}
+			recordQuery(query, status.getCode(), count);
+			return status;
+	}
+
 
 	  /**
 	   * Record in the database the results of running a query.
@@ -200,6 +271,10 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 	   * return distinct day, count(day)
 	   * order by day
 	   * 
+	   * The statistics are queued and written in batches by the
+	   * QueryStatisticsRecorder, not on the thread that ran the query.
+	   * If the queue is full, the statistics are dropped.
+	   * 
 	   * @param query
 	   * @param statusCode
 	   * @param resultCount
@@ -213,12 +288,47 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 						  , query
 						  , statusCode
 						  , resultCount);
-				  recordQuery(stats);
+				  getQueryStatisticsRecorder().record(getStatsProperties(stats));
 			 } catch (Exception e) {
 				 ErrorUtils.report(logger, e);
 			 }
 		 }
 	  }
+
+	 /**
+	  * @return the recorder used for query statistics.  It is created the first time it is needed.
+	  */
+	 public synchronized QueryStatisticsRecorder getQueryStatisticsRecorder() {
+		 if (queryStatisticsRecorder == null) {
+			 queryStatisticsRecorder = new QueryStatisticsRecorder(
+					 this::recordQueries
+					 , STATS_QUEUE_CAPACITY
+					 , STATS_BATCH_SIZE
+					 );
+		 }
+		 return queryStatisticsRecorder;
+	 }
+
+	 /**
+	  * Write a batch of query statistics using a single transaction
+	  * @param batch - the properties of each stats node
+	  */
+	 private void recordQueries(List<Map<String, Object>> batch) {
+		 Map<String, Object> parameters = new TreeMap<String, Object>();
+		 parameters.put("batch", batch);
+		 try (
+				 org.neo4j.driver.v1.Session session = dbDriver.session();
+				 org.neo4j.driver.v1.Transaction tx = session.beginTransaction()
+				 ) {
+			 tx.run(statsBatchCreateQuery, parameters);
+			 tx.success();
+		 }
+	 }
+
+	 @SuppressWarnings("unchecked")
+	 private Map<String, Object> getStatsProperties(QueryStatistics doc) throws Exception {
+		 return (Map<String, Object>) ModelHelpers.getAsPropertiesMap(doc).get("props");
+	 }
 	  
 	  protected void finalize() throws Throwable {
 		  super.finalize();
@@ -240,15 +350,14 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 	 * @param label
 	 * @return
 	 */
-	private StatementResult setIdConstraint(String label) {
-		StatementResult neoResult = null;
-		String query = "create constraint on (p:" + label + ") assert p.id is unique"; 
-		try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
-			neoResult = session.run(query);
-		} catch (Exception e) {
-			ErrorUtils.report(logger, e);
+	private void setIdConstraint(String label) {
+		if (! constraintRegistry.hasIdConstraint(label)) {
+			try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
+				constraintRegistry.ensureIdConstraint(session, label);
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
 		}
-		return neoResult;
 	}
 	
 	private StatementResult createIndex(String label, String prop) {
@@ -269,12 +378,12 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 	}
 
 	private void setIdConstraints(List<String> labels) {
-		try {
-			for (String label : labels) {
-				setIdConstraint(label); 
+		if (! constraintRegistry.hasIdConstraints(labels)) {
+			try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
+				constraintRegistry.ensureIdConstraints(session, labels);
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
 			}
-		} catch (Exception e) {
-			e.printStackTrace();
 		}
 	}
 	
@@ -353,6 +462,111 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 		return result;
 	}
 
+	/**
+	 * Creates the docs that do not exist yet, in batches, using one transaction
+	 * for each batch, rather than a session per doc as insert(LTKDb) does.
+	 * 
+	 * Each batch is written using unwind and merge, so a doc that already
+	 * exists does not cause the batch to fail, and is left as it is,
+	 * including its createdWhen and createdBy, and any edits.
+	 * 
+	 * Each batch is also recorded as a single synch Transaction.
+	 * Its cypher is the same parameterized query, and its json is the list
+	 * of the docs of the batch, which runTransaction passes as {batch}.
+	 * So nodes that do not create the docs themselves, e.g. read-only ones,
+	 * get them from the synch server, and nodes that already have them
+	 * leave them as they are.
+	 * 
+	 * All the docs must have the same ontology labels.
+	 * 
+	 * @param docs - the docs to create
+	 * @param batchSize - the maximum number of docs per transaction
+	 * @return the status.  The counters are totals for all the batches.
+	 * @throws DbException
+	 */
+	public RequestStatus mergeBatch(List<? extends LTKDb> docs, int batchSize) throws DbException {
+		RequestStatus result = new RequestStatus();
+		if (docs == null || docs.isEmpty()) {
+			return result;
+		}
+		LTKDb first = docs.get(0);
+		setIdConstraints(first.fetchOntologyLabelsList());
+		String query = "unwind {batch} as props merge (n:" + first.fetchOntologyLabels() + " {id: props.id}) on create set n = props";
+		long count = 0;
+		try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
+			for (int from = 0; from < docs.size(); from += batchSize) {
+				List<? extends LTKDb> slice = docs.subList(from, Math.min(from + batchSize, docs.size()));
+				List<Object> batch = new ArrayList<Object>(slice.size());
+				JsonArray json = new JsonArray();
+				for (LTKDb doc : slice) {
+					batch.add(ModelHelpers.getAsPropertiesMap(doc).get("props"));
+					json.add(parser.parse(doc.toJsonString()));
+				}
+				Map<String, Object> parameters = new TreeMap<String, Object>();
+				parameters.put("batch", batch);
+				try (org.neo4j.driver.v1.Transaction tx = session.beginTransaction()) {
+					StatementResult neoResult = tx.run(query, parameters);
+					result = recordSummary(neoResult.consume(), result);
+					tx.success();
+				}
+				Transaction transaction = new Transaction(query, slice.get(0).getId(), hostName);
+				transaction.setJson(json.toString());
+				this.insertTransaction(transaction);
+				count = count + slice.size();
+			}
+	    	result.setCode(HTTP_RESPONSE_CODES.OK.code);
+	    	result.setMessage(HTTP_RESPONSE_CODES.OK.message + ": merged " + count);
+		} catch (Exception e){
+			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+			result.setDeveloperMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
+			result.setUserMessage(e.getMessage());
+		}
+    	recordQuery(query, result.getCode(), count);
+		return result;
+	}
+
+	/**
+	 * Creates or updates docs that are not synched, e.g. the search, login, and location logs,
+	 * using one transaction for all of them.
+	 * Like mergeWhereEqual(labels, doc), the properties of each node are replaced.
+	 * @param docsByLabels - the docs to merge, by the labels of their nodes
+	 * @return the status.  The counters are totals for all the labels.
+	 */
+	public RequestStatus mergeBatch(Map<String, List<? extends LTKLite>> docsByLabels) {
+		RequestStatus result = new RequestStatus();
+		long count = 0;
+		String query = "";
+		try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
+			try (org.neo4j.driver.v1.Transaction tx = session.beginTransaction()) {
+				for (Map.Entry<String, List<? extends LTKLite>> entry : docsByLabels.entrySet()) {
+					if (entry.getValue().isEmpty()) {
+						continue;
+					}
+					setIdConstraint(entry.getValue().get(0).toSchemaAsLabel());
+					List<Object> batch = new ArrayList<Object>(entry.getValue().size());
+					for (LTKLite doc : entry.getValue()) {
+						batch.add(ModelHelpers.getAsPropertiesMap(doc).get("props"));
+					}
+					Map<String, Object> parameters = new TreeMap<String, Object>();
+					parameters.put("batch", batch);
+					query = "unwind {batch} as props merge (n:" + entry.getKey() + " {id: props.id}) set n = props";
+					StatementResult neoResult = tx.run(query, parameters);
+					result = recordSummary(neoResult.consume(), result);
+					count = count + batch.size();
+				}
+				tx.success();
+			}
+	    	result.setCode(HTTP_RESPONSE_CODES.OK.code);
+	    	result.setMessage(HTTP_RESPONSE_CODES.OK.message + ": merged " + count);
+		} catch (Exception e){
+			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+			result.setDeveloperMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
+			result.setUserMessage(e.getMessage());
+		}
+    	recordQuery(query, result.getCode(), count);
+		return result;
+	}
+
 	private static void getMacAddress() {
 		StringBuilder sb = new StringBuilder();
 		try {
@@ -1044,23 +1258,9 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 		if (transaction.requestingMac.equals(macAddress)) { 
 			result.setCode(HTTP_RESPONSE_CODES.OK.code);
 		} else { // originated from another server, so go ahead and process it...
+			List<String> ids = new ArrayList<String>();
 			try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
-				StatementResult neoResult = null;
-				if (transaction.getJson() == null || transaction.getJson().length() < 1) {
-					neoResult = session.run(transaction.getCypher());
-				} else {
-					LTKDb ltkDb = gson.fromJson(transaction.getJson(), LTKDb.class);
-					LTKDb doc = 
-								gson.fromJson(
-										transaction.getJson()
-										, SCHEMA_CLASSES
-											.classForSchemaName(
-													ltkDb.get_valueSchemaId())
-											.ltkDb.getClass()
-							);
-					Map<String,Object> props = ModelHelpers.getAsPropertiesMap(doc);
-					neoResult = session.run(transaction.getCypher(), props);
-				}
+				StatementResult neoResult = runTransaction(session, transaction, ids);
 				ResultSummary summary = neoResult.consume();
 				result = recordSummary(summary, result);
 				if (result.wasSuccessful()) {
@@ -1074,10 +1274,135 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 				result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 				result.setMessage(e.getMessage());
 			}
+			if (result.getCode() == HTTP_RESPONSE_CODES.OK.code) {
+				this.notifySynchListener(ids);
+			}
 		}
 		return result;
 	}
 	
+	/**
+	 * Processes a batch of transactions (typically obtained from the synch server)
+	 * in a single database transaction, and updates the SynchLog in the same one.
+	 * So, either the whole batch is applied and the SynchLog advanced, or nothing is.
+	 * 
+	 * A transaction that changes the schema (e.g. creates a constraint)
+	 * can't share a database transaction with data changes, so use
+	 * processTransaction for those.
+	 * 
+	 * @param transactions to apply, in order
+	 * @param log the SynchLog, with its timestamp set to the key of the last transaction in the batch
+	 * @return the status
+	 */
+	public RequestStatus processTransactions(List<Transaction> transactions, SynchLog log) {
+		RequestStatus result = new RequestStatus();
+		int count = 0;
+		List<String> ids = new ArrayList<String>();
+		try (
+				org.neo4j.driver.v1.Session session = dbDriver.session();
+				org.neo4j.driver.v1.Transaction tx = session.beginTransaction()
+				) {
+			for (Transaction transaction : transactions) {
+				// skip transactions that originated from this server
+				if (! transaction.requestingMac.equals(macAddress)) {
+					runTransaction(tx, transaction, ids).consume();
+					count++;
+				}
+			}
+			tx.run(synchLogUpdateQuery, ModelHelpers.getAsPropertiesMap(log));
+			tx.success();
+	    	result.setCode(HTTP_RESPONSE_CODES.OK.code);
+	    	result.setMessage(HTTP_RESPONSE_CODES.OK.message + ": applied " + count);
+		} catch (Exception e){
+			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+			result.setDeveloperMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
+			result.setUserMessage(e.getMessage());
+		}
+		if (result.getCode() == HTTP_RESPONSE_CODES.OK.code) {
+			this.notifySynchListener(ids);
+		}
+		return result;
+	}
+
+	/**
+	 * @param runner
+	 * @param transaction
+	 * @param ids - the id of the doc written by the transaction is added to it,
+	 * or null if the doc can't be told from the transaction, e.g. for a delete.
+	 * @return the result
+	 * @throws Exception
+	 */
+	private StatementResult runTransaction(
+			StatementRunner runner
+			, Transaction transaction
+			, List<String> ids
+			) throws Exception {
+		if (transaction.getJson() == null || transaction.getJson().length() < 1) {
+			StatementResult neoResult = runner.run(transaction.getCypher());
+			if (transaction.getCypher().toLowerCase().contains("constraint")) {
+				constraintRegistry.invalidate();
+			} else {
+				ids.add(null);
+			}
+			return neoResult;
+		} else {
+			JsonElement json = parser.parse(transaction.getJson());
+			if (json.isJsonArray()) { // a batch recorded by mergeBatch
+				List<Object> batch = new ArrayList<Object>();
+				for (JsonElement element : json.getAsJsonArray()) {
+					LTKDb doc = toSchemaClass(element.toString());
+					batch.add(ModelHelpers.getAsPropertiesMap(doc).get("props"));
+					ids.add(doc.getId());
+				}
+				Map<String, Object> parameters = new TreeMap<String, Object>();
+				parameters.put("batch", batch);
+				return runner.run(transaction.getCypher(), parameters);
+			}
+			LTKDb doc = toSchemaClass(transaction.getJson());
+			Map<String,Object> props = ModelHelpers.getAsPropertiesMap(doc);
+			StatementResult neoResult = runner.run(transaction.getCypher(), props);
+			ids.add(doc.getId());
+			return neoResult;
+		}
+	}
+
+	/**
+	 * @param json of a doc
+	 * @return the doc, as an instance of the class for its schema
+	 */
+	private LTKDb toSchemaClass(String json) {
+		LTKDb ltkDb = gson.fromJson(json, LTKDb.class);
+		return gson.fromJson(
+				json
+				, SCHEMA_CLASSES
+					.classForSchemaName(
+							ltkDb.get_valueSchemaId())
+					.ltkDb.getClass()
+				);
+	}
+
+	/**
+	 * Set the listener to be told about the docs changed by transactions
+	 * from the synch server, once they are committed.  It is given the id
+	 * of each doc, or null for a transaction whose doc can't be told,
+	 * e.g. a delete, which only has cypher.
+	 * @param listener
+	 */
+	public void setSynchListener(Consumer<List<String>> listener) {
+		this.synchListener = listener;
+	}
+
+	private void notifySynchListener(List<String> ids) {
+		Consumer<List<String>> listener = this.synchListener;
+		if (listener != null && ! ids.isEmpty()) {
+			try {
+				listener.accept(ids);
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
+		}
+	}
+
 	public RequestStatus recordSummary(ResultSummary summary, RequestStatus status) {
 		try {
 			SummaryCounters countersSummary = summary.counters();
@@ -1257,6 +1582,7 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 				count = neoResult.consume().counters().constraintsAdded();
 			} else {
 				count = neoResult.consume().counters().constraintsRemoved();
+				constraintRegistry.invalidate();
 			}
 			if (count < 1) {
 		    	result.setCode(HTTP_RESPONSE_CODES.CONFLICT.code);
@@ -1294,6 +1620,7 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 				StatementResult neoResult = session.run(query);
 				count = count + neoResult.consume().counters().constraintsRemoved();
 			}
+			constraintRegistry.invalidate();
 			result.setMessage(count + " constraints dropped");
 		} catch (Exception e){
 			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -1309,7 +1636,7 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 		String query = "match (n) where 'id' in keys(n) set n:" + TOPICS.ROOT.label + " return count(n)";
 		try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
 			ResultJsonObjectArray s = getForQuery(query);
-			StatementResult sResult = this.setIdConstraint(TOPICS.ROOT.label);
+			this.setIdConstraint(TOPICS.ROOT.label);
 			result.setMessage(TOPICS.ROOT.label + " added to " + s.getValueCount() + " nodes");
 			query = "match (n:TablesRoot)  set n:" + TOPICS.ROOT.label + " return count(n)";
 		} catch (Exception e){
@@ -1392,6 +1719,7 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 		String query = "DROP CONSTRAINT ON ( n:" + label + " ) ASSERT n." + property + " IS UNIQUE";
 		try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
 			ResultJsonObjectArray s = getForQuery(query);
+			constraintRegistry.invalidate();
 			result.setMessage("Dropped constraint on " + label + " for property " + property);
 		} catch (Exception e){
 			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -1419,10 +1747,7 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 				StatementResult neoResult = session.run(query);
 				while (neoResult.hasNext()) {
 					org.neo4j.driver.v1.Record record = neoResult.next();
-					JsonObject o = parser.parse(gson.toJson(record.asMap())).getAsJsonObject();
-					if (o.has("properties(doc)")) {
-						o = parser.parse(gson.toJson(record.get("properties(doc)").asMap())).getAsJsonObject();
-					}
+					JsonObject o = Neo4jValueConverter.toResultObject(record);
 					result.addValue(o);
 				}
 				result.setQuery(query);
@@ -1438,6 +1763,67 @@ public class Neo4jConnectionManager implements LowLevelDataStoreInterface {
 		return result;
 	}
 
+	/**
+	 * Get one page of the transactions waiting to be pushed to the synch server,
+	 * ordered by key (and id, in case two have the same key).
+	 * @param afterKey key of the last transaction of the previous page, or an empty string for the first page
+	 * @param afterId id of the last transaction of the previous page, or an empty string for the first page
+	 * @param limit the maximum number of transactions to return
+	 * @param printpretty
+	 * @return the transactions
+	 */
+	public ResultJsonObjectArray getTransactions(
+			String afterKey
+			, String afterId
+			, int limit
+			, boolean printpretty
+			) {
+		ResultJsonObjectArray result = new ResultJsonObjectArray(printpretty); // true means PrettyPrint the json
+		String query = "match (doc:Transaction) "
+				+ "where doc.key > {key} or (doc.key = {key} and doc.id > {id}) "
+				+ "return properties(doc) order by doc.key ascending, doc.id ascending limit {limit}";
+		Map<String, Object> parameters = new TreeMap<String, Object>();
+		parameters.put("key", afterKey);
+		parameters.put("id", afterId);
+		parameters.put("limit", limit);
+		try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
+			StatementResult neoResult = session.run(query, parameters);
+			while (neoResult.hasNext()) {
+				result.addValue(Neo4jValueConverter.toResultObject(neoResult.next()));
+			}
+			result.setQuery(query);
+		} catch (Exception e) {
+			result.setStatusCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+			result.setStatusMessage(e.getMessage());
+			ErrorUtils.report(logger, e);
+		}
+		return result;
+	}
+
+	/**
+	 * Delete the transactions with the given ids, in a single statement
+	 * @param ids
+	 * @return the status
+	 */
+	public RequestStatus deleteTransactions(List<String> ids) {
+		RequestStatus result = new RequestStatus();
+		int count = 0;
+		String query = "match (n:Transaction) where n.id in {ids} delete n";
+		Map<String, Object> parameters = new TreeMap<String, Object>();
+		parameters.put("ids", ids);
+		try (org.neo4j.driver.v1.Session session = dbDriver.session()) {
+			count = session.run(query, parameters).consume().counters().nodesDeleted();
+	    	result.setCode(HTTP_RESPONSE_CODES.OK.code);
+	    	result.setMessage(HTTP_RESPONSE_CODES.OK.message + ": deleted " + count);
+		} catch (Exception e){
+			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+			result.setMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
+			result.setDeveloperMessage(e.getMessage());
+		}
+		recordQuery(query, result.getCode(), count);
+		return result;
+	}
+
 	public boolean isSynchOn() {
 		return synchOn;
 	}
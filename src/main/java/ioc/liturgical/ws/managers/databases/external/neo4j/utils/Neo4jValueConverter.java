@@ -0,0 +1,176 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import org.neo4j.driver.internal.types.InternalTypeSystem;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.types.Node;
+import org.neo4j.driver.v1.types.Path;
+import org.neo4j.driver.v1.types.Relationship;
+import org.neo4j.driver.v1.types.TypeSystem;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+/**
+ * Converts the records returned by the Neo4j driver directly into Gson objects.
+ *
+ * Previously each record was converted using gson.toJson(record.asMap())
+ * and then parsed back into a JsonObject.  This gives the same result
+ * without writing and parsing the json text.
+ *
+ * As before, properties whose value is null are left out of an object.
+ *
+ * A node is converted to {id, labels, properties}, a relationship to
+ * {id, type, start, end, properties}, and a path to {nodes, relationships}.
+ * The properties of a node or relationship are plain json values.
+ *
+ * Types the driver does not know about are converted to their string form.
+ *
+ * @author mac002
+ *
+ */
+public class Neo4jValueConverter {
+	private static final TypeSystem TYPES = InternalTypeSystem.TYPE_SYSTEM;
+
+	/**
+	 * If the record has a properties(link) or properties(doc) column,
+	 * returns that map as a JsonObject, otherwise returns the whole record.
+	 * This is how the query results are handled by Neo4jConnectionManager
+	 * and SynchManager.
+	 * @param record
+	 * @return the record as a JsonObject
+	 */
+	public static JsonObject toResultObject(Record record) {
+		if (hasValue(record, "properties(link)")) {
+			return toJsonObject(record.get("properties(link)"));
+		} else if (hasValue(record, "properties(doc)")) {
+			return toJsonObject(record.get("properties(doc)"));
+		} else {
+			return toJsonObject(record);
+		}
+	}
+
+	/**
+	 * @param record
+	 * @return a JsonObject whose properties are the columns of the record
+	 */
+	public static JsonObject toJsonObject(Record record) {
+		JsonObject result = new JsonObject();
+		for (String key : record.keys()) {
+			Value value = record.get(key);
+			if (! value.isNull()) {
+				result.add(key, toJsonElement(value));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param value - a map, node, or relationship
+	 * @return a JsonObject whose properties are the entries of the map
+	 */
+	public static JsonObject toJsonObject(Value value) {
+		JsonObject result = new JsonObject();
+		for (String key : value.keys()) {
+			Value entry = value.get(key);
+			if (! entry.isNull()) {
+				result.add(key, toJsonElement(entry));
+			}
+		}
+		return result;
+	}
+
+	public static JsonElement toJsonElement(Value value) {
+		if (value == null || TYPES.NULL().isTypeOf(value)) {
+			return JsonNull.INSTANCE;
+		} else if (TYPES.STRING().isTypeOf(value)) {
+			return new JsonPrimitive(value.asString());
+		} else if (TYPES.INTEGER().isTypeOf(value)) {
+			return new JsonPrimitive(value.asLong());
+		} else if (TYPES.FLOAT().isTypeOf(value)) {
+			return new JsonPrimitive(value.asDouble());
+		} else if (TYPES.BOOLEAN().isTypeOf(value)) {
+			return new JsonPrimitive(value.asBoolean());
+		} else if (TYPES.LIST().isTypeOf(value)) {
+			JsonArray result = new JsonArray();
+			for (Value item : value.values()) {
+				result.add(toJsonElement(item));
+			}
+			return result;
+		} else if (TYPES.MAP().isTypeOf(value)) {
+			return toJsonObject(value);
+		} else if (TYPES.NODE().isTypeOf(value)) {
+			return toJsonObject(value.asNode());
+		} else if (TYPES.RELATIONSHIP().isTypeOf(value)) {
+			return toJsonObject(value.asRelationship());
+		} else if (TYPES.PATH().isTypeOf(value)) {
+			return toJsonObject(value.asPath());
+		} else if (TYPES.BYTES().isTypeOf(value)) {
+			JsonArray result = new JsonArray();
+			for (byte b : value.asByteArray()) {
+				result.add(new JsonPrimitive(b));
+			}
+			return result;
+		} else {
+			return new JsonPrimitive(String.valueOf(value.asObject()));
+		}
+	}
+
+	public static JsonObject toJsonObject(Node node) {
+		JsonObject result = new JsonObject();
+		result.addProperty("id", node.id());
+		JsonArray labels = new JsonArray();
+		for (String label : node.labels()) {
+			labels.add(new JsonPrimitive(label));
+		}
+		result.add("labels", labels);
+		result.add("properties", toProperties(node.keys(), node));
+		return result;
+	}
+
+	public static JsonObject toJsonObject(Relationship relationship) {
+		JsonObject result = new JsonObject();
+		result.addProperty("id", relationship.id());
+		result.addProperty("type", relationship.type());
+		result.addProperty("start", relationship.startNodeId());
+		result.addProperty("end", relationship.endNodeId());
+		result.add("properties", toProperties(relationship.keys(), relationship));
+		return result;
+	}
+
+	public static JsonObject toJsonObject(Path path) {
+		JsonObject result = new JsonObject();
+		JsonArray nodes = new JsonArray();
+		for (Node node : path.nodes()) {
+			nodes.add(toJsonObject(node));
+		}
+		JsonArray relationships = new JsonArray();
+		for (Relationship relationship : path.relationships()) {
+			relationships.add(toJsonObject(relationship));
+		}
+		result.add("nodes", nodes);
+		result.add("relationships", relationships);
+		return result;
+	}
+
+	private static JsonObject toProperties(
+			Iterable<String> keys
+			, org.neo4j.driver.v1.types.Entity entity
+			) {
+		JsonObject result = new JsonObject();
+		for (String key : keys) {
+			Value value = entity.get(key);
+			if (! value.isNull()) {
+				result.add(key, toJsonElement(value));
+			}
+		}
+		return result;
+	}
+
+	private static boolean hasValue(Record record, String key) {
+		return record.containsKey(key) && ! record.get(key).isNull();
+	}
+}
@@ -0,0 +1,169 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+
+/**
+ * Records query statistics in the background, so that recording
+ * a query does not add a database write to the request thread.
+ *
+ * Statistics are put on a bounded queue.  A background thread takes
+ * them off the queue and passes them to the writer in batches of up to
+ * batchSize, so that many statistics are written by one transaction.
+ *
+ * If the queue is full, the statistic is dropped rather than blocking
+ * the caller.  The number recorded, dropped, and written are
+ * available as metrics.
+ *
+ * @author mac002
+ *
+ */
+public class QueryStatisticsRecorder {
+	private static final Logger logger = LoggerFactory.getLogger(QueryStatisticsRecorder.class);
+
+	public static final long SHUTDOWN_SECONDS = 5;
+
+	private final BlockingQueue<Map<String, Object>> queue;
+	private final Consumer<List<Map<String, Object>>> writer;
+	private final int batchSize;
+	private final Thread worker;
+	private volatile boolean running = true;
+
+	private final AtomicLong recorded = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param writer - writes a batch of statistics to the database in one transaction
+	 * @param capacity - the maximum number of statistics waiting to be written
+	 * @param batchSize - the maximum number of statistics passed to the writer at once
+	 */
+	public QueryStatisticsRecorder(
+			Consumer<List<Map<String, Object>>> writer
+			, int capacity
+			, int batchSize
+			) {
+		this.writer = writer;
+		this.batchSize = batchSize;
+		this.queue = new ArrayBlockingQueue<Map<String, Object>>(capacity);
+		this.worker = new Thread(this::run, "query-stats-writer");
+		this.worker.setDaemon(true);
+		this.worker.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "query-stats-shutdown"));
+	}
+
+	/**
+	 * Queue the statistic to be written.  Does not block.
+	 * @param props - the properties of the stats node
+	 * @return false if the queue was full and the statistic was dropped
+	 */
+	public boolean record(Map<String, Object> props) {
+		if (running && queue.offer(props)) {
+			recorded.incrementAndGet();
+			return true;
+		} else {
+			dropped.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Stop accepting statistics, and wait for the background writer
+	 * to write the ones still queued.  The writer is not interrupted,
+	 * so a batch being written to the database is not cut off.
+	 */
+	public void shutdown() {
+		if (running) {
+			running = false;
+			try {
+				worker.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_SECONDS));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (worker.isAlive()) {
+				logger.warn("Query statistics still being written after " + SHUTDOWN_SECONDS + " seconds; " + queue.size() + " not written");
+			} else {
+				while (! queue.isEmpty()) { // anything recorded while the worker was stopping
+					writeBatch();
+				}
+			}
+		}
+	}
+
+	public int getQueueSize() {
+		return queue.size();
+	}
+
+	public long getRecordedCount() {
+		return recorded.get();
+	}
+
+	public long getDroppedCount() {
+		return dropped.get();
+	}
+
+	public long getWrittenCount() {
+		return written.get();
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject result = new JsonObject();
+		result.addProperty("queued", queue.size());
+		result.addProperty("recorded", recorded.get());
+		result.addProperty("dropped", dropped.get());
+		result.addProperty("written", written.get());
+		result.addProperty("batches", batches.get());
+		result.addProperty("failedBatches", failed.get());
+		return result;
+	}
+
+	private void run() {
+		while (running || ! queue.isEmpty()) {
+			try {
+				Map<String, Object> first = queue.poll(1, TimeUnit.SECONDS);
+				if (first != null) {
+					List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+					write(batch);
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void writeBatch() {
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		queue.drainTo(batch, batchSize);
+		if (! batch.isEmpty()) {
+			write(batch);
+		}
+	}
+
+	private void write(List<Map<String, Object>> batch) {
+		try {
+			writer.accept(batch);
+			written.addAndGet(batch.size());
+			batches.incrementAndGet();
+		} catch (Exception e) {
+			failed.incrementAndGet();
+			ErrorUtils.report(logger, e);
+		}
+	}
+}
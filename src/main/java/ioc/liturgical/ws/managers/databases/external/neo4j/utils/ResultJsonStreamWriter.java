@@ -0,0 +1,143 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
+
+import org.ocmc.ioc.liturgical.schemas.models.ws.response.RequestStatus;
+
+/**
+ * Writes a query result to a Writer one value at a time, using
+ * the same envelope as a serialized ResultJsonObjectArray:
+ * query, values, valueSchemas, valueCount, and status.
+ *
+ * The values are written as they are received, so the result is never
+ * held in memory as a whole.  The schemas for the values are looked up
+ * in batches, and are written after the values, followed by the status,
+ * so that an error reading the result is reported in the status.
+ * If a schema has already been serialized, e.g. by the SchemaRegistry,
+ * its json string is written as is.
+ *
+ * Usage: begin(query), then accept(value) for each value, then finish(status).
+ *
+ * @author mac002
+ *
+ */
+public class ResultJsonStreamWriter implements Consumer<JsonObject> {
+	public static final int SCHEMA_BATCH_SIZE = 500;
+
+	private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+	private final JsonWriter writer;
+	private final Function<List<JsonObject>, Map<String, JsonObject>> schemaLookup;
+	private final BiFunction<String, JsonObject, String> schemaJson;
+	private final Map<String, JsonObject> valueSchemas = new TreeMap<String, JsonObject>();
+	private final List<JsonObject> pending = new ArrayList<JsonObject>();
+	private long valueCount = 0;
+
+	/**
+	 * @param out - where to write the result
+	 * @param schemaLookup - returns the schemas for a batch of values, or null if schemas are not wanted
+	 */
+	public ResultJsonStreamWriter(
+			Writer out
+			, Function<List<JsonObject>, Map<String, JsonObject>> schemaLookup
+			) {
+		this(out, schemaLookup, null);
+	}
+
+	/**
+	 * @param out - where to write the result
+	 * @param schemaLookup - returns the schemas for a batch of values, or null if schemas are not wanted
+	 * @param schemaJson - returns the json string for a schema id and schema, or null if it has none
+	 */
+	public ResultJsonStreamWriter(
+			Writer out
+			, Function<List<JsonObject>, Map<String, JsonObject>> schemaLookup
+			, BiFunction<String, JsonObject, String> schemaJson
+			) {
+		this.writer = new JsonWriter(out);
+		this.schemaLookup = schemaLookup;
+		this.schemaJson = schemaJson;
+	}
+
+	/**
+	 * Write the start of the envelope
+	 * @param query - the query the values are the result of
+	 * @throws IOException
+	 */
+	public void begin(String query) throws IOException {
+		writer.beginObject();
+		writer.name("query").value(query);
+		writer.name("values").beginArray();
+	}
+
+	/**
+	 * Write a value.
+	 * An error writing the value is thrown as a com.google.gson.JsonIOException.
+	 */
+	@Override
+	public void accept(JsonObject value) {
+		gson.toJson(value, writer);
+		valueCount++;
+		if (schemaLookup != null) {
+			pending.add(value);
+			if (pending.size() >= SCHEMA_BATCH_SIZE) {
+				lookupSchemas();
+			}
+		}
+	}
+
+	/**
+	 * Write the end of the envelope and flush the writer
+	 * @param status - the status of the query
+	 * @throws IOException
+	 */
+	public void finish(RequestStatus status) throws IOException {
+		writer.endArray();
+		if (schemaLookup != null) {
+			lookupSchemas();
+			writer.name("valueSchemas");
+			writer.beginObject();
+			for (Map.Entry<String, JsonObject> entry : valueSchemas.entrySet()) {
+				writer.name(entry.getKey());
+				String json = schemaJson == null ? null : schemaJson.apply(entry.getKey(), entry.getValue());
+				if (json == null) {
+					gson.toJson(entry.getValue(), writer);
+				} else {
+					writer.jsonValue(json);
+				}
+			}
+			writer.endObject();
+		}
+		writer.name("valueCount").value(valueCount);
+		writer.name("status");
+		gson.toJson(gson.toJsonTree(status), writer);
+		writer.endObject();
+		writer.flush();
+	}
+
+	public long getValueCount() {
+		return valueCount;
+	}
+
+	private void lookupSchemas() {
+		if (! pending.isEmpty()) {
+			Map<String, JsonObject> schemas = schemaLookup.apply(pending);
+			if (schemas != null) {
+				valueSchemas.putAll(schemas);
+			}
+			pending.clear();
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+import com.google.gson.JsonObject;
+
+/**
+ * The tags in use, by node label (or relationship type) and library,
+ * so that the tag dropdowns do not need to scan every node with the label.
+ *
+ * It is built once from the database, then kept up to date by calling
+ * put each time a node or relationship is added or updated, and remove
+ * each time one is deleted.  For each tag, it counts how many
+ * nodes of the label and library use it, so that a tag disappears
+ * when the last node that used it is changed or deleted.
+ *
+ * Until it has been built, the caller should query the database.
+ *
+ * @author mac002
+ *
+ */
+public class TagIndex {
+
+	private static class Entry {
+		private final Collection<String> labels;
+		private final String library;
+		private final Collection<String> tags;
+
+		private Entry(Collection<String> labels, String library, Collection<String> tags) {
+			this.labels = labels;
+			this.library = library;
+			this.tags = tags;
+		}
+	}
+
+	private final Map<String, Entry> entries = new HashMap<String, Entry>();
+	private final Map<String, Map<String, Map<String, Integer>>> counts = new HashMap<String, Map<String, Map<String, Integer>>>();
+	private volatile boolean built = false;
+
+	/**
+	 * @param type - the name of a relationship type
+	 * @param nodeLabel - the label of the node the relationship points to
+	 * @return the label under which the tags of the relationships are indexed
+	 */
+	public static String relationshipLabel(String type, String nodeLabel) {
+		return type + "->" + nodeLabel;
+	}
+
+	/**
+	 * Set the tags for a node or relationship, replacing the ones it had before.
+	 * @param id of the node or relationship
+	 * @param labels - the labels of the node, or for a relationship, see relationshipLabel
+	 * @param library
+	 * @param tags
+	 */
+	public synchronized void put(String id, Collection<String> labels, String library, Collection<String> tags) {
+		this.remove(id);
+		if (tags == null || tags.isEmpty()) {
+			return;
+		}
+		Entry entry = new Entry(labels, library == null ? "" : library, new TreeSet<String>(tags));
+		entries.put(id, entry);
+		for (String label : entry.labels) {
+			Map<String, Integer> tagCounts = counts
+					.computeIfAbsent(label, k -> new HashMap<String, Map<String, Integer>>())
+					.computeIfAbsent(entry.library, k -> new HashMap<String, Integer>());
+			for (String tag : entry.tags) {
+				tagCounts.merge(tag, 1, Integer::sum);
+			}
+		}
+	}
+
+	/**
+	 * Remove the tags of a node or relationship that has been deleted
+	 * @param id
+	 */
+	public synchronized void remove(String id) {
+		Entry entry = entries.remove(id);
+		if (entry == null) {
+			return;
+		}
+		for (String label : entry.labels) {
+			Map<String, Map<String, Integer>> libraries = counts.get(label);
+			Map<String, Integer> tagCounts = libraries.get(entry.library);
+			for (String tag : entry.tags) {
+				if (tagCounts.merge(tag, -1, Integer::sum) == 0) {
+					tagCounts.remove(tag);
+				}
+			}
+			if (tagCounts.isEmpty()) {
+				libraries.remove(entry.library);
+			}
+			if (libraries.isEmpty()) {
+				counts.remove(label);
+			}
+		}
+	}
+
+	/**
+	 * @param label
+	 * @return the sorted tags used by nodes with the label, in any library
+	 */
+	public synchronized TreeSet<String> getTags(String label) {
+		TreeSet<String> result = new TreeSet<String>();
+		Map<String, Map<String, Integer>> libraries = counts.get(label);
+		if (libraries != null) {
+			for (Map<String, Integer> tagCounts : libraries.values()) {
+				result.addAll(tagCounts.keySet());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param label
+	 * @param library
+	 * @return the sorted tags used by nodes with the label in the library
+	 */
+	public synchronized TreeSet<String> getTags(String label, String library) {
+		TreeSet<String> result = new TreeSet<String>();
+		Map<String, Map<String, Integer>> libraries = counts.get(label);
+		if (libraries != null) {
+			Map<String, Integer> tagCounts = libraries.get(library);
+			if (tagCounts != null) {
+				result.addAll(tagCounts.keySet());
+			}
+		}
+		return result;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		counts.clear();
+		built = false;
+	}
+
+	/**
+	 * Call after the index has been loaded from the database
+	 */
+	public void setBuilt() {
+		this.built = true;
+	}
+
+	public boolean isBuilt() {
+		return built;
+	}
+
+	public synchronized JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("built", built);
+		json.addProperty("taggedItems", entries.size());
+		json.addProperty("labels", counts.size());
+		return json;
+	}
+}
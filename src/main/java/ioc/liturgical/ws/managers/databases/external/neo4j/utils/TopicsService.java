@@ -37,7 +37,7 @@ public class TopicsService {
 		
 		JsonObject json = ExternalDbManager
 				.neo4jManager
-				.getForQuery(q.toString())
+				.getForQuery(q.getQueryTemplate(), q.getParameters())
 				.toJsonObject();
 		JsonArray values = json.get("values").getAsJsonArray();
 		for (int i=0; i < values.size(); i++) {
@@ -67,7 +67,7 @@ public class TopicsService {
 		
 		JsonObject json = ExternalDbManager
 				.neo4jManager
-				.getForQuery(q.toString())
+				.getForQuery(q.getQueryTemplate(), q.getParameters())
 				.toJsonObject();
 		JsonArray values = json.get("values").getAsJsonArray();
 		for (int i=0; i < values.size(); i++) {
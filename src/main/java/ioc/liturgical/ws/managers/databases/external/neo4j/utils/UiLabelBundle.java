@@ -0,0 +1,136 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * All the user interface labels, as system, language, topic, key: value,
+ * e.g. {"ilr": {"en": {"button": {"close": "Close"}}}}.
+ *
+ * The bundle is built from one pass over the UiLabel nodes,
+ * serialized once, and then served as is until a label changes.
+ * The ETag is a hash of the serialized json, so clients
+ * can send If-None-Match and get a 304 if nothing has changed.
+ *
+ * @author mac002
+ *
+ */
+public class UiLabelBundle {
+	private final String json;
+	private final String eTag;
+
+	/**
+	 * @param labels each with the library, topic, key and value of a UiLabel,
+	 * where the library is language_sys_system, e.g. en_sys_ilr
+	 */
+	public UiLabelBundle(Iterable<JsonObject> labels) {
+		Map<String, Map<String, Map<String, Map<String, String>>>> systems =
+				new TreeMap<String, Map<String, Map<String, Map<String, String>>>>();
+		Set<String> languages = new TreeSet<String>();
+		for (JsonObject label : labels) {
+			String[] parts = getString(label, "library").split("_");
+			String topic = getString(label, "topic");
+			String key = getString(label, "key");
+			if (parts.length < 3 || topic.length() == 0 || key.length() == 0) {
+				continue;
+			}
+			languages.add(parts[0]);
+			systems
+				.computeIfAbsent(parts[2], k -> new TreeMap<String, Map<String, Map<String, String>>>())
+				.computeIfAbsent(parts[0], k -> new TreeMap<String, Map<String, String>>())
+				.computeIfAbsent(topic, k -> new TreeMap<String, String>())
+				.put(key, getString(label, "value"));
+		}
+		// as before, each system has an entry for every language, even if it has no labels for it
+		JsonObject result = new JsonObject();
+		for (Map.Entry<String, Map<String, Map<String, Map<String, String>>>> system : systems.entrySet()) {
+			JsonObject systemJson = new JsonObject();
+			for (String language : languages) {
+				JsonObject languageJson = new JsonObject();
+				Map<String, Map<String, String>> topics = system.getValue().get(language);
+				if (topics != null) {
+					for (Map.Entry<String, Map<String, String>> topic : topics.entrySet()) {
+						JsonObject topicJson = new JsonObject();
+						for (Map.Entry<String, String> key : topic.getValue().entrySet()) {
+							topicJson.addProperty(key.getKey(), key.getValue());
+						}
+						languageJson.add(topic.getKey(), topicJson);
+					}
+				}
+				systemJson.add(language, languageJson);
+			}
+			result.add(system.getKey(), systemJson);
+		}
+		this.json = result.toString();
+		this.eTag = toETag(this.json);
+	}
+
+	/**
+	 * @return the bundle as serialized json
+	 */
+	public String getJson() {
+		return json;
+	}
+
+	/**
+	 * @return a new copy of the bundle, which the caller is free to change
+	 */
+	public JsonObject toJsonObject() {
+		return new JsonParser().parse(json).getAsJsonObject();
+	}
+
+	/**
+	 * @return the ETag for the bundle, including the quotes
+	 */
+	public String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * @param ifNoneMatch the value of the If-None-Match request header, can be null
+	 * @return true if the client already has this version of the bundle
+	 */
+	public boolean matches(String ifNoneMatch) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String tag : ifNoneMatch.split(",")) {
+			tag = tag.trim();
+			if (tag.startsWith("W/")) {
+				tag = tag.substring(2);
+			}
+			if (tag.equals("*") || tag.equals(eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String toETag(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder("\"");
+			for (byte b : digest) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.append("\"").toString();
+		} catch (Exception e) {
+			return "\"" + Integer.toHexString(s.hashCode()) + "\"";
+		}
+	}
+
+	private static String getString(JsonObject o, String property) {
+		if (o.has(property) && ! o.get(property).isJsonNull()) {
+			return o.get(property).getAsString();
+		} else {
+			return "";
+		}
+	}
+}
@@ -63,11 +63,14 @@ import org.ocmc.ioc.liturgical.schemas.constants.VERBS;
 import org.ocmc.ioc.liturgical.schemas.constants.VISIBILITY;
 import org.ocmc.ioc.liturgical.schemas.exceptions.BadIdException;
 import org.ocmc.ioc.liturgical.schemas.constants.SCHEMA_CLASSES;
+import ioc.liturgical.ws.managers.auth.CredentialCache;
+import ioc.liturgical.ws.managers.auth.RoleIndex;
 import ioc.liturgical.ws.managers.auth.UserStatus;
 import ioc.liturgical.ws.managers.exceptions.DbException;
 import net.ages.alwb.utils.core.auth.PasswordHasher;
 import net.ages.alwb.utils.core.datastores.db.factory.DbConnectionFactory;
 import net.ages.alwb.utils.core.datastores.db.h2.manager.H2ConnectionManager;
+import net.ages.alwb.utils.core.datastores.db.h2.manager.JsonRowCache;
 import net.ages.alwb.utils.core.datastores.json.exceptions.MissingSchemaIdException;
 import org.ocmc.ioc.liturgical.schemas.models.DropdownItem;
 import org.ocmc.ioc.liturgical.schemas.models.db.internal.LTKVJsonObject;
@@ -105,6 +108,26 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 	private int maxInactiveMinutes = 10;
 	private List<String> agesDomains = new ArrayList<String>();
 	private List<String> publicSystemDomains = new ArrayList<String>();
+	private CredentialCache credentialCache = new CredentialCache(1000, 10);
+	private RoleIndex roleIndex = new RoleIndex();
+	private SchemaRegistry schemaRegistry = new SchemaRegistry();
+	private static final String SCHEMA_ID_PREFIX = 
+			SYSTEM_MISC_LIBRARY_TOPICS.SCHEMAS.lib 
+			+ Constants.ID_DELIMITER 
+			+ SYSTEM_MISC_LIBRARY_TOPICS.SCHEMAS.topic 
+			+ Constants.ID_DELIMITER;
+	private static final String USER_CONTACT_ID_PREFIX = 
+			USER_TOPICS.CONTACT.lib 
+			+ Constants.ID_DELIMITER 
+			+ USER_TOPICS.CONTACT.topic 
+			+ Constants.ID_DELIMITER;
+	private static final String DOMAIN_ID_PREFIX = 
+			SYSTEM_MISC_LIBRARY_TOPICS.DOMAINS.lib 
+			+ Constants.ID_DELIMITER 
+			+ SYSTEM_MISC_LIBRARY_TOPICS.DOMAINS.topic 
+			+ Constants.ID_DELIMITER;
+	private int userStatsFlushSeconds = 30;
+	private UserStatisticsAccumulator userStatsAccumulator = null;
 	
 	public H2ConnectionManager manager;
 	
@@ -135,10 +158,17 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 							, deleteOldDb
 							, deleteOldTableRows
 							);
+			// users, domains, labels and schemas are read on most requests
+			manager.enableCache();
 		} catch (SQLException e) {
 			ErrorUtils.report(logger, e);
 		}
     	verify();
+    	userStatsAccumulator = new UserStatisticsAccumulator(
+    			this::getUserStats
+    			, this::writeUserStats
+    			, userStatsFlushSeconds
+    			);
 	}
 		
 	/**
@@ -235,38 +265,29 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		if (user == null) {
 			user = "admins~web_service~wsadmin";
 		}
+		final String schemaUser = user;
 		Map<String,JsonObject> result = new TreeMap<String,JsonObject>();
 		for (JsonObject json : list) {
-			String id = null;
-			if (json.has(Constants.VALUE_SCHEMA_ID)) {
-				id = json.get(Constants.VALUE_SCHEMA_ID).getAsString();
-			} else if (json.has("doc." + Constants.VALUE_SCHEMA_ID)) {
-				id = json.get("doc." + Constants.VALUE_SCHEMA_ID).getAsString();
-			} else if (json.has("link")) {
-				if (json.get("link").getAsJsonObject().has("properties")) {
-					if (json.get("link").getAsJsonObject().get("properties").getAsJsonObject().has(Constants.VALUE_SCHEMA_ID)) {
-						id = json.get("link").getAsJsonObject().get("properties").getAsJsonObject().get(Constants.VALUE_SCHEMA_ID).getAsJsonObject().get("val").getAsString();
-					}
-				}
-			} else if (json.has("properties(to)")) {
-				id = json.get("properties(to)").getAsJsonObject().get(Constants.VALUE_SCHEMA_ID).getAsString();
-			}
+			String id = getSchemaId(json);
 			if (id != null) {
-				try {
-					JsonObject schema = getSchema(id);
-					if (schema != null && ! result.containsKey(id)) {
+				if (! result.containsKey(id)) {
+					try {
+						JsonObject schema = null;
 						if (id.startsWith(AuthorizationCreateForm.class.getSimpleName())) {
-							JsonObject schemaObject = schema.get("schema").getAsJsonObject();
-							JsonObject propertiesObject = schemaObject.get("properties").getAsJsonObject();
-							propertiesObject.add("username", getUserIdsSelectionWidgetSchema());
-							propertiesObject.add("library", getDomainIdsSelectionWidgetSchema(user));
-							schemaObject.add("properties", propertiesObject);
-							schema.add("schema", schemaObject);
+							schema = schemaRegistry.getForUser(
+									id
+									, schemaUser
+									, () -> getAuthorizationSchema(id, schemaUser)
+									);
+						} else {
+							schema = schemaRegistry.get(id);
 						}
-						result.put(id, schema);
+						if (schema != null) {
+							result.put(id, schema);
+						}
+					} catch (Exception e) {
+						ErrorUtils.report(logger, e);
 					}
-				} catch (Exception e) {
-					ErrorUtils.report(logger, e);
 				}
 			} else {
 				logger.info("InternalDbManager.getSchemas() reports missing schema id for " + json.toString());
@@ -275,6 +296,48 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		return result;
 	}
 
+	/**
+	 * @param json - a value from a query result
+	 * @return the valueSchemaId of the value, or null if it does not have one
+	 */
+	private String getSchemaId(JsonObject json) {
+		String id = null;
+		if (json.has(Constants.VALUE_SCHEMA_ID)) {
+			id = json.get(Constants.VALUE_SCHEMA_ID).getAsString();
+		} else if (json.has("doc." + Constants.VALUE_SCHEMA_ID)) {
+			id = json.get("doc." + Constants.VALUE_SCHEMA_ID).getAsString();
+		} else if (json.has("link")) {
+			if (json.get("link").getAsJsonObject().has("properties")) {
+				if (json.get("link").getAsJsonObject().get("properties").getAsJsonObject().has(Constants.VALUE_SCHEMA_ID)) {
+					id = json.get("link").getAsJsonObject().get("properties").getAsJsonObject().get(Constants.VALUE_SCHEMA_ID).getAsString();
+				}
+			}
+		} else if (json.has("properties(to)")) {
+			id = json.get("properties(to)").getAsJsonObject().get(Constants.VALUE_SCHEMA_ID).getAsString();
+		}
+		return id;
+	}
+
+	/**
+	 * The AuthorizationCreateForm schema, with widgets for selecting
+	 * a user, and a domain the user is an administrator of.
+	 * @param id - the schema id
+	 * @param username
+	 * @return
+	 */
+	private JsonObject getAuthorizationSchema(String id, String username) {
+		JsonObject schema = schemaRegistry.getCopy(id);
+		if (schema != null) {
+			JsonObject schemaObject = schema.get("schema").getAsJsonObject();
+			JsonObject propertiesObject = schemaObject.get("properties").getAsJsonObject();
+			propertiesObject.add("username", getUserIdsSelectionWidgetSchema());
+			propertiesObject.add("library", getDomainIdsSelectionWidgetSchema(username));
+			schemaObject.add("properties", propertiesObject);
+			schema.add("schema", schemaObject);
+		}
+		return schema;
+	}
+
 	/**
 	 * Get all docs whose id starts with specified pattern
 	 * @param pattern, e.g. _users
@@ -726,19 +789,9 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		// if we are not checking for admin users, include them since they automatically
 		// have all other roles.
 		if (! role.equals(ROLES.ADMIN)) {
-			for (JsonElement e : getWhereLike(ROLES.ADMIN.keyname + "%" + domain).get("values").getAsJsonArray()) {
-				String user = e.getAsJsonObject().get("key").getAsString();
-				if (! result.contains(user)) {
-					result.add(e.getAsJsonObject().get("key").getAsString());
-				}
-			}
-		}
-		for (JsonElement e : getWhereLike(role.keyname + "%" + domain).get("values").getAsJsonArray()) {
-			String user = e.getAsJsonObject().get("key").getAsString();
-			if (! result.contains(user)) {
-				result.add(e.getAsJsonObject().get("key").getAsString());
-			}
+			result.addAll(roleIndex.getUsers(ROLES.ADMIN, domain));
 		}
+		result.addAll(roleIndex.getUsers(role, domain));
 		return result;
 	}
 
@@ -1093,6 +1146,8 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
         	if (deleteOldTableRows) {
             	manager.truncateTable();
         	}
+        	this.loadRoleIndex();
+        	this.loadSchemaRegistry();
         	
         	this.initializeAgesDomainsMap();
         	this.initializePublicSystemDomainsMap();
@@ -1127,6 +1182,105 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 	}
 	
 	
+	/**
+	 * Loads the role records from the database into the role index.
+	 * After this, the index is kept in synch as role records are 
+	 * added or deleted.
+	 */
+	private void loadRoleIndex() {
+		List<JsonObject> records = new ArrayList<JsonObject>();
+		for (ROLES role : ROLES.values()) {
+			try {
+				records.addAll(manager.queryForJsonWhereStartsWith(role.keyname));
+			} catch (SQLException e) {
+				ErrorUtils.report(logger, e);
+			}
+		}
+		roleIndex.load(records);
+		logger.info("Role index loaded with " + records.size() + " role records");
+	}
+
+	/**
+	 * Loads the schemas from the database into the schema registry.
+	 * After this, the registry is kept in synch as docs are
+	 * added, updated, or deleted.
+	 */
+	private void loadSchemaRegistry() {
+		Map<String, JsonObject> schemas = new TreeMap<String, JsonObject>();
+		try {
+			for (JsonObject record : manager.queryForJsonWhereStartsWith(
+					SYSTEM_MISC_LIBRARY_TOPICS.SCHEMAS.lib 
+					+ Constants.ID_DELIMITER 
+					+ SYSTEM_MISC_LIBRARY_TOPICS.SCHEMAS.topic
+					)) {
+				String id = record.get("_id").getAsString();
+				if (id.startsWith(SCHEMA_ID_PREFIX)) {
+					schemas.put(id.substring(SCHEMA_ID_PREFIX.length()), record.get("value").getAsJsonObject());
+				}
+			}
+		} catch (SQLException e) {
+			ErrorUtils.report(logger, e);
+		}
+		schemaRegistry.load(schemas);
+		logger.info("Schema registry loaded with " + schemas.size() + " schemas");
+	}
+
+	/**
+	 * Keep the schema registry in synch with a doc that was written.
+	 * If the doc is a schema, it is read back from the database.
+	 * If it is a user's contact, a domain, or a role, the
+	 * schemas built for each user are dropped, since their widgets list these.
+	 * Other docs, e.g. statistics and preferences, leave the registry alone.
+	 * @param doc - that was added, updated, or deleted
+	 */
+	private void updateSchemaRegistry(JsonObject doc) {
+		String id = doc.get("_id").getAsString();
+		if (id.startsWith(SCHEMA_ID_PREFIX)) {
+			String schemaId = id.substring(SCHEMA_ID_PREFIX.length());
+			JsonObject schema = null;
+			try {
+				List<JsonObject> records = manager.queryForJsonWhereEqual(id);
+				if (records.size() > 0) {
+					schema = records.get(0).get("value").getAsJsonObject();
+				}
+			} catch (SQLException e) {
+				ErrorUtils.report(logger, e);
+			}
+			if (schema == null) {
+				schemaRegistry.remove(schemaId);
+			} else {
+				schemaRegistry.put(schemaId, schema);
+			}
+		} else if (this.affectsUserSchemas(id, doc)) {
+			schemaRegistry.invalidateUserSchemas();
+		}
+	}
+
+	/**
+	 * @param id of the doc
+	 * @param doc
+	 * @return true if the doc is a user's contact, a domain, or a role
+	 */
+	private boolean affectsUserSchemas(String id, JsonObject doc) {
+		if (id.startsWith(USER_CONTACT_ID_PREFIX) || id.startsWith(DOMAIN_ID_PREFIX)) {
+			return true;
+		}
+		if (roleIndex.isRoleRecord(doc)) {
+			return true;
+		}
+		// the doc might have only the _id, so check it too, e.g. admins~gr_gr_cog~mac or rights~admins~mac
+		String library = id.split(Constants.ID_DELIMITER)[0];
+		if (library.equals("rights")) {
+			return true;
+		}
+		for (ROLES role : ROLES.values()) {
+			if (role.keyname.equals(library)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	private void initializeUser(
 			String username
 			, String firstname
@@ -1715,6 +1869,8 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 					, role.description
 					);
 			manager.delete(tkv.toJsonObject());
+			roleIndex.remove(tkv.toJsonObject());
+			this.updateSchemaRegistry(tkv.toJsonObject());
 		} catch (Exception e) {
 			result = new RequestStatus(HTTP_RESPONSE_CODES.BAD_REQUEST);
 		}
@@ -1829,6 +1985,9 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 			result.setMessage(HTTP_RESPONSE_CODES.UNAUTHORIZED.message);
 		} else {
 			try {
+				credentialCache.invalidateUser(username);
+				roleIndex.removeUser(username);
+				userStatsAccumulator.remove(username);
 				ResultJsonObjectArray query = this.getForIdEndsWith(username);
 				for (JsonObject o : query.values) {
 					String id = o.get("_id").getAsString();
@@ -1838,6 +1997,9 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 			} catch (Exception e) {
 				result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 				result.setMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
+			} finally {
+				// a login during the delete may have cached the old hash again
+				credentialCache.invalidateUser(username);
 			}
 		}
 		return result;
@@ -2194,6 +2356,7 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 			, UserHash userHash
 			) throws BadIdException {
 		RequestStatus result = new RequestStatus();
+		credentialCache.invalidateUser(key);
 		try {
 			result = updateLTKVJsonObject(
 					USER_TOPICS.HASH.lib
@@ -2209,6 +2372,9 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		} catch (Exception e) {
 			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 			result.setMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
+		} finally {
+			// a login that read the old hash before the update will not cache it
+			credentialCache.invalidateUser(key);
 		}
     	return result;
     }
@@ -2440,6 +2606,33 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 
 	}
 
+	/**
+	 * Write the statistics held in memory for the user,
+	 * adding them if the user has none in the database yet.
+	 * If the user no longer exists, e.g. was deleted while the statistics
+	 * were held in memory, they are dropped rather than added back.
+	 * @param key - the username
+	 * @param user - the statistics
+	 * @return true if they were written or dropped
+	 */
+	private boolean writeUserStats(String key, UserStatistics user) {
+		RequestStatus status = updateUserStats(key, user);
+		if (status.getCode() == HTTP_RESPONSE_CODES.NOT_FOUND.code) {
+			if (! this.existsUser(key) || this.getUserHash(key) == null) {
+				logger.info("Dropped the statistics of " + key + ", who no longer exists");
+				return true;
+			}
+			try {
+				status = addUserStats(key, user);
+			} catch (BadIdException e) {
+				ErrorUtils.report(logger, e);
+				return false;
+			}
+		}
+		return status.getCode() == HTTP_RESPONSE_CODES.OK.code
+				|| status.getCode() == HTTP_RESPONSE_CODES.CREATED.code;
+	}
+
 	/**
 	 * Initializes schemas for both the internal and external databases
 	 */
@@ -2544,6 +2737,7 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 						, value
 						);
 		    	manager.insert(tkv.toJsonObject());		
+		    	this.updateSchemaRegistry(tkv.toJsonObject());
 		    	result.setCode(HTTP_RESPONSE_CODES.CREATED.code);
 		    	result.setMessage(HTTP_RESPONSE_CODES.CREATED.message + ": " + id);
 			} catch (org.ocmc.ioc.liturgical.schemas.exceptions.BadIdException e) {
@@ -2588,6 +2782,8 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 							);
 				   try {
 				    	manager.insert(record.toJsonObject());		
+				    	roleIndex.put(record.toJsonObject());
+				    	this.updateSchemaRegistry(record.toJsonObject());
 				   } catch (SQLException e) {
 					   throw new DbException(
 							   "Error adding " 
@@ -2615,21 +2811,12 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		return existsUnique(SYSTEM_MISC_LIBRARY_TOPICS.SCHEMAS.toId(schemaId));
 	}
 	
+	/**
+	 * @param key - the schema id
+	 * @return a copy of the schema, or null if there is none
+	 */
 	public JsonObject getSchema(String key) {
-		JsonObject result = null;
-		try {
-			List<JsonObject> schemas = manager.queryForJsonWhereEqual(SYSTEM_MISC_LIBRARY_TOPICS.SCHEMAS.toId(key));
-			if (schemas.size() > 0) {
-				result = manager.queryForJsonWhereEqual(SYSTEM_MISC_LIBRARY_TOPICS.SCHEMAS.toId(key)).get(0);
-			}
-			if (result != null) {
-				result = result.get("value").getAsJsonObject();
-			}
-		} catch (Exception e) {
-			ErrorUtils.report(logger, e);
-			return null;
-		}
-		return result;
+		return schemaRegistry.getCopy(key);
 	}
 
 	public RequestStatus updateLTKVJsonObject(
@@ -2653,6 +2840,8 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 						);
 				   try {
 						manager.updateWhereEqual(record.toJsonObject());		
+						roleIndex.put(record.toJsonObject());
+						this.updateSchemaRegistry(record.toJsonObject());
 				   } catch (SQLException e) {
 					   throw new DbException(
 							   "Error updating " 
@@ -2681,28 +2870,24 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 			) {
 		UserStatus  status = new UserStatus();
 		if (existsUser(username)) {
-			UserStatistics userStats = getUserStats(username);
 			status.setKnownUser(true);
 			status.setAuthenticated(authenticated(username,password));
 			status.setAuthorized(authorized(username,VERBS.forWsname(verb),library));
 			long currentNano = System.nanoTime();
-			long lastNano = userStats.getLastAccessNanos();
-			if (lastNano == 0) {
-				status.setSessionExpired(true);
-			} else {
-				long elapsedNano = currentNano - lastNano;
-				long elapsedMinutes = TimeUnit.MINUTES.convert(elapsedNano, TimeUnit.NANOSECONDS);
-				status.setSessionExpired(elapsedMinutes > maxInactiveMinutes);
-			}
-			userStats.setLastAccessNanos(currentNano);
-			userStats.setLastSuccessfulAccessDateTime(getTimestamp());
-			if (status.isAuthenticated()) {
-				userStats.setAccessCount(userStats.getAccessCount() + 1);
-			} else {
-				userStats.setFailedLoginCount(userStats.getFailedLoginCount() + 1);
-				userStats.setLastFailedAccessDateTime(Instant.now().toString());
+			// the statistics are updated in memory and written to the database by a background thread
+			try {
+				long lastNano = userStatsAccumulator.recordAccess(username, status.isAuthenticated(), currentNano);
+				if (lastNano == 0) {
+					status.setSessionExpired(true);
+				} else {
+					long elapsedNano = currentNano - lastNano;
+					long elapsedMinutes = TimeUnit.MINUTES.convert(elapsedNano, TimeUnit.NANOSECONDS);
+					status.setSessionExpired(elapsedMinutes > maxInactiveMinutes);
+				}
+			} catch (IllegalStateException e) {
+				// the stored statistics could not be read, so this access is not counted
+				ErrorUtils.report(logger, e);
 			}
-			updateUserStats(username, userStats);
 		}
 		return status;
 	}
@@ -2796,22 +2981,25 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		}
 	}
 	
+	/**
+	 * @param username
+	 * @return the stored statistics of the user, or new ones if the user has none
+	 * @throws IllegalStateException if they can't be read
+	 */
 	public UserStatistics getUserStats(String username) {
-		try {			
-			ResultJsonObjectArray obj = getForId(USER_TOPICS.STATISTICS.toId(username));
-			Long count = obj.getCount();
-			if (count != 1) {
-				return new UserStatistics();
-			} else {
-				UserStatistics user = (UserStatistics) gson.fromJson(
-						obj.getFirstObjectValueAsObject()
-						, UserStatistics.class
-				);
-				return user;
-			}
-		} catch (Exception e) {
-			ErrorUtils.report(logger, e);
-			return null;
+		List<JsonObject> records = null;
+		try {
+			records = manager.queryForJsonWhereEqual(USER_TOPICS.STATISTICS.toId(username));
+		} catch (SQLException e) {
+			throw new IllegalStateException("Could not read the statistics for " + username, e);
+		}
+		if (records.isEmpty()) {
+			return new UserStatistics();
+		} else {
+			return (UserStatistics) gson.fromJson(
+					records.get(0).get("value").getAsJsonObject()
+					, UserStatistics.class
+			);
 		}
 	}
 
@@ -2824,13 +3012,27 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		return null;
 	}
 	
+	/**
+	 * Checks the password against the user's stored hash.
+	 * Credentials that have already been verified are 
+	 * answered from the credential cache, so the hash check
+	 * only runs on a miss.
+	 * @param username
+	 * @param password
+	 * @return true if the password is correct for the user
+	 */
 	public boolean authenticated(String username, String password) {
+		if (credentialCache.isVerified(username, password)) {
+			return true;
+		}
 		try {
+			long generation = credentialCache.getGeneration(username);
 			UserHash user = getUserHash(username);
 			if (user == null) {
 				return false;
 			} else {
 				if (PasswordHasher.checkPassword(password, user.getHashedPassword())) {
+					credentialCache.putVerified(username, password, generation);
 					return true;
 				} else {
 					return false;
@@ -3044,60 +3246,56 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 	
 	public boolean isAdminForAnyLib(String username) {
 		return isDbAdmin(username) ||
-				getWhereLike(ROLES.ADMIN.keyname + "%" + username).get("valueCount").getAsInt() > 0
+				roleIndex.hasRoleForAnyDomain(ROLES.ADMIN, username)
 				;
 	}
 	
 	public boolean isAuthorForAnyLib(String username) {
 		return isDbAdmin(username) 
 				|| isAdminForAnyLib(username) 
-				|| getWhereLike(ROLES.AUTHOR.keyname + "%" + username).get("valueCount").getAsInt() > 0
+				|| roleIndex.hasRoleForAnyDomain(ROLES.AUTHOR, username)
 				;
 	}
 
 	public boolean isReaderForAnyLib(String username) {
 		return isDbAdmin(username) 
 				|| isAuthorForAnyLib(username) 
-				|| getWhereLike(ROLES.READER.keyname + "%" + username).get("valueCount").getAsInt() > 0
+				|| roleIndex.hasRoleForAnyDomain(ROLES.READER, username)
 				;
 	}
 
 	public List<String> getDomainsTheUserAdministers(String username) {
-		List<String> result = new ArrayList<String>();
 		if (isDbAdmin(username)) {
 			return getDomains();
 		} else {
-			JsonObject json = getWhereLike(ROLES.ADMIN.keyname + "%" + username);
-			if (json.get("valueCount").getAsInt() > 0) {
-				for (JsonElement value : json.get("values").getAsJsonArray()) {
-					result.add(value.getAsJsonObject().get("topic").getAsString());
-				}
-			}
-			return result;
+			return new ArrayList<String>(roleIndex.getDomains(ROLES.ADMIN, username));
 		}
 	}
 
 	public List<String> getDomainsTheUserReads(String username) {
-		List<String> result = new ArrayList<String>();
 		if (isDbAdmin(username)) {
 			return getDomains();
 		} else {
-			JsonObject json = getWhereLike(ROLES.READER.keyname + "%" + username);
-			if (json.get("valueCount").getAsInt() > 0) {
-				for (JsonElement value : json.get("values").getAsJsonArray()) {
-					result.add(value.getAsJsonObject().get("topic").getAsString());
-				}
-			}
-			return result;
+			return new ArrayList<String>(roleIndex.getDomains(ROLES.READER, username));
 		}
 	}
 
-	public JsonArray getDomainsUserCanRead(String username) {
+	/**
+	 * Get the role records the user has for the specified role
+	 * @param role
+	 * @param username
+	 * @return a JsonArray of the role records
+	 */
+	private JsonArray getRoleRecordsForUser(ROLES role, String username) {
 		JsonArray result = new JsonArray();
-		JsonObject json = getWhereLike(ROLES.READER.keyname + "%" + username);
-		if (json.get("valueCount").getAsInt() > 0) {
-			result = json.get("values").getAsJsonArray();
+		for (JsonObject record : roleIndex.getRecords(role, username)) {
+			result.add(record);
 		}
+		return result;
+	}
+
+	public JsonArray getDomainsUserCanRead(String username) {
+		JsonArray result = getRoleRecordsForUser(ROLES.READER, username);
 		for (Domain domain : this.getDomainsObjectsThatAreCollectiveLiturgical()) {
 			try {
 				result.add(domain.toJsonObject());
@@ -3109,12 +3307,7 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 	}
 
 	public JsonArray getDomainsUserCanAuthor(String username) {
-		JsonArray result = new JsonArray();
-		JsonObject json = getWhereLike(ROLES.AUTHOR.keyname + "%" + username);
-		if (json.get("valueCount").getAsInt() > 0) {
-			result = json.get("values").getAsJsonArray();
-		}
-		return result;
+		return getRoleRecordsForUser(ROLES.AUTHOR, username);
 	}
 	
 
@@ -3161,21 +3354,11 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 	}
 
 	public JsonArray getDomainsUserCanAdminister(String username) {
-		JsonArray result = new JsonArray();
-		JsonObject json = getWhereLike(ROLES.ADMIN.keyname + "%" + username);
-		if (json.get("valueCount").getAsInt() > 0) {
-			result = json.get("values").getAsJsonArray();
-		}
-		return result;
+		return getRoleRecordsForUser(ROLES.ADMIN, username);
 	}
 
 	public JsonArray getDomainsUserCanReview(String username) {
-		JsonArray result = new JsonArray();
-		JsonObject json = getWhereLike(ROLES.REVIEWER.keyname + "%" + username);
-		if (json.get("valueCount").getAsInt() > 0) {
-			result = json.get("values").getAsJsonArray();
-		}
-		return result;
+		return getRoleRecordsForUser(ROLES.REVIEWER, username);
 	}
 
 	/**
@@ -3359,13 +3542,7 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 			if (isDbAdmin(username)) {
 				domains = getDomains();
 			} else {
-				JsonObject json = getWhereLike(ROLES.ADMIN.keyname + "%" + username);
-				if (json.get("valueCount").getAsInt() > 0) {
-					for (JsonElement value : json.get("values").getAsJsonArray()) {
-						String domain = value.getAsJsonObject().get("topic").getAsString();
-						domains.add(domain);
-					}
-				}
+				domains.addAll(roleIndex.getDomains(ROLES.ADMIN, username));
 			}
 			Collections.sort(domains);
 			for (String domain : domains) {
@@ -3459,7 +3636,7 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 	 * @return true if that is the case
 	 */
 	public boolean hasRole(ROLES role, String library, String username) {
-		return existsUnique(role.toId(library, username));
+		return roleIndex.hasRole(role, library, username);
 	}
 	/**
 	 * Is there a single doc that matches this id?
@@ -3483,6 +3660,7 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 						, json
 						);
 		    	manager.insert(record.toJsonObject());		
+		    	this.updateSchemaRegistry(record.toJsonObject());
 		    	result.setCode(HTTP_RESPONSE_CODES.CREATED.code);
 		    	result.setMessage(HTTP_RESPONSE_CODES.CREATED.message + ": " + schemaId);
 			} catch (Exception e) {
@@ -3507,6 +3685,7 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 						, json
 						);
 				manager.updateWhereEqual(record.toJsonObject());		
+				this.updateSchemaRegistry(record.toJsonObject());
 			} catch (Exception e) {
 				result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
 				result.setMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
@@ -3518,6 +3697,18 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 		return result;
 	}
 
+	public CredentialCache getCredentialCache() {
+		return credentialCache;
+	}
+
+	public JsonRowCache getDocumentCache() {
+		return manager.getCache();
+	}
+
+	public SchemaRegistry getSchemaRegistry() {
+		return schemaRegistry;
+	}
+
 	public boolean isPrettyPrint() {
 		return prettyPrint;
 	}
@@ -3536,6 +3727,8 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 				result.setMessage(HTTP_RESPONSE_CODES.NOT_FOUND.message + " " + id);
 			} else {
 				manager.delete(json.getFirstObject());
+				roleIndex.remove(json.getFirstObject());
+				this.updateSchemaRegistry(json.getFirstObject());
 			}
 		} catch (SQLException e) {
 			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
@@ -3558,6 +3751,8 @@ public class InternalDbManager implements HighLevelDataStoreInterface {
 						result.setMessage(HTTP_RESPONSE_CODES.NOT_FOUND.message + " " + id);
 					} else {
 						manager.delete(json.getFirstObject());
+						roleIndex.remove(json.getFirstObject());
+						this.updateSchemaRegistry(json.getFirstObject());
 					}
 				}
 			} catch (SQLException e) {
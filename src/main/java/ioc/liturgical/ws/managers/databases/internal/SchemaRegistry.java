@@ -0,0 +1,166 @@
+package ioc.liturgical.ws.managers.databases.internal;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Holds the value schemas in memory, so that setting the valueSchemas
+ * of a result does not read and parse each schema from the database.
+ *
+ * The map of schemas is never changed, only replaced, so a read needs no lock.
+ * Each schema is stored with its json string, so a writer of the result
+ * can use the string instead of serializing the schema again.
+ * The schemas returned are shared, and must not be changed by the caller.
+ *
+ * A schema that depends on the user, e.g. AuthorizationCreateForm, whose
+ * widgets list the users and the domains the user administers, is
+ * kept for each user until invalidateUserSchemas is called, which must
+ * be done whenever a user, domain, or role changes.
+ *
+ * @author mac002
+ *
+ */
+public class SchemaRegistry {
+	public static final int MAX_USER_SCHEMAS = 1000;
+
+	private static final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+	private static class Entry {
+		private final JsonObject schema;
+		private final String json;
+		private Entry(JsonObject schema, String json) {
+			this.schema = schema;
+			this.json = json;
+		}
+	}
+
+	private volatile Map<String, Entry> entries = Collections.emptyMap();
+	private volatile Map<String, JsonObject> userSchemas = new ConcurrentHashMap<String, JsonObject>();
+	private final JsonParser parser = new JsonParser();
+
+	private final AtomicLong userSchemaHits = new AtomicLong();
+	private final AtomicLong userSchemaMisses = new AtomicLong();
+
+	/**
+	 * Replace all the schemas
+	 * @param schemas - by schema id
+	 */
+	public synchronized void load(Map<String, JsonObject> schemas) {
+		Map<String, Entry> newEntries = new HashMap<String, Entry>();
+		for (Map.Entry<String, JsonObject> schema : schemas.entrySet()) {
+			newEntries.put(schema.getKey(), toEntry(schema.getValue()));
+		}
+		entries = Collections.unmodifiableMap(newEntries);
+		this.invalidateUserSchemas();
+	}
+
+	/**
+	 * Add or replace a schema.  The registry keeps its own copy.
+	 * @param id - the schema id
+	 * @param schema
+	 */
+	public synchronized void put(String id, JsonObject schema) {
+		Map<String, Entry> newEntries = new HashMap<String, Entry>(entries);
+		newEntries.put(id, toEntry(schema));
+		entries = Collections.unmodifiableMap(newEntries);
+		this.invalidateUserSchemas();
+	}
+
+	public synchronized void remove(String id) {
+		if (entries.containsKey(id)) {
+			Map<String, Entry> newEntries = new HashMap<String, Entry>(entries);
+			newEntries.remove(id);
+			entries = Collections.unmodifiableMap(newEntries);
+		}
+		this.invalidateUserSchemas();
+	}
+
+	private Entry toEntry(JsonObject schema) {
+		String json = gson.toJson(schema);
+		return new Entry(parser.parse(json).getAsJsonObject(), json);
+	}
+
+	public boolean contains(String id) {
+		return entries.containsKey(id);
+	}
+
+	/**
+	 * @param id - the schema id
+	 * @return the shared schema, which must not be changed, or null if there is none
+	 */
+	public JsonObject get(String id) {
+		Entry entry = entries.get(id);
+		return entry == null ? null : entry.schema;
+	}
+
+	/**
+	 * @param id - the schema id
+	 * @return a copy of the schema, which the caller can change, or null if there is none
+	 */
+	public JsonObject getCopy(String id) {
+		Entry entry = entries.get(id);
+		return entry == null ? null : parser.parse(entry.json).getAsJsonObject();
+	}
+
+	/**
+	 * @param id - the schema id
+	 * @param schema - as returned by get or getForUser
+	 * @return the json string of the schema, if it is the one held for the id, else null
+	 */
+	public String toJsonString(String id, JsonObject schema) {
+		Entry entry = entries.get(id);
+		return entry != null && entry.schema == schema ? entry.json : null;
+	}
+
+	/**
+	 * Get the schema as it is for this user, building it if need be.
+	 * @param id - the schema id
+	 * @param username
+	 * @param builder - builds the schema for the user, from a copy of the registered one
+	 * @return the shared schema for the user, which must not be changed, or null if there is none
+	 */
+	public JsonObject getForUser(String id, String username, Supplier<JsonObject> builder) {
+		if (! entries.containsKey(id)) {
+			return null;
+		}
+		// if invalidated while building, the result is put in the map that was replaced
+		Map<String, JsonObject> schemas = userSchemas;
+		String key = id + "~" + username;
+		JsonObject schema = schemas.get(key);
+		if (schema == null) {
+			userSchemaMisses.incrementAndGet();
+			schema = builder.get();
+			if (schema != null && schemas.size() < MAX_USER_SCHEMAS) {
+				schemas.put(key, schema);
+			}
+		} else {
+			userSchemaHits.incrementAndGet();
+		}
+		return schema;
+	}
+
+	/**
+	 * Forget the schemas built for each user
+	 */
+	public void invalidateUserSchemas() {
+		userSchemas = new ConcurrentHashMap<String, JsonObject>();
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("schemas", entries.size());
+		json.addProperty("userSchemas", userSchemas.size());
+		json.addProperty("userSchemaHits", userSchemaHits.get());
+		json.addProperty("userSchemaMisses", userSchemaMisses.get());
+		return json;
+	}
+}
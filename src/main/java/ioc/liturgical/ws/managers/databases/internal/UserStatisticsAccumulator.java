@@ -0,0 +1,167 @@
+package ioc.liturgical.ws.managers.databases.internal;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+import org.ocmc.ioc.liturgical.schemas.models.ws.db.UserStatistics;
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+
+/**
+ * Holds user statistics in memory, so that recording an access
+ * does not require a database write on the request thread.
+ *
+ * The statistics for a user are read from the database the first
+ * time the user is seen.  After that, changes are made in memory
+ * and the user is marked as dirty.  A background thread writes
+ * the dirty users to the database every flushSeconds, and once
+ * more when the JVM shuts down.  A user whose write fails stays
+ * dirty, and is written again with the next flush.
+ *
+ * If the stored statistics can't be read, recordAccess throws and
+ * nothing is held for the user, so the access is not counted and the
+ * next access reads them again.  Otherwise a flush would write
+ * empty statistics over the stored ones.
+ *
+ * @author mac002
+ *
+ */
+public class UserStatisticsAccumulator {
+	private static final Logger logger = LoggerFactory.getLogger(UserStatisticsAccumulator.class);
+
+	private final Gson gson = new Gson();
+	private final Map<String, UserStatistics> stats = new ConcurrentHashMap<String, UserStatistics>();
+	private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+	private final Function<String, UserStatistics> loader;
+	private final BiPredicate<String, UserStatistics> writer;
+	private final ScheduledExecutorService flusher;
+
+	/**
+	 * @param loader - reads the stored statistics for a user, returning new ones if
+	 * the user has none, and throwing if they can't be read
+	 * @param writer - writes the statistics for a user, returning false if the write failed
+	 * @param flushSeconds - how often to write dirty users to the database
+	 */
+	public UserStatisticsAccumulator(
+			Function<String, UserStatistics> loader
+			, BiPredicate<String, UserStatistics> writer
+			, long flushSeconds
+			) {
+		this.loader = loader;
+		this.writer = writer;
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "user-stats-flusher");
+			t.setDaemon(true);
+			return t;
+		});
+		this.flusher.scheduleWithFixedDelay(
+				this::flush
+				, flushSeconds
+				, flushSeconds
+				, TimeUnit.SECONDS
+				);
+		Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "user-stats-shutdown"));
+	}
+
+	/**
+	 * Record an access attempt by the user
+	 * @param username
+	 * @param authenticated - whether the attempt was authenticated
+	 * @param currentNanos - the time of access as System.nanoTime()
+	 * @return the nanos of the previous access, or zero if there was none
+	 * @throws IllegalStateException if the stored statistics can't be read
+	 */
+	public long recordAccess(String username, boolean authenticated, long currentNanos) {
+		UserStatistics userStats = get(username);
+		long lastNanos = 0;
+		synchronized (userStats) {
+			lastNanos = userStats.getLastAccessNanos();
+			userStats.setLastAccessNanos(currentNanos);
+			userStats.setLastSuccessfulAccessDateTime(Instant.now().toString());
+			if (authenticated) {
+				userStats.setAccessCount(userStats.getAccessCount() + 1);
+			} else {
+				userStats.setFailedLoginCount(userStats.getFailedLoginCount() + 1);
+				userStats.setLastFailedAccessDateTime(Instant.now().toString());
+			}
+		}
+		dirty.add(username);
+		return lastNanos;
+	}
+
+	/**
+	 * Forget the statistics for the user, e.g. because the user was deleted.
+	 * @param username
+	 */
+	public void remove(String username) {
+		if (username != null) {
+			dirty.remove(username);
+			stats.remove(username);
+		}
+	}
+
+	/**
+	 * Write all dirty users to the database
+	 */
+	public void flush() {
+		List<String> users = new ArrayList<String>(dirty);
+		for (String username : users) {
+			dirty.remove(username);
+			UserStatistics userStats = stats.get(username);
+			if (userStats != null) {
+				UserStatistics snapshot = null;
+				synchronized (userStats) {
+					snapshot = gson.fromJson(gson.toJson(userStats), UserStatistics.class);
+				}
+				try {
+					if (! writer.test(username, snapshot)) {
+						dirty.add(username); // try again on the next flush
+						logger.warn("Could not write the statistics for " + username);
+					}
+				} catch (Exception e) {
+					dirty.add(username); // try again on the next flush
+					ErrorUtils.report(logger, e);
+				}
+			}
+		}
+		if (users.size() > 0) {
+			logger.debug("Flushed statistics for " + users.size() + " users");
+		}
+	}
+
+	public int getDirtyCount() {
+		return dirty.size();
+	}
+
+	/**
+	 * Stop the background flusher and write any remaining changes.
+	 */
+	public void shutdown() {
+		flusher.shutdown();
+		flush();
+	}
+
+	private UserStatistics get(String username) {
+		// if the loader throws, nothing is put in the map
+		return stats.computeIfAbsent(username, u -> {
+			UserStatistics loaded = loader.apply(u);
+			if (loaded == null) {
+				throw new IllegalStateException("Could not read the statistics for " + u);
+			}
+			return loaded;
+		});
+	}
+}
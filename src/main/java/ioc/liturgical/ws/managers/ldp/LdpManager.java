@@ -1,7 +1,11 @@
 package ioc.liturgical.ws.managers.ldp;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,25 +13,38 @@ import org.slf4j.LoggerFactory;
 import com.google.gson.JsonObject;
 
 import org.ocmc.ioc.liturgical.schemas.constants.HTTP_RESPONSE_CODES;
-import org.ocmc.ioc.liturgical.schemas.models.db.internal.LTKVJsonObject;
-import org.ocmc.ioc.liturgical.schemas.models.ws.response.LiturgicalDayPropertiesForm;
 import org.ocmc.ioc.liturgical.schemas.models.ws.response.ResultJsonObjectArray;
-import org.ocmc.ioc.liturgical.utils.ErrorUtils;
 import org.ocmc.ioc.liturgical.utils.LITURGICAL_CALENDAR_TYPE;
-import org.ocmc.ioc.liturgical.utils.LiturgicalDayProperties;
 
 import ioc.liturgical.ws.managers.databases.internal.InternalDbManager;
 
+/**
+ * Provides the liturgical day properties for a date.
+ *
+ * The properties for a whole year are computed the first time a date
+ * in that year is requested, and kept in an LdpYearTable, one per
+ * year and calendar type.  Only the most recently used MAX_YEARS tables are kept.
+ * Nothing about a request is stored in the manager, so it can be used
+ * by many request threads at the same time.
+ *
+ */
 public class LdpManager {
 	private static final Logger logger = LoggerFactory.getLogger(LdpManager.class);
-	private LiturgicalDayProperties theDay;
+	public static final int MAX_YEARS = 10;
 	private InternalDbManager dbManager = null;
+	private final Map<String, LdpYearTable> years = new LinkedHashMap<String, LdpYearTable>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, LdpYearTable> eldest) {
+			return size() > MAX_YEARS;
+		}
+	};
+
 	/**
 	 * Constructor
 	 */
 	public LdpManager(InternalDbManager dbManager) {
 		this.dbManager = dbManager;
-		theDay = new LiturgicalDayProperties();
 	}
 	
 	/**
@@ -44,39 +61,7 @@ public class LdpManager {
 	 * @return
 	 */
 	public ResultJsonObjectArray getLdpForToday(String calendarType) {
-		ResultJsonObjectArray result = new ResultJsonObjectArray(true); // true means PrettyPrint the json
-		LiturgicalDayPropertiesForm form = new LiturgicalDayPropertiesForm();
-		String date = ""; // set the date later, using the LiturgicalDayProperties instance you create.
-		try {
-			theDay = new LiturgicalDayProperties();
-			date = theDay.getFormattedDate();
-			LITURGICAL_CALENDAR_TYPE type = LITURGICAL_CALENDAR_TYPE.forWsname(calendarType);
-			theDay = new LiturgicalDayProperties(date, type);
-			if (theDay.getIsoDateValid()) {
-				form = new LiturgicalDayPropertiesForm(theDay);
-				LTKVJsonObject record = 
-						new LTKVJsonObject(
-							"ldp" // normally this and the next two parms are used for database writes
-							, "ldp" // but these won't be used, so we will fake it
-							, "ldp"
-							, form.schemaIdAsString()
-							, form.toJsonObject()
-							);
-				List<JsonObject> dbResults = new ArrayList<JsonObject>();
-				dbResults.add(record.toJsonObject());
-				result.setValueSchemas(dbManager.getSchemas(dbResults, null));
-				result.setResult(dbResults);
-			} else {
-				result.setStatusCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
-				result.setStatusMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
-			}
-			result.setQuery("Liturgical Properties for " + date + " using the " + type.description + " calendar ");
-		} catch (Exception e) {
-			result.setStatusCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
-			result.setStatusMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
-			ErrorUtils.report(logger, e);
-		}
-		return result;
+		return getLdpForDate(LdpYearTable.toIsoDate(LocalDate.now()), calendarType);
 	}
 
 	/**
@@ -88,21 +73,26 @@ public class LdpManager {
 	public ResultJsonObjectArray getLdpForDate(String date, String calendarType) {
 		ResultJsonObjectArray result = new ResultJsonObjectArray(true); // true means PrettyPrint the json
 		try {
-			LiturgicalDayPropertiesForm form = new LiturgicalDayPropertiesForm();
 			LITURGICAL_CALENDAR_TYPE type = LITURGICAL_CALENDAR_TYPE.forWsname(calendarType);
-			theDay = new LiturgicalDayProperties(date, type);
-			if (theDay.getIsoDateValid()) {
-				form = new LiturgicalDayPropertiesForm(theDay);
-				LTKVJsonObject record = 
-						new LTKVJsonObject(
-							"ldp" // normally this and the next two parms are used for database writes
-							, "ldp" // but these won't be used, so we will fake it
-							, "ldp"
-							, form.schemaIdAsString()
-							, form.toJsonObject()
-							);
+			JsonObject record = null;
+			LocalDate theDate = null;
+			try {
+				// the year, month, and day are taken from the date the same way LiturgicalDayProperties does
+				Calendar c = javax.xml.bind.DatatypeConverter.parseDateTime(date);
+				theDate = LocalDate.of(
+						c.get(Calendar.YEAR)
+						, c.get(Calendar.MONTH) + 1
+						, c.get(Calendar.DATE)
+						);
+			} catch (Exception e) {
+				logger.warn("Invalid date for liturgical day properties: " + date);
+			}
+			if (theDate != null) {
+				record = this.getYearTable(theDate.getYear(), type).get(theDate);
+			}
+			if (record != null) {
 				List<JsonObject> dbResults = new ArrayList<JsonObject>();
-				dbResults.add(record.toJsonObject());
+				dbResults.add(record);
 				result.setValueSchemas(dbManager.getSchemas(dbResults, null));
 				result.setResult(dbResults);
 			} else {
@@ -116,5 +106,33 @@ public class LdpManager {
 		}
 		return result;
 	}
+
+	/**
+	 * Get the table of liturgical day properties for the year,
+	 * computing it if it is not already cached.
+	 * @param year
+	 * @param type
+	 * @return the table
+	 */
+	public LdpYearTable getYearTable(int year, LITURGICAL_CALENDAR_TYPE type) {
+		String key = type.name() + "~" + year;
+		LdpYearTable table = null;
+		synchronized (years) {
+			table = years.get(key);
+		}
+		if (table == null) {
+			// computed outside the lock so requests for other years are not held up
+			table = new LdpYearTable(year, type);
+			synchronized (years) {
+				LdpYearTable existing = years.get(key);
+				if (existing == null) {
+					years.put(key, table);
+				} else {
+					table = existing;
+				}
+			}
+		}
+		return table;
+	}
 	
-}
\ No newline at end of file
+}
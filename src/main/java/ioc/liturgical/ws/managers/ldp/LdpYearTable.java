@@ -0,0 +1,95 @@
+package ioc.liturgical.ws.managers.ldp;
+
+import java.time.LocalDate;
+import java.time.Year;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.ocmc.ioc.liturgical.schemas.models.db.internal.LTKVJsonObject;
+import org.ocmc.ioc.liturgical.schemas.models.ws.response.LiturgicalDayPropertiesForm;
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.ocmc.ioc.liturgical.utils.LITURGICAL_CALENDAR_TYPE;
+import org.ocmc.ioc.liturgical.utils.LiturgicalDayProperties;
+
+/**
+ * The liturgical day properties for every day of one year,
+ * for one calendar type (Gregorian or Julian).
+ *
+ * The properties are computed once, when the table is created,
+ * and kept as serialized json, indexed by the day of the year.
+ * The table is not changed after it is created, so it can be
+ * read by any number of request threads at the same time.
+ *
+ * @author mac002
+ *
+ */
+public class LdpYearTable {
+	private static final Logger logger = LoggerFactory.getLogger(LdpYearTable.class);
+
+	private final int year;
+	private final LITURGICAL_CALENDAR_TYPE calendarType;
+	private final String[] days;
+
+	public LdpYearTable(int year, LITURGICAL_CALENDAR_TYPE calendarType) {
+		this.year = year;
+		this.calendarType = calendarType;
+		this.days = new String[Year.of(year).length()];
+		for (int i = 0; i < days.length; i++) {
+			LocalDate date = LocalDate.ofYearDay(year, i + 1);
+			try {
+				LiturgicalDayProperties theDay = new LiturgicalDayProperties(toIsoDate(date), calendarType);
+				if (theDay.getIsoDateValid()) {
+					LiturgicalDayPropertiesForm form = new LiturgicalDayPropertiesForm(theDay);
+					LTKVJsonObject record =
+							new LTKVJsonObject(
+								"ldp" // normally this and the next two parms are used for database writes
+								, "ldp" // but these won't be used, so we will fake it
+								, "ldp"
+								, form.schemaIdAsString()
+								, form.toJsonObject()
+								);
+					days[i] = record.toJsonObject().toString();
+				}
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
+		}
+	}
+
+	/**
+	 * @param date a date in the year of this table
+	 * @return a new copy of the record of the liturgical day properties for the date,
+	 * or null if they could not be computed.
+	 */
+	public JsonObject get(LocalDate date) {
+		if (date.getYear() != year) {
+			throw new IllegalArgumentException(date + " is not in " + year);
+		}
+		String day = days[date.getDayOfYear() - 1];
+		if (day == null) {
+			return null;
+		} else {
+			return new JsonParser().parse(day).getAsJsonObject();
+		}
+	}
+
+	public int getYear() {
+		return year;
+	}
+
+	public LITURGICAL_CALENDAR_TYPE getCalendarType() {
+		return calendarType;
+	}
+
+	/**
+	 * @param date
+	 * @return the date as an ISO string, e.g. 2016-11-19T12:00:00.000Z
+	 */
+	public static String toIsoDate(LocalDate date) {
+		return date.toString() + "T12:00:00.000Z";
+	}
+}
@@ -1,6 +1,9 @@
 package ioc.liturgical.ws.managers.synch;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Config;
@@ -17,6 +20,8 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import ioc.liturgical.ws.constants.Constants;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.ConstraintRegistry;
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.Neo4jValueConverter;
 import ioc.liturgical.ws.managers.exceptions.DbException;
 import org.ocmc.ioc.liturgical.schemas.constants.HTTP_RESPONSE_CODES;
 import org.ocmc.ioc.liturgical.schemas.constants.STATUS;
@@ -44,6 +49,7 @@ public class SynchManager {
 	private String username = "";
 	private String password = "";
 	private Driver synchDriver = null;
+	private final ConstraintRegistry constraintRegistry = new ConstraintRegistry();
 	private boolean synchConnectionOK = false;
 	
 	public SynchManager(
@@ -111,12 +117,7 @@ public class SynchManager {
 				StatementResult neoResult = session.run(query);
 				while (neoResult.hasNext()) {
 					org.neo4j.driver.v1.Record record = neoResult.next();
-						JsonObject o = parser.parse(gson.toJson(record.asMap())).getAsJsonObject();
-						if (o.has("properties(link)")) {
-							o = parser.parse(gson.toJson(record.get("properties(link)").asMap())).getAsJsonObject();
-						} else if (o.has("properties(doc)")) {
-							o = parser.parse(gson.toJson(record.get("properties(doc)").asMap())).getAsJsonObject();
-						}
+						JsonObject o = Neo4jValueConverter.toResultObject(record);
 						result.addValue(o);
 				}
 			} catch (Exception e) {
@@ -455,15 +456,14 @@ public class SynchManager {
 	 * @param label
 	 * @return
 	 */
-	public StatementResult setIdConstraint(String label) {
-		StatementResult neoResult = null;
-		String query = "create constraint on (p:Transaction) assert p.id is unique"; 
-		try (org.neo4j.driver.v1.Session session = synchDriver.session()) {
-			neoResult = session.run(query);
-		} catch (Exception e) {
-			ErrorUtils.report(logger, e);
+	public void setIdConstraint(String label) {
+		if (! constraintRegistry.hasIdConstraint(label)) {
+			try (org.neo4j.driver.v1.Session session = synchDriver.session()) {
+				constraintRegistry.ensureIdConstraint(session, label);
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
 		}
-		return neoResult;
 	}
 
 	public RequestStatus recordTransaction(Transaction doc) throws DbException {
@@ -495,4 +495,41 @@ public class SynchManager {
 			return result;
 	}
 
+	/**
+	 * Record a batch of transactions on the synch server, using a single statement.
+	 * A transaction that is already there (e.g. from an earlier push whose
+	 * local delete failed) is left as it is.
+	 * @param docs the transactions
+	 * @return the status.  If it is CREATED, all the transactions are on the synch server.
+	 */
+	public RequestStatus recordTransactions(List<Transaction> docs) {
+		RequestStatus result = new RequestStatus();
+		setIdConstraint("Transaction");
+		String query = "unwind {batch} as props merge (doc:Transaction {id: props.id}) on create set doc = props";
+		try (org.neo4j.driver.v1.Session session = this.synchDriver.session()) {
+			List<Map<String,Object>> batch = new ArrayList<Map<String,Object>>(docs.size());
+			for (Transaction doc : docs) {
+				batch.add(getProperties(doc));
+			}
+			Map<String, Object> parameters = new TreeMap<String, Object>();
+			parameters.put("batch", batch);
+			try (org.neo4j.driver.v1.Transaction tx = session.beginTransaction()) {
+				tx.run(query, parameters).consume();
+				tx.success();
+			}
+	    	result.setCode(HTTP_RESPONSE_CODES.CREATED.code);
+	    	result.setMessage(HTTP_RESPONSE_CODES.CREATED.message + ": recorded " + docs.size());
+		} catch (Exception e){
+			result.setCode(HTTP_RESPONSE_CODES.BAD_REQUEST.code);
+			result.setDeveloperMessage(HTTP_RESPONSE_CODES.BAD_REQUEST.message);
+			result.setUserMessage(e.getMessage());
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> getProperties(Transaction doc) throws Exception {
+		return (Map<String, Object>) ModelHelpers.getAsPropertiesMap(doc).get("props");
+	}
+
 }
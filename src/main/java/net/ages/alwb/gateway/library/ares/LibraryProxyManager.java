@@ -10,6 +10,9 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -191,6 +194,19 @@ public class LibraryProxyManager {
 	 * @param domains - domains whose files to load.  If null, loads all
 	 */
 	public void loadAllLibraryFiles(List<String> domains) {
+		loadAllLibraryFiles(domains, 1);
+	}
+
+	/**
+	 * Loads files for all domains in the supplied List.
+	 * The files are parsed in parallel, using the specified number of threads.
+	 * The proxies are then added to the maps one at a time, in key order,
+	 * so the result is the same as loading them one after the other.
+	 * @param domains - domains whose files to load.  If null, loads all
+	 * @param threads - the number of files to parse at once
+	 */
+	public void loadAllLibraryFiles(List<String> domains, int threads) {
+		Map<String, File> filesToLoad = new TreeMap<String, File>();
 		Iterator<String> it = aresFileList.keySet().iterator();
 		FileNameParts parts;
 		while (it.hasNext()) {
@@ -206,26 +222,47 @@ public class LibraryProxyManager {
 					if (parts != null) {
 						if (domains == null || domains.contains(parts.getDomain().toLowerCase()) || domains.contains(parts.getDomain())) {
 							if (!mapLoadedAresFiles.containsKey(key)) {
-								LibraryFileProxy proxy = new LibraryFileProxy(f);
-								mapLoadedAresFiles.put(key, proxy);
-								Iterator keyIt = proxy.getKeys();
-								while (keyIt.hasNext()) {
-									String internalKey = (String) keyIt.next();
-									if (! internalKey.matches("A_Resource_Whose_Name")) {
-										String searchKey = proxy.getDomain() + "|" + proxy.getTopic() + "|" + internalKey;
-										searchKeys.add(searchKey);
-									}
-								}
-								if (! mapDomainPaths.containsKey(parts.getDomain())) {
-									String domainPath = FileUtils.getParentPath(parts.getDomain(), f.getParent());
-									mapDomainPaths.put(parts.getDomain(), new File(domainPath));
-								}
+								filesToLoad.put(key, f);
 							}
 						}
 					}
 				}
 			}
 		}
+		ExecutorService executorService = Executors.newFixedThreadPool(Math.max(1, threads));
+		try {
+			Map<String, Future<LibraryFileProxy>> proxies = new TreeMap<String, Future<LibraryFileProxy>>();
+			for (Entry<String, File> entry : filesToLoad.entrySet()) {
+				File f = entry.getValue();
+				proxies.put(entry.getKey(), executorService.submit(() -> new LibraryFileProxy(f)));
+			}
+			for (Entry<String, Future<LibraryFileProxy>> entry : proxies.entrySet()) {
+				try {
+					addLoadedFile(entry.getKey(), filesToLoad.get(entry.getKey()), entry.getValue().get());
+				} catch (Exception e) {
+					ErrorUtils.report(LOGGER, e);
+				}
+			}
+		} finally {
+			executorService.shutdown();
+		}
+	}
+
+	private void addLoadedFile(String key, File f, LibraryFileProxy proxy) {
+		FileNameParts parts = GatewayUtils.getAresFileNameParts(f.getName());
+		mapLoadedAresFiles.put(key, proxy);
+		Iterator<String> keyIt = proxy.getKeys();
+		while (keyIt.hasNext()) {
+			String internalKey = keyIt.next();
+			if (! internalKey.matches("A_Resource_Whose_Name")) {
+				String searchKey = proxy.getDomain() + "|" + proxy.getTopic() + "|" + internalKey;
+				searchKeys.add(searchKey);
+			}
+		}
+		if (! mapDomainPaths.containsKey(parts.getDomain())) {
+			String domainPath = FileUtils.getParentPath(parts.getDomain(), f.getParent());
+			mapDomainPaths.put(parts.getDomain(), new File(domainPath));
+		}
 	}
 	
 	/**
@@ -0,0 +1,502 @@
+package net.ages.alwb.loaders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.Instant;
+import org.neo4j.driver.v1.Driver;
+import org.neo4j.driver.v1.Session;
+import org.neo4j.driver.v1.Transaction;
+import org.ocmc.ioc.liturgical.schemas.models.ModelHelpers;
+import org.ocmc.ioc.liturgical.schemas.models.db.docs.ontology.TextLiturgical;
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.ConstraintRegistry;
+import net.ages.alwb.gateway.library.ares.LibraryFileProxy;
+import net.ages.alwb.gateway.library.ares.LibraryLine;
+import net.ages.alwb.gateway.library.ares.LibraryProxyManager;
+import net.ages.alwb.gateway.library.ares.LibraryUtils;
+
+/**
+ * Loads the lines of ares files into Neo4j as TextLiturgical nodes.
+ *
+ * The work is done as a pipeline:
+ *
+ * 1. The ares files are parsed in parallel.
+ * 2. Each file is converted to nodes by a pool of threads, which put the
+ *    result for the file on a bounded queue.  If the writer falls behind,
+ *    the converters wait.
+ * 3. A single writer takes the files off the queue and merges their nodes
+ *    batchSize at a time, each batch in one transaction using unwind.
+ * 4. When all the nodes are written, the VALUE_FROM relationships of
+ *    redirected lines are merged, also in batches.
+ *
+ * Progress and throughput are logged every progressSeconds.
+ *
+ * If a checkpoint file is set, the key of each file is appended to it once
+ * all its nodes have been written, and a final line is appended when the
+ * relationships are done.  When the loader is run again with the same
+ * checkpoint file, the nodes of the files listed in it are not written again.
+ * Because nodes and relationships are merged, repeating a batch is harmless.
+ *
+ * @author mac002
+ *
+ */
+public class AresBatchLoader {
+	private static final Logger logger = LoggerFactory.getLogger(AresBatchLoader.class);
+	private static final String REDIRECTS_DONE = "#redirects";
+	private static final String ID_SEPARATOR = "~";
+
+	private final LibraryProxyManager libProxyManager;
+	private final ConstraintRegistry constraints = new ConstraintRegistry();
+	private final ConcurrentLinkedQueue<Map<String, Object>> redirects = new ConcurrentLinkedQueue<Map<String, Object>>();
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int batchSize = 1000;
+	private int queueCapacity = 64;
+	private long progressSeconds = 10;
+	private Path checkpoint = null;
+	private boolean useResolvedValues = false;
+	private boolean includeComment = true;
+	private boolean updateDatabaseNodes = true;
+	private boolean updateDatabaseRelationships = true;
+
+	private volatile String redirectLabel = null;
+	private long nodesWritten = 0;
+	private long relationshipsWritten = 0;
+
+	/**
+	 * Holds the nodes converted from one ares file
+	 */
+	private static class FileNodes {
+		private final String key;
+		private final List<TextLiturgical> nodes;
+
+		private FileNodes(String key, List<TextLiturgical> nodes) {
+			this.key = key;
+			this.nodes = nodes;
+		}
+	}
+	private static final FileNodes END = new FileNodes(null, Collections.<TextLiturgical>emptyList());
+
+	/**
+	 * Writes the batches.  load(Driver) uses one backed by a Neo4j session.
+	 */
+	interface BatchWriter {
+		void ensureIdConstraints(List<String> labels);
+		void write(String query, List<Map<String, Object>> batch);
+	}
+
+	/**
+	 * @param libProxyManager - the manager for the ares files, with the files to load already loaded
+	 */
+	public AresBatchLoader(LibraryProxyManager libProxyManager) {
+		this.libProxyManager = libProxyManager;
+	}
+
+	/**
+	 * Write the nodes and relationships for all the loaded files
+	 * @param driver
+	 * @throws IOException if the checkpoint file can't be read or written
+	 * @throws InterruptedException
+	 */
+	public void load(Driver driver) throws IOException, InterruptedException {
+		try (Session session = driver.session()) {
+			load(new BatchWriter() {
+				@Override
+				public void ensureIdConstraints(List<String> labels) {
+					constraints.ensureIdConstraints(session, labels);
+				}
+				@Override
+				public void write(String query, List<Map<String, Object>> batch) {
+					writeBatch(session, query, batch);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Write the nodes and relationships for all the loaded files
+	 * @param writer - writes each batch
+	 * @throws IOException if the checkpoint file can't be read or written
+	 * @throws InterruptedException
+	 */
+	void load(BatchWriter writer) throws IOException, InterruptedException {
+		Set<String> completed = readCheckpoint();
+		Map<String, LibraryFileProxy> files = libProxyManager.getLoadedFiles();
+		logger.info("Converting " + files.size() + " ares files using " + threads + " threads...");
+		if (! completed.isEmpty()) {
+			logger.info(completed.size() + " files were already loaded according to " + checkpoint);
+		}
+
+		BlockingQueue<FileNodes> queue = new ArrayBlockingQueue<FileNodes>(queueCapacity);
+		ExecutorService converters = Executors.newFixedThreadPool(threads);
+		for (Map.Entry<String, LibraryFileProxy> entry : files.entrySet()) {
+			String key = entry.getKey();
+			LibraryFileProxy fileProxy = entry.getValue();
+			converters.execute(() -> {
+				try {
+					queue.put(new FileNodes(key, convert(fileProxy)));
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (Exception e) {
+					logger.error("Could not convert " + key);
+					ErrorUtils.report(logger, e);
+				}
+			});
+		}
+		converters.shutdown();
+		Thread closer = new Thread(() -> {
+			try {
+				converters.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+				queue.put(END);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, "ares-converters-closer");
+		closer.setDaemon(true);
+		closer.start();
+
+		try {
+			writeNodes(writer, queue, completed, files.size());
+			if (updateDatabaseRelationships && ! completed.contains(REDIRECTS_DONE)) {
+				writeRedirects(writer);
+				appendCheckpoint(REDIRECTS_DONE);
+			}
+		} finally {
+			converters.shutdownNow(); // in case the writer failed and the converters are waiting on the queue
+		}
+		logger.info("Done. Merged " + nodesWritten + " nodes and " + relationshipsWritten + " relationships.");
+	}
+
+	private void writeNodes(
+			BatchWriter writer
+			, BlockingQueue<FileNodes> queue
+			, Set<String> completed
+			, int fileCount
+			) throws IOException, InterruptedException {
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		List<String> fullyBatched = new ArrayList<String>();
+		String query = null;
+		int filesDone = 0;
+		long start = System.currentTimeMillis();
+		long lastReport = start;
+		FileNodes fileNodes = null;
+		while ((fileNodes = queue.take()) != END) {
+			filesDone++;
+			if (! updateDatabaseNodes || completed.contains(fileNodes.key)) {
+				continue;
+			}
+			for (TextLiturgical node : fileNodes.nodes) {
+				if (query == null) {
+					writer.ensureIdConstraints(node.fetchOntologyLabelsList());
+					query = "unwind {batch} as props merge (n:" + node.fetchOntologyLabels() + " {id: props.id}) set n = props";
+				}
+				batch.add(getProperties(node));
+				if (batch.size() >= batchSize) {
+					writer.write(query, batch);
+					nodesWritten = nodesWritten + batch.size();
+					batch.clear();
+					checkpointFiles(fullyBatched);
+				}
+			}
+			fullyBatched.add(fileNodes.key);
+			long now = System.currentTimeMillis();
+			if (now - lastReport >= TimeUnit.SECONDS.toMillis(progressSeconds)) {
+				reportProgress(filesDone, fileCount, start, now);
+				lastReport = now;
+			}
+		}
+		if (! batch.isEmpty()) {
+			writer.write(query, batch);
+			nodesWritten = nodesWritten + batch.size();
+		}
+		checkpointFiles(fullyBatched);
+		reportProgress(filesDone, fileCount, start, System.currentTimeMillis());
+	}
+
+	private void writeRedirects(BatchWriter writer) {
+		logger.info("Merging VALUE_FROM relationships for " + redirects.size() + " nodes...");
+		if (redirectLabel == null) {
+			return;
+		}
+		String label = redirectLabel;
+		String query = "unwind {batch} as r"
+				+ " match (d:" + label + " {id: r.from}), (t:" + label + " {id: r.to})"
+				+ " merge (d)-[:VALUE_FROM]->(t)";
+		List<Map<String, Object>> batch = new ArrayList<Map<String, Object>>(batchSize);
+		for (Map<String, Object> redirect : redirects) {
+			batch.add(redirect);
+			if (batch.size() >= batchSize) {
+				writer.write(query, batch);
+				relationshipsWritten = relationshipsWritten + batch.size();
+				batch.clear();
+			}
+		}
+		if (! batch.isEmpty()) {
+			writer.write(query, batch);
+			relationshipsWritten = relationshipsWritten + batch.size();
+		}
+	}
+
+	private void writeBatch(Session session, String query, List<Map<String, Object>> batch) {
+		Map<String, Object> parameters = new TreeMap<String, Object>();
+		parameters.put("batch", batch);
+		try (Transaction tx = session.beginTransaction()) {
+			tx.run(query, parameters).consume();
+			tx.success();
+		}
+	}
+
+	private void reportProgress(int filesDone, int fileCount, long start, long now) {
+		double seconds = Math.max(1, now - start) / 1000.0;
+		logger.info(
+				"Files: " + filesDone + " of " + fileCount
+				+ ", nodes merged: " + nodesWritten
+				+ ", nodes per second: " + Math.round(nodesWritten / seconds)
+				);
+	}
+
+	/**
+	 * Convert the lines of the file that have a value or are a redirect into nodes.
+	 * The VALUE_FROM relationships of redirected lines are added to the redirects.
+	 * @param fileProxy
+	 * @return the nodes
+	 */
+	private List<TextLiturgical> convert(LibraryFileProxy fileProxy) {
+		List<TextLiturgical> result = new ArrayList<TextLiturgical>();
+		String fileDomain = fileProxy.getDomain().toLowerCase();
+		String fileTopic = fileProxy.getTopic();
+		for (LibraryLine line : fileProxy.getValues()) {
+			boolean addToDb = true;
+			if (line.isSimpleKeyValue || line.isRedirect()) {
+				if (useResolvedValues) { // determine whether we will use this with a normalized database
+					if (line.getValue() == null || line.getValue().trim().length() < 1) {
+						addToDb = false;
+					}
+				}
+				TextLiturgical theNode = new TextLiturgical(
+						line.getDomain().toLowerCase()
+						, line.getTopic()
+						, line.getKey()
+						);
+				theNode.setSeq(
+						fileDomain
+						+ ID_SEPARATOR
+						+ fileTopic
+						+ ID_SEPARATOR
+						+ line.getLineNbr()
+						);
+				theNode.setCreatedBy("wsadmin");
+				theNode.setModifiedBy("wsadmin");
+				theNode.setCreatedWhen(Instant.now().toString());
+				theNode.setModifiedWhen(theNode.getCreatedWhen());
+				if (line.isSimpleKeyValue()) {
+					String value = Normalizer.normalize(LibraryUtils.escapeQuotes(line.getValue()),Normalizer.Form.NFC);
+					theNode.setValue(value);
+					if (includeComment) {
+						if (line.hasCommentAfterValue) {
+							String comment = line.getComment();
+							if (comment != null && comment.length() > 0) {
+								theNode.setComment(LibraryUtils.escapeQuotes(comment));
+							}
+						}
+					}
+				} else if (line.isRedirect()) {
+					String comment = line.getComment();
+					if (comment != null && comment.length() > 0) {
+						theNode.setComment(LibraryUtils.escapeQuotes(comment));
+					}
+					String redirectTopic = "";
+					String redirectDomain = "";
+					String redirectId = line.getValue();
+					String[] parts = redirectId.split("_");
+					LibraryLine redirectLine = null;
+					if (parts.length > 3) {
+						redirectTopic = parts[0];
+						String redirectRealm = parts[3].substring(0, parts[3].indexOf("."));
+						String redirectKey = parts[3].substring(parts[3].indexOf(".") + 1,
+								parts[3].length());
+						redirectDomain = parts[1] + "_" + parts[2] + "_" + redirectRealm;
+						redirectLine = libProxyManager
+								.getLine(redirectTopic + "_" + redirectDomain, redirectKey);
+						if (redirectLine == null) {
+							// this value points to a key that does not exist.
+							// The node is still created, but it won't point to an existing node.
+							if (useResolvedValues) {
+								addToDb = false;
+							}
+						}
+						redirectDomain = redirectDomain.toLowerCase();
+						redirectId = redirectDomain + "~" + redirectTopic + "~" + redirectKey;
+						if (parts.length == 5) {
+							redirectId = redirectId + "_" + parts[4];
+						}
+					} else {
+						logger.info("Bad redirect: " + theNode.getId() + ": " + redirectId);
+					}
+					if (useResolvedValues) {
+						if (redirectLine == null
+								|| redirectLine.getValue() == null
+								|| redirectLine.getValue().length() < 1
+								|| (! redirectLine.getDomain().toLowerCase().startsWith(line.getDomain().toLowerCase()))
+								) {
+							addToDb = false;
+						} else {
+							addToDb = true;
+							String value = Normalizer.normalize(LibraryUtils.escapeQuotes(redirectLine.getValue()),Normalizer.Form.NFC);
+							theNode.setValue(value);
+						}
+					} else {
+						redirectLabel = theNode.getOntologyTopic().label;
+						Map<String, Object> redirect = new TreeMap<String, Object>();
+						redirect.put("from", theNode.getId());
+						redirect.put("to", redirectId);
+						redirects.add(redirect);
+					}
+				}
+				if (addToDb) {
+					result.add(theNode);
+				}
+			}
+		}
+		return result;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Object> getProperties(TextLiturgical node) {
+		try {
+			return (Map<String, Object>) ModelHelpers.getAsPropertiesMap(node).get("props");
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not get the properties of " + node.getId(), e);
+		}
+	}
+
+	private Set<String> readCheckpoint() throws IOException {
+		Set<String> result = new HashSet<String>();
+		if (checkpoint != null && Files.exists(checkpoint)) {
+			for (String line : Files.readAllLines(checkpoint, StandardCharsets.UTF_8)) {
+				if (line.trim().length() > 0) {
+					result.add(line.trim());
+				}
+			}
+		}
+		return result;
+	}
+
+	private void checkpointFiles(List<String> keys) throws IOException {
+		for (String key : keys) {
+			appendCheckpoint(key);
+		}
+		keys.clear();
+	}
+
+	private void appendCheckpoint(String line) throws IOException {
+		if (checkpoint != null) {
+			Files.write(
+					checkpoint
+					, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)
+					, StandardOpenOption.CREATE
+					, StandardOpenOption.APPEND
+					);
+		}
+	}
+
+	public long getNodesWritten() {
+		return nodesWritten;
+	}
+
+	public long getRelationshipsWritten() {
+		return relationshipsWritten;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public void setQueueCapacity(int queueCapacity) {
+		this.queueCapacity = Math.max(1, queueCapacity);
+	}
+
+	public long getProgressSeconds() {
+		return progressSeconds;
+	}
+
+	public void setProgressSeconds(long progressSeconds) {
+		this.progressSeconds = progressSeconds;
+	}
+
+	public Path getCheckpoint() {
+		return checkpoint;
+	}
+
+	public void setCheckpoint(Path checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	public boolean isUseResolvedValues() {
+		return useResolvedValues;
+	}
+
+	public void setUseResolvedValues(boolean useResolvedValues) {
+		this.useResolvedValues = useResolvedValues;
+	}
+
+	public boolean isIncludeComment() {
+		return includeComment;
+	}
+
+	public void setIncludeComment(boolean includeComment) {
+		this.includeComment = includeComment;
+	}
+
+	public boolean isUpdateDatabaseNodes() {
+		return updateDatabaseNodes;
+	}
+
+	public void setUpdateDatabaseNodes(boolean updateDatabaseNodes) {
+		this.updateDatabaseNodes = updateDatabaseNodes;
+	}
+
+	public boolean isUpdateDatabaseRelationships() {
+		return updateDatabaseRelationships;
+	}
+
+	public void setUpdateDatabaseRelationships(boolean updateDatabaseRelationships) {
+		this.updateDatabaseRelationships = updateDatabaseRelationships;
+	}
+}
@@ -1,12 +1,10 @@
 package net.ages.alwb.loaders;
 
-import java.text.Normalizer;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Pattern;
 
-import org.joda.time.Instant;
 import org.neo4j.driver.v1.AuthTokens;
 import org.neo4j.driver.v1.Driver;
 import org.neo4j.driver.v1.GraphDatabase;
@@ -14,18 +12,15 @@ import org.neo4j.driver.v1.Session;
 import org.neo4j.driver.v1.StatementResult;
 import org.ocmc.ioc.liturgical.schemas.constants.HTTP_RESPONSE_CODES;
 import org.ocmc.ioc.liturgical.schemas.models.ModelHelpers;
-import org.ocmc.ioc.liturgical.schemas.models.db.docs.ontology.TextLiturgical;
 import org.ocmc.ioc.liturgical.schemas.models.supers.LTKDb;
 import org.ocmc.ioc.liturgical.schemas.models.ws.response.RequestStatus;
 import org.ocmc.ioc.liturgical.utils.ErrorUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import ioc.liturgical.ws.managers.databases.external.neo4j.utils.ConstraintRegistry;
 import ioc.liturgical.ws.managers.exceptions.DbException;
-import net.ages.alwb.gateway.library.ares.LibraryFileProxy;
-import net.ages.alwb.gateway.library.ares.LibraryLine;
 import net.ages.alwb.gateway.library.ares.LibraryProxyManager;
-import net.ages.alwb.gateway.library.ares.LibraryUtils;
 
 /**
  * Used to load a Neo4j Database from Ares files.
@@ -42,9 +37,10 @@ import net.ages.alwb.gateway.library.ares.LibraryUtils;
  *   it will have a relationship of type VALUE_FROM that points to the
  *   value to use for that node.
  *   
- *   TODO: study these and consider batching the transactions:
- *   https://github.com/neo4j/neo4j/issues/7228
- *   https://gist.github.com/nandosola/ebe2ced123e05a79e238edd6ec81fee5
+ *   The files are parsed in parallel, and the nodes and relationships
+ *   are written in batches by AresBatchLoader.  If the environment variable
+ *   CHECKPOINT names a file, an interrupted load can be restarted
+ *   and will skip the files that were already written.
  * 
  * @author mac002
  *
@@ -53,7 +49,7 @@ public class AresToNeo4j {
 	private static final Logger logger = LoggerFactory
 			.getLogger(AresToNeo4j.class);
 
-	private static List<String> constraints = new ArrayList<String>();
+	private static ConstraintRegistry constraints = new ConstraintRegistry();
 
 	/**
 	 * Program to load a neo4j database from ares files.
@@ -71,11 +67,9 @@ public class AresToNeo4j {
 		// and, if true, there won't be any relationships between nodes
 		
 		boolean includeComment = true;
-		boolean inspectLine = false; // if true, you can set a breakpoint for
-										// when it matches idOfLineToInspect
-		String idOfLineToInspect = "en_uk_lash~me.m01.d01~meHO.note1";
-		String idSeparator = "~";
-		Pattern punctPattern = Pattern.compile("[˙·,.;!?(){}\\[\\]<>%]"); // punctuation 
+		int threads = Runtime.getRuntime().availableProcessors(); // for parsing the files and converting their lines
+		int batchSize = 1000; // nodes or relationships per transaction
+		String checkpoint = System.getenv("CHECKPOINT"); // if set, a file that records progress so a load can be restarted
 		
 		// Load the ares
 		LibraryProxyManager libProxyManager;
@@ -117,184 +111,33 @@ public class AresToNeo4j {
 //		domainsToProcess.add("fra_FR_oaf");
 //		domainsToProcess.add("spa_GT_odg");
 		/**
-		 * Prepare a list to hold the created Queries
-		 */
-		List<TextLiturgical> textsToCreate = new ArrayList<TextLiturgical>();
-
-		/**
-		 * Prepare a List to hold queries we will run to create relationships
-		 * between nodes where one node's value points to another node.
-		 */
-		List<String> redirectQueries = new ArrayList<String>();
-
-		/**
-		 * Now read in all the ares files...
+		 * Now read in all the ares files, parsing them in parallel...
 		 */
 		System.out.println("Loading Ares files...");
 		libProxyManager = new LibraryProxyManager(alwbPath);
-		libProxyManager.loadAllLibraryFiles(domainsToProcess);
+		libProxyManager.loadAllLibraryFiles(domainsToProcess, threads);
 
 		/**
-		 * Now create a node for each line of each ares file...
-		 * 
+		 * Now create a node for each line of each ares file,
+		 * and a VALUE_FROM relationship from each node whose value is a redirect
+		 * to the node it redirects to.  If the node that is pointed to
+		 * does not exist, it will not be created.
 		 */
-		System.out.println("Preparing queries to create nodes and relationships...");
-		// We are going to create a node for every line that has a value or is a
-		// redirect.
-		// We are also going to batch up queries to create VALUE_FROM
-		// relationships from
-		// nodes whose value is a redirect and the node it redirects to.
-		// If the node that is pointed to does not exist, it will not be
-		// created.
-		int count = 0;
+		AresBatchLoader loader = new AresBatchLoader(libProxyManager);
+		loader.setThreads(threads);
+		loader.setBatchSize(batchSize);
+		loader.setUseResolvedValues(useResolvedValues);
+		loader.setIncludeComment(includeComment);
+		loader.setUpdateDatabaseNodes(updateDatabaseNodes);
+		loader.setUpdateDatabaseRelationships(updateDatabaseRelationships);
+		if (checkpoint != null && checkpoint.length() > 0) {
+			loader.setCheckpoint(Paths.get(checkpoint));
+		}
 		try (Driver driver = GraphDatabase.driver("bolt://" + url, AuthTokens.basic(user, pwd))) {
-			try (Session session = driver.session()) {
-				for (LibraryFileProxy fileProxy : libProxyManager.getLoadedFiles().values()) {
-					String fileDomain = fileProxy.getDomain().toLowerCase();
-					String fileTopic = fileProxy.getTopic();
-
-					for (LibraryLine line : fileProxy.getValues()) {
-						boolean addToDb = true;
-						if (line.isSimpleKeyValue || line.isRedirect()) {
-							if (useResolvedValues) { // determine whether we will use this with a normalized database
-								if (line.getValue() == null || line.getValue().trim().length() < 1) {
-									addToDb = false;
-								}
-							}
-							TextLiturgical theNode = new TextLiturgical(
-									line.getDomain().toLowerCase()
-									, line.getTopic()
-									, line.getKey()
-									);
-							theNode.setSeq(
-									fileDomain 
-									+ idSeparator 
-									+ fileTopic 
-									+ idSeparator 
-									+ line.getLineNbr()
-									);
-							theNode.setCreatedBy("wsadmin");
-							theNode.setModifiedBy("wsadmin");
-							theNode.setCreatedWhen(Instant.now().toString());
-							theNode.setModifiedWhen(theNode.getCreatedWhen());
-							if (line.isSimpleKeyValue()) {
-								String value = Normalizer.normalize(LibraryUtils.escapeQuotes(line.getValue()),Normalizer.Form.NFC);
-								theNode.setValue(value);
-								if (includeComment) {
-									if (line.hasCommentAfterValue) {
-										String comment = line.getComment();
-										if (comment != null && comment.length() > 0) {
-											theNode.setComment(LibraryUtils.escapeQuotes(comment));
-										}
-									}
-								}
-							} else if (line.isRedirect()) {
-								// System.out.print(line.getValue());
-								String comment = line.getComment();
-								if (comment != null && comment.length() > 0) {
-									theNode.setComment(LibraryUtils.escapeQuotes(comment));
-								}
-								String redirectTopic = "";
-								String redirectDomain = "";
-								String redirectId = line.getValue();
-								String[] parts = redirectId.split("_");
-								LibraryLine redirectLine = null;
-								if (parts.length > 3) {
-									redirectTopic = parts[0];
-									String redirectRealm = parts[3].substring(0, parts[3].indexOf("."));
-									String redirectKey = parts[3].substring(parts[3].indexOf(".") + 1,
-											parts[3].length());
-									redirectDomain = parts[1] + "_" + parts[2] + "_" + redirectRealm;
-									redirectLine = libProxyManager
-											.getLine(redirectTopic + "_" + redirectDomain, redirectKey);
-									if (redirectLine == null) {
-										// this value points to a key that does
-										// not exist.
-										// TODO decide how to handle. For now,
-										// we go ahead and create the node,
-										// but it won't point to an existing
-										// node.
-										// You can find these bad nodes using:
-										// match (l:LitText) where not
-										// exists(l.value) and not
-										// (l)-[:VALUE_FROM]->() return l.id,
-										// l.value
-										redirectLine = null;
-										if (useResolvedValues) {
-											addToDb = false;
-										}
-									}
-									redirectDomain = redirectDomain.toLowerCase();
-									redirectId = redirectDomain + "~" + redirectTopic + "~" + redirectKey;
-									if (parts.length == 5) {
-										redirectId = redirectId + "_" + parts[4];
-									}
-								} else {
-									System.out.println("Bad redirect: " + theNode.getId() + ": " + redirectId);
-								}
-
-								String nodeRedirect = getRedirectCypherTo(
-										theNode.getId()
-										, theNode.getOntologyTopic().label
-										, redirectId
-										);
-								if (useResolvedValues) {
-									if (redirectLine == null 
-											|| redirectLine.getValue() == null 
-											|| redirectLine.getValue().length() < 1
-											|| (! redirectLine.getDomain().toLowerCase().startsWith(line.getDomain().toLowerCase()))
-											) {
-										addToDb = false;
-									} else {
-										addToDb = true;
-										String value = Normalizer.normalize(LibraryUtils.escapeQuotes(redirectLine.getValue()),Normalizer.Form.NFC);
-										theNode.setValue(value);
-									}
-								} else {
-									redirectQueries.add(nodeRedirect);
-								}
-							}
-							if (addToDb) {
-								textsToCreate.add(theNode);
-							}
-						}
-					}
-				}
-
-				System.out.println(textsToCreate.size() + " create queries prepared...");
-				if (updateDatabaseNodes) {
-					System.out.println("Merging " + textsToCreate.size() + " nodes...");
-					for (TextLiturgical text : textsToCreate) {
-						try {
-							RequestStatus result = insert(session, text);
-							count++;
-						} catch (Exception e) {
-							System.out.println(e.getStackTrace());
-						}
-					}
-				}
-
-				/**
-				 * Now create the relationships between nodes where a node's
-				 * value is redirected to another node.
-				 */
-				int relCount = 0;
-				if (updateDatabaseRelationships) {
-					System.out
-							.println("Merging VALUE_FROM relationships for " + redirectQueries.size() + " nodes...");
-					for (String query : redirectQueries) {
-						try {
-							StatementResult result = session.run(query);
-							relCount++;
-						} catch (Exception e) {
-							System.out.println(e.getStackTrace());
-						}
-					}
-				}
-
-				System.out.println("Done. Created " + count + " nodes and " + relCount + " relationships...");
-			} // try session
-		} // try driver
+			loader.load(driver);
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+		}
 	}
 	
 	/**
@@ -340,34 +183,22 @@ public class AresToNeo4j {
 		return result;
 	}
 
-	public static void setIdConstraints(Session session, List<String> labels) {
-		try {
-			for (String label : labels) {
-				if (! AresToNeo4j.constraints.contains(label)) {
-					setIdConstraint(session, label); 
-				}
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		}
-	}
 	/**
 	 * The purpose of this method is to ensure that any node with 
 	 * an id property has a unique constraint so that duplicate IDs 
-	 * are not allowed.
-	 * @param label
-	 * @return
+	 * are not allowed.  The constraints that already exist are read
+	 * from the database once, and only missing ones are created.
+	 * @param session
+	 * @param labels
 	 */
-	private static StatementResult setIdConstraint(Session session, String label) {
-		StatementResult neoResult = null;
-			String query = "create constraint on (p:" + label + ") assert p.id is unique"; 
-			try  {
-				neoResult = session.run(query);
-				AresToNeo4j.constraints.add(label);
-			} catch (Exception e) {
-				ErrorUtils.report(logger, e);
+	public static void setIdConstraints(Session session, List<String> labels) {
+		try {
+			if (! AresToNeo4j.constraints.hasIdConstraints(labels)) {
+				AresToNeo4j.constraints.ensureIdConstraints(session, labels);
 			}
-		return neoResult;
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+		}
 	}
 
 }
@@ -0,0 +1,84 @@
+package net.ages.alwb.tasks;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Controls how fast the SynchPullTask applies transactions to the local database,
+ * based on how long each batch took, rather than sleeping a fixed time.
+ *
+ * While batches finish within the target time, the batch size grows
+ * and the pause between batches shrinks.  When a batch takes longer
+ * than the target, e.g. because the database is busy serving users,
+ * the batch size is halved and the pause doubled.
+ *
+ * @author mac002
+ *
+ */
+public class AdaptiveThrottle {
+	private static final long MIN_PAUSE_MILLIS = 100;
+
+	private int minBatchSize = 1;
+	private int maxBatchSize = 500;
+	private long targetMillis = 2000;
+	private long maxPauseMillis = 15000;
+
+	private int batchSize = 1;
+	private long pauseMillis = 0;
+	private long lastMillis = 0;
+
+	public AdaptiveThrottle() {
+	}
+
+	public AdaptiveThrottle(
+			int minBatchSize
+			, int maxBatchSize
+			, long targetMillis
+			, long maxPauseMillis
+			) {
+		this.minBatchSize = Math.max(1, minBatchSize);
+		this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+		this.targetMillis = targetMillis;
+		this.maxPauseMillis = maxPauseMillis;
+		this.batchSize = this.minBatchSize;
+	}
+
+	/**
+	 * Adjust the batch size and pause for the time the last batch took
+	 * @param size the number of transactions in the batch
+	 * @param millis how long it took to apply the batch
+	 */
+	public synchronized void record(int size, long millis) {
+		lastMillis = millis;
+		if (millis > targetMillis) {
+			batchSize = Math.max(minBatchSize, batchSize / 2);
+			pauseMillis = Math.min(maxPauseMillis, Math.max(MIN_PAUSE_MILLIS, pauseMillis * 2));
+		} else if (size >= batchSize) {
+			// only grow if the batch was full, otherwise we learned nothing about a bigger one
+			batchSize = Math.min(maxBatchSize, batchSize + Math.max(1, batchSize / 2));
+			pauseMillis = pauseMillis / 2 < MIN_PAUSE_MILLIS ? 0 : pauseMillis / 2;
+		}
+	}
+
+	/**
+	 * @return the number of transactions to put in the next batch
+	 */
+	public synchronized int getBatchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * @return how long to wait before applying the next batch
+	 */
+	public synchronized long getPauseMillis() {
+		return pauseMillis;
+	}
+
+	public synchronized JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("batchSize", batchSize);
+		json.addProperty("pauseMillis", pauseMillis);
+		json.addProperty("lastBatchMillis", lastMillis);
+		json.addProperty("targetMillis", targetMillis);
+		return json;
+	}
+}
@@ -0,0 +1,212 @@
+package net.ages.alwb.tasks;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Runs the tasks that ExternalDbManager starts in the background,
+ * e.g. DomainDropdownsUpdateTask, WordAnalysisCreateTask, DependencyNodesCreateTask,
+ * on a few long-lived pools instead of a new thread for each task.
+ *
+ * Each pool has a fixed number of threads and a bounded queue.
+ * If the queue is full, the task is not run, and submit returns false.
+ *
+ * A refresh task (e.g. OntologyTagsUpdateTask) can be submitted with a key.
+ * If a task with the same key is still waiting to run, the new one is dropped,
+ * since the waiting one will see the same data when it runs.
+ *
+ * For each kind of task, counts are kept of how many are queued,
+ * running, completed, and failed, and how long they took.
+ * PDF generation has its own pool, see PdfJobService.
+ *
+ * @author mac002
+ *
+ */
+public class BackgroundTasks {
+	private static final Logger logger = LoggerFactory.getLogger(BackgroundTasks.class);
+
+	public enum POOL {
+		DROPDOWNS(1, 50)
+		, NLP(2, 200)
+		, UTILITY(2, 10)
+		;
+		public final int threads;
+		public final int queueSize;
+		private POOL(int threads, int queueSize) {
+			this.threads = threads;
+			this.queueSize = queueSize;
+		}
+		public String keyname() {
+			return this.name().toLowerCase();
+		}
+	}
+
+	private static class TaskStats {
+		private final AtomicLong queued = new AtomicLong();
+		private final AtomicLong running = new AtomicLong();
+		private final AtomicLong completed = new AtomicLong();
+		private final AtomicLong failed = new AtomicLong();
+		private final AtomicLong rejected = new AtomicLong();
+		private final AtomicLong deduplicated = new AtomicLong();
+		private final AtomicLong totalMillis = new AtomicLong();
+		private final AtomicLong maxMillis = new AtomicLong();
+
+		private JsonObject toJsonObject() {
+			JsonObject json = new JsonObject();
+			json.addProperty("queued", queued.get());
+			json.addProperty("running", running.get());
+			json.addProperty("completed", completed.get());
+			json.addProperty("failed", failed.get());
+			json.addProperty("rejected", rejected.get());
+			json.addProperty("deduplicated", deduplicated.get());
+			long finished = completed.get() + failed.get();
+			json.addProperty("averageMillis", finished == 0 ? 0 : totalMillis.get() / finished);
+			json.addProperty("maxMillis", maxMillis.get());
+			return json;
+		}
+	}
+
+	private final Map<POOL, ThreadPoolExecutor> pools = new EnumMap<POOL, ThreadPoolExecutor>(POOL.class);
+	private final Map<String, TaskStats> stats = new ConcurrentHashMap<String, TaskStats>();
+	private final Map<String, Boolean> pending = new ConcurrentHashMap<String, Boolean>();
+
+	public BackgroundTasks() {
+		for (POOL pool : POOL.values()) {
+			AtomicInteger threadCount = new AtomicInteger();
+			pools.put(pool, new ThreadPoolExecutor(
+					pool.threads
+					, pool.threads
+					, 0L
+					, TimeUnit.MILLISECONDS
+					, new ArrayBlockingQueue<Runnable>(pool.queueSize)
+					, r -> {
+						Thread t = new Thread(r, pool.keyname() + "-task-" + threadCount.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+					, new ThreadPoolExecutor.AbortPolicy()
+					));
+		}
+	}
+
+	/**
+	 * Queue a task to run in the background
+	 * @param pool - the pool to run it in
+	 * @param name - the kind of task, for the counts, e.g. WordAnalysisCreateTask
+	 * @param task
+	 * @return false if the queue of the pool is full, so the task will not run
+	 */
+	public boolean submit(POOL pool, String name, Runnable task) {
+		return this.submit(pool, name, null, task);
+	}
+
+	/**
+	 * Queue a task to run in the background, unless
+	 * a task with the same key is waiting to run.
+	 * @param pool - the pool to run it in
+	 * @param name - the kind of task, for the counts, e.g. OntologyTagsUpdateTask
+	 * @param key - identifies tasks that would do the same thing
+	 * @param task
+	 * @return false if the queue of the pool is full, so the task will not run
+	 */
+	public boolean submitIfNotPending(POOL pool, String name, String key, Runnable task) {
+		return this.submit(pool, name, key, task);
+	}
+
+	private boolean submit(POOL pool, String name, String key, Runnable task) {
+		TaskStats taskStats = stats.computeIfAbsent(name, k -> new TaskStats());
+		if (key != null && pending.putIfAbsent(key, Boolean.TRUE) != null) {
+			taskStats.deduplicated.incrementAndGet();
+			return true;
+		}
+		taskStats.queued.incrementAndGet();
+		try {
+			pools.get(pool).execute(() -> this.run(taskStats, key, task));
+			return true;
+		} catch (RejectedExecutionException e) {
+			taskStats.queued.decrementAndGet();
+			taskStats.rejected.incrementAndGet();
+			if (key != null) {
+				pending.remove(key);
+			}
+			logger.warn("The " + pool.keyname() + " queue is full, so " + name + " will not run");
+			return false;
+		}
+	}
+
+	private void run(TaskStats taskStats, String key, Runnable task) {
+		if (key != null) {
+			// from now on, a change to the data needs another run
+			pending.remove(key);
+		}
+		taskStats.queued.decrementAndGet();
+		taskStats.running.incrementAndGet();
+		long start = System.currentTimeMillis();
+		try {
+			task.run();
+			taskStats.completed.incrementAndGet();
+		} catch (Exception e) {
+			taskStats.failed.incrementAndGet();
+			ErrorUtils.report(logger, e);
+		} finally {
+			long millis = System.currentTimeMillis() - start;
+			taskStats.totalMillis.addAndGet(millis);
+			taskStats.maxMillis.accumulateAndGet(millis, Math::max);
+			taskStats.running.decrementAndGet();
+		}
+	}
+
+	public void shutdown() {
+		for (ThreadPoolExecutor executor : pools.values()) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Wait for the tasks to finish after a shutdown
+	 * @param timeoutMillis - how long to wait for each pool
+	 * @return true if all the pools finished
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeoutMillis) throws InterruptedException {
+		boolean result = true;
+		for (ThreadPoolExecutor executor : pools.values()) {
+			result = executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS) && result;
+		}
+		return result;
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		JsonObject poolsJson = new JsonObject();
+		for (Map.Entry<POOL, ThreadPoolExecutor> entry : pools.entrySet()) {
+			JsonObject poolJson = new JsonObject();
+			poolJson.addProperty("threads", entry.getValue().getMaximumPoolSize());
+			poolJson.addProperty("active", entry.getValue().getActiveCount());
+			poolJson.addProperty("queued", entry.getValue().getQueue().size());
+			poolJson.addProperty("queueSize", entry.getKey().queueSize);
+			poolsJson.add(entry.getKey().keyname(), poolJson);
+		}
+		json.add("pools", poolsJson);
+		JsonObject tasksJson = new JsonObject();
+		for (Map.Entry<String, TaskStats> entry : new TreeMap<String, TaskStats>(stats).entrySet()) {
+			tasksJson.add(entry.getKey(), entry.getValue().toJsonObject());
+		}
+		json.add("tasks", tasksJson);
+		return json;
+	}
+}
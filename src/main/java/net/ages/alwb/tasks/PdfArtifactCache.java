@@ -0,0 +1,186 @@
+package net.ages.alwb.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Keeps the .tex and .pdf files generated for AGES services, named by a hash
+ * of everything that goes into them, so that a service whose template,
+ * libraries, and values have not changed is not run through xelatex again.
+ *
+ * The files for a key are all named key.*, e.g. key.tex, key.pdf, key.log.
+ * A pdf counts as generated only once markComplete has written key.complete,
+ * so a pdf left by a run that failed, or that is still being written, is not reused.
+ * The key includes the GENERATOR_VERSION, so that changing how the tex is
+ * generated does not serve the pdfs made by the old code.
+ * Only files whose names start with the PREFIX are managed by the cache.
+ * When they take more than the quota, the least recently used keys are deleted.
+ *
+ * @author mac002
+ *
+ */
+public class PdfArtifactCache {
+	private static final Logger logger = LoggerFactory.getLogger(PdfArtifactCache.class);
+	public static final String PREFIX = "svc-";
+	/**
+	 * Change this whenever MetaTemplateToPdf or the makepdf script
+	 * produce different output for the same inputs
+	 */
+	public static final String GENERATOR_VERSION = "2";
+	private static final String COMPLETE = ".complete";
+
+	private final File folder;
+	private final long quotaBytes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * @param folder - where the pdf files are generated
+	 * @param quotaBytes - the most disk space the cached files may use
+	 */
+	public PdfArtifactCache(File folder, long quotaBytes) {
+		this.folder = folder;
+		this.quotaBytes = quotaBytes;
+	}
+
+	/**
+	 * @param inputs - e.g. the url of the template, the libraries and fallbacks, the titles
+	 * @param values - the values that will be put in the template
+	 * @return the key for the files generated from these inputs
+	 */
+	public static String toKey(List<String> inputs, Map<String,String> values) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			update(digest, GENERATOR_VERSION);
+			for (String input : inputs) {
+				update(digest, input);
+			}
+			for (Map.Entry<String,String> entry : new TreeMap<String,String>(values).entrySet()) {
+				update(digest, entry.getKey());
+				update(digest, entry.getValue());
+			}
+			StringBuilder sb = new StringBuilder(PREFIX);
+			for (byte b : digest.digest()) {
+				sb.append(String.format("%02x", b));
+			}
+			return sb.toString();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void update(MessageDigest digest, String s) {
+		if (s != null) {
+			digest.update(s.getBytes(StandardCharsets.UTF_8));
+		}
+		digest.update((byte) 0); // so that ("ab", "c") and ("a", "bc") differ
+	}
+
+	/**
+	 * @param key
+	 * @return true if the pdf for the key has already been generated.
+	 * If so, it is marked as recently used.
+	 */
+	public boolean exists(String key) {
+		if (this.isComplete(key)) {
+			new File(folder, key + ".pdf").setLastModified(System.currentTimeMillis());
+			hits.incrementAndGet();
+			return true;
+		} else {
+			misses.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * @param key
+	 * @return true if the pdf for the key was generated by a run that succeeded
+	 */
+	public boolean isComplete(String key) {
+		return new File(folder, key + COMPLETE).exists()
+				&& new File(folder, key + ".pdf").exists();
+	}
+
+	/**
+	 * Record that the pdf for the key was generated successfully.
+	 * Call only after the run that generated it has finished.
+	 * @param key
+	 */
+	public void markComplete(String key) {
+		try {
+			Files.write(new File(folder, key + COMPLETE).toPath(), new byte[0]);
+		} catch (IOException e) {
+			ErrorUtils.report(logger, e);
+		}
+	}
+
+	/**
+	 * Delete the least recently used keys until the files of the cache take no more than the quota.
+	 * Call after a pdf has been generated.
+	 */
+	public synchronized void enforceQuota() {
+		File[] files = folder.listFiles((dir, name) -> name.startsWith(PREFIX));
+		if (files == null) {
+			return;
+		}
+		Map<String, List<File>> keys = new TreeMap<String, List<File>>();
+		Map<String, Long> lastUsed = new TreeMap<String, Long>();
+		long total = 0;
+		for (File file : files) {
+			String key = toKeyOfFile(file.getName());
+			keys.computeIfAbsent(key, k -> new ArrayList<File>()).add(file);
+			lastUsed.merge(key, file.lastModified(), Math::max);
+			total += file.length();
+		}
+		if (total <= quotaBytes) {
+			return;
+		}
+		List<String> oldestFirst = new ArrayList<String>(keys.keySet());
+		Collections.sort(oldestFirst, (a, b) -> Long.compare(lastUsed.get(a), lastUsed.get(b)));
+		for (String key : oldestFirst) {
+			if (total <= quotaBytes) {
+				break;
+			}
+			// the marker goes first, so a partly deleted key is not taken as generated
+			new File(folder, key + COMPLETE).delete();
+			for (File file : keys.get(key)) {
+				long length = file.length();
+				if (file.delete()) {
+					total -= length;
+				}
+			}
+			evictions.incrementAndGet();
+			logger.info("Deleted the pdf files for " + key + " to stay within the quota");
+		}
+	}
+
+	private static String toKeyOfFile(String filename) {
+		int dot = filename.indexOf('.');
+		return dot < 0 ? filename : filename.substring(0, dot);
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("hits", hits.get());
+		json.addProperty("misses", misses.get());
+		json.addProperty("evictions", evictions.get());
+		json.addProperty("quotaBytes", quotaBytes);
+		return json;
+	}
+}
@@ -29,6 +29,7 @@ public class PdfGenerationTask implements Runnable {
 	LDOM template = null;
 	String pdfId = "";
 	String dockerPath = "/usr/local/bin/";
+	private volatile int exitValue = -1;
 	
 	/**
 	 * 
@@ -60,6 +61,13 @@ public class PdfGenerationTask implements Runnable {
 		}
 	}
 	
+	/**
+	 * @return true if the script that makes the PDF ran and exited normally
+	 */
+	public boolean succeeded() {
+		return this.exitValue == 0;
+	}
+
 	private synchronized String executeCommandProcessor(String command, String file, String dir) {
 		StringBuffer result = new StringBuffer();
 		try {
@@ -74,7 +82,7 @@ public class PdfGenerationTask implements Runnable {
 				while ((line = in.readLine()) != null) {
 					result.append(line);
 				}
-				pr.waitFor();
+				this.exitValue = pr.waitFor();
 				
 				in.close();
 				result.append("OK");
@@ -0,0 +1,261 @@
+package net.ages.alwb.tasks;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Runs the tasks that generate PDF files (PdfGenerationTask, TextDownloadsGenerationTask)
+ * on a fixed number of worker threads, so that a request that asks for a PDF
+ * can return at once with the id of the job, instead of holding a request thread
+ * until the PDF exists.
+ *
+ * Each job has a status: queued, running, done, or failed.
+ * Job ids must be unique: submit refuses an id that is already in use.
+ *
+ * If the queue is full, submit throws a RejectedExecutionException,
+ * so the caller can tell the user to try again later,
+ * or call recordRejected so that the status of the job reports the failure.
+ *
+ * Finished jobs are forgotten after an hour.
+ *
+ * @author mac002
+ *
+ */
+public class PdfJobService {
+	private static final Logger logger = LoggerFactory.getLogger(PdfJobService.class);
+	private static final long RETAIN_FINISHED_MILLIS = 60 * 60 * 1000;
+
+	public enum STATUS {
+		QUEUED
+		, RUNNING
+		, DONE
+		, FAILED
+		;
+		public String keyname() {
+			return this.name().toLowerCase();
+		}
+	}
+
+	public static class Job {
+		private final String id;
+		private final String type;
+		private volatile STATUS status = STATUS.QUEUED;
+		private volatile String message = "";
+		private final long submittedWhen = System.currentTimeMillis();
+		private volatile long startedWhen = 0;
+		private volatile long finishedWhen = 0;
+
+		private Job(String id, String type) {
+			this.id = id;
+			this.type = type;
+		}
+
+		public String getId() {
+			return id;
+		}
+
+		public STATUS getStatus() {
+			return status;
+		}
+
+		public boolean isFinished() {
+			return status == STATUS.DONE || status == STATUS.FAILED;
+		}
+
+		public JsonObject toJsonObject() {
+			JsonObject json = new JsonObject();
+			json.addProperty("jobId", id);
+			json.addProperty("type", type);
+			json.addProperty("status", status.keyname());
+			json.addProperty("message", message);
+			json.addProperty("submitted", Instant.ofEpochMilli(submittedWhen).toString());
+			if (startedWhen > 0) {
+				json.addProperty("started", Instant.ofEpochMilli(startedWhen).toString());
+			}
+			if (finishedWhen > 0) {
+				json.addProperty("finished", Instant.ofEpochMilli(finishedWhen).toString());
+			}
+			return json;
+		}
+	}
+
+	private final ThreadPoolExecutor executor;
+	private final Map<String, Job> jobs = new ConcurrentHashMap<String, Job>();
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong done = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * @param workers - how many jobs can run at the same time
+	 * @param queueSize - how many jobs can wait to run
+	 */
+	public PdfJobService(int workers, int queueSize) {
+		AtomicInteger threadCount = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(
+				workers
+				, workers
+				, 0L
+				, TimeUnit.MILLISECONDS
+				, new ArrayBlockingQueue<Runnable>(queueSize)
+				, r -> {
+					Thread t = new Thread(r, "pdf-job-" + threadCount.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+				);
+	}
+
+	/**
+	 * Queue a task to generate a PDF
+	 * @param jobId - the id the client will use to ask about the job and get the PDF
+	 * @param type - e.g. PdfGenerationTask
+	 * @param task
+	 * @param succeeded - called after the task has run, to see whether it produced what it should
+	 * @return the job
+	 * @throws IllegalStateException if there is already a job with this id
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public Job submit(
+			String jobId
+			, String type
+			, Runnable task
+			, BooleanSupplier succeeded
+			) throws RejectedExecutionException {
+		this.forgetOldJobs();
+		Job job = new Job(jobId, type);
+		if (jobs.putIfAbsent(jobId, job) != null) {
+			throw new IllegalStateException("There is already a PDF job with the id " + jobId);
+		}
+		try {
+			executor.execute(() -> run(job, task, succeeded));
+			submitted.incrementAndGet();
+		} catch (RejectedExecutionException e) {
+			jobs.remove(jobId, job);
+			rejected.incrementAndGet();
+			throw e;
+		}
+		return job;
+	}
+
+	/**
+	 * Queue a task to generate a PDF, unless a job with the same id
+	 * is already queued or running, in which case that job is returned.
+	 * Used when the job id is derived from the content of the PDF.
+	 * @param jobId
+	 * @param type
+	 * @param task
+	 * @param succeeded
+	 * @return the new job, or the one already under way
+	 * @throws RejectedExecutionException if the queue is full
+	 */
+	public synchronized Job submitIfAbsent(
+			String jobId
+			, String type
+			, Runnable task
+			, BooleanSupplier succeeded
+			) throws RejectedExecutionException {
+		Job job = jobs.get(jobId);
+		if (job != null) {
+			if (! job.isFinished()) {
+				return job;
+			}
+			jobs.remove(jobId, job);
+		}
+		return this.submit(jobId, type, task, succeeded);
+	}
+
+	/**
+	 * Record that a job could not be queued, so that asking
+	 * for its status reports the failure instead of finding nothing.
+	 * A job with the same id that is already under way is left alone.
+	 * @param jobId
+	 * @param type
+	 * @return the failed job, or the one already under way
+	 */
+	public synchronized Job recordRejected(String jobId, String type) {
+		Job job = jobs.get(jobId);
+		if (job != null && ! job.isFinished()) {
+			return job;
+		}
+		job = new Job(jobId, type);
+		job.message = "The PDF queue is full.  Please try again later.";
+		job.status = STATUS.FAILED;
+		job.finishedWhen = System.currentTimeMillis();
+		jobs.put(jobId, job);
+		return job;
+	}
+
+	private void run(Job job, Runnable task, BooleanSupplier succeeded) {
+		job.startedWhen = System.currentTimeMillis();
+		job.status = STATUS.RUNNING;
+		STATUS status = STATUS.FAILED;
+		try {
+			task.run();
+			if (succeeded == null || succeeded.getAsBoolean()) {
+				status = STATUS.DONE;
+				done.incrementAndGet();
+			} else {
+				job.message = "The task finished without creating its output";
+				failed.incrementAndGet();
+			}
+		} catch (Throwable t) {
+			logger.error("PDF job " + job.id + " failed");
+			if (t instanceof Exception) {
+				ErrorUtils.report(logger, (Exception) t);
+			}
+			job.message = String.valueOf(t.getMessage());
+			failed.incrementAndGet();
+		} finally {
+			// set before the status, so forgetOldJobs never sees a finished job with no finishedWhen
+			job.finishedWhen = System.currentTimeMillis();
+			job.status = status;
+		}
+	}
+
+	/**
+	 * @param jobId
+	 * @return the job, or null if there is no such job, or it finished long ago
+	 */
+	public Job getJob(String jobId) {
+		if (jobId == null) {
+			return null;
+		}
+		return jobs.get(jobId);
+	}
+
+	private void forgetOldJobs() {
+		long cutoff = System.currentTimeMillis() - RETAIN_FINISHED_MILLIS;
+		jobs.values().removeIf(job -> job.isFinished() && job.finishedWhen < cutoff);
+	}
+
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("workers", executor.getMaximumPoolSize());
+		json.addProperty("running", executor.getActiveCount());
+		json.addProperty("queued", executor.getQueue().size());
+		json.addProperty("submitted", submitted.get());
+		json.addProperty("rejected", rejected.get());
+		json.addProperty("done", done.get());
+		json.addProperty("failed", failed.get());
+		return json;
+	}
+}
@@ -1,10 +1,17 @@
 package net.ages.alwb.tasks;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
@@ -23,8 +30,13 @@ import org.ocmc.ioc.liturgical.utils.ErrorUtils;
 import org.ocmc.ioc.liturgical.utils.MessageUtils;
 
 /**
- * Runs a task (separate thread) to push database transaction to the synch server
- * .
+ * Runs a task (separate thread) to pull database transactions from the synch server
+ * and apply them to the local database.
+ * 
+ * The transactions are applied in batches.  Each batch is one database transaction,
+ * which also advances the SynchLog, so after a failure the next run starts
+ * with the first transaction that was not applied.  An AdaptiveThrottle
+ * sets the batch size and the pause between batches.
  * @author mac002
  *
  */
@@ -38,6 +50,13 @@ public class SynchPullTask implements Runnable {
 	String messagingToken = null;
 	boolean messagingEnabled = false;
 	boolean printpretty = false;
+	AdaptiveThrottle throttle = new AdaptiveThrottle();
+
+	private volatile int transactionsBehind = 0;
+	private volatile long secondsBehind = 0;
+	private final AtomicLong applied = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
 	
 	public SynchPullTask (
 			Neo4jConnectionManager dbManager
@@ -79,48 +98,24 @@ public class SynchPullTask implements Runnable {
 					try {
 						SynchLog log = dbManager.getSynchLog();
 						ResultJsonObjectArray transactions  = synchManager.getTransactionsSince("wsadmin",log.getLastUsedSynchTimestamp());
-						if (transactions.valueCount > 0) {
-							logger.info("Got " + transactions.valueCount + " transactions from synch server");
-							for (JsonObject o : transactions.values) {
-								try {
-									Transaction trans = gson.fromJson(o, Transaction.class);
-									log.setLastUsedSynchTimestamp(trans.getKey());
-									log.recordSynchTime();
-									dbManager.recordSynch(log);
-									if (! trans.requestingMac.equals(dbManager.macAddress)) { 
-										LTKDb ltkDb = gson.fromJson(trans.getJson(), LTKDb.class);
-										LTKDb record = 
-													gson.fromJson(
-															trans.getJson()
-															, SCHEMA_CLASSES
-																.classForSchemaName(
-																		ltkDb.get_valueSchemaId())
-																.ltkDb.getClass()
-												);
-										Thread.sleep(15000); // slow down the rate at which we update the db
-										RequestStatus status = dbManager.processTransaction(trans);
-										if (status.getCode() == HTTP_RESPONSE_CODES.OK.code) {
-											if (this.printpretty) {
-												logger.info("Ran transaction " + trans.getId() + " against local database.");
-											}
-										} else {
-											String message = "Could not run transaction " + trans.getId() 
-												+ " against local database. " 
-													+ status.code 
-													+ ": " 
-													+ status.developerMessage;
-											logger.error(message);
-											if (this.messagingEnabled) {
-												ServiceProvider.sendMessage(message);
-											}
-										}
-									}
-								} catch (Exception e) {
-									String message = "Could not run transaction against local database: " + o.toString();
-									ErrorUtils.report(logger, e);
-									MessageUtils.sendMessage(this.messagingToken, message);
+						List<Transaction> pending = new ArrayList<Transaction>();
+						for (JsonObject o : transactions.values) {
+							try {
+								Transaction trans = gson.fromJson(o, Transaction.class);
+								if (! trans.requestingMac.equals(dbManager.macAddress)) {
+									readDocs(trans);
 								}
-							} 
+								pending.add(trans);
+							} catch (Exception e) {
+								String message = "Could not read transaction from synch server: " + o.toString();
+								ErrorUtils.report(logger, e);
+								MessageUtils.sendMessage(this.messagingToken, message);
+							}
+						}
+						this.setLag(pending, 0);
+						if (pending.size() > 0) {
+							logger.info("Got " + pending.size() + " transactions from synch server");
+							this.apply(pending, log);
 						}
 					} catch (Exception e) {
 						ServiceProvider.sendMessage("SynchPullTask error " + e.getStackTrace().toString());
@@ -133,4 +128,204 @@ public class SynchPullTask implements Runnable {
 			ErrorUtils.report(logger, e);
 		}
 	}
+
+	/**
+	 * Apply the transactions in batches, each in one database transaction
+	 * that also advances the SynchLog.  The throttle decides the size of each batch
+	 * and how long to wait before the next one.
+	 * @param pending the transactions, ordered by key
+	 * @param log
+	 * @throws InterruptedException
+	 */
+	private void apply(List<Transaction> pending, SynchLog log) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		int next = 0;
+		while (next < pending.size()) {
+			int end = this.getBatchEnd(pending, next, throttle.getBatchSize());
+			List<Transaction> batch = pending.subList(next, end);
+			log.setLastUsedSynchTimestamp(batch.get(batch.size() - 1).getKey());
+			log.recordSynchTime();
+			long batchStart = System.currentTimeMillis();
+			this.applyBatch(batch, log);
+			throttle.record(batch.size(), System.currentTimeMillis() - batchStart);
+			batches.incrementAndGet();
+			next = end;
+			this.setLag(pending, next);
+			if (next < pending.size() && throttle.getPauseMillis() > 0) {
+				Thread.sleep(throttle.getPauseMillis());
+			}
+		}
+		long millis = Math.max(1, System.currentTimeMillis() - start);
+		logger.info("Applied " + pending.size() 
+			+ " transactions from synch server in " 
+				+ millis 
+				+ " ms (" 
+				+ (pending.size() * 1000 / millis) 
+				+ " per second)"
+				);
+	}
+	
+	/**
+	 * A transaction that changes the schema can't share a database transaction with
+	 * data changes, so it gets a batch of its own.
+	 * @param pending
+	 * @param start index of the first transaction of the batch
+	 * @param size the maximum size of the batch
+	 * @return the index after the last transaction of the batch
+	 */
+	private int getBatchEnd(List<Transaction> pending, int start, int size) {
+		if (isSchemaChange(pending.get(start))) {
+			return start + 1;
+		}
+		int end = start + 1;
+		while (end < pending.size() 
+				&& end - start < size 
+				&& ! isSchemaChange(pending.get(end))) {
+			end++;
+		}
+		return end;
+	}
+	
+	private void applyBatch(List<Transaction> batch, SynchLog log) {
+		boolean applied = false;
+		if (! isSchemaChange(batch.get(0))) {
+			RequestStatus status = dbManager.processTransactions(batch, log);
+			applied = status.getCode() == HTTP_RESPONSE_CODES.OK.code;
+			if (! applied && batch.size() > 1) {
+				logger.info("Could not apply batch of " 
+						+ batch.size() 
+						+ " transactions, will apply them one at a time: " 
+						+ status.getUserMessage()
+						);
+			}
+		}
+		if (applied) {
+			this.applied.addAndGet(batch.size());
+		} else {
+			for (Transaction trans : batch) {
+				this.applyOne(trans);
+			}
+			try {
+				dbManager.recordSynch(log);
+			} catch (Exception e) {
+				ErrorUtils.report(logger, e);
+			}
+		}
+	}
+
+	private void applyOne(Transaction trans) {
+		try {
+			RequestStatus status = dbManager.processTransaction(trans);
+			if (status.getCode() == HTTP_RESPONSE_CODES.OK.code) {
+				this.applied.incrementAndGet();
+				if (this.printpretty) {
+					logger.info("Ran transaction " + trans.getId() + " against local database.");
+				}
+			} else {
+				this.failed.incrementAndGet();
+				String message = "Could not run transaction " + trans.getId() 
+					+ " against local database. " 
+						+ status.code 
+						+ ": " 
+						+ status.developerMessage;
+				logger.error(message);
+				if (this.messagingEnabled) {
+					ServiceProvider.sendMessage(message);
+				}
+			}
+		} catch (Exception e) {
+			this.failed.incrementAndGet();
+			String message = "Could not run transaction against local database: " + trans.getId();
+			ErrorUtils.report(logger, e);
+			MessageUtils.sendMessage(this.messagingToken, message);
+		}
+	}
+
+	/**
+	 * Read the json of the transaction as the class of its schema,
+	 * or, for a batch, the json of each of its docs,
+	 * so a transaction whose doc can't be read is not applied.
+	 * Transactions without json, e.g. deletes, only have cypher.
+	 * @param trans
+	 */
+	private static void readDocs(Transaction trans) {
+		if (trans.getJson() == null || trans.getJson().length() < 1) {
+			return;
+		}
+		JsonElement json = parser.parse(trans.getJson());
+		if (json.isJsonArray()) {
+			for (JsonElement doc : json.getAsJsonArray()) {
+				readDoc(doc.toString());
+			}
+		} else {
+			readDoc(trans.getJson());
+		}
+	}
+
+	private static LTKDb readDoc(String json) {
+		LTKDb ltkDb = gson.fromJson(json, LTKDb.class);
+		return gson.fromJson(
+				json
+				, SCHEMA_CLASSES
+					.classForSchemaName(
+							ltkDb.get_valueSchemaId())
+					.ltkDb.getClass()
+				);
+	}
+
+	private static boolean isSchemaChange(Transaction trans) {
+		String cypher = trans.getCypher() == null ? "" : trans.getCypher().toLowerCase();
+		return (trans.getJson() == null || trans.getJson().length() < 1)
+				&& (cypher.contains("constraint") || cypher.contains("index"));
+	}
+
+	/**
+	 * Record how far behind the synch server the local database is
+	 * @param pending transactions read from the synch server
+	 * @param next index of the next one to apply
+	 */
+	private void setLag(List<Transaction> pending, int next) {
+		this.transactionsBehind = pending.size() - next;
+		if (next < pending.size()) {
+			try {
+				this.secondsBehind = Math.max(0, 
+						Duration.between(
+								Instant.parse(pending.get(next).getKey())
+								, Instant.now()
+								).getSeconds()
+						);
+			} catch (Exception e) {
+				this.secondsBehind = -1; // the key is not a timestamp
+			}
+		} else {
+			this.secondsBehind = 0;
+		}
+	}
+
+	public AdaptiveThrottle getThrottle() {
+		return throttle;
+	}
+
+	public void setThrottle(AdaptiveThrottle throttle) {
+		this.throttle = throttle;
+	}
+
+	public int getTransactionsBehind() {
+		return transactionsBehind;
+	}
+
+	public long getSecondsBehind() {
+		return secondsBehind;
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("transactionsBehind", transactionsBehind);
+		json.addProperty("secondsBehind", secondsBehind);
+		json.addProperty("applied", applied.get());
+		json.addProperty("failed", failed.get());
+		json.addProperty("batches", batches.get());
+		json.add("throttle", throttle.toJsonObject());
+		return json;
+	}
 }
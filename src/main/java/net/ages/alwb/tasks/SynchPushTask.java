@@ -1,5 +1,8 @@
 package net.ages.alwb.tasks;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,6 +12,7 @@ import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 
 import ioc.liturgical.ws.managers.databases.external.neo4j.utils.Neo4jConnectionManager;
+import ioc.liturgical.ws.managers.exceptions.DbException;
 import ioc.liturgical.ws.managers.synch.SynchManager;
 
 import org.ocmc.ioc.liturgical.schemas.constants.HTTP_RESPONSE_CODES;
@@ -20,6 +24,9 @@ import org.ocmc.ioc.liturgical.utils.ErrorUtils;
 /**
  * Runs a task (separate thread) to push database transaction to the synch server
  * .
+ * The transactions waiting in the local database are read a page at a time,
+ * and each page is pushed in a single statement, then deleted locally
+ * in a single statement.
  * @author mac002
  *
  */
@@ -31,6 +38,7 @@ public class SynchPushTask implements Runnable {
 	Neo4jConnectionManager dbManager = null;
 	SynchManager synchManager = null;
 	boolean printpretty = false;
+	int batchSize = 500; // the number of transactions to push in one statement
 	
 	public SynchPushTask (
 			Neo4jConnectionManager dbManager
@@ -54,22 +62,26 @@ public class SynchPushTask implements Runnable {
 	public void run() {
 		try {
 			if (synchManager.synchConnectionOK()) {
-				ResultJsonObjectArray transactions  = dbManager.getTransactions(printpretty);
-				for (JsonObject o : transactions.values) {
-					Transaction trans = gson.fromJson(o, Transaction.class);
-					RequestStatus requestStatus = synchManager.recordTransaction(trans);
-					if (
-							requestStatus.getCode() == HTTP_RESPONSE_CODES.CREATED.code
-							|| requestStatus.getCode() == HTTP_RESPONSE_CODES.CONFLICT.code
-							) {
-						logger.info("Pushed " + trans.getId() + " to Synch Server and deleted from local database");
-						RequestStatus deleteStatus = dbManager.deleteTransaction(trans.getId());
-						if (deleteStatus.getCode() != HTTP_RESPONSE_CODES.OK.code) {
-							logger.error("Could not delete " + trans.getId() + ": " + deleteStatus.getDeveloperMessage());
+				String afterKey = "";
+				String afterId = "";
+				int pushed = 0;
+				int count = 0;
+				do {
+					ResultJsonObjectArray transactions  = dbManager.getTransactions(afterKey, afterId, batchSize, printpretty);
+					count = transactions.valueCount;
+					if (count > 0) {
+						List<Transaction> batch = new ArrayList<Transaction>(count);
+						for (JsonObject o : transactions.values) {
+							batch.add(gson.fromJson(o, Transaction.class));
 						}
-					} else {
-						logger.error("Could not push " + trans.getId() + " to Synch Server");
+						Transaction last = batch.get(batch.size() - 1);
+						afterKey = last.getKey();
+						afterId = last.getId();
+						pushed = pushed + this.push(batch);
 					}
+				} while (count >= batchSize);
+				if (pushed > 0) {
+					logger.info("Pushed " + pushed + " transactions to Synch Server and deleted them from local database");
 				}
 			} else {
 				logger.info("Synch Manager not available...");
@@ -78,5 +90,56 @@ public class SynchPushTask implements Runnable {
 			ErrorUtils.report(logger, e);
 		}
 	}
-	
+
+	/**
+	 * Push a batch of transactions to the synch server in one statement,
+	 * and delete the ones it acknowledged from the local database in one statement.
+	 * If the batch can't be pushed, the transactions are pushed one at a time,
+	 * so that one bad transaction does not hold up the others.
+	 * @param batch
+	 * @return the number of transactions pushed
+	 * @throws DbException
+	 */
+	private int push(List<Transaction> batch) throws DbException {
+		List<String> pushed = new ArrayList<String>(batch.size());
+		RequestStatus requestStatus = synchManager.recordTransactions(batch);
+		if (requestStatus.getCode() == HTTP_RESPONSE_CODES.CREATED.code) {
+			for (Transaction trans : batch) {
+				pushed.add(trans.getId());
+			}
+		} else {
+			logger.info("Could not push batch of " 
+					+ batch.size() 
+					+ " transactions, will push them one at a time: " 
+					+ requestStatus.getUserMessage()
+					);
+			for (Transaction trans : batch) {
+				requestStatus = synchManager.recordTransaction(trans);
+				if (
+						requestStatus.getCode() == HTTP_RESPONSE_CODES.CREATED.code
+						|| requestStatus.getCode() == HTTP_RESPONSE_CODES.CONFLICT.code
+						) {
+					pushed.add(trans.getId());
+				} else {
+					logger.error("Could not push " + trans.getId() + " to Synch Server");
+				}
+			}
+		}
+		if (pushed.size() > 0) {
+			RequestStatus deleteStatus = dbManager.deleteTransactions(pushed);
+			if (deleteStatus.getCode() != HTTP_RESPONSE_CODES.OK.code) {
+				logger.error("Could not delete pushed transactions: " + deleteStatus.getDeveloperMessage());
+			}
+		}
+		return pushed.size();
+	}
+
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = Math.max(1, batchSize);
+	}
+
 }
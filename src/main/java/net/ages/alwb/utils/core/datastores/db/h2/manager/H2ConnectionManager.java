@@ -7,6 +7,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.h2.jdbcx.JdbcConnectionPool;
 import org.h2.tools.DeleteDbFiles;
@@ -43,6 +45,7 @@ public class H2ConnectionManager {
     private String DB_PASSWORD = "";
     
     private Query currentQuery = null;
+    private JsonRowCache cache = null;
     
     /**
      * 
@@ -84,6 +87,85 @@ public class H2ConnectionManager {
     public void setQuery(Query query) {
     	this.currentQuery = query;
     }
+
+    /**
+     * Keep the rows of the table in memory, so that reads by id,
+     * and by id starts with, ends with, or like, do not use the database.
+     * Writes made through this manager are also made to the cache.
+     * 
+     * Only use this for a json table (see QueryForJson) that fits in memory,
+     * and is only written to through this manager.
+     * The query must be set first.
+     */
+    public void enableCache() {
+    	if (this.currentQuery == null) {
+    		throw new IllegalStateException("Set the query before enabling the cache");
+    	}
+    	this.cache = new JsonRowCache();
+    }
+
+    public JsonRowCache getCache() {
+    	return this.cache;
+    }
+
+    /**
+     * @return the cache, loaded from the table if need be,
+     * or null if there is no cache or it could not be loaded
+     */
+    private JsonRowCache loadedCache() {
+    	if (this.cache == null || this.cache.isLoaded()) {
+    		return this.cache;
+    	}
+    	synchronized (this) {
+    		if (! this.cache.isLoaded()) {
+    	    	Map<String, String> table = new TreeMap<String, String>();
+    	    	Connection connection = null;
+    	    	try {
+    	        	connection = connectionPool.getConnection();
+    	        	PreparedStatement selectPreparedStatement = connection.prepareStatement(currentQuery.getSelectQuery());
+    	        	ResultSet rs = selectPreparedStatement.executeQuery();
+    	        	while (rs.next()) {
+    	        		table.put(rs.getString("_id"), rs.getString("value"));
+    	        	}
+    	        	selectPreparedStatement.close();
+    	        	this.cache.load(table);
+    	        } catch (Exception e) {
+    	        	ErrorUtils.report(logger, e);
+    	        	return null;
+    	        } finally {
+    	        	try {
+    					connection.close();
+    				} catch (SQLException e) {
+    					ErrorUtils.report(logger, e);
+    				}
+    	        }
+    		}
+    	}
+    	return this.cache;
+    }
+
+    /**
+     * After a write, make the same change to the cache.
+     * If the statement is not the one the cache knows about, the cache is reloaded on the next read.
+     * @param statement - the statement that was run
+     * @param cachedStatement - the statement of the current query that the change is for
+     * @param change - the change to make to the cache
+     */
+    private void writeThrough(String statement, String cachedStatement, Runnable change) {
+    	if (this.cache != null) {
+    		if (statement.equals(cachedStatement)) {
+    			change.run();
+    		} else {
+    			this.cache.invalidate();
+    		}
+    	}
+    }
+
+    private void invalidateCache() {
+    	if (this.cache != null) {
+    		this.cache.invalidate();
+    	}
+    }
     
     private void setDbName(String name) {
 		DB_NAME = name;
@@ -151,7 +233,7 @@ public class H2ConnectionManager {
      * @param doc - to be deleted
      * @throws SQLException 
      */
-    public void delete(String statement, JsonObject doc) throws SQLException {
+    public synchronized void delete(String statement, JsonObject doc) throws SQLException {
     	Connection connection = null;
     	try {
         	connection = connectionPool.getConnection();
@@ -160,7 +242,9 @@ public class H2ConnectionManager {
 			deletePreparedStatement.executeUpdate();
 			deletePreparedStatement.close();
 			connection.commit();
+			this.writeThrough(statement, currentQuery.getDeleteQueryWhereEqual(), () -> cache.remove(doc.get("_id").getAsString()));
         } catch (Exception e) {
+        	this.invalidateCache();
         	ErrorUtils.report(logger, e);
         } finally {
         	try {
@@ -181,7 +265,7 @@ public class H2ConnectionManager {
      * @param statement
      * @throws SQLException 
      */
-    public void truncateTable(String statement) throws SQLException {
+    public synchronized void truncateTable(String statement) throws SQLException {
     	Connection connection = null;
     	try {
         	connection = connectionPool.getConnection();
@@ -189,7 +273,9 @@ public class H2ConnectionManager {
 			truncatePreparedStatement.executeUpdate();
 			truncatePreparedStatement.close();
 			connection.commit();
+			this.invalidateCache();
         } catch (Exception e) {
+        	this.invalidateCache();
         	ErrorUtils.report(logger, e);
         } finally {
         	try {
@@ -210,7 +296,7 @@ public class H2ConnectionManager {
      * @param docs - json to be inserted
      * @throws SQLException 
      */
-    public void insert(String statement, List<JsonObject> docs) throws SQLException {
+    public synchronized void insert(String statement, List<JsonObject> docs) throws SQLException {
     	Connection connection = null;
     	try {
         	connection = connectionPool.getConnection();
@@ -222,7 +308,13 @@ public class H2ConnectionManager {
             }
     		insertPreparedStatement.close();
 			connection.commit();
+			this.writeThrough(statement, currentQuery.getInsertQuery(), () -> {
+				for (JsonObject json : docs) {
+					cache.put(json.get("_id").getAsString(), json.toString());
+				}
+			});
         } catch (Exception e) {
+        	this.invalidateCache();
         	ErrorUtils.report(logger, e);
         } finally {
         	try {
@@ -246,7 +338,7 @@ public class H2ConnectionManager {
      * @param statement - SQL for prepare statement
      * @param doc - to be inserted
      */
-    public void insert(String statement, JsonObject doc) throws SQLException {
+    public synchronized void insert(String statement, JsonObject doc) throws SQLException {
     	Connection connection = null;
     	try {
         	connection = connectionPool.getConnection();
@@ -256,7 +348,9 @@ public class H2ConnectionManager {
             insertPreparedStatement.executeUpdate();
     		insertPreparedStatement.close();
 			connection.commit();
+			this.writeThrough(statement, currentQuery.getInsertQuery(), () -> cache.put(doc.get("_id").getAsString(), doc.toString()));
         } catch (Exception e) {
+        	this.invalidateCache();
         	ErrorUtils.report(logger, e);
         } finally {
         	try {
@@ -274,7 +368,7 @@ public class H2ConnectionManager {
      * @param doc - to be inserted
      * @throws SQLException 
      */
-    public void insert(String statement, String key, JsonObject doc) throws SQLException {
+    public synchronized void insert(String statement, String key, JsonObject doc) throws SQLException {
     	Connection connection = null;
     	try {
         	connection = connectionPool.getConnection();
@@ -284,7 +378,9 @@ public class H2ConnectionManager {
             insertPreparedStatement.executeUpdate();
     		insertPreparedStatement.close();
 			connection.commit();
+			this.writeThrough(statement, currentQuery.getInsertQuery(), () -> cache.put(key, doc.toString()));
         } catch (Exception e) {
+        	this.invalidateCache();
         	ErrorUtils.report(logger, e);
         } finally {
         	try {
@@ -312,17 +408,23 @@ public class H2ConnectionManager {
      * @param doc - to be inserted
      * @throws SQLException 
      */
-    public void update(String statement, JsonObject doc) throws SQLException {
+    public synchronized void update(String statement, JsonObject doc) throws SQLException {
     	Connection connection = null;
     	try {
         	connection = connectionPool.getConnection();
         	PreparedStatement updatePreparedStatement = connection.prepareStatement(statement);
             updatePreparedStatement.setString(1, doc.toString());
             updatePreparedStatement.setString(2, doc.get("_id").getAsString());
-            updatePreparedStatement.executeUpdate();
+            int count = updatePreparedStatement.executeUpdate();
     		updatePreparedStatement.close();
 			connection.commit();
+			this.writeThrough(statement, currentQuery.getUpdateQueryWhereEqual(), () -> {
+				if (count > 0) {
+					cache.put(doc.get("_id").getAsString(), doc.toString());
+				}
+			});
         } catch (Exception e) {
+        	this.invalidateCache();
         	ErrorUtils.report(logger, e);
         } finally {
         	try {
@@ -350,17 +452,23 @@ public class H2ConnectionManager {
      * @param doc - to be inserted
      * @throws SQLException 
      */
-    public void update(String statement, String id, JsonObject doc) throws SQLException {
+    public synchronized void update(String statement, String id, JsonObject doc) throws SQLException {
     	Connection connection = null;
     	try {
         	connection = connectionPool.getConnection();
         	PreparedStatement updatePreparedStatement = connection.prepareStatement(statement);
             updatePreparedStatement.setString(1, doc.toString());
             updatePreparedStatement.setString(2, id);
-            updatePreparedStatement.executeUpdate();
+            int count = updatePreparedStatement.executeUpdate();
 			updatePreparedStatement.close();
 			connection.commit();
+			this.writeThrough(statement, currentQuery.getUpdateQueryWhereEqual(), () -> {
+				if (count > 0) {
+					cache.put(id, doc.toString());
+				}
+			});
         } catch (Exception e) {
+        	this.invalidateCache();
         	ErrorUtils.report(logger, e);
         } finally {
         	try {
@@ -403,6 +511,10 @@ public class H2ConnectionManager {
     }
    
     public List<JsonObject> queryForJson() throws SQLException {
+    	JsonRowCache rows = this.loadedCache();
+    	if (rows != null) {
+    		return rows.getAll();
+    	}
     	return queryForJson(currentQuery.getSelectQuery(), null);
     }
     
@@ -446,19 +558,36 @@ public class H2ConnectionManager {
     }
 
     public List<JsonObject> queryForJsonWhereEqual(String where) throws SQLException {
+    	JsonRowCache rows = this.loadedCache();
+    	if (rows != null) {
+    		List<JsonObject> result = new ArrayList<JsonObject>();
+    		JsonObject value = rows.get(where);
+    		if (value != null) {
+    			result.add(value);
+    		}
+    		return result;
+    	}
     	return queryForJson(currentQuery.getSelectQueryWhereEqual(), where);
     }
 
     public List<JsonObject> queryForJsonWhereEndsWith(String with) throws SQLException {
-    	return queryForJson(currentQuery.getSelectQueryWhereLike(), "%" + Constants.ID_DELIMITER + with);
+    	return queryForJsonWhereIdLike("%" + Constants.ID_DELIMITER + with);
     }
 
     public List<JsonObject> queryForJsonWhereStartsWith(String with) throws SQLException {
-    	return queryForJson(currentQuery.getSelectQueryWhereLike(), with + Constants.ID_DELIMITER +"%");
+    	return queryForJsonWhereIdLike(with + Constants.ID_DELIMITER +"%");
     }
 
     public List<JsonObject> queryForJsonWhereLike(String like) throws SQLException {
-    	return queryForJson(currentQuery.getSelectQueryWhereLike(), "%"+like+"%");
+    	return queryForJsonWhereIdLike("%"+like+"%");
+    }
+
+    private List<JsonObject> queryForJsonWhereIdLike(String pattern) throws SQLException {
+    	JsonRowCache rows = this.loadedCache();
+    	if (rows != null) {
+    		return rows.getWhereLike(pattern);
+    	}
+    	return queryForJson(currentQuery.getSelectQueryWhereLike(), pattern);
     }
     
     public List<JsonObject> queryForJsonWhereIdRegEx(String regex) throws SQLException {
@@ -511,6 +640,7 @@ public class H2ConnectionManager {
     public void deleteDatabase() {
     	String path = FileUtils.getPathToFile(DB_NAME);
         DeleteDbFiles.execute("./" + path, DB_NAME, true);
+        this.invalidateCache();
     }
 
     private Connection getDBConnection() throws SQLException {
@@ -0,0 +1,286 @@
+package net.ages.alwb.utils.core.datastores.db.h2.manager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Holds in memory the rows of a json table, i.e. a table whose rows
+ * are an _id and a value that is a json string, so that they can be read
+ * without a connection, a prepared statement, and parsing the json.
+ *
+ * The rows are held in a map sorted by _id, and a map sorted by the
+ * reverse of the _id, so that a LIKE pattern that starts or ends with
+ * a literal, e.g. "_users|%" or "%|admin", only looks at the rows
+ * that could match.  The patterns are matched the way H2 does, i.e.
+ * % matches any characters, _ matches one character, and \ escapes.
+ *
+ * Each get returns a copy, so the caller can change it.
+ * A read that finds at least one row counts as a hit, else as a miss.
+ *
+ * @author mac002
+ *
+ */
+public class JsonRowCache {
+	private volatile NavigableMap<String, JsonObject> rows = new ConcurrentSkipListMap<String, JsonObject>();
+	private volatile NavigableMap<String, String> reversedIds = new ConcurrentSkipListMap<String, String>();
+	private final JsonParser parser = new JsonParser();
+	private volatile boolean loaded = false;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong loads = new AtomicLong();
+
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Replace the contents of the cache with all the rows of the table.
+	 * The new contents are built first, so a concurrent read sees either the old or the new.
+	 * @param table - the value of each row, by its _id
+	 */
+	public synchronized void load(Map<String, String> table) {
+		NavigableMap<String, JsonObject> newRows = new ConcurrentSkipListMap<String, JsonObject>();
+		NavigableMap<String, String> newReversedIds = new ConcurrentSkipListMap<String, String>();
+		for (Map.Entry<String, String> row : table.entrySet()) {
+			newRows.put(row.getKey(), parser.parse(row.getValue()).getAsJsonObject());
+			newReversedIds.put(reverse(row.getKey()), row.getKey());
+		}
+		rows = newRows;
+		reversedIds = newReversedIds;
+		loaded = true;
+		loads.incrementAndGet();
+	}
+
+	/**
+	 * The cache will be loaded again on the next read
+	 */
+	public synchronized void invalidate() {
+		loaded = false;
+	}
+
+	/**
+	 * @param id
+	 * @param value - the json string, as written to the table
+	 */
+	public synchronized void put(String id, String value) {
+		rows.put(id, parser.parse(value).getAsJsonObject());
+		reversedIds.put(reverse(id), id);
+	}
+
+	public synchronized void remove(String id) {
+		rows.remove(id);
+		reversedIds.remove(reverse(id));
+	}
+
+	/**
+	 * @param id
+	 * @return a copy of the row's value, or null if there is no such row
+	 */
+	public JsonObject get(String id) {
+		JsonObject value = rows.get(id);
+		this.count(value != null);
+		return value == null ? null : deepCopy(value).getAsJsonObject();
+	}
+
+	/**
+	 * @return copies of all the values, sorted by _id
+	 */
+	public List<JsonObject> getAll() {
+		List<JsonObject> result = new ArrayList<JsonObject>();
+		for (JsonObject value : rows.values()) {
+			result.add(deepCopy(value).getAsJsonObject());
+		}
+		this.count(! result.isEmpty());
+		return result;
+	}
+
+	/**
+	 * @param likePattern - as for _id LIKE ?
+	 * @return copies of the values whose _id matches, sorted by _id
+	 */
+	public List<JsonObject> getWhereLike(String likePattern) {
+		NavigableMap<String, JsonObject> rows = this.rows;
+		NavigableMap<String, String> reversedIds = this.reversedIds;
+		String reversedPattern = reverseLike(likePattern);
+		int prefixSkip = leadingSingles(likePattern);
+		String prefix = literalPrefix(likePattern.substring(prefixSkip));
+		int suffixSkip = leadingSingles(reversedPattern);
+		String suffix = literalPrefix(reversedPattern.substring(suffixSkip));
+		Iterable<String> candidates = null;
+		if (prefix.length() > 0) {
+			candidates = skipScan(rows, prefixSkip, prefix);
+		} else if (suffix.length() > 0) {
+			TreeSet<String> ids = new TreeSet<String>();
+			for (String reversedId : skipScan(reversedIds, suffixSkip, suffix)) {
+				String id = reversedIds.get(reversedId);
+				if (id != null) {
+					ids.add(id);
+				}
+			}
+			candidates = ids;
+		} else {
+			candidates = rows.keySet();
+		}
+		Pattern pattern = likeToRegEx(likePattern);
+		List<JsonObject> result = new ArrayList<JsonObject>();
+		for (String id : candidates) {
+			if (pattern.matcher(id).matches()) {
+				JsonObject value = rows.get(id);
+				if (value != null) {
+					result.add(deepCopy(value).getAsJsonObject());
+				}
+			}
+		}
+		this.count(! result.isEmpty());
+		return result;
+	}
+
+	private void count(boolean found) {
+		if (found) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Find the keys that have a literal after the first few characters,
+	 * whatever those characters are, e.g. "_users|" for the pattern "_users|%".
+	 * Looks at one range of the keys for each distinct start of a key.
+	 * @param keys - sorted
+	 * @param skip - the number of characters before the literal
+	 * @param literal
+	 * @return the keys that could match, sorted
+	 */
+	static List<String> skipScan(NavigableMap<String, ?> keys, int skip, String literal) {
+		List<String> result = new ArrayList<String>();
+		String key = keys.isEmpty() ? null : keys.firstKey();
+		while (key != null) {
+			if (key.length() < skip) {
+				key = keys.higherKey(key);
+			} else {
+				String start = key.substring(0, skip) + literal;
+				result.addAll(keys.subMap(start, true, start + Character.MAX_VALUE, true).keySet());
+				if (skip == 0) {
+					break;
+				}
+				key = keys.higherKey(key.substring(0, skip) + Character.MAX_VALUE);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param likePattern
+	 * @return the number of unescaped _ at the start of the pattern
+	 */
+	static int leadingSingles(String likePattern) {
+		int count = 0;
+		while (count < likePattern.length() && likePattern.charAt(count) == '_') {
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * @param likePattern
+	 * @return the characters before the first wildcard, unescaped
+	 */
+	static String literalPrefix(String likePattern) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < likePattern.length(); i++) {
+			char c = likePattern.charAt(i);
+			if (c == '\\' && i + 1 < likePattern.length()) {
+				sb.append(likePattern.charAt(++i));
+			} else if (c == '%' || c == '_') {
+				break;
+			} else {
+				sb.append(c);
+			}
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Reverse a LIKE pattern, keeping each escape with the character it escapes
+	 * @param likePattern
+	 * @return a pattern that matches the reverse of what the original matches
+	 */
+	static String reverseLike(String likePattern) {
+		List<String> tokens = new ArrayList<String>();
+		for (int i = 0; i < likePattern.length(); i++) {
+			char c = likePattern.charAt(i);
+			if (c == '\\' && i + 1 < likePattern.length()) {
+				tokens.add(likePattern.substring(i, i + 2));
+				i++;
+			} else {
+				tokens.add(String.valueOf(c));
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (int i = tokens.size() - 1; i >= 0; i--) {
+			sb.append(tokens.get(i));
+		}
+		return sb.toString();
+	}
+
+	static Pattern likeToRegEx(String likePattern) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < likePattern.length(); i++) {
+			char c = likePattern.charAt(i);
+			if (c == '\\' && i + 1 < likePattern.length()) {
+				sb.append(Pattern.quote(String.valueOf(likePattern.charAt(++i))));
+			} else if (c == '%') {
+				sb.append(".*");
+			} else if (c == '_') {
+				sb.append(".");
+			} else {
+				sb.append(Pattern.quote(String.valueOf(c)));
+			}
+		}
+		return Pattern.compile(sb.toString(), Pattern.DOTALL);
+	}
+
+	private static String reverse(String s) {
+		return new StringBuilder(s).reverse().toString();
+	}
+
+	private static JsonElement deepCopy(JsonElement element) {
+		if (element.isJsonObject()) {
+			JsonObject copy = new JsonObject();
+			for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+				copy.add(entry.getKey(), deepCopy(entry.getValue()));
+			}
+			return copy;
+		} else if (element.isJsonArray()) {
+			JsonArray copy = new JsonArray();
+			for (JsonElement e : element.getAsJsonArray()) {
+				copy.add(deepCopy(e));
+			}
+			return copy;
+		} else {
+			return element; // primitives and null can't be changed
+		}
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject json = new JsonObject();
+		json.addProperty("rows", rows.size());
+		json.addProperty("loaded", loaded);
+		json.addProperty("loads", loads.get());
+		json.addProperty("hits", hits.get());
+		json.addProperty("misses", misses.get());
+		return json;
+	}
+}
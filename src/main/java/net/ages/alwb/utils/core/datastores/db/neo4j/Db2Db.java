@@ -142,7 +142,7 @@ public class Db2Db {
         		JsonObject props = doc.get("properties").getAsJsonObject();
         		String id = "";
         		try {
-            		id = props.get("id").getAsJsonObject().get("val").getAsString();
+            		id = props.get("id").getAsString();
         		} catch (Exception e) {
         			throw e;
         		}
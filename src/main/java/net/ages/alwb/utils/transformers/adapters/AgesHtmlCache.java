@@ -0,0 +1,458 @@
+package net.ages.alwb.utils.transformers.adapters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.ocmc.ioc.liturgical.utils.ErrorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * A cache of the AGES web pages used by AgesHtmlToLDOM, keyed by URL,
+ * so that the same service page is not downloaded and parsed for every request.
+ *
+ * The raw html of each page is kept on disk, with the ETag, Last-Modified,
+ * and data-timestamp of the page, so the cache survives a restart.
+ * The most recently used pages are also kept in memory already parsed
+ * and cleaned.  get() returns a copy, which the caller is free to change.
+ *
+ * A page younger than maxAgeMillis is used without asking the server.
+ * An older page is revalidated with a conditional GET.  If the server
+ * sends the page again, but its data-timestamp has not changed, the
+ * parsed copy in memory is kept.  If the server can't be reached,
+ * the old copy is used rather than failing the request.
+ *
+ * If several requests need the same page at the same time,
+ * only one of them downloads it, and the others wait for it.
+ *
+ * When the files on disk take more than maxDiskBytes, the pages
+ * least recently read from or written to disk are deleted.
+ *
+ * @author mac002
+ *
+ */
+public class AgesHtmlCache {
+	private static final Logger logger = LoggerFactory.getLogger(AgesHtmlCache.class);
+	public static final String USER_AGENT = "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/14.1.2 Safari/605.1.15";
+	public static final int TIMEOUT_MILLIS = 60*1000;
+
+	/**
+	 * Downloads a page.  The default uses Jsoup.  Tests can supply their own.
+	 */
+	public interface Fetcher {
+		/**
+		 * @param url
+		 * @param eTag from the last download, or null
+		 * @param lastModified from the last download, or null
+		 * @return the page, or a result for which notModified is true
+		 * @throws IOException
+		 */
+		FetchResult fetch(String url, String eTag, String lastModified) throws IOException;
+	}
+
+	public static class FetchResult {
+		public final boolean notModified;
+		public final String html;
+		public final String eTag;
+		public final String lastModified;
+
+		public FetchResult(boolean notModified, String html, String eTag, String lastModified) {
+			this.notModified = notModified;
+			this.html = html;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+	}
+
+	private static class Entry {
+		final String url;
+		final Document doc;
+		final String timestamp;
+		final String eTag;
+		final String lastModified;
+		final long fetchedWhen;
+
+		Entry(String url, Document doc, String timestamp, String eTag, String lastModified, long fetchedWhen) {
+			this.url = url;
+			this.doc = doc;
+			this.timestamp = timestamp;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.fetchedWhen = fetchedWhen;
+		}
+
+		Entry refreshed(long when) {
+			return new Entry(url, doc, timestamp, eTag, lastModified, when);
+		}
+	}
+
+	private final Path directory;
+	private final long maxAgeMillis;
+	private final long maxDiskBytes;
+	private final Fetcher fetcher;
+	private final Consumer<Document> cleaner;
+	private final Map<String, Entry> memory;
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<String, CompletableFuture<Entry>>();
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong downloads = new AtomicLong();
+	private final AtomicLong notModified = new AtomicLong();
+	private final AtomicLong staleServed = new AtomicLong();
+	private final AtomicLong diskEvictions = new AtomicLong();
+
+	/**
+	 * @param directory - where to keep the raw html
+	 * @param maxDocuments - how many parsed pages to keep in memory
+	 * @param maxAgeMillis - how long a page can be used before asking the server whether it changed
+	 * @param maxDiskBytes - the most disk space the pages may use
+	 * @param cleaner - changes made to each page after it is parsed, before it is cached, can be null
+	 */
+	public AgesHtmlCache(
+			Path directory
+			, int maxDocuments
+			, long maxAgeMillis
+			, long maxDiskBytes
+			, Consumer<Document> cleaner
+			) {
+		this(directory, maxDocuments, maxAgeMillis, maxDiskBytes, cleaner, AgesHtmlCache::download);
+	}
+
+	public AgesHtmlCache(
+			Path directory
+			, int maxDocuments
+			, long maxAgeMillis
+			, long maxDiskBytes
+			, Consumer<Document> cleaner
+			, Fetcher fetcher
+			) {
+		this.directory = directory;
+		this.maxAgeMillis = maxAgeMillis;
+		this.maxDiskBytes = maxDiskBytes;
+		this.cleaner = cleaner;
+		this.fetcher = fetcher;
+		this.memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > maxDocuments;
+			}
+		};
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			ErrorUtils.report(logger, e);
+		}
+	}
+
+	/**
+	 * @param url
+	 * @return a copy of the parsed and cleaned page
+	 * @throws Exception if the page is not cached and can't be downloaded
+	 */
+	public Document get(String url) throws Exception {
+		Entry entry = null;
+		synchronized (memory) {
+			entry = memory.get(url);
+		}
+		if (entry != null && isFresh(entry)) {
+			memoryHits.incrementAndGet();
+		} else {
+			entry = load(url);
+		}
+		return entry.doc.clone();
+	}
+
+	/**
+	 * Only one thread loads a url at a time.  Others asking for
+	 * the same url wait for its result.
+	 */
+	private Entry load(String url) throws Exception {
+		CompletableFuture<Entry> future = new CompletableFuture<Entry>();
+		CompletableFuture<Entry> existing = inFlight.putIfAbsent(url, future);
+		if (existing != null) {
+			try {
+				return existing.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				} else if (cause instanceof Exception) {
+					throw (Exception) cause;
+				} else {
+					throw e;
+				}
+			}
+		}
+		try {
+			Entry entry = this.revalidate(url);
+			synchronized (memory) {
+				memory.put(url, entry);
+			}
+			future.complete(entry);
+			return entry;
+		} catch (Throwable t) {
+			// an Error too, so that the threads waiting for the url are not left waiting
+			future.completeExceptionally(t);
+			throw t;
+		} finally {
+			inFlight.remove(url, future);
+		}
+	}
+
+	private Entry revalidate(String url) throws Exception {
+		Entry cached = null;
+		synchronized (memory) {
+			cached = memory.get(url);
+		}
+		if (cached == null) {
+			cached = this.readFromDisk(url);
+			if (cached != null) {
+				diskHits.incrementAndGet();
+				if (isFresh(cached)) {
+					return cached;
+				}
+			}
+		}
+		FetchResult fetched = null;
+		try {
+			fetched = fetcher.fetch(
+					url
+					, cached == null ? null : cached.eTag
+					, cached == null ? null : cached.lastModified
+					);
+		} catch (Exception e) {
+			if (cached == null) {
+				throw e;
+			}
+			logger.warn("Could not download " + url + ", using the copy from " + cached.fetchedWhen + ": " + e.getMessage());
+			staleServed.incrementAndGet();
+			return cached;
+		}
+		long now = System.currentTimeMillis();
+		if (fetched.notModified && cached != null) {
+			notModified.incrementAndGet();
+			Entry entry = cached.refreshed(now);
+			this.writeProperties(entry);
+			return entry;
+		}
+		downloads.incrementAndGet();
+		Document doc = this.parse(url, fetched.html);
+		String timestamp = getTimestamp(doc);
+		Entry entry = null;
+		if (cached != null && timestamp.length() > 0 && timestamp.equals(cached.timestamp)) {
+			// the page was sent again, but has not changed
+			entry = new Entry(url, cached.doc, timestamp, fetched.eTag, fetched.lastModified, now);
+		} else {
+			entry = new Entry(url, doc, timestamp, fetched.eTag, fetched.lastModified, now);
+		}
+		this.writeToDisk(entry, fetched.html);
+		return entry;
+	}
+
+	private boolean isFresh(Entry entry) {
+		return System.currentTimeMillis() - entry.fetchedWhen < maxAgeMillis;
+	}
+
+	private Document parse(String url, String html) {
+		Document doc = Jsoup.parse(html, url);
+		if (cleaner != null) {
+			cleaner.accept(doc);
+		}
+		return doc;
+	}
+
+	private Entry readFromDisk(String url) {
+		try {
+			Path htmlFile = this.getHtmlFile(url);
+			Path propertiesFile = this.getPropertiesFile(url);
+			if (Files.exists(htmlFile) && Files.exists(propertiesFile)) {
+				Properties props = new Properties();
+				try (Reader reader = Files.newBufferedReader(propertiesFile, StandardCharsets.UTF_8)) {
+					props.load(reader);
+				}
+				if (url.equals(props.getProperty("url"))) {
+					String html = new String(Files.readAllBytes(htmlFile), StandardCharsets.UTF_8);
+					// mark it as recently used, for enforceDiskQuota
+					Files.setLastModifiedTime(propertiesFile, FileTime.fromMillis(System.currentTimeMillis()));
+					return new Entry(
+							url
+							, this.parse(url, html)
+							, props.getProperty("timestamp", "")
+							, props.getProperty("etag")
+							, props.getProperty("lastModified")
+							, Long.parseLong(props.getProperty("fetchedWhen", "0"))
+							);
+				}
+			}
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+		}
+		return null;
+	}
+
+	private void writeToDisk(Entry entry, String html) {
+		try {
+			Path htmlFile = this.getHtmlFile(entry.url);
+			Path temp = Files.createTempFile(directory, "page", ".tmp");
+			Files.write(temp, html.getBytes(StandardCharsets.UTF_8));
+			Files.move(temp, htmlFile, StandardCopyOption.REPLACE_EXISTING);
+			this.writeProperties(entry);
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+		}
+		this.enforceDiskQuota();
+	}
+
+	/**
+	 * Delete the least recently used pages until the files on disk
+	 * take no more than maxDiskBytes.
+	 */
+	synchronized void enforceDiskQuota() {
+		File[] files = directory.toFile().listFiles(
+				(dir, name) -> name.endsWith(".html") || name.endsWith(".properties")
+				);
+		if (files == null) {
+			return;
+		}
+		Map<String, List<File>> pages = new TreeMap<String, List<File>>();
+		Map<String, Long> lastUsed = new TreeMap<String, Long>();
+		long total = 0;
+		for (File file : files) {
+			String name = file.getName().substring(0, file.getName().lastIndexOf('.'));
+			pages.computeIfAbsent(name, k -> new ArrayList<File>()).add(file);
+			lastUsed.merge(name, file.lastModified(), Math::max);
+			total += file.length();
+		}
+		if (total <= maxDiskBytes) {
+			return;
+		}
+		List<String> oldestFirst = new ArrayList<String>(pages.keySet());
+		Collections.sort(oldestFirst, (a, b) -> Long.compare(lastUsed.get(a), lastUsed.get(b)));
+		for (String name : oldestFirst) {
+			if (total <= maxDiskBytes) {
+				break;
+			}
+			for (File file : pages.get(name)) {
+				long length = file.length();
+				if (file.delete()) {
+					total -= length;
+				}
+			}
+			diskEvictions.incrementAndGet();
+		}
+	}
+
+	private void writeProperties(Entry entry) {
+		try {
+			Properties props = new Properties();
+			props.setProperty("url", entry.url);
+			props.setProperty("timestamp", entry.timestamp);
+			props.setProperty("fetchedWhen", String.valueOf(entry.fetchedWhen));
+			if (entry.eTag != null) {
+				props.setProperty("etag", entry.eTag);
+			}
+			if (entry.lastModified != null) {
+				props.setProperty("lastModified", entry.lastModified);
+			}
+			Path temp = Files.createTempFile(directory, "page", ".tmp");
+			try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+				props.store(writer, null);
+			}
+			Files.move(temp, this.getPropertiesFile(entry.url), StandardCopyOption.REPLACE_EXISTING);
+		} catch (Exception e) {
+			ErrorUtils.report(logger, e);
+		}
+	}
+
+	private Path getHtmlFile(String url) throws Exception {
+		return directory.resolve(toFilename(url) + ".html");
+	}
+
+	private Path getPropertiesFile(String url) throws Exception {
+		return directory.resolve(toFilename(url) + ".properties");
+	}
+
+	public JsonObject toJsonObject() {
+		JsonObject result = new JsonObject();
+		synchronized (memory) {
+			result.addProperty("size", memory.size());
+		}
+		result.addProperty("memoryHits", memoryHits.get());
+		result.addProperty("diskHits", diskHits.get());
+		result.addProperty("downloads", downloads.get());
+		result.addProperty("notModified", notModified.get());
+		result.addProperty("staleServed", staleServed.get());
+		result.addProperty("diskEvictions", diskEvictions.get());
+		result.addProperty("maxDiskBytes", maxDiskBytes);
+		return result;
+	}
+
+	/**
+	 * @param doc
+	 * @return the data-timestamp of the title of an AGES page, or an empty string
+	 */
+	public static String getTimestamp(Document doc) {
+		return doc.select("title").attr("data-timestamp");
+	}
+
+	private static String toFilename(String url) throws Exception {
+		byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder();
+		for (byte b : digest) {
+			sb.append(String.format("%02x", b));
+		}
+		return sb.toString();
+	}
+
+	private static FetchResult download(String url, String eTag, String lastModified) throws IOException {
+		Connection c = Jsoup.connect(url)
+				.timeout(TIMEOUT_MILLIS)
+				.userAgent(USER_AGENT)
+				.maxBodySize(0)
+				.ignoreHttpErrors(true);
+		if (eTag != null) {
+			c.header("If-None-Match", eTag);
+		}
+		if (lastModified != null) {
+			c.header("If-Modified-Since", lastModified);
+		}
+		Connection.Response response = c.execute();
+		if (response.statusCode() == 304) {
+			return new FetchResult(true, null, eTag, lastModified);
+		} else if (response.statusCode() >= 400) {
+			throw new IOException("HTTP " + response.statusCode() + " " + response.statusMessage() + " for " + url);
+		}
+		return new FetchResult(
+				false
+				, response.body()
+				, response.header("ETag")
+				, response.header("Last-Modified")
+				);
+	}
+}
@@ -3,8 +3,11 @@ package net.ages.alwb.utils.transformers.adapters;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
-import org.jsoup.Connection;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -50,6 +53,8 @@ public class AgesHtmlToLDOM {
 	private String readingMonth = "";
 	
 	private ExternalDbManager dbManager = null;
+	private Set<String> prefetchedIds = new TreeSet<String>();
+	private Map<String,String> prefetchedValues = new TreeMap<String,String>();
 	
 	public AgesHtmlToLDOM(
 			String url
@@ -272,8 +277,54 @@ public class AgesHtmlToLDOM {
 	}
 	
 
+	/**
+	 * Reads from the database, using a single query, the values that
+	 * addMissingValues might need, so that getValue does not have to
+	 * query the database once for each span.
+	 * @param valueSpans
+	 * @param ldom
+	 */
+	private void prefetchValues(Elements valueSpans, LDOM ldom) {
+		Set<String> ids = new TreeSet<String>();
+        for (Element valueSpan : valueSpans) {
+        	String dataKey = valueSpan.attr("data-key");
+        	if (valueSpan.attr("data-original").length() < 5 || dataKey.length() < 5) {
+        		continue;
+        	}
+        	String tdClass = this.getClassOfTd(valueSpan);
+        	String domain = "";
+        	if (tdClass.equals("leftCell")) {
+        		domain = this.leftLibrary;
+        	} else if (tdClass.equals("centerCell")) {
+        		domain = this.centerLibrary;
+        	} else if (tdClass.equals("rightCell")) {
+        		domain = this.rightLibrary;
+        	}
+        	if (domain == null || domain.length() == 0) {
+        		continue;
+        	}
+        	IdManager idManager = new IdManager(dataKey);
+        	idManager.setLibrary(domain);
+        	if (idManager.getKey().equals("version.designation")) {
+        		continue;
+        	}
+        	String value = ldom.values.get(idManager.getId());
+        	if (idManager.getTopic().equals("calendar") 
+        			|| idManager.getTopic().equals("template.titles")
+        			|| value == null 
+        			|| value.length() == 0
+        			) {
+        		ids.add(idManager.getId());
+        	}
+        }
+        Map<String,String> values = dbManager.setValues(new ArrayList<String>(ids));
+        this.prefetchedIds = ids;
+        this.prefetchedValues = values;
+	}
+
 	public LDOM addMissingValues(Elements valueSpans, LDOM ldom) throws Exception {
 		try {
+			this.prefetchValues(valueSpans, ldom);
 	        for (Element valueSpan : valueSpans) {
 	        	String tdClass = this.getClassOfTd(valueSpan);
 	        	String dataKey = valueSpan.attr("data-original");
@@ -470,6 +521,26 @@ public class AgesHtmlToLDOM {
 	}
 	
 	
+	/**
+	 * The cleaning of a page that does not depend on the libraries requested,
+	 * so it can be done once when the page is cached.
+	 * @param doc
+	 */
+	public static void preClean(Document doc) {
+		// remove rows that contain a media-group
+		doc.select("tr:has(div.media-group)").remove();
+		doc.select("tr:has(div.media-group-empty)").remove();
+		Element content = doc.select("div.content").first();
+		if (content != null) {
+			// Fr. Seraphim added tags before the table that need to be removed.
+			Elements theTable = content.select("#biTable");
+			content.children().remove();
+			for (Element child : theTable) {
+				content.appendChild(child);
+			}
+		}
+	}
+
 	/**
 	 * The processing steps are:
 	 * 
@@ -491,7 +562,6 @@ public class AgesHtmlToLDOM {
 		LDOM result = null;
 		Document doc = null;
 		Element content = null;
-		Connection c = null;
 		try {
 			/**
 			 * Major Step: Load the content of the web page 
@@ -500,12 +570,15 @@ public class AgesHtmlToLDOM {
 			if (url.contains("resources/theophany")) {
 				File in = new File(url);
 				doc = Jsoup.parse(in, "UTF-8", "http://example.com/");
+				preClean(doc);
+			} else if (dbManager != null && dbManager.getAgesHtmlCache() != null) {
+				doc = dbManager.getAgesHtmlCache().get(url); // already cleaned
 			} else {
-				c = Jsoup.connect(url);
-				doc = c
-						.timeout(60*1000)
-						.userAgent("Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/605.1.15 (KHTML, like Gecko) Version/14.1.2 Safari/605.1.15")
+				doc = Jsoup.connect(url)
+						.timeout(AgesHtmlCache.TIMEOUT_MILLIS)
+						.userAgent(AgesHtmlCache.USER_AGENT)
 						.maxBodySize(0).get();
+				preClean(doc);
 			}
 			AlwbUrl urlUtils = new AlwbUrl(url);
 			this.timestamp = doc.select("title").attr("data-timestamp");
@@ -535,16 +608,7 @@ public class AgesHtmlToLDOM {
 			
 			result.setPdfFilename(urlUtils.getFileName(), this.languageCodes);
 					
-			// remove rows that contain a media-group
-			doc.select("tr:has(div.media-group)").remove();
-			doc.select("tr:has(div.media-group-empty)").remove();
 			content = doc.select("div.content").first();
-			// Fr. Seraphim added tags before the table that need to be removed.
-			Elements theTable = content.select("#biTable");
-			content.children().remove();
-			for (Element child : theTable) {
-				content.appendChild(child);
-			}
 
 			Elements boldredSpans = content.select("span.boldred");
 			this.setLectionaryDates(boldredSpans);
@@ -645,6 +709,10 @@ public class AgesHtmlToLDOM {
 
 	private String getValue(String id) {
 		String result = "";
+		if (this.prefetchedIds.contains(id)) {
+			result = this.prefetchedValues.get(id);
+			return result == null ? "" : result;
+		}
 		ResultJsonObjectArray dbValue = dbManager.getForId(id, "Root");
 		if (dbValue.valueCount == 1) {
 			JsonObject o = dbValue.getFirstObject();
@@ -654,6 +722,13 @@ public class AgesHtmlToLDOM {
 		}
 		return result;
 	}
+	/**
+	 * @return the data-timestamp of the AGES page, once toLDOM has been called
+	 */
+	public String getTimestamp() {
+		return this.timestamp;
+	}
+
 	/**
 	 * Because Java uses pass by reference for parameters,
 	 * the content parameter is actually a pointer.
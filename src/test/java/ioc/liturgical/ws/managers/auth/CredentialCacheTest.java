@@ -0,0 +1,30 @@
+package ioc.liturgical.ws.managers.auth;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class CredentialCacheTest {
+
+	@Test
+	public void testVerifiedCredentialsAreReused() {
+		CredentialCache cache = new CredentialCache(10, 10);
+		cache.putVerified("mac", "secret", cache.getGeneration("mac"));
+		assertTrue(cache.isVerified("mac", "secret"));
+		assertFalse(cache.isVerified("mac", "other"));
+		assertFalse(cache.isVerified("other", "secret"));
+		cache.invalidateUser("mac");
+		assertFalse(cache.isVerified("mac", "secret"));
+	}
+
+	@Test
+	public void testLoginThatReadTheOldHashIsNotCached() {
+		CredentialCache cache = new CredentialCache(10, 10);
+		long generation = cache.getGeneration("mac"); // the login reads the old hash
+		cache.invalidateUser("mac"); // the password changes
+		cache.putVerified("mac", "old", generation); // the login's check of the old hash finishes
+		assertFalse(cache.isVerified("mac", "old"));
+		cache.putVerified("mac", "new", cache.getGeneration("mac"));
+		assertTrue(cache.isVerified("mac", "new"));
+	}
+}
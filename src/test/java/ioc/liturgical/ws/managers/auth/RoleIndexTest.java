@@ -0,0 +1,78 @@
+package ioc.liturgical.ws.managers.auth;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.ocmc.ioc.liturgical.schemas.constants.ROLES;
+
+import com.google.gson.JsonObject;
+
+public class RoleIndexTest {
+
+	private JsonObject record(ROLES role, String domain, String username) {
+		JsonObject json = new JsonObject();
+		json.addProperty("_id", role.keyname + "~" + domain + "~" + username);
+		json.addProperty("library", role.keyname);
+		json.addProperty("topic", domain);
+		json.addProperty("key", username);
+		return json;
+	}
+
+	@Test
+	public void testLoadAndLookup() {
+		List<JsonObject> records = new ArrayList<JsonObject>();
+		records.add(record(ROLES.ADMIN, "gr_gr_cog", "mcolburn"));
+		records.add(record(ROLES.AUTHOR, "en_us_dedes", "mcolburn"));
+		records.add(record(ROLES.READER, "en_us_dedes", "jdoe"));
+		RoleIndex index = new RoleIndex();
+		index.load(records);
+		assertTrue(index.hasRole(ROLES.ADMIN, "gr_gr_cog", "mcolburn"));
+		assertFalse(index.hasRole(ROLES.ADMIN, "en_us_dedes", "mcolburn"));
+		assertTrue(index.hasRoleForAnyDomain(ROLES.READER, "jdoe"));
+		assertFalse(index.hasRoleForAnyDomain(ROLES.AUTHOR, "jdoe"));
+		assertEquals(1, index.getRecords(ROLES.AUTHOR, "mcolburn").size());
+		assertTrue(index.getUsers(ROLES.READER, "en_us_dedes").contains("jdoe"));
+	}
+
+	@Test
+	public void testPutAndRemove() {
+		RoleIndex index = new RoleIndex();
+		JsonObject grant = record(ROLES.AUTHOR, "gr_gr_cog", "jdoe");
+		index.put(grant);
+		assertTrue(index.hasRole(ROLES.AUTHOR, "gr_gr_cog", "jdoe"));
+		index.remove(grant);
+		assertFalse(index.hasRole(ROLES.AUTHOR, "gr_gr_cog", "jdoe"));
+		index.put(grant);
+		index.removeUser("jdoe");
+		assertFalse(index.hasRoleForAnyDomain(ROLES.AUTHOR, "jdoe"));
+	}
+
+	@Test
+	public void testUpdateReplacesRecordAndRecordsAreCopies() {
+		RoleIndex index = new RoleIndex();
+		index.put(record(ROLES.AUTHOR, "gr_gr_cog", "jdoe"));
+		JsonObject updated = record(ROLES.AUTHOR, "gr_gr_cog", "jdoe");
+		updated.addProperty("value", "edited");
+		index.put(updated);
+		List<JsonObject> records = index.getRecords(ROLES.AUTHOR, "jdoe");
+		assertEquals(1, records.size());
+		assertEquals("edited", records.get(0).get("value").getAsString());
+		records.get(0).addProperty("value", "changed by the caller");
+		assertEquals("edited", index.getRecords(ROLES.AUTHOR, "jdoe").get(0).get("value").getAsString());
+	}
+
+	@Test
+	public void testIgnoresNonRoleRecords() {
+		RoleIndex index = new RoleIndex();
+		JsonObject json = new JsonObject();
+		json.addProperty("library", "misc");
+		json.addProperty("topic", "domains");
+		json.addProperty("key", "gr_gr_cog");
+		assertFalse(index.isRoleRecord(json));
+		index.put(json);
+		assertTrue(index.getUsers(ROLES.ADMIN, "domains").isEmpty());
+	}
+}
@@ -0,0 +1,127 @@
+package ioc.liturgical.ws.managers.databases.external.lucene;
+
+import static org.junit.Assert.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.store.RAMDirectory;
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class TextIndexTest {
+
+	private JsonObject doc(String id, String library, String value, String... labels) {
+		JsonObject doc = new JsonObject();
+		doc.addProperty("id", id);
+		doc.addProperty("library", library);
+		doc.addProperty("topic", "me.m01.d01");
+		doc.addProperty("visibility", "PUBLIC");
+		doc.addProperty("value", value);
+		JsonArray array = new JsonArray();
+		for (String label : labels) {
+			array.add(label);
+		}
+		doc.add("labels", array);
+		return doc;
+	}
+
+	private TextIndex index() throws Exception {
+		TextIndex index = new TextIndex(new RAMDirectory());
+		index.index(doc("gr_gr_cog~me.m01.d01~meVE.Kathisma11.text", "gr_gr_cog", "Ὁ Λόγος σὰρξ ἐγένετο", "Root", "Liturgical", "gr_gr_cog"));
+		index.index(doc("en_us_dedes~me.m01.d01~meVE.Kathisma11.text", "en_us_dedes", "The Word became flesh", "Root", "Liturgical", "en_us_dedes"));
+		index.index(doc("en_us_dedes~me.m01.d01~meVE.Kathisma12.text", "en_us_dedes", "Let us praise the Lord", "Root", "Liturgical", "en_us_dedes"));
+		index.finishRebuild();
+		return index;
+	}
+
+	@Test
+	public void testNormalize() {
+		assertEquals("ο λογοσ σαρξ εγενετο", TextIndex.normalize(TextIndex.FOLDED, "Ὁ Λόγος σὰρξ ἐγένετο"));
+		assertEquals("ὁ λόγοσ", TextIndex.normalize(TextIndex.TEXT, "Ὁ ΛΌΓΟΣ"));
+		assertEquals("the word", TextIndex.normalize(TextIndex.TEXT, "The Word"));
+	}
+
+	@Test
+	public void testToLabels() {
+		assertEquals(
+				Arrays.asList("Liturgical", "gr_gr_cog", "me", "m01")
+				, TextIndex.toLabels("Liturgical", "gr_gr_cog", "me.m01", "*")
+				);
+	}
+
+	@Test
+	public void testContainsPartialWords() throws Exception {
+		TextIndex index = index();
+		List<String> ids = index.getIds(TextIndex.toLabels("Liturgical", "*"), "value", "c", "ord beca");
+		assertEquals(Arrays.asList("en_us_dedes~me.m01.d01~meVE.Kathisma11.text"), ids);
+		index.close();
+	}
+
+	@Test
+	public void testAccentInsensitive() throws Exception {
+		TextIndex index = index();
+		List<String> ids = index.getIds(TextIndex.toLabels("Liturgical", "gr_gr_cog"), "nnp", "c", "λογος σαρ");
+		assertEquals(Arrays.asList("gr_gr_cog~me.m01.d01~meVE.Kathisma11.text"), ids);
+		index.close();
+	}
+
+	@Test
+	public void testFinalSigma() throws Exception {
+		TextIndex index = index();
+		List<String> expected = Arrays.asList("gr_gr_cog~me.m01.d01~meVE.Kathisma11.text");
+		assertEquals(expected, index.getIds(TextIndex.toLabels("Liturgical"), "nnp", "c", "λογος"));
+		assertEquals(expected, index.getIds(TextIndex.toLabels("Liturgical"), "nnp", "c", "λογοσ"));
+		assertEquals(expected, index.getIds(TextIndex.toLabels("Liturgical"), "value", "c", "Λόγοσ σὰρξ"));
+		index.close();
+	}
+
+	@Test
+	public void testIndexedUntilIsSavedWithTheCommit() throws Exception {
+		Path path = Files.createTempDirectory("textindex");
+		TextIndex index = new TextIndex(path);
+		assertNull(index.getIndexedUntil());
+		index.index(doc("en_us_dedes~me.m01.d01~meVE.Kathisma12.text", "en_us_dedes", "Let us praise the Lord", "Root", "Liturgical", "en_us_dedes"));
+		index.setIndexedUntil("2018-01-01T00:00:00Z");
+		index.commit();
+		index.close();
+		index.close(); // a second close does nothing
+		TextIndex reopened = new TextIndex(path);
+		assertEquals("2018-01-01T00:00:00Z", reopened.getIndexedUntil());
+		assertEquals(1, reopened.count("Liturgical"));
+		assertEquals(0, reopened.count("Biblical"));
+		reopened.close();
+	}
+
+	@Test
+	public void testLabelFilter() throws Exception {
+		TextIndex index = index();
+		assertTrue(index.getIds(TextIndex.toLabels("Liturgical", "gr_gr_cog"), "value", "c", "Lord").isEmpty());
+		index.close();
+	}
+
+	@Test
+	public void testNotUsable() throws Exception {
+		TextIndex index = index();
+		assertNull(index.getIds(TextIndex.toLabels("Liturgical"), "value", "rx", "Lo.*"));
+		assertNull(index.getIds(TextIndex.toLabels("Liturgical"), "id", "c", "Kathisma"));
+		assertNull(index.getIds(TextIndex.toLabels("NoteUser"), "value", "c", "Lord"));
+		index.close();
+	}
+
+	@Test
+	public void testUpdateAndDelete() throws Exception {
+		TextIndex index = index();
+		index.index(doc("en_us_dedes~me.m01.d01~meVE.Kathisma12.text", "en_us_dedes", "Let us bless the Lord", "Root", "Liturgical", "en_us_dedes"));
+		index.delete("en_us_dedes~me.m01.d01~meVE.Kathisma11.text");
+		index.commit();
+		assertTrue(index.getIds(TextIndex.toLabels("Liturgical"), "value", "c", "praise").isEmpty());
+		assertEquals(1, index.getIds(TextIndex.toLabels("Liturgical"), "value", "c", "bless").size());
+		assertTrue(index.getIds(TextIndex.toLabels("Liturgical"), "value", "c", "flesh").isEmpty());
+		index.close();
+	}
+}
@@ -0,0 +1,35 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.cypher;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class CypherParametersTest {
+
+	@Test
+	public void testMapLiteral() {
+		Map<String, Object> props = new TreeMap<String, Object>();
+		props.put("id", "en_us_dedes~calendar~y2018.m01.d01");
+		props.put("seq", 1);
+		props.put("value", "Circumcision of Our Lord; St. Basil's day");
+		List<Object> batch = new ArrayList<Object>();
+		batch.add(props);
+		assertEquals(
+				"[{`id`: 'en_us_dedes~calendar~y2018.m01.d01', `seq`: 1, `value`: 'Circumcision of Our Lord; St. Basil\\'s day'}]"
+				, CypherParameters.toLiteral(batch)
+				);
+	}
+
+	@Test
+	public void testInline() {
+		CypherParameters parameters = new CypherParameters();
+		String template = "match (n) where n.id in " + parameters.add("ids", Arrays.asList("a", "b")) + " return n";
+		assertEquals("match (n) where n.id in ['a', 'b'] return n", parameters.inline(template));
+	}
+}
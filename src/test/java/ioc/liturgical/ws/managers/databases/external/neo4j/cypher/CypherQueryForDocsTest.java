@@ -0,0 +1,59 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.cypher;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CypherQueryForDocsTest {
+
+	private CypherQueryForDocs query(String startsWith, String tags) {
+		return new CypherQueryBuilderForDocs(true, true)
+				.MATCH()
+				.LABEL("Liturgical")
+				.WHERE("id")
+				.STARTS_WITH(startsWith)
+				.TAGS(tags)
+				.REQUESTOR_DOMAINS("[\"gr_gr_cog\",\"en_us_dedes\"]")
+				.RETURN("id, value")
+				.build();
+	}
+
+	@Test
+	public void testTemplateIsTheSameForDifferentValues() {
+		CypherQueryForDocs a = query("gr_gr_cog~me.m01.d01", "a, b");
+		CypherQueryForDocs b = query("en_us_dedes~me.m02.d02", "c");
+		assertEquals(a.getQueryTemplate(), b.getQueryTemplate());
+		assertFalse(a.getQueryTemplate().contains("gr_gr_cog"));
+		assertTrue(a.getQueryTemplate().contains("STARTS WITH {startsWith}"));
+	}
+
+	@Test
+	public void testParameters() {
+		Map<String, Object> parameters = query("gr_gr_cog~me.m01.d01", "a, b").getParameters();
+		assertEquals("gr_gr_cog~me.m01.d01", parameters.get("startsWith"));
+		assertEquals(Arrays.asList("a", "b"), parameters.get("tags"));
+		assertEquals(Arrays.asList("gr_gr_cog", "en_us_dedes"), parameters.get("requestorDomains"));
+	}
+
+	@Test
+	public void testToStringEscapesQuotes() {
+		String q = query("en_us_dedes~O'Brien", "").toString();
+		assertTrue(q.contains("STARTS WITH 'en_us_dedes~O\\'Brien'"));
+	}
+
+	@Test
+	public void testRangeHasOneWhere() {
+		String q = new CypherQueryBuilderForDocs()
+				.MATCH()
+				.WHERE("seq")
+				.GREATER_THAN_OR_EQUAL("a")
+				.LESS_THAN("b")
+				.build()
+				.getQueryTemplate();
+		assertTrue(q.contains("WHERE doc.seq >= {greaterThanOrEqual} AND doc.seq < {lessThan}"));
+	}
+
+}
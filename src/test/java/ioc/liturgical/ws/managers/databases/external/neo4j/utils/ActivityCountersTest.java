@@ -0,0 +1,81 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ActivityCountersTest {
+	private static final String ATHENS = "GR|Greece|I|Attica|Athens";
+	private static final String BOSTON = "US|United States|MA|Massachusetts|Boston";
+
+	@Test
+	public void testConcurrentCountsAreExact() throws Exception {
+		List<ActivityCounters.Delta> deltas = new ArrayList<ActivityCounters.Delta>();
+		ActivityCounters counters = new ActivityCounters(deltas::add, 3600);
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		for (int i = 0; i < 1000; i++) {
+			final int n = i;
+			executor.execute(() -> {
+				counters.record(ActivityCounters.TYPE.SEARCH, n % 2 == 0 ? ATHENS : BOSTON);
+				if (n % 10 == 0) {
+					counters.record(ActivityCounters.TYPE.LOGIN, ATHENS);
+				}
+			});
+		}
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		counters.flush();
+		assertEquals(1, deltas.size());
+		ActivityCounters.Delta delta = deltas.get(0);
+		assertEquals(1000, delta.searches);
+		assertEquals(100, delta.logins);
+		assertEquals(600, delta.locations.get(ATHENS).longValue());
+		assertEquals(500, delta.locations.get(BOSTON).longValue());
+		assertNotNull(delta.lastSearched);
+		counters.shutdown();
+	}
+
+	@Test
+	public void testFlushPassesOnlyWhatIsNew() {
+		List<ActivityCounters.Delta> deltas = new ArrayList<ActivityCounters.Delta>();
+		ActivityCounters counters = new ActivityCounters(deltas::add, 3600);
+		counters.record(ActivityCounters.TYPE.SEARCH, ATHENS);
+		counters.flush();
+		counters.flush(); // nothing new, so the writer is not called
+		counters.record(ActivityCounters.TYPE.LOGIN, BOSTON);
+		counters.flush();
+		assertEquals(2, deltas.size());
+		assertEquals(0, deltas.get(1).searches);
+		assertEquals(1, deltas.get(1).logins);
+		assertFalse(deltas.get(1).locations.containsKey(ATHENS));
+		counters.shutdown();
+	}
+
+	@Test
+	public void testDeltaIsKeptWhenTheWriterThrows() {
+		List<ActivityCounters.Delta> deltas = new ArrayList<ActivityCounters.Delta>();
+		ActivityCounters counters = new ActivityCounters(delta -> {
+			deltas.add(delta);
+			if (deltas.size() == 1) {
+				throw new IllegalStateException("expected by the test");
+			}
+		}, 3600);
+		counters.record(ActivityCounters.TYPE.SEARCH, ATHENS);
+		counters.flush();
+		counters.record(ActivityCounters.TYPE.SEARCH, ATHENS);
+		counters.record(ActivityCounters.TYPE.LOGIN, BOSTON);
+		counters.flush();
+		assertEquals(2, deltas.size());
+		assertEquals(2, deltas.get(1).searches);
+		assertEquals(1, deltas.get(1).logins);
+		assertEquals(2, deltas.get(1).locations.get(ATHENS).longValue());
+		assertEquals(1, counters.toJsonObject().get("failedFlushes").getAsLong());
+		counters.shutdown();
+	}
+}
@@ -0,0 +1,34 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class ConstraintRegistryTest {
+
+	@Test
+	public void testIdConstraint() {
+		String description = "CONSTRAINT ON ( textliturgical:TextLiturgical ) ASSERT textliturgical.id IS UNIQUE";
+		assertEquals("TextLiturgical", ConstraintRegistry.getConstraintLabel(description));
+		assertTrue(ConstraintRegistry.isIdConstraint(description));
+	}
+
+	@Test
+	public void testOtherPropertyConstraint() {
+		String description = "CONSTRAINT ON ( user:User ) ASSERT user.email IS UNIQUE";
+		assertEquals("User", ConstraintRegistry.getConstraintLabel(description));
+		assertFalse(ConstraintRegistry.isIdConstraint(description));
+	}
+
+	@Test
+	public void testUnrecognized() {
+		assertNull(ConstraintRegistry.getConstraintLabel("INDEX ON :Root(id)"));
+		assertFalse(ConstraintRegistry.isIdConstraint("INDEX ON :Root(id)"));
+	}
+
+	@Test
+	public void testNotLoaded() {
+		ConstraintRegistry registry = new ConstraintRegistry();
+		assertFalse(registry.hasIdConstraint("Root"));
+	}
+}
@@ -0,0 +1,65 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+public class LexiconCacheTest {
+
+	private static JsonArray analyses(String lemma) {
+		JsonArray array = new JsonArray();
+		JsonObject o = new JsonObject();
+		o.addProperty("lemmaGreek", lemma);
+		array.add(o);
+		return array;
+	}
+
+	@Test
+	public void testHitsAndMisses() {
+		LexiconCache cache = new LexiconCache(10, 60);
+		assertNull(cache.getIfPresent("λόγος"));
+		cache.put("λόγος", analyses("λόγος"));
+		assertEquals("λόγος", cache.getIfPresent("Λόγος").get(0).getAsJsonObject().get("lemmaGreek").getAsString());
+		JsonObject stats = cache.toJsonObject();
+		assertEquals(1, stats.get("hits").getAsLong());
+		assertEquals(1, stats.get("misses").getAsLong());
+	}
+
+	@Test
+	public void testEmptyAnalysesAreCached() {
+		LexiconCache cache = new LexiconCache(10, 60);
+		cache.put("xyz", new JsonArray());
+		assertNotNull(cache.getIfPresent("xyz"));
+		assertEquals(0, cache.getIfPresent("xyz").size());
+	}
+
+	@Test
+	public void testInvalidate() {
+		LexiconCache cache = new LexiconCache(10, 60);
+		cache.put("λόγος", analyses("λόγος"));
+		cache.invalidate("ΛΌΓΟΣ");
+		assertNull(cache.getIfPresent("λόγος"));
+	}
+
+	@Test
+	public void testCopiesAreIndependent() {
+		LexiconCache cache = new LexiconCache(10, 60);
+		cache.put("λόγος", analyses("λόγος"));
+		cache.getIfPresent("λόγος").add(new JsonObject());
+		assertEquals(1, cache.getIfPresent("λόγος").size());
+	}
+
+	@Test
+	public void testAnalysesReadBeforeAnInvalidationAreNotCached() {
+		LexiconCache cache = new LexiconCache(10, 60);
+		long generation = cache.getGeneration();
+		cache.invalidate("λόγος");
+		cache.put("λόγος", analyses("λόγος"), generation);
+		assertNull(cache.getIfPresent("λόγος"));
+		cache.put("λόγος", analyses("λόγος"), cache.getGeneration());
+		assertNotNull(cache.getIfPresent("λόγος"));
+	}
+}
@@ -0,0 +1,135 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares the gson round trip that was used to convert query results
+ * with Neo4jValueConverter.
+ * 
+ * Run it using the main method.  It does not need a database.
+ * 
+ * @author mac002
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Neo4jValueConverterBenchmark {
+	private Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+	private JsonParser parser = new JsonParser();
+	private List<Record> docRecords = new ArrayList<Record>();
+	private List<Record> columnRecords = new ArrayList<Record>();
+
+	@Setup
+	public void setup() {
+		for (int i = 0; i < 1000; i++) {
+			String id = "gr_gr_cog~me.m01.d01~meVE.Ode1C1H1." + i;
+			Map<String, Object> props = new TreeMap<String, Object>();
+			props.put("id", id);
+			props.put("library", "gr_gr_cog");
+			props.put("topic", "me.m01.d01");
+			props.put("key", "meVE.Ode1C1H1." + i);
+			props.put("value", "Τὸν τῆς εὐσεβείας πρόβολον, καὶ τῆς Ἐκκλησίας φωστῆρα " + i);
+			props.put("seq", "gr_gr_cog~me.m01.d01~" + i);
+			props.put("visibility", "PUBLIC");
+			props.put("status", "FINALIZED");
+			props.put("_valueSchemaId", "TextLiturgical:1.1");
+			props.put("tags", Arrays.asList("a", "b"));
+			docRecords.add(
+					new InternalRecord(
+							Arrays.asList("properties(doc)")
+							, new Value[] {Values.value(props)}
+							)
+					);
+			columnRecords.add(
+					new InternalRecord(
+							Arrays.asList("id", "value", "seq", "count")
+							, new Value[] {
+									Values.value(id)
+									, Values.value(props.get("value"))
+									, Values.value(props.get("seq"))
+									, Values.value(i)
+							}
+							)
+					);
+		}
+	}
+
+	private JsonObject roundTrip(Record record) {
+		JsonObject o = parser.parse(gson.toJson(record.asMap())).getAsJsonObject();
+		if (o.has("properties(link)")) {
+			o = parser.parse(gson.toJson(record.get("properties(link)").asMap())).getAsJsonObject();
+		} else if (o.has("properties(doc)")) {
+			o = parser.parse(gson.toJson(record.get("properties(doc)").asMap())).getAsJsonObject();
+		}
+		return o;
+	}
+
+	@Benchmark
+	public void gsonRoundTripProperties(Blackhole bh) {
+		for (Record record : docRecords) {
+			bh.consume(roundTrip(record));
+		}
+	}
+
+	@Benchmark
+	public void converterProperties(Blackhole bh) {
+		for (Record record : docRecords) {
+			bh.consume(Neo4jValueConverter.toResultObject(record));
+		}
+	}
+
+	@Benchmark
+	public void gsonRoundTripColumns(Blackhole bh) {
+		for (Record record : columnRecords) {
+			bh.consume(roundTrip(record));
+		}
+	}
+
+	@Benchmark
+	public void converterColumns(Blackhole bh) {
+		for (Record record : columnRecords) {
+			bh.consume(Neo4jValueConverter.toResultObject(record));
+		}
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		Options options = new OptionsBuilder()
+				.include(Neo4jValueConverterBenchmark.class.getSimpleName())
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,64 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.neo4j.driver.internal.InternalNode;
+import org.neo4j.driver.internal.InternalRecord;
+import org.neo4j.driver.internal.value.NodeValue;
+import org.neo4j.driver.v1.Record;
+import org.neo4j.driver.v1.Value;
+import org.neo4j.driver.v1.Values;
+
+import com.google.gson.JsonObject;
+
+public class Neo4jValueConverterTest {
+
+	private Map<String, Object> props() {
+		Map<String, Object> props = new TreeMap<String, Object>();
+		props.put("id", "gr_gr_cog~me.m01.d01~meVE.Ode1C1H1");
+		props.put("seq", 12);
+		props.put("tags", Arrays.asList("a", "b"));
+		props.put("missing", null);
+		return props;
+	}
+
+	@Test
+	public void testPropertiesOfDoc() {
+		Record record = new InternalRecord(
+				Arrays.asList("properties(doc)")
+				, new Value[] {Values.value(props())}
+				);
+		JsonObject o = Neo4jValueConverter.toResultObject(record);
+		assertEquals("gr_gr_cog~me.m01.d01~meVE.Ode1C1H1", o.get("id").getAsString());
+		assertEquals(12, o.get("seq").getAsLong());
+		assertEquals(2, o.get("tags").getAsJsonArray().size());
+		assertFalse(o.has("missing"));
+	}
+
+	@Test
+	public void testColumnsAndNodes() {
+		Map<String, Value> nodeProps = new TreeMap<String, Value>();
+		nodeProps.put("id", Values.value("en_us_dedes~me.m01.d01~key"));
+		Record record = new InternalRecord(
+				Arrays.asList("doc.id", "doc", "nothing")
+				, new Value[] {
+						Values.value("en_us_dedes~me.m01.d01~key")
+						, new NodeValue(new InternalNode(7, Arrays.asList("Root", "Liturgical"), nodeProps))
+						, Values.NULL
+				}
+				);
+		JsonObject o = Neo4jValueConverter.toResultObject(record);
+		assertEquals("en_us_dedes~me.m01.d01~key", o.get("doc.id").getAsString());
+		JsonObject doc = o.get("doc").getAsJsonObject();
+		assertEquals(7, doc.get("id").getAsLong());
+		assertEquals("Liturgical", doc.get("labels").getAsJsonArray().get(1).getAsString());
+		assertEquals("en_us_dedes~me.m01.d01~key", doc.get("properties").getAsJsonObject().get("id").getAsString());
+		assertFalse(o.has("nothing"));
+	}
+
+}
@@ -0,0 +1,92 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class QueryStatisticsRecorderTest {
+
+	private Map<String, Object> stats(int i) {
+		Map<String, Object> props = new TreeMap<String, Object>();
+		props.put("query", "match (n) return n limit " + i);
+		return props;
+	}
+
+	@Test
+	public void testWritesInBatches() throws Exception {
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+		QueryStatisticsRecorder recorder = new QueryStatisticsRecorder(
+				batch -> batchSizes.add(batch.size())
+				, 100
+				, 10
+				);
+		for (int i = 0; i < 25; i++) {
+			assertTrue(recorder.record(stats(i)));
+		}
+		recorder.shutdown();
+		assertEquals(25, recorder.getWrittenCount());
+		assertEquals(0, recorder.getDroppedCount());
+		for (int size : batchSizes) {
+			assertTrue(size <= 10);
+		}
+	}
+
+	@Test
+	public void testShutdownDoesNotInterruptAWrite() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1);
+		boolean [] interrupted = {false};
+		QueryStatisticsRecorder recorder = new QueryStatisticsRecorder(
+				batch -> {
+					writing.countDown();
+					try {
+						Thread.sleep(200);
+					} catch (InterruptedException e) {
+						interrupted[0] = true;
+					}
+				}
+				, 10
+				, 1
+				);
+		recorder.record(stats(0));
+		recorder.record(stats(1));
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+		recorder.shutdown();
+		assertFalse(interrupted[0]);
+		assertEquals(2, recorder.getWrittenCount());
+	}
+
+	@Test
+	public void testDropsWhenFull() throws Exception {
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		QueryStatisticsRecorder recorder = new QueryStatisticsRecorder(
+				batch -> {
+					writing.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				, 2
+				, 1
+				);
+		recorder.record(stats(0));
+		assertTrue(writing.await(5, TimeUnit.SECONDS)); // the writer is now busy
+		assertTrue(recorder.record(stats(1)));
+		assertTrue(recorder.record(stats(2)));
+		assertFalse(recorder.record(stats(3)));
+		assertEquals(1, recorder.getDroppedCount());
+		release.countDown();
+		recorder.shutdown();
+		assertEquals(3, recorder.getWrittenCount());
+	}
+}
@@ -0,0 +1,82 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import org.ocmc.ioc.liturgical.schemas.models.ws.response.RequestStatus;
+
+public class ResultJsonStreamWriterTest {
+
+	private JsonObject value(int i) {
+		JsonObject o = new JsonObject();
+		o.addProperty("id", "gr_gr_cog~me.m01.d01~key" + i);
+		o.addProperty("_valueSchemaId", "TextLiturgical:1.1");
+		return o;
+	}
+
+	@Test
+	public void testEnvelope() throws Exception {
+		StringWriter out = new StringWriter();
+		int [] lookups = {0};
+		ResultJsonStreamWriter writer = new ResultJsonStreamWriter(out, values -> {
+			lookups[0]++;
+			Map<String, JsonObject> schemas = new TreeMap<String, JsonObject>();
+			schemas.put("TextLiturgical:1.1", new JsonObject());
+			return schemas;
+		});
+		int count = ResultJsonStreamWriter.SCHEMA_BATCH_SIZE + 1;
+		writer.begin("match (doc:Root) return properties(doc)");
+		for (int i = 0; i < count; i++) {
+			writer.accept(value(i));
+		}
+		writer.finish(new RequestStatus());
+
+		JsonObject json = new JsonParser().parse(out.toString()).getAsJsonObject();
+		assertEquals("match (doc:Root) return properties(doc)", json.get("query").getAsString());
+		assertEquals(count, json.get("values").getAsJsonArray().size());
+		assertEquals(count, json.get("valueCount").getAsInt());
+		assertEquals("gr_gr_cog~me.m01.d01~key0", json.get("values").getAsJsonArray().get(0).getAsJsonObject().get("id").getAsString());
+		assertTrue(json.get("valueSchemas").getAsJsonObject().has("TextLiturgical:1.1"));
+		assertTrue(json.has("status"));
+		assertEquals(2, lookups[0]);
+	}
+
+	@Test
+	public void testPreSerializedSchema() throws Exception {
+		StringWriter out = new StringWriter();
+		JsonObject schema = new JsonObject();
+		ResultJsonStreamWriter writer = new ResultJsonStreamWriter(
+				out
+				, values -> {
+					Map<String, JsonObject> schemas = new TreeMap<String, JsonObject>();
+					schemas.put("TextLiturgical:1.1", schema);
+					return schemas;
+				}
+				, (id, s) -> s == schema ? "{\"serialized\":true}" : null
+				);
+		writer.begin("q");
+		writer.accept(value(0));
+		writer.finish(new RequestStatus());
+		JsonObject json = new JsonParser().parse(out.toString()).getAsJsonObject();
+		assertTrue(json.get("valueSchemas").getAsJsonObject().get("TextLiturgical:1.1").getAsJsonObject().get("serialized").getAsBoolean());
+	}
+
+	@Test
+	public void testWithoutSchemas() throws Exception {
+		StringWriter out = new StringWriter();
+		ResultJsonStreamWriter writer = new ResultJsonStreamWriter(out, null);
+		writer.begin("q");
+		writer.finish(new RequestStatus());
+		JsonObject json = new JsonParser().parse(out.toString()).getAsJsonObject();
+		assertEquals(0, json.get("values").getAsJsonArray().size());
+		assertFalse(json.has("valueSchemas"));
+	}
+}
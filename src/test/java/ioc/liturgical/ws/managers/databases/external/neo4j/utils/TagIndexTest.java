@@ -0,0 +1,54 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TagIndexTest {
+	private TagIndex index;
+
+	@Before
+	public void setUp() {
+		index = new TagIndex();
+		index.put("en_us_mac~n1", Arrays.asList("Root", "TextualNote"), "en_us_mac", Arrays.asList("grammar", "vocabulary"));
+		index.put("en_us_mac~n2", Arrays.asList("Root", "TextualNote"), "en_us_mac", Arrays.asList("grammar"));
+		index.put("en_us_fr~n3", Arrays.asList("Root", "TextualNote"), "en_us_fr", Arrays.asList("history"));
+	}
+
+	@Test
+	public void testTagsByLabelAndLibrary() {
+		assertEquals(Arrays.asList("grammar", "history", "vocabulary"), new ArrayList<String>(index.getTags("TextualNote")));
+		assertEquals(Arrays.asList("grammar", "vocabulary"), new ArrayList<String>(index.getTags("TextualNote", "en_us_mac")));
+		assertTrue(index.getTags("Bibliography").isEmpty());
+	}
+
+	@Test
+	public void testUpdateReplacesTags() {
+		index.put("en_us_mac~n1", Arrays.asList("Root", "TextualNote"), "en_us_mac", Arrays.asList("grammar"));
+		assertFalse(index.getTags("TextualNote", "en_us_mac").contains("vocabulary"));
+		assertTrue(index.getTags("TextualNote", "en_us_mac").contains("grammar"));
+	}
+
+	@Test
+	public void testTagRemovedWithLastNodeThatUsesIt() {
+		index.remove("en_us_mac~n1");
+		assertTrue(index.getTags("TextualNote", "en_us_mac").contains("grammar"));
+		index.remove("en_us_mac~n2");
+		assertTrue(index.getTags("TextualNote", "en_us_mac").isEmpty());
+		index.put("en_us_fr~n3", Arrays.asList("Root", "TextualNote"), "en_us_fr", Collections.<String>emptyList());
+		assertTrue(index.getTags("TextualNote").isEmpty());
+	}
+
+	@Test
+	public void testRelationshipLabel() {
+		String label = TagIndex.relationshipLabel("REFERS_TO_HUMAN", "Human");
+		index.put("link1", Arrays.asList(label), "en_us_mac", Arrays.asList("prophet"));
+		assertTrue(index.getTags(label).contains("prophet"));
+		assertTrue(index.getTags("Human").isEmpty());
+	}
+}
@@ -0,0 +1,60 @@
+package ioc.liturgical.ws.managers.databases.external.neo4j.utils;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class UiLabelBundleTest {
+
+	private static JsonObject label(String library, String topic, String key, String value) {
+		JsonObject o = new JsonObject();
+		o.addProperty("library", library);
+		o.addProperty("topic", topic);
+		o.addProperty("key", key);
+		o.addProperty("value", value);
+		return o;
+	}
+
+	private static List<JsonObject> labels(String closeValue) {
+		List<JsonObject> result = new ArrayList<JsonObject>();
+		result.add(label("en_sys_ilr", "button", "close", closeValue));
+		result.add(label("en_sys_ilr", "button", "open", "Open"));
+		result.add(label("el_sys_ilr", "button", "close", "Κλείσιμο"));
+		result.add(label("en_sys_desktop", "menu", "file", "File"));
+		return result;
+	}
+
+	@Test
+	public void testStructure() {
+		JsonObject json = new UiLabelBundle(labels("Close")).toJsonObject();
+		assertEquals("Close", json.get("ilr").getAsJsonObject()
+				.get("en").getAsJsonObject()
+				.get("button").getAsJsonObject()
+				.get("close").getAsString());
+		assertEquals("Κλείσιμο", json.get("ilr").getAsJsonObject()
+				.get("el").getAsJsonObject()
+				.get("button").getAsJsonObject()
+				.get("close").getAsString());
+		// every language is present under every system
+		assertTrue(json.get("desktop").getAsJsonObject().get("el").getAsJsonObject().entrySet().isEmpty());
+	}
+
+	@Test
+	public void testETag() {
+		UiLabelBundle a = new UiLabelBundle(labels("Close"));
+		UiLabelBundle b = new UiLabelBundle(labels("Close"));
+		UiLabelBundle c = new UiLabelBundle(labels("Shut"));
+		assertEquals(a.getETag(), b.getETag());
+		assertNotEquals(a.getETag(), c.getETag());
+		assertTrue(a.matches(b.getETag()));
+		assertTrue(a.matches("W/" + a.getETag()));
+		assertTrue(a.matches(c.getETag() + ", " + a.getETag()));
+		assertFalse(a.matches(c.getETag()));
+		assertFalse(a.matches(null));
+	}
+}
@@ -0,0 +1,76 @@
+package ioc.liturgical.ws.managers.databases.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class SchemaRegistryTest {
+
+	private static JsonObject schema(String title) {
+		JsonObject json = new JsonObject();
+		json.addProperty("title", title);
+		return json;
+	}
+
+	@Test
+	public void testKeepsItsOwnCopy() {
+		SchemaRegistry registry = new SchemaRegistry();
+		Map<String, JsonObject> schemas = new TreeMap<String, JsonObject>();
+		JsonObject original = schema("Text");
+		schemas.put("TextLiturgical:1.1", original);
+		registry.load(schemas);
+		original.addProperty("title", "changed");
+		assertEquals("Text", registry.get("TextLiturgical:1.1").get("title").getAsString());
+		JsonObject copy = registry.getCopy("TextLiturgical:1.1");
+		copy.addProperty("title", "changed");
+		assertEquals("Text", registry.get("TextLiturgical:1.1").get("title").getAsString());
+		assertNull(registry.get("Missing:1.1"));
+	}
+
+	@Test
+	public void testPreSerializedOnlyForTheRegisteredSchema() {
+		SchemaRegistry registry = new SchemaRegistry();
+		registry.put("TextLiturgical:1.1", schema("Text"));
+		JsonObject shared = registry.get("TextLiturgical:1.1");
+		assertEquals("{\"title\":\"Text\"}", registry.toJsonString("TextLiturgical:1.1", shared));
+		assertNull(registry.toJsonString("TextLiturgical:1.1", registry.getCopy("TextLiturgical:1.1")));
+		registry.put("TextLiturgical:1.1", schema("Updated"));
+		assertNull(registry.toJsonString("TextLiturgical:1.1", shared));
+		assertEquals("Updated", registry.get("TextLiturgical:1.1").get("title").getAsString());
+		registry.remove("TextLiturgical:1.1");
+		assertFalse(registry.contains("TextLiturgical:1.1"));
+	}
+
+	@Test
+	public void testUserSchemasAreRebuiltAfterInvalidate() {
+		SchemaRegistry registry = new SchemaRegistry();
+		registry.put("AuthorizationCreateForm:1.1", schema("Auth"));
+		AtomicInteger builds = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			registry.getForUser("AuthorizationCreateForm:1.1", "mac", () -> {
+				builds.incrementAndGet();
+				return schema("Auth for mac");
+			});
+		}
+		assertEquals(1, builds.get());
+		registry.getForUser("AuthorizationCreateForm:1.1", "other", () -> {
+			builds.incrementAndGet();
+			return schema("Auth for other");
+		});
+		assertEquals(2, builds.get());
+		registry.invalidateUserSchemas();
+		JsonObject rebuilt = registry.getForUser("AuthorizationCreateForm:1.1", "mac", () -> {
+			builds.incrementAndGet();
+			return schema("Auth for mac, with a new domain");
+		});
+		assertEquals(3, builds.get());
+		assertEquals("Auth for mac, with a new domain", rebuilt.get("title").getAsString());
+		assertNull(registry.getForUser("Missing:1.1", "mac", () -> schema("never built")));
+	}
+}
@@ -0,0 +1,85 @@
+package ioc.liturgical.ws.managers.databases.internal;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import org.ocmc.ioc.liturgical.schemas.models.ws.db.UserStatistics;
+
+public class UserStatisticsAccumulatorTest {
+
+	@Test
+	public void testFailedWriteIsRetried() {
+		AtomicInteger attempts = new AtomicInteger();
+		UserStatisticsAccumulator accumulator = new UserStatisticsAccumulator(
+				username -> new UserStatistics()
+				, (username, stats) -> attempts.incrementAndGet() > 1 // the first write fails
+				, 3600
+				);
+		accumulator.recordAccess("jdoe", true, System.nanoTime());
+		accumulator.flush();
+		assertEquals(1, accumulator.getDirtyCount());
+		accumulator.flush();
+		assertEquals(0, accumulator.getDirtyCount());
+		assertEquals(2, attempts.get());
+		accumulator.shutdown();
+	}
+
+	@Test
+	public void testWriterExceptionIsRetried() {
+		AtomicInteger attempts = new AtomicInteger();
+		UserStatisticsAccumulator accumulator = new UserStatisticsAccumulator(
+				username -> new UserStatistics()
+				, (username, stats) -> {
+					if (attempts.incrementAndGet() == 1) {
+						throw new IllegalStateException("expected by the test");
+					}
+					return true;
+				}
+				, 3600
+				);
+		accumulator.recordAccess("jdoe", false, System.nanoTime());
+		accumulator.flush();
+		assertEquals(1, accumulator.getDirtyCount());
+		accumulator.flush();
+		assertEquals(0, accumulator.getDirtyCount());
+		accumulator.shutdown();
+	}
+
+	@Test
+	public void testFailedReadIsNotCachedOrWritten() {
+		AtomicInteger reads = new AtomicInteger();
+		AtomicInteger writes = new AtomicInteger();
+		UserStatistics stored = new UserStatistics();
+		stored.setAccessCount(41);
+		UserStatisticsAccumulator accumulator = new UserStatisticsAccumulator(
+				username -> {
+					if (reads.incrementAndGet() == 1) {
+						throw new IllegalStateException("expected by the test");
+					}
+					return stored;
+				}
+				, (username, stats) -> {
+					writes.incrementAndGet();
+					assertEquals(42, stats.getAccessCount());
+					return true;
+				}
+				, 3600
+				);
+		try {
+			accumulator.recordAccess("jdoe", true, System.nanoTime());
+			fail("the stored statistics could not be read");
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(0, accumulator.getDirtyCount());
+		accumulator.flush();
+		assertEquals(0, writes.get());
+		accumulator.recordAccess("jdoe", true, System.nanoTime());
+		accumulator.flush();
+		assertEquals(2, reads.get());
+		assertEquals(1, writes.get());
+		accumulator.shutdown();
+	}
+}
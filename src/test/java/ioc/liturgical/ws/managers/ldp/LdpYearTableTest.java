@@ -0,0 +1,85 @@
+package ioc.liturgical.ws.managers.ldp;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+
+import org.junit.Test;
+import org.ocmc.ioc.liturgical.schemas.models.db.internal.LTKVJsonObject;
+import org.ocmc.ioc.liturgical.schemas.models.ws.response.LiturgicalDayPropertiesForm;
+import org.ocmc.ioc.liturgical.utils.LITURGICAL_CALENDAR_TYPE;
+import org.ocmc.ioc.liturgical.utils.LiturgicalDayProperties;
+
+import com.google.gson.JsonObject;
+
+public class LdpYearTableTest {
+
+	/**
+	 * @return the record built for the date the way LdpManager did before it used tables
+	 */
+	private static JsonObject direct(LocalDate date, LITURGICAL_CALENDAR_TYPE type) throws Exception {
+		LiturgicalDayProperties theDay = new LiturgicalDayProperties(LdpYearTable.toIsoDate(date), type);
+		assertTrue(date.toString(), theDay.getIsoDateValid());
+		LiturgicalDayPropertiesForm form = new LiturgicalDayPropertiesForm(theDay);
+		return new LTKVJsonObject(
+				"ldp"
+				, "ldp"
+				, "ldp"
+				, form.schemaIdAsString()
+				, form.toJsonObject()
+				).toJsonObject();
+	}
+
+	private static void assertSameAsDirect(LdpYearTable table, LocalDate date) throws Exception {
+		JsonObject expected = direct(date, table.getCalendarType());
+		JsonObject actual = table.get(date);
+		assertNotNull(date.toString(), actual);
+		assertEquals(date.toString(), expected.get("value"), actual.get("value"));
+	}
+
+	@Test
+	public void testSameAsDirectForPaschaFeastsAndYearBoundaries() throws Exception {
+		for (LITURGICAL_CALENDAR_TYPE type : new LITURGICAL_CALENDAR_TYPE[] {
+				LITURGICAL_CALENDAR_TYPE.GREGORIAN
+				, LITURGICAL_CALENDAR_TYPE.JULIAN
+				}) {
+			LdpYearTable table = new LdpYearTable(2018, type);
+			assertSameAsDirect(table, LocalDate.of(2018, 1, 1)); // first day of the year
+			assertSameAsDirect(table, LocalDate.of(2018, 4, 8)); // Pascha
+			assertSameAsDirect(table, LocalDate.of(2018, 5, 27)); // Pentecost, a moveable feast
+			assertSameAsDirect(table, LocalDate.of(2018, 12, 31)); // last day of the year
+		}
+		LdpYearTable leapYear = new LdpYearTable(2016, LITURGICAL_CALENDAR_TYPE.GREGORIAN);
+		assertSameAsDirect(leapYear, LocalDate.of(2016, 2, 29));
+		assertSameAsDirect(leapYear, LocalDate.of(2016, 12, 31));
+	}
+
+	@Test
+	public void testEveryDayOfLeapYear() {
+		LdpYearTable table = new LdpYearTable(2016, LITURGICAL_CALENDAR_TYPE.GREGORIAN);
+		for (LocalDate date = LocalDate.of(2016, 1, 1); date.getYear() == 2016; date = date.plusDays(1)) {
+			assertNotNull(date.toString(), table.get(date));
+		}
+	}
+
+	@Test
+	public void testCopiesAreIndependent() {
+		LdpYearTable table = new LdpYearTable(2017, LITURGICAL_CALENDAR_TYPE.JULIAN);
+		LocalDate date = LocalDate.of(2017, 4, 16);
+		table.get(date).addProperty("changed", true);
+		assertFalse(table.get(date).has("changed"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongYear() {
+		new LdpYearTable(2018, LITURGICAL_CALENDAR_TYPE.GREGORIAN).get(LocalDate.of(2019, 1, 1));
+	}
+
+	@Test
+	public void testManagerCachesYears() {
+		LdpManager manager = new LdpManager(null);
+		LdpYearTable table = manager.getYearTable(2016, LITURGICAL_CALENDAR_TYPE.GREGORIAN);
+		assertSame(table, manager.getYearTable(2016, LITURGICAL_CALENDAR_TYPE.GREGORIAN));
+		assertNotSame(table, manager.getYearTable(2016, LITURGICAL_CALENDAR_TYPE.JULIAN));
+	}
+}
@@ -0,0 +1,139 @@
+package net.ages.alwb.loaders;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import net.ages.alwb.gateway.library.ares.LibraryProxyManager;
+
+public class AresBatchLoaderTest {
+	private File folder;
+
+	/**
+	 * Records the batches instead of writing them to Neo4j
+	 */
+	private static class RecordingWriter implements AresBatchLoader.BatchWriter {
+		private final List<List<Map<String, Object>>> nodeBatches = new ArrayList<List<Map<String, Object>>>();
+		private final List<List<Map<String, Object>>> redirectBatches = new ArrayList<List<Map<String, Object>>>();
+
+		@Override
+		public void ensureIdConstraints(List<String> labels) {
+		}
+
+		@Override
+		public void write(String query, List<Map<String, Object>> batch) {
+			// the loader reuses its list, so keep a copy
+			if (query.contains("VALUE_FROM")) {
+				redirectBatches.add(new ArrayList<Map<String, Object>>(batch));
+			} else {
+				assertTrue(query.startsWith("unwind {batch} as props merge (n:"));
+				nodeBatches.add(new ArrayList<Map<String, Object>>(batch));
+			}
+		}
+
+		private Set<String> nodeIds() {
+			Set<String> result = new TreeSet<String>();
+			for (List<Map<String, Object>> batch : nodeBatches) {
+				for (Map<String, Object> props : batch) {
+					assertTrue("each node is written once", result.add((String) props.get("id")));
+				}
+			}
+			return result;
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("ares").toFile();
+		File dir = new File(folder, "gr_GR_cog");
+		dir.mkdirs();
+		write(new File(dir, "actors_gr_GR_cog.ares")
+				, "A_Resource_Whose_Name = actors_gr_GR_cog"
+				, ""
+				, "// the actors"
+				, "Priest = \"Ἱερεύς\""
+				, "Deacon = \"Διάκονος\" // a comment"
+				, "People = \"Λαός\""
+				, "Choir = \"Χορός\""
+				, "Reader = \"Ἀναγνώστης\""
+				, "Bishop = actors_gr_GR_cog.Priest"
+				);
+		write(new File(dir, "prayers_gr_GR_cog.ares")
+				, "A_Resource_Whose_Name = prayers_gr_GR_cog"
+				, "Amen = \"Ἀμήν\""
+				, "Empty = \"\""
+				, "Glory = \"Δόξα\""
+				);
+	}
+
+	private static void write(File file, String... lines) throws IOException {
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+	}
+
+	private AresBatchLoader newLoader() {
+		LibraryProxyManager manager = new LibraryProxyManager(folder.getPath());
+		manager.loadLibraryFiles(Arrays.asList("actors", "prayers"), "gr_GR_cog");
+		AresBatchLoader loader = new AresBatchLoader(manager);
+		loader.setThreads(2);
+		loader.setBatchSize(2);
+		loader.setQueueCapacity(1);
+		return loader;
+	}
+
+	@Test
+	public void testParsesLinesAndSplitsBatches() throws Exception {
+		AresBatchLoader loader = newLoader();
+		RecordingWriter writer = new RecordingWriter();
+		loader.load(writer);
+
+		Set<String> ids = writer.nodeIds();
+		assertEquals(9, ids.size());
+		assertTrue(ids.contains("gr_gr_cog~actors~Priest"));
+		assertTrue(ids.contains("gr_gr_cog~actors~Bishop"));
+		assertTrue(ids.contains("gr_gr_cog~prayers~Empty"));
+		assertFalse(ids.contains("gr_gr_cog~actors~A_Resource_Whose_Name"));
+		assertEquals(9, loader.getNodesWritten());
+
+		// 9 nodes, 2 per batch
+		assertEquals(5, writer.nodeBatches.size());
+		for (List<Map<String, Object>> batch : writer.nodeBatches) {
+			assertTrue(batch.size() > 0 && batch.size() <= 2);
+		}
+
+		assertEquals(1, writer.redirectBatches.size());
+		Map<String, Object> redirect = writer.redirectBatches.get(0).get(0);
+		assertEquals("gr_gr_cog~actors~Bishop", redirect.get("from"));
+		assertEquals("gr_gr_cog~actors~Priest", redirect.get("to"));
+		assertEquals(1, loader.getRelationshipsWritten());
+	}
+
+	@Test
+	public void testCheckpointSkipsLoadedFiles() throws Exception {
+		File checkpoint = new File(folder, "checkpoint.txt");
+		AresBatchLoader loader = newLoader();
+		loader.setCheckpoint(checkpoint.toPath());
+		loader.load(new RecordingWriter());
+		List<String> lines = Files.readAllLines(checkpoint.toPath(), StandardCharsets.UTF_8);
+		assertTrue(lines.contains("actors_gr_GR_cog"));
+		assertTrue(lines.contains("prayers_gr_GR_cog"));
+
+		AresBatchLoader again = newLoader();
+		again.setCheckpoint(checkpoint.toPath());
+		RecordingWriter writer = new RecordingWriter();
+		again.load(writer);
+		assertEquals(0, writer.nodeBatches.size());
+		assertEquals(0, writer.redirectBatches.size());
+	}
+}
@@ -0,0 +1,41 @@
+package net.ages.alwb.tasks;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class AdaptiveThrottleTest {
+
+	@Test
+	public void testGrowsWhenFast() {
+		AdaptiveThrottle throttle = new AdaptiveThrottle(1, 100, 1000, 10000);
+		for (int i = 0; i < 20; i++) {
+			throttle.record(throttle.getBatchSize(), 10);
+		}
+		assertEquals(100, throttle.getBatchSize());
+		assertEquals(0, throttle.getPauseMillis());
+	}
+
+	@Test
+	public void testBacksOffWhenSlow() {
+		AdaptiveThrottle throttle = new AdaptiveThrottle(1, 100, 1000, 10000);
+		for (int i = 0; i < 20; i++) {
+			throttle.record(throttle.getBatchSize(), 10);
+		}
+		throttle.record(100, 5000);
+		assertEquals(50, throttle.getBatchSize());
+		assertTrue(throttle.getPauseMillis() > 0);
+		for (int i = 0; i < 20; i++) {
+			throttle.record(throttle.getBatchSize(), 5000);
+		}
+		assertEquals(1, throttle.getBatchSize());
+		assertEquals(10000, throttle.getPauseMillis());
+	}
+
+	@Test
+	public void testPartialBatchDoesNotGrow() {
+		AdaptiveThrottle throttle = new AdaptiveThrottle(10, 100, 1000, 10000);
+		throttle.record(3, 10);
+		assertEquals(10, throttle.getBatchSize());
+	}
+}
@@ -0,0 +1,63 @@
+package net.ages.alwb.tasks;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+import net.ages.alwb.tasks.BackgroundTasks.POOL;
+
+public class BackgroundTasksTest {
+
+	private static JsonObject statsFor(BackgroundTasks tasks, String name) {
+		return tasks.toJsonObject().get("tasks").getAsJsonObject().get(name).getAsJsonObject();
+	}
+
+	@Test
+	public void testPendingRefreshIsNotQueuedTwice() throws Exception {
+		BackgroundTasks tasks = new BackgroundTasks();
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(2);
+		AtomicInteger refreshes = new AtomicInteger();
+		// the dropdowns pool has one thread, so this keeps the refreshes waiting
+		tasks.submit(POOL.DROPDOWNS, "blocker", () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+			done.countDown();
+		});
+		for (int i = 0; i < 3; i++) {
+			assertTrue(tasks.submitIfNotPending(POOL.DROPDOWNS, "refresh", "refresh", () -> {
+				refreshes.incrementAndGet();
+				done.countDown();
+			}));
+		}
+		release.countDown();
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		tasks.shutdown();
+		assertEquals(1, refreshes.get());
+		assertEquals(2, statsFor(tasks, "refresh").get("deduplicated").getAsLong());
+	}
+
+	@Test
+	public void testCounts() throws Exception {
+		BackgroundTasks tasks = new BackgroundTasks();
+		tasks.submit(POOL.NLP, "task", () -> {});
+		tasks.submit(POOL.NLP, "task", () -> {
+			throw new IllegalStateException("expected by the test");
+		});
+		tasks.shutdown();
+		assertTrue(tasks.awaitTermination(5000));
+		JsonObject stats = statsFor(tasks, "task");
+		assertEquals(1, stats.get("completed").getAsLong());
+		assertEquals(1, stats.get("failed").getAsLong());
+		assertEquals(0, stats.get("queued").getAsLong());
+		assertEquals(0, stats.get("running").getAsLong());
+	}
+}
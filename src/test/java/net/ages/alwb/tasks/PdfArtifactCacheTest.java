@@ -0,0 +1,88 @@
+package net.ages.alwb.tasks;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PdfArtifactCacheTest {
+	private File folder;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("pdf").toFile();
+	}
+
+	private void write(String name, int size, long lastModified) throws IOException {
+		File file = new File(folder, name);
+		Files.write(file.toPath(), new byte[size]);
+		file.setLastModified(lastModified);
+	}
+
+	@Test
+	public void testKeyDependsOnEveryInput() {
+		Map<String,String> values = new TreeMap<String,String>();
+		values.put("gr_gr_cog~me.m01.d06~meVE.Ode1", "Χριστός");
+		String key = PdfArtifactCache.toKey(Arrays.asList("url", "gr_gr_cog", "en_us_dedes"), values);
+		assertTrue(key.startsWith(PdfArtifactCache.PREFIX));
+		assertEquals(key, PdfArtifactCache.toKey(Arrays.asList("url", "gr_gr_cog", "en_us_dedes"), new TreeMap<String,String>(values)));
+		assertNotEquals(key, PdfArtifactCache.toKey(Arrays.asList("url", "gr_gr_cog", "en_us_goa"), values));
+		assertNotEquals(key, PdfArtifactCache.toKey(Arrays.asList("url", "gr_gr_co", "gen_us_dedes"), values));
+		values.put("gr_gr_cog~me.m01.d06~meVE.Ode1", "Χριστὸς");
+		assertNotEquals(key, PdfArtifactCache.toKey(Arrays.asList("url", "gr_gr_cog", "en_us_dedes"), values));
+	}
+
+	@Test
+	public void testExistsMarksAsRecentlyUsed() throws IOException {
+		write("svc-a.pdf", 10, 1000);
+		PdfArtifactCache cache = new PdfArtifactCache(folder, 1000);
+		cache.markComplete("svc-a");
+		assertTrue(cache.exists("svc-a"));
+		assertFalse(cache.exists("svc-b"));
+		assertTrue(new File(folder, "svc-a.pdf").lastModified() > 1000);
+	}
+
+	@Test
+	public void testPdfWithoutMarkerIsNotGenerated() throws IOException {
+		write("svc-partial.pdf", 10, 1000); // e.g. left by a run that failed
+		PdfArtifactCache cache = new PdfArtifactCache(folder, 1000);
+		assertFalse(cache.exists("svc-partial"));
+		assertFalse(cache.isComplete("svc-partial"));
+		cache.markComplete("svc-partial");
+		assertTrue(cache.exists("svc-partial"));
+		new File(folder, "svc-partial.pdf").delete();
+		assertFalse(cache.exists("svc-partial"));
+		assertEquals(2, cache.toJsonObject().get("misses").getAsLong());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedKeysAreDeleted() throws IOException {
+		write("svc-old.tex", 40, 1000);
+		write("svc-old.pdf", 40, 1000);
+		write("svc-new.tex", 40, 3000);
+		write("svc-new.pdf", 40, 3000);
+		write("svc-old.complete", 0, 1000);
+		write("mac002-2018.pdf", 500, 500); // not generated for a service, so not managed by the cache
+		new PdfArtifactCache(folder, 100).enforceQuota();
+		assertFalse(new File(folder, "svc-old.tex").exists());
+		assertFalse(new File(folder, "svc-old.pdf").exists());
+		assertFalse(new File(folder, "svc-old.complete").exists());
+		assertTrue(new File(folder, "svc-new.pdf").exists());
+		assertTrue(new File(folder, "mac002-2018.pdf").exists());
+	}
+
+	@Test
+	public void testNothingDeletedWithinQuota() throws IOException {
+		write("svc-a.pdf", 40, 1000);
+		write("svc-b.pdf", 40, 2000);
+		new PdfArtifactCache(folder, 100).enforceQuota();
+		assertEquals(2, folder.list().length);
+	}
+}
@@ -0,0 +1,104 @@
+package net.ages.alwb.tasks;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+public class PdfJobServiceTest {
+
+	private static boolean awaitFinished(PdfJobService.Job job, long timeoutMillis) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		while (! job.isFinished() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		return job.isFinished();
+	}
+
+	@Test
+	public void testJobLifecycle() throws Exception {
+		PdfJobService service = new PdfJobService(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch started = new CountDownLatch(1);
+		PdfJobService.Job job = service.submit("a", "test", () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		}, () -> true);
+		started.await();
+		assertEquals(PdfJobService.STATUS.RUNNING, service.getJob("a").getStatus());
+		release.countDown();
+		assertTrue(awaitFinished(job, 5000));
+		assertEquals(PdfJobService.STATUS.DONE, service.getJob("a").getStatus());
+		assertEquals("done", job.toJsonObject().get("status").getAsString());
+		service.shutdown();
+	}
+
+	@Test
+	public void testFailedWhenNoOutput() throws Exception {
+		PdfJobService service = new PdfJobService(1, 1);
+		PdfJobService.Job job = service.submit("b", "test", () -> {}, () -> false);
+		assertTrue(awaitFinished(job, 5000));
+		assertEquals(PdfJobService.STATUS.FAILED, job.getStatus());
+		service.shutdown();
+	}
+
+	@Test
+	public void testQueueFull() throws Exception {
+		PdfJobService service = new PdfJobService(1, 1);
+		CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = () -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		};
+		service.submit("running", "test", blocked, null);
+		PdfJobService.Job queued = service.submit("queued", "test", blocked, null);
+		assertEquals(PdfJobService.STATUS.QUEUED, queued.getStatus());
+		try {
+			service.submit("rejected", "test", blocked, null);
+			fail("the queue should be full");
+		} catch (RejectedExecutionException e) {
+			assertNull(service.getJob("rejected"));
+		}
+		release.countDown();
+		assertTrue(awaitFinished(queued, 5000));
+		assertEquals(1, service.toJsonObject().get("rejected").getAsLong());
+		service.shutdown();
+	}
+
+	@Test
+	public void testIdInUseIsRefused() throws Exception {
+		PdfJobService service = new PdfJobService(1, 2);
+		PdfJobService.Job first = service.submit("same", "test", () -> {}, null);
+		try {
+			service.submit("same", "test", () -> {}, null);
+			fail("the id is in use");
+		} catch (IllegalStateException e) {
+			assertSame(first, service.getJob("same"));
+		}
+		assertTrue(awaitFinished(first, 5000));
+		// a finished job can be replaced by submitIfAbsent
+		PdfJobService.Job again = service.submitIfAbsent("same", "test", () -> {}, null);
+		assertNotSame(first, again);
+		assertTrue(awaitFinished(again, 5000));
+		service.shutdown();
+	}
+
+	@Test
+	public void testRejectedJobReportsFailure() throws Exception {
+		PdfJobService service = new PdfJobService(1, 1);
+		PdfJobService.Job job = service.recordRejected("full", "test");
+		assertEquals(PdfJobService.STATUS.FAILED, service.getJob("full").getStatus());
+		assertTrue(job.toJsonObject().get("message").getAsString().contains("queue is full"));
+		PdfJobService.Job retried = service.submitIfAbsent("full", "test", () -> {}, null);
+		assertTrue(awaitFinished(retried, 5000));
+		assertEquals(PdfJobService.STATUS.DONE, service.getJob("full").getStatus());
+		service.shutdown();
+	}
+}
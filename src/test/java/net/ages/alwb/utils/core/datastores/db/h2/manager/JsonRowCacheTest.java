@@ -0,0 +1,76 @@
+package net.ages.alwb.utils.core.datastores.db.h2.manager;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import com.google.gson.JsonObject;
+
+public class JsonRowCacheTest {
+
+	private static JsonRowCache loadedCache() {
+		Map<String, String> table = new TreeMap<String, String>();
+		table.put("_users|admin", "{\"_id\":\"_users|admin\",\"name\":\"admin\"}");
+		table.put("_users|mac", "{\"_id\":\"_users|mac\",\"name\":\"mac\"}");
+		table.put("_users_x|mac", "{\"_id\":\"_users_x|mac\",\"name\":\"other\"}");
+		table.put("_domains|gr_gr_cog", "{\"_id\":\"_domains|gr_gr_cog\",\"tags\":[\"a\"]}");
+		JsonRowCache cache = new JsonRowCache();
+		cache.load(table);
+		return cache;
+	}
+
+	@Test
+	public void testStartsWithAndEndsWith() {
+		JsonRowCache cache = loadedCache();
+		List<JsonObject> users = cache.getWhereLike("_users|%");
+		// an unescaped _ matches any character, as in H2, but | must be there
+		assertEquals(2, users.size());
+		assertEquals("_users|admin", users.get(0).get("_id").getAsString());
+		List<JsonObject> macs = cache.getWhereLike("%|mac");
+		assertEquals(2, macs.size());
+		assertEquals("_users_x|mac", macs.get(1).get("_id").getAsString());
+		assertEquals(1, cache.getWhereLike("\\_domains|%").size());
+		assertEquals(4, cache.getWhereLike("%_%").size());
+		assertEquals(0, cache.getWhereLike("%|nobody").size());
+	}
+
+	@Test
+	public void testWriteThrough() {
+		JsonRowCache cache = loadedCache();
+		cache.put("_users|new", "{\"_id\":\"_users|new\"}");
+		assertEquals(3, cache.getWhereLike("_users|%").size());
+		cache.remove("_users|admin");
+		assertNull(cache.get("_users|admin"));
+		assertEquals(2, cache.getWhereLike("_users|%").size());
+		assertEquals(1, cache.getWhereLike("%|new").size());
+		cache.invalidate();
+		assertFalse(cache.isLoaded());
+	}
+
+	@Test
+	public void testReturnsCopies() {
+		JsonRowCache cache = loadedCache();
+		JsonObject domain = cache.get("_domains|gr_gr_cog");
+		domain.addProperty("changed", true);
+		domain.get("tags").getAsJsonArray().add("b");
+		JsonObject again = cache.get("_domains|gr_gr_cog");
+		assertFalse(again.has("changed"));
+		assertEquals(1, again.get("tags").getAsJsonArray().size());
+	}
+
+	@Test
+	public void testHitsAndMissesAreCountedApart() {
+		JsonRowCache cache = loadedCache();
+		assertNotNull(cache.get("_users|admin"));
+		assertNull(cache.get("_users|nobody"));
+		assertEquals(0, cache.getWhereLike("%|nobody").size());
+		assertEquals(2, cache.getWhereLike("_users|%").size());
+		JsonObject stats = cache.toJsonObject();
+		assertEquals(2, stats.get("hits").getAsLong());
+		assertEquals(2, stats.get("misses").getAsLong());
+	}
+}
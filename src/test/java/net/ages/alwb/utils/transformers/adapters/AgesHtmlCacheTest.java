@@ -0,0 +1,193 @@
+package net.ages.alwb.utils.transformers.adapters;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.jsoup.nodes.Document;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Uses a stand-in for the AGES web server, which counts the downloads.
+ */
+public class AgesHtmlCacheTest {
+	private static final String URL = "https://www.agesinitiatives.com/dcs/public/dcs/h/s/2018/01/06/li/gr-en/index.html";
+
+	private Path directory;
+	private AtomicInteger downloads;
+	private AtomicInteger conditional;
+	private volatile String timestamp;
+	private volatile boolean serverUp;
+
+	private AgesHtmlCache.Fetcher server = (url, eTag, lastModified) -> {
+		if (! serverUp) {
+			throw new IOException("server down");
+		}
+		if (eTag != null) {
+			conditional.incrementAndGet();
+			if (eTag.equals("\"" + timestamp + "\"")) {
+				return new AgesHtmlCache.FetchResult(true, null, eTag, lastModified);
+			}
+		}
+		downloads.incrementAndGet();
+		return new AgesHtmlCache.FetchResult(
+				false
+				, "<html><head><title data-timestamp=\"" + timestamp + "\">li</title></head>"
+					+ "<body><div class=\"content\"><p>before</p><table id=\"biTable\"><tr><td>text</td></tr></table></div></body></html>"
+				, "\"" + timestamp + "\""
+				, null
+				);
+	};
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("ages_html");
+		downloads = new AtomicInteger();
+		conditional = new AtomicInteger();
+		timestamp = "2018-01-01";
+		serverUp = true;
+	}
+
+	private AgesHtmlCache newCache(long maxAgeMillis) {
+		return new AgesHtmlCache(directory, 10, maxAgeMillis, Long.MAX_VALUE, AgesHtmlToLDOM::preClean, server);
+	}
+
+	@Test
+	public void testFreshPageIsNotDownloadedAgain() throws Exception {
+		AgesHtmlCache cache = newCache(60000);
+		Document first = cache.get(URL);
+		Document second = cache.get(URL);
+		assertEquals(1, downloads.get());
+		assertEquals("2018-01-01", AgesHtmlCache.getTimestamp(second));
+		// the cleaner ran before caching
+		assertEquals(0, second.select("div.content p").size());
+		// each caller gets its own copy
+		first.select("table").remove();
+		assertEquals(1, cache.get(URL).select("#biTable").size());
+	}
+
+	@Test
+	public void testStalePageIsRevalidated() throws Exception {
+		AgesHtmlCache cache = newCache(0);
+		cache.get(URL);
+		cache.get(URL);
+		assertEquals(1, downloads.get());
+		assertEquals(1, conditional.get());
+		timestamp = "2018-02-01";
+		assertEquals("2018-02-01", AgesHtmlCache.getTimestamp(cache.get(URL)));
+		assertEquals(2, downloads.get());
+	}
+
+	@Test
+	public void testDiskCopySurvivesRestart() throws Exception {
+		newCache(60000).get(URL);
+		Document doc = newCache(60000).get(URL);
+		assertEquals(1, downloads.get());
+		assertEquals("2018-01-01", AgesHtmlCache.getTimestamp(doc));
+	}
+
+	@Test
+	public void testOldCopyUsedWhenServerIsDown() throws Exception {
+		AgesHtmlCache cache = newCache(0);
+		cache.get(URL);
+		serverUp = false;
+		assertEquals("2018-01-01", AgesHtmlCache.getTimestamp(cache.get(URL)));
+	}
+
+	@Test(expected = IOException.class)
+	public void testNoCopyAndServerDown() throws Exception {
+		serverUp = false;
+		newCache(60000).get(URL);
+	}
+
+	@Test
+	public void testConcurrentRequestsShareOneDownload() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger slowDownloads = new AtomicInteger();
+		AgesHtmlCache cache = new AgesHtmlCache(directory, 10, 60000, Long.MAX_VALUE, null, (url, eTag, lastModified) -> {
+			slowDownloads.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			return server.fetch(url, eTag, lastModified);
+		});
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Future<?>[] futures = new Future<?>[4];
+			for (int i = 0; i < futures.length; i++) {
+				futures[i] = executor.submit(() -> cache.get(URL));
+			}
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<?> future : futures) {
+				assertNotNull(future.get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+		assertEquals(1, slowDownloads.get());
+	}
+
+	@Test
+	public void testErrorIsRethrownToWaitingThreads() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AgesHtmlCache cache = new AgesHtmlCache(directory, 10, 60000, Long.MAX_VALUE, null, (url, eTag, lastModified) -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			}
+			throw new StackOverflowError("expected by the test");
+		});
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> first = executor.submit(() -> cache.get(URL));
+			Future<?> second = executor.submit(() -> cache.get(URL));
+			Thread.sleep(200);
+			release.countDown();
+			for (Future<?> future : new Future<?>[] {first, second}) {
+				try {
+					future.get(10, TimeUnit.SECONDS);
+					fail("the error should be thrown");
+				} catch (ExecutionException e) {
+					assertTrue(e.getCause() instanceof StackOverflowError);
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testDiskQuotaDeletesLeastRecentlyUsedPages() throws Exception {
+		String other = URL.replace("gr-en", "gr");
+		newCache(60000).get(URL);
+		long onePage = 0;
+		for (File file : directory.toFile().listFiles()) {
+			onePage += file.length();
+			file.setLastModified(System.currentTimeMillis() - 60000);
+		}
+		new AgesHtmlCache(directory, 10, 60000, onePage * 3 / 2, null, server).get(other);
+		assertEquals(2, downloads.get());
+		assertEquals(1, directory.toFile().listFiles((dir, name) -> name.endsWith(".html")).length);
+		// the page used less recently was deleted from disk
+		AgesHtmlCache restarted = newCache(60000);
+		restarted.get(other);
+		assertEquals(2, downloads.get());
+		restarted.get(URL);
+		assertEquals(3, downloads.get());
+	}
+}